@@ -0,0 +1,122 @@
+package org.matsim.contrib.opdyts.benchmarks;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.opdyts.macrostate.CountingStateAnalyzer;
+import org.matsim.contrib.opdyts.macrostate.DifferentiatedLinkOccupancyAnalyzer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import floetteroed.utilities.TimeDiscretization;
+import floetteroed.utilities.math.Vector;
+
+/**
+ * Macro-state hot paths that run inside every MATSim iteration: event
+ * handling of DifferentiatedLinkOccupancyAnalyzer (one full synthetic day per
+ * invocation, divide the score by the event count for per-event cost) and
+ * CountingStateAnalyzer.finalizeAndLock.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MacroStateBenchmark {
+
+	// -------------------- PARAMETERS --------------------
+
+	@Param({ "1000", "10000" })
+	public int linkCnt;
+
+	@Param({ "10000", "100000" })
+	public int vehicleCnt;
+
+	@Param({ "10" })
+	public int maxLinksPerTrip;
+
+	// -------------------- MEMBERS --------------------
+
+	private final TimeDiscretization timeDiscretization = new TimeDiscretization(0, 3600, 24);
+
+	private List<Id<Link>> links;
+
+	private Event[] events;
+
+	private DifferentiatedLinkOccupancyAnalyzer occupancyAnalyzer;
+
+	private CountingStateAnalyzer<Id<Link>> countingAnalyzer;
+
+	// -------------------- SETUP --------------------
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.links = SyntheticScenario.newLinkIds(this.linkCnt);
+		this.events = SyntheticScenario.newEvents(this.links, this.vehicleCnt, this.maxLinksPerTrip,
+				this.timeDiscretization.getBinEndTime_s(this.timeDiscretization.getBinCnt() - 1), 4711).toArray(new Event[0]);
+		this.occupancyAnalyzer = new DifferentiatedLinkOccupancyAnalyzer(this.timeDiscretization,
+				Collections.singleton(SyntheticScenario.MODE), new LinkedHashSet<>(this.links));
+		this.countingAnalyzer = new CountingStateAnalyzer<>(this.timeDiscretization);
+	}
+
+	// finalizeAndLock() is only done once per data set, so re-fill before every call
+	@Setup(Level.Invocation)
+	public void fillCountingAnalyzer() {
+		this.countingAnalyzer.reset();
+		for (Event event : this.events) {
+			if (event instanceof LinkEnterEvent) {
+				this.countingAnalyzer.registerIncrease(((LinkEnterEvent) event).getLinkId(), (int) event.getTime());
+			} else if (event instanceof LinkLeaveEvent) {
+				this.countingAnalyzer.registerDecrease(((LinkLeaveEvent) event).getLinkId(), (int) event.getTime());
+			}
+		}
+	}
+
+	// -------------------- BENCHMARKS --------------------
+
+	@Benchmark
+	public Vector handleEventsOfOneDay() {
+		this.occupancyAnalyzer.clear();
+		for (Event event : this.events) {
+			if (event instanceof LinkEnterEvent) {
+				this.occupancyAnalyzer.handleEvent((LinkEnterEvent) event);
+			} else if (event instanceof LinkLeaveEvent) {
+				this.occupancyAnalyzer.handleEvent((LinkLeaveEvent) event);
+			} else if (event instanceof VehicleEntersTrafficEvent) {
+				this.occupancyAnalyzer.handleEvent((VehicleEntersTrafficEvent) event);
+			} else if (event instanceof VehicleLeavesTrafficEvent) {
+				this.occupancyAnalyzer.handleEvent((VehicleLeavesTrafficEvent) event);
+			}
+		}
+		return this.occupancyAnalyzer.newStateVectorRepresentation();
+	}
+
+	@Benchmark
+	public CountingStateAnalyzer<Id<Link>> finalizeAndLock() {
+		this.countingAnalyzer.finalizeAndLock();
+		return this.countingAnalyzer;
+	}
+}
@@ -0,0 +1,109 @@
+package org.matsim.contrib.opdyts.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.contrib.opdyts.OpdytsConfigGroup.MicroStateSnapshotMode;
+import org.matsim.contrib.opdyts.macrostate.SparseStateVector;
+import org.matsim.contrib.opdyts.microstate.CompactPlanEncoder;
+import org.matsim.contrib.opdyts.microstate.CompactPopulationSnapshot;
+import org.matsim.contrib.opdyts.microstate.DeepCopyPopulationSnapshot;
+import org.matsim.contrib.opdyts.microstate.DeltaPopulationSnapshotSequence;
+import org.matsim.contrib.opdyts.microstate.MATSimState;
+import org.matsim.contrib.opdyts.microstate.PopulationSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import floetteroed.utilities.math.Vector;
+
+/**
+ * Capturing a MATSimState (taking a snapshot of all plans) and restoring it
+ * (writing the plans back into the population), for the file-free micro-state
+ * snapshot modes. The population does not change between captures, which is
+ * the best case for the delta mode.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class MicroStateBenchmark {
+
+	// -------------------- PARAMETERS --------------------
+
+	@Param({ "deepCopy", "compact", "delta" })
+	public MicroStateSnapshotMode snapshotMode;
+
+	@Param({ "10000", "100000" })
+	public int personCnt;
+
+	@Param({ "5" })
+	public int plansPerPerson;
+
+	@Param({ "1" })
+	public int threadCnt;
+
+	// -------------------- MEMBERS --------------------
+
+	private Population population;
+
+	private SparseStateVector stateVector;
+
+	private CompactPlanEncoder encoder;
+
+	private DeltaPopulationSnapshotSequence deltaSequence;
+
+	private MATSimState capturedState;
+
+	// -------------------- SETUP --------------------
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.population = SyntheticScenario.newPopulation(SyntheticScenario.newLinkIds(1000), this.personCnt,
+				this.plansPerPerson, 10, 4711);
+		this.stateVector = SparseStateVector.fromDense(new Vector(1000));
+		this.encoder = new CompactPlanEncoder();
+		this.deltaSequence = new DeltaPopulationSnapshotSequence(this.encoder, 10,
+				DeltaPopulationSnapshotSequence.DEFAULT_MAXCHANGEDPERSONSHARE, this.threadCnt);
+		this.capturedState = this.capture();
+	}
+
+	private PopulationSnapshot newSnapshot() {
+		if (MicroStateSnapshotMode.deepCopy.equals(this.snapshotMode)) {
+			return new DeepCopyPopulationSnapshot(this.population, this.threadCnt);
+		} else if (MicroStateSnapshotMode.compact.equals(this.snapshotMode)) {
+			return new CompactPopulationSnapshot(this.population, this.encoder, this.threadCnt);
+		} else if (MicroStateSnapshotMode.delta.equals(this.snapshotMode)) {
+			return this.deltaSequence.newSnapshot(this.population);
+		} else {
+			throw new RuntimeException("Unsupported micro-state snapshot mode: " + this.snapshotMode);
+		}
+	}
+
+	// -------------------- BENCHMARKS --------------------
+
+	@Benchmark
+	public MATSimState capture() {
+		return new MATSimState(this.population, this.stateVector, this.newSnapshot());
+	}
+
+	@Benchmark
+	public Population restore() {
+		this.capturedState.implementInSimulation();
+		return this.population;
+	}
+}
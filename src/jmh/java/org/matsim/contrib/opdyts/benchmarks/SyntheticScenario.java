@@ -0,0 +1,133 @@
+package org.matsim.contrib.opdyts.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.vehicles.Vehicle;
+
+/**
+ * Seeded generators of synthetic networks (link ids), event streams and
+ * populations of configurable size, such that benchmark results do not depend
+ * on scenario files.
+ * <p>
+ * The network is a ring: link i leads to link (i + 1) mod linkCnt. Every
+ * vehicle makes one trip along a random number of consecutive links, starting
+ * at a random time of the day.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+final class SyntheticScenario {
+
+	// -------------------- CONSTANTS --------------------
+
+	static final double TRAVEL_TIME_PER_LINK_S = 60.0;
+
+	static final String MODE = "car";
+
+	// -------------------- CONSTRUCTION --------------------
+
+	private SyntheticScenario() {
+	}
+
+	// -------------------- NETWORK --------------------
+
+	static List<Id<Link>> newLinkIds(final int linkCnt) {
+		final List<Id<Link>> result = new ArrayList<>(linkCnt);
+		for (int i = 0; i < linkCnt; i++) {
+			result.add(Id.createLinkId("link" + i));
+		}
+		return result;
+	}
+
+	// -------------------- EVENTS --------------------
+
+	/**
+	 * Returns the events of all trips, ordered by time.
+	 */
+	static List<Event> newEvents(final List<Id<Link>> links, final int vehicleCnt, final int maxLinksPerTrip,
+			final double endTime_s, final long seed) {
+		final Random rnd = new Random(seed);
+		final List<Event> result = new ArrayList<>();
+		for (int v = 0; v < vehicleCnt; v++) {
+			final Id<Vehicle> vehicleId = Id.createVehicleId("veh" + v);
+			final int linkCnt = 1 + rnd.nextInt(maxLinksPerTrip);
+			int link = rnd.nextInt(links.size());
+			double time_s = rnd.nextDouble() * (endTime_s - linkCnt * TRAVEL_TIME_PER_LINK_S);
+			result.add(new VehicleEntersTrafficEvent(time_s, null, links.get(link), vehicleId, MODE, 0.0));
+			for (int l = 1; l < linkCnt; l++) {
+				time_s += TRAVEL_TIME_PER_LINK_S;
+				result.add(new LinkLeaveEvent(time_s, vehicleId, links.get(link)));
+				link = (link + 1) % links.size();
+				result.add(new LinkEnterEvent(time_s, vehicleId, links.get(link)));
+			}
+			time_s += TRAVEL_TIME_PER_LINK_S;
+			result.add(new VehicleLeavesTrafficEvent(time_s, null, links.get(link), vehicleId, MODE, 0.0));
+		}
+		// stable, such that the events of one vehicle keep their order
+		Collections.sort(result, Comparator.comparingDouble(Event::getTime));
+		return result;
+	}
+
+	// -------------------- POPULATION --------------------
+
+	static Population newPopulation(final List<Id<Link>> links, final int personCnt, final int plansPerPerson,
+			final int maxLinksPerTrip, final long seed) {
+		final Random rnd = new Random(seed);
+		final Population result = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		for (int p = 0; p < personCnt; p++) {
+			final Person person = result.getFactory().createPerson(Id.createPersonId("person" + p));
+			for (int k = 0; k < plansPerPerson; k++) {
+				person.addPlan(newPlan(result, person, links, maxLinksPerTrip, rnd));
+			}
+			person.setSelectedPlan(person.getPlans().get(rnd.nextInt(plansPerPerson)));
+			result.addPerson(person);
+		}
+		return result;
+	}
+
+	static Plan newPlan(final Population population, final Person person, final List<Id<Link>> links,
+			final int maxLinksPerTrip, final Random rnd) {
+		final int linkCnt = 1 + rnd.nextInt(maxLinksPerTrip);
+		final int startLink = rnd.nextInt(links.size());
+		final List<Id<Link>> routeLinks = new ArrayList<>(linkCnt);
+		for (int l = 0; l < linkCnt; l++) {
+			routeLinks.add(links.get((startLink + l) % links.size()));
+		}
+
+		final Plan plan = population.getFactory().createPlan();
+		plan.setPerson(person);
+		final Activity home = population.getFactory().createActivityFromLinkId("home", routeLinks.get(0));
+		home.setEndTime(6 * 3600 + rnd.nextInt(4 * 3600));
+		plan.addActivity(home);
+		final Leg leg = population.getFactory().createLeg(MODE);
+		final NetworkRoute route = population.getFactory().getRouteFactories().createRoute(NetworkRoute.class,
+				routeLinks.get(0), routeLinks.get(linkCnt - 1));
+		final List<Id<Link>> innerLinks = (linkCnt >= 2) ? routeLinks.subList(1, linkCnt - 1)
+				: Collections.<Id<Link>> emptyList();
+		route.setLinkIds(routeLinks.get(0), innerLinks, routeLinks.get(linkCnt - 1));
+		leg.setRoute(route);
+		plan.addLeg(leg);
+		plan.addActivity(population.getFactory().createActivityFromLinkId("work", routeLinks.get(linkCnt - 1)));
+		plan.setScore(rnd.nextDouble());
+		return plan;
+	}
+}
@@ -0,0 +1,118 @@
+package org.matsim.contrib.opdyts.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.contrib.opdyts.buildingblocks.convergencecriteria.AR1ConvergenceCriterion;
+import org.matsim.contrib.opdyts.buildingblocks.objectivefunctions.utils.NonnegativeTimeSeriesComparator;
+import org.matsim.contrib.opdyts.buildingblocks.utils.DiscretizationChanger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import floetteroed.utilities.TimeDiscretization;
+
+/**
+ * Time series computations that run once per transition or per objective
+ * function evaluation: the AR(1) convergence test over an objective function
+ * trajectory, NonnegativeTimeSeriesComparator.compute and
+ * DiscretizationChanger.run.
+ * <p>
+ * The AR(1) benchmark calls AR1ConvergenceCriterion.process(..), which is
+ * what evaluate(..) spends its time in; evaluate(..) itself only extracts the
+ * objective function values from the transitions (which are Opdyts objects
+ * that cannot be created here) and, once converged, sums up their deltas.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TimeSeriesBenchmark {
+
+	// -------------------- PARAMETERS --------------------
+
+	// number of transitions in the AR(1) trajectory
+	@Param({ "100", "1000" })
+	public int trajectoryLength;
+
+	// number of (five minute) time bins of the compared and re-discretized time series
+	@Param({ "288", "2880" })
+	public int binCnt;
+
+	// -------------------- MEMBERS --------------------
+
+	private List<Double> trajectory;
+
+	private double[] x;
+
+	private double[] y;
+
+	private TimeDiscretization fromDiscretization;
+
+	private TimeDiscretization toDiscretization;
+
+	// -------------------- SETUP --------------------
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		final Random rnd = new Random(4711);
+
+		// an AR(1) process that does not converge, such that all bin sizes are tried
+		this.trajectory = new ArrayList<>(this.trajectoryLength);
+		double value = 0.0;
+		for (int i = 0; i < this.trajectoryLength; i++) {
+			value = 0.9 * value + rnd.nextGaussian();
+			this.trajectory.add(100.0 + value);
+		}
+
+		this.x = new double[this.binCnt];
+		this.y = new double[this.binCnt];
+		for (int i = 0; i < this.binCnt; i++) {
+			this.x[i] = 100.0 * rnd.nextDouble();
+			this.y[i] = 100.0 * rnd.nextDouble();
+		}
+
+		this.fromDiscretization = new TimeDiscretization(0, 300, this.binCnt);
+		this.toDiscretization = new TimeDiscretization(0, 3600, (this.binCnt * 300) / 3600);
+	}
+
+	// -------------------- BENCHMARKS --------------------
+
+	@Benchmark
+	public AR1ConvergenceCriterion ar1Convergence() {
+		final AR1ConvergenceCriterion criterion = new AR1ConvergenceCriterion(1e-8);
+		criterion.process(this.trajectory);
+		return criterion;
+	}
+
+	@Benchmark
+	public NonnegativeTimeSeriesComparator compareTimeSeries() {
+		final NonnegativeTimeSeriesComparator comparator = new NonnegativeTimeSeriesComparator();
+		comparator.compute(this.x, this.y);
+		return comparator;
+	}
+
+	@Benchmark
+	public DiscretizationChanger changeDiscretization() {
+		final DiscretizationChanger changer = new DiscretizationChanger(this.fromDiscretization, this.x,
+				DiscretizationChanger.DataType.TOTALS);
+		changer.run(this.toDiscretization);
+		return changer;
+	}
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.matsim.core.controler.events.AfterMobsimEvent;
+import org.matsim.core.controler.events.BeforeMobsimEvent;
+import org.matsim.core.controler.events.ShutdownEvent;
+import org.matsim.core.controler.events.StartupEvent;
+
+/**
+ * Measures wall time and allocated bytes of the Opdyts phases of every
+ * physical mobsim iteration, plus the used heap at its end. Writes one line
+ * per iteration into opdyts-instrumentation.csv in the output directory of
+ * the current stage and exposes the last iteration through JMX (see
+ * OpdytsProgressMXBean).
+ * <p>
+ * The file of a stage is closed when that stage's MATSim run shuts down. The
+ * JMX bean stays registered until close() is called; MATSimOpdytsRunner does
+ * this at the end of its run for the instance it creates.
+ * <p>
+ * TRAJECTORY_SAMPLER includes OBJECTIVE_FUNCTION. MOBSIM is everything between
+ * registering and removing the macro-state analyzers, i.e. also the other
+ * before/after mobsim listeners. Allocations are those of the controler
+ * thread; work done in other threads is not counted.
+ * <p>
+ * All calls are forwarded to a decorated listener.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class InstrumentedOpdytsProgressListener
+		implements OpdytsProgressListener, OpdytsProgressMXBean, AutoCloseable {
+
+	// -------------------- CONSTANTS --------------------
+
+	public static enum Phase {
+		STATE_EXTRACTION, STATE_CONSTRUCTION, TRAJECTORY_SAMPLER, OBJECTIVE_FUNCTION, ANALYZER_REGISTRATION, MOBSIM,
+		ANALYZER_REMOVAL
+	};
+
+	public static final String FILE_NAME = "opdyts-instrumentation.csv";
+
+	private static final Logger log = Logger.getLogger(InstrumentedOpdytsProgressListener.class);
+
+	private static final AtomicInteger instanceCnt = new AtomicInteger(0);
+
+	private final OpdytsProgressListener decoratedListener;
+
+	private final com.sun.management.ThreadMXBean allocationBean;
+
+	// -------------------- MEMBERS --------------------
+
+	private final long[] phaseStart_ns = new long[Phase.values().length];
+
+	private final long[] phaseStartAllocation_bytes = new long[Phase.values().length];
+
+	// of the running iteration
+	private final long[] wallTime_ns = new long[Phase.values().length];
+
+	private final long[] allocation_bytes = new long[Phase.values().length];
+
+	// of the last completed iteration
+	private volatile int lastIteration = -1;
+
+	private volatile double[] lastWallTimes_ms = new double[Phase.values().length];
+
+	private volatile long[] lastAllocatedBytes = new long[Phase.values().length];
+
+	private volatile long lastUsedHeap_bytes = 0;
+
+	private final long[] totalWallTime_ns = new long[Phase.values().length];
+
+	private PrintWriter writer = null;
+
+	// null if not registered
+	private ObjectName objectName = null;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	public InstrumentedOpdytsProgressListener(final OpdytsProgressListener decoratedListener) {
+		this.decoratedListener = decoratedListener;
+
+		final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if ((threadBean instanceof com.sun.management.ThreadMXBean)
+				&& ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()) {
+			this.allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+			this.allocationBean.setThreadAllocatedMemoryEnabled(true);
+		} else {
+			this.allocationBean = null;
+			log.warn("Allocation measurement is not supported by this JVM.");
+		}
+
+		try {
+			final ObjectName objectName = new ObjectName(
+					"org.matsim.contrib.opdyts:type=OpdytsProgress,instance=" + instanceCnt.getAndIncrement());
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			this.objectName = objectName;
+		} catch (JMException e) {
+			log.warn("Could not register the JMX bean: " + e.getMessage());
+		}
+	}
+
+	public InstrumentedOpdytsProgressListener() {
+		this(new OpdytsProgressListener() {
+		});
+	}
+
+	// -------------------- INTERNALS --------------------
+
+	private long allocatedBytes() {
+		return (this.allocationBean != null)
+				? this.allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId())
+				: -1;
+	}
+
+	private void start(final Phase phase) {
+		this.phaseStartAllocation_bytes[phase.ordinal()] = this.allocatedBytes();
+		this.phaseStart_ns[phase.ordinal()] = System.nanoTime();
+	}
+
+	private void end(final Phase phase) {
+		final long time_ns = System.nanoTime() - this.phaseStart_ns[phase.ordinal()];
+		this.wallTime_ns[phase.ordinal()] += time_ns;
+		this.totalWallTime_ns[phase.ordinal()] += time_ns;
+		if (this.allocationBean != null) {
+			this.allocation_bytes[phase.ordinal()] += this.allocatedBytes()
+					- this.phaseStartAllocation_bytes[phase.ordinal()];
+		} else {
+			this.allocation_bytes[phase.ordinal()] = -1;
+		}
+	}
+
+	private void completeIteration(final int iteration) {
+		final double[] wallTimes_ms = new double[Phase.values().length];
+		for (int i = 0; i < wallTimes_ms.length; i++) {
+			wallTimes_ms[i] = this.wallTime_ns[i] * 1e-6;
+		}
+		this.lastWallTimes_ms = wallTimes_ms;
+		this.lastAllocatedBytes = Arrays.copyOf(this.allocation_bytes, this.allocation_bytes.length);
+		this.lastUsedHeap_bytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+		this.lastIteration = iteration;
+
+		if (this.writer != null) {
+			final StringBuilder line = new StringBuilder();
+			line.append(iteration);
+			for (int i = 0; i < wallTimes_ms.length; i++) {
+				line.append(";").append(wallTimes_ms[i]);
+				line.append(";").append(this.lastAllocatedBytes[i]);
+			}
+			line.append(";").append(this.lastUsedHeap_bytes);
+			this.writer.println(line);
+			this.writer.flush();
+		}
+
+		Arrays.fill(this.wallTime_ns, 0);
+		Arrays.fill(this.allocation_bytes, 0);
+	}
+
+	// replaces a possibly open file
+	void openFile(final File outputDirectory) {
+		this.closeFile();
+		final File file = new File(outputDirectory, FILE_NAME);
+		try {
+			this.writer = new PrintWriter(Files.newBufferedWriter(file.toPath()));
+			final StringBuilder header = new StringBuilder("iteration");
+			for (Phase phase : Phase.values()) {
+				header.append(";").append(phase).append("_ms");
+				header.append(";").append(phase).append("_allocatedBytes");
+			}
+			header.append(";usedHeapBytes");
+			this.writer.println(header);
+			this.writer.flush();
+		} catch (IOException e) {
+			log.error("Could not open " + file + ": " + e.getMessage());
+		}
+	}
+
+	private void closeFile() {
+		if (this.writer != null) {
+			this.writer.close();
+			this.writer = null;
+		}
+	}
+
+	// -------------------- IMPLEMENTATION OF AutoCloseable --------------------
+
+	/**
+	 * Closes the file of the current stage and unregisters the JMX bean. The
+	 * getters remain usable.
+	 */
+	@Override
+	public void close() {
+		this.closeFile();
+		if (this.objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+			} catch (JMException e) {
+				log.warn("Could not unregister the JMX bean: " + e.getMessage());
+			}
+			this.objectName = null;
+		}
+	}
+
+	// --------------- IMPLEMENTATION OF OpdytsProgressListener ---------------
+
+	@Override
+	public void callToNotifyStartup_opdyts(final StartupEvent event) {
+		this.openFile(new File(event.getServices().getConfig().controler().getOutputDirectory()));
+		this.decoratedListener.callToNotifyStartup_opdyts(event);
+	}
+
+	@Override
+	public void callToNotifyBeforeMobsim_opdyts(final BeforeMobsimEvent event) {
+		this.decoratedListener.callToNotifyBeforeMobsim_opdyts(event);
+	}
+
+	@Override
+	public void callToNotifyAfterMobsim_opdyts(final AfterMobsimEvent event) {
+		this.decoratedListener.callToNotifyAfterMobsim_opdyts(event);
+	}
+
+	@Override
+	public void callToNotifyShutdown_opdyts(final ShutdownEvent event) {
+		this.decoratedListener.callToNotifyShutdown_opdyts(event);
+		this.closeFile();
+	}
+
+	@Override
+	public void expectToBeBeforePhysicalMobsimRun(final int iteration) {
+		this.decoratedListener.expectToBeBeforePhysicalMobsimRun(iteration);
+	}
+
+	@Override
+	public void beforeVeryFirstPhysicalMobsimRun(final int iteration) {
+		this.decoratedListener.beforeVeryFirstPhysicalMobsimRun(iteration);
+		this.start(Phase.ANALYZER_REGISTRATION);
+	}
+
+	@Override
+	public void beforeOtherThanVeryFirstPhysicalMobsimRun(final int iteration) {
+		this.decoratedListener.beforeOtherThanVeryFirstPhysicalMobsimRun(iteration);
+		this.start(Phase.STATE_EXTRACTION);
+	}
+
+	@Override
+	public void extractedStateVector(final int iteration) {
+		this.end(Phase.STATE_EXTRACTION);
+		this.decoratedListener.extractedStateVector(iteration);
+		this.start(Phase.STATE_CONSTRUCTION);
+	}
+
+	@Override
+	public void createdState(final int iteration) {
+		this.end(Phase.STATE_CONSTRUCTION);
+		this.decoratedListener.createdState(iteration);
+		this.start(Phase.TRAJECTORY_SAMPLER);
+	}
+
+	@Override
+	public void beforeObjectiveFunctionEvaluation() {
+		this.decoratedListener.beforeObjectiveFunctionEvaluation();
+		this.start(Phase.OBJECTIVE_FUNCTION);
+	}
+
+	@Override
+	public void afterObjectiveFunctionEvaluation() {
+		this.end(Phase.OBJECTIVE_FUNCTION);
+		this.decoratedListener.afterObjectiveFunctionEvaluation();
+	}
+
+	@Override
+	public void extractedStateAndCalledTrajectorySampler(final int iteration) {
+		this.end(Phase.TRAJECTORY_SAMPLER);
+		this.decoratedListener.extractedStateAndCalledTrajectorySampler(iteration);
+		this.start(Phase.ANALYZER_REGISTRATION);
+	}
+
+	@Override
+	public void clearedAndAddedMacroStateAnalyzers(final int iteration) {
+		this.end(Phase.ANALYZER_REGISTRATION);
+		this.decoratedListener.clearedAndAddedMacroStateAnalyzers(iteration);
+		this.start(Phase.MOBSIM);
+	}
+
+	@Override
+	public void expectToBeAfterAPhysicalMobsimRun(final int iteration) {
+		this.end(Phase.MOBSIM);
+		this.decoratedListener.expectToBeAfterAPhysicalMobsimRun(iteration);
+		this.start(Phase.ANALYZER_REMOVAL);
+	}
+
+	@Override
+	public void removedButDidNotClearMacroStateAnalyzers(final int iteration) {
+		this.end(Phase.ANALYZER_REMOVAL);
+		this.decoratedListener.removedButDidNotClearMacroStateAnalyzers(iteration);
+		this.completeIteration(iteration);
+	}
+
+	// --------------- IMPLEMENTATION OF OpdytsProgressMXBean ---------------
+
+	@Override
+	public String[] getPhases() {
+		final String[] result = new String[Phase.values().length];
+		for (Phase phase : Phase.values()) {
+			result[phase.ordinal()] = phase.toString();
+		}
+		return result;
+	}
+
+	@Override
+	public int getIteration() {
+		return this.lastIteration;
+	}
+
+	@Override
+	public double[] getWallTimes_ms() {
+		return Arrays.copyOf(this.lastWallTimes_ms, this.lastWallTimes_ms.length);
+	}
+
+	@Override
+	public long[] getAllocatedBytes() {
+		return Arrays.copyOf(this.lastAllocatedBytes, this.lastAllocatedBytes.length);
+	}
+
+	@Override
+	public double[] getTotalWallTimes_ms() {
+		final double[] result = new double[this.totalWallTime_ns.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = this.totalWallTime_ns[i] * 1e-6;
+		}
+		return result;
+	}
+
+	@Override
+	public long getUsedHeap_bytes() {
+		return this.lastUsedHeap_bytes;
+	}
+}
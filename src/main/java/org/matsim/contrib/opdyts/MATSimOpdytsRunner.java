@@ -1,14 +1,24 @@
 package org.matsim.contrib.opdyts;
 
+import java.io.File;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
-import org.matsim.contrib.opdyts.macrostate.DifferentiatedLinkOccupancyAnalyzer;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.contrib.opdyts.buildingblocks.convergencecriteria.EarlyAbortConvergenceCriterion;
+import org.matsim.contrib.opdyts.macrostate.IndexedLinkOccupancyAnalyzer;
+import org.matsim.contrib.opdyts.macrostate.ProfilingMacroStateAnalyzer;
+import org.matsim.contrib.opdyts.macrostate.RandomProjectionMacroStateAnalyzer;
+import org.matsim.contrib.opdyts.macrostate.ShardedDifferentiatedLinkOccupancyAnalyzer;
 import org.matsim.contrib.opdyts.macrostate.SimulationMacroStateAnalyzer;
 import org.matsim.contrib.opdyts.microstate.MATSimState;
 import org.matsim.contrib.opdyts.microstate.MATSimStateFactory;
+import org.matsim.contrib.opdyts.microstate.PopulationAggregator;
 import org.matsim.contrib.opdyts.objectivefunction.MATSimObjectiveFunction;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.controler.AbstractModule;
@@ -21,6 +31,7 @@ import floetteroed.opdyts.convergencecriteria.FixedIterationNumberConvergenceCri
 import floetteroed.opdyts.searchalgorithms.RandomSearch;
 import floetteroed.opdyts.searchalgorithms.RandomSearchBuilder;
 import floetteroed.opdyts.searchalgorithms.SelfTuner;
+import floetteroed.opdyts.trajectorysampling.SingleTrajectorySampler;
 import floetteroed.utilities.TimeDiscretization;
 
 /**
@@ -42,12 +53,20 @@ public class MATSimOpdytsRunner<U extends DecisionVariable, X extends MATSimStat
 
 	// -------------------- CONSTANTS --------------------
 
+	private static final Logger log = Logger.getLogger(MATSimOpdytsRunner.class);
+
 	private final String outputDirectory;
 
+	private final File checkpointDirectory;
+
+	private final Population population;
+
 	private final OpdytsConfigGroup opdytsConfig;
 
 	private final TimeDiscretization timeDiscretization;
 
+	private final MATSimStateFactory<U, X> stateFactory;
+
 	private final MATSimSimulationWrapper<U, X> matsimSimulationWrapper;
 
 	// -------------------- MEMBERS --------------------
@@ -56,22 +75,36 @@ public class MATSimOpdytsRunner<U extends DecisionVariable, X extends MATSimStat
 
 	private SelfTuner selfTuner;
 
+	private boolean customSelfTuner = false;
+
+	private int projectedAnalyzerCnt = 0;
+
 	// -------------------- CONSTRUCTION --------------------
 
 	public MATSimOpdytsRunner(final Scenario scenario, final MATSimStateFactory<U, X> stateFactory) {
 
 		this.outputDirectory = scenario.getConfig().controler().getOutputDirectory();
+		this.checkpointDirectory = new File(this.outputDirectory, "checkpoint");
+		this.population = scenario.getPopulation();
 		this.opdytsConfig = ConfigUtils.addOrGetModule(scenario.getConfig(), OpdytsConfigGroup.class);
 		this.timeDiscretization = new TimeDiscretization(this.opdytsConfig.getStartTime_s(),
 				this.opdytsConfig.getBinSize_s(), this.opdytsConfig.getBinCount());
 
+		this.stateFactory = stateFactory;
 		this.matsimSimulationWrapper = new MATSimSimulationWrapper<>(scenario, stateFactory,
 				this.opdytsConfig.getEnBlockSimulationIterations());
+		this.matsimSimulationWrapper.setCheckpoints(this.checkpointDirectory,
+				this.opdytsConfig.getCheckpointInterval());
 		final Set<String> networkModes = new HashSet<>(scenario.getConfig().qsim().getMainModes());
 		if (networkModes.size() > 0) {
-			this.matsimSimulationWrapper
-					.addSimulationStateAnalyzer(new DifferentiatedLinkOccupancyAnalyzer(this.timeDiscretization,
-							networkModes, new LinkedHashSet<>(scenario.getNetwork().getLinks().keySet())));
+			final Set<Id<Link>> relevantLinks = new LinkedHashSet<>(scenario.getNetwork().getLinks().keySet());
+			if (this.opdytsConfig.getMacroStateAnalyzerShards() > 1) {
+				this.addSimulationStateAnalyzer(new ShardedDifferentiatedLinkOccupancyAnalyzer(this.timeDiscretization,
+						networkModes, relevantLinks, this.opdytsConfig.getMacroStateAnalyzerShards()));
+			} else {
+				this.addSimulationStateAnalyzer(
+						new IndexedLinkOccupancyAnalyzer(this.timeDiscretization, networkModes, relevantLinks));
+			}
 		}
 		this.matsimSimulationWrapper.addOverridingModule(new AbstractModule() {
 			@Override
@@ -79,16 +112,28 @@ public class MATSimOpdytsRunner<U extends DecisionVariable, X extends MATSimStat
 				this.binder().requestInjection(stateFactory);
 			}
 		});
+		for (String typeName : this.opdytsConfig.getWarmStartBindingsAsList()) {
+			try {
+				this.addWarmStartBinding(Class.forName(typeName));
+			} catch (ClassNotFoundException e) {
+				throw new RuntimeException("Unknown warm-start binding type: " + typeName, e);
+			}
+		}
 
 		this.convergenceCriterion = new FixedIterationNumberConvergenceCriterion(
 				this.opdytsConfig.getNumberOfIterationsForConvergence(),
 				this.opdytsConfig.getNumberOfIterationsForAveraging());
 
-		this.selfTuner = new SelfTuner(this.opdytsConfig.getInitialEquilibriumGapWeight(),
+		this.selfTuner = this.newSelfTuner(this.opdytsConfig.getInitialEquilibriumGapWeight(),
 				this.opdytsConfig.getInitialUniformityGapWeight());
-		this.selfTuner.setInertia(this.opdytsConfig.getInertia());
-		this.selfTuner.setNoisySystem(this.opdytsConfig.isNoisySystem());
-		this.selfTuner.setWeightScale(this.opdytsConfig.getSelfTuningWeightScale());
+	}
+
+	private SelfTuner newSelfTuner(final double equilibriumGapWeight, final double uniformityGapWeight) {
+		final SelfTuner result = new SelfTuner(equilibriumGapWeight, uniformityGapWeight);
+		result.setInertia(this.opdytsConfig.getInertia());
+		result.setNoisySystem(this.opdytsConfig.isNoisySystem());
+		result.setWeightScale(this.opdytsConfig.getSelfTuningWeightScale());
+		return result;
 	}
 
 	// --------------- SETTERS TO OVERRIDE OPDYTS DEFAULT CLASSES ---------------
@@ -99,6 +144,11 @@ public class MATSimOpdytsRunner<U extends DecisionVariable, X extends MATSimStat
 
 	public void setSelfTuner(final SelfTuner selfTuner) {
 		this.selfTuner = selfTuner;
+		this.customSelfTuner = true;
+	}
+
+	SelfTuner getSelfTuner() {
+		return this.selfTuner;
 	}
 
 	public void setDirectlyAdjustedDecisionVariable(final DecisionVariable directlyAdjustedDecisionVariable) {
@@ -107,7 +157,26 @@ public class MATSimOpdytsRunner<U extends DecisionVariable, X extends MATSimStat
 
 	// ----- CONFIGURATION OF (NOT YET STARTED/CREATED) SIMULATIONS/CONTROLERS -----
 
+	/**
+	 * If so configured, the analyzer is wrapped into a
+	 * RandomProjectionMacroStateAnalyzer, with a different seed for each
+	 * analyzer, and then into a ProfilingMacroStateAnalyzer. Analyzers that
+	 * cannot be profiled are added without profiling.
+	 */
 	public void addSimulationStateAnalyzer(SimulationMacroStateAnalyzer analyzer) {
+		if (this.opdytsConfig.getStateProjectionDimension() > 0) {
+			analyzer = new RandomProjectionMacroStateAnalyzer(analyzer, this.opdytsConfig.getStateProjectionDimension(),
+					this.opdytsConfig.getStateProjectionSparsity(),
+					this.opdytsConfig.getStateProjectionSeed() + this.projectedAnalyzerCnt++);
+		}
+		if (this.opdytsConfig.getMacroStateAnalyzerProfiling()) {
+			if (ProfilingMacroStateAnalyzer.canProfile(analyzer)) {
+				analyzer = new ProfilingMacroStateAnalyzer(analyzer);
+			} else {
+				log.warn("Not profiling " + analyzer.getClass().getSimpleName()
+						+ " because it handles event types that cannot be profiled.");
+			}
+		}
 		this.matsimSimulationWrapper.addSimulationStateAnalyzer(analyzer);
 	}
 
@@ -119,6 +188,14 @@ public class MATSimOpdytsRunner<U extends DecisionVariable, X extends MATSimStat
 		this.matsimSimulationWrapper.addOverridingModule(abstractModule);
 	}
 
+	public void addWarmStartBinding(final Class<?> type) {
+		this.matsimSimulationWrapper.addWarmStartBinding(type);
+	}
+
+	public void addStageListener(final StageListener stageListener) {
+		this.matsimSimulationWrapper.addStageListener(stageListener);
+	}
+
 	public void setFreezeRandomSeed(boolean freezeRandomSeed) {
 		this.matsimSimulationWrapper.setFreezeRandomSeed(freezeRandomSeed);
 	}
@@ -127,32 +204,149 @@ public class MATSimOpdytsRunner<U extends DecisionVariable, X extends MATSimStat
 		this.matsimSimulationWrapper.setOpdytsProgressListener(opdytsProgressListener);
 	}
 
+	/*
+	 * RandomSearch updates the self-tuner with the final objective function value
+	 * of a stage after that stage. This value is only an estimate if the stage has
+	 * ended with an aborted trajectory; an inertia of one then keeps the weights.
+	 */
+	private void skipSelfTuningAfterAbortedStages(final EarlyAbortConvergenceCriterion criterion) {
+		if (this.customSelfTuner) {
+			log.warn("Aborted trajectories are not kept out of the fitting of a custom self-tuner.");
+			return;
+		}
+		final SelfTuner selfTuner = this.selfTuner;
+		final double inertia = this.opdytsConfig.getInertia();
+		this.addStageListener(new StageListener() {
+			@Override
+			public void endStage(final int stage) {
+				selfTuner.setInertia(criterion.isStageAborted() ? 1.0 : inertia);
+			}
+		});
+	}
+
+	/*
+	 * The objective function and the convergence criterion receive injections and
+	 * (if they are StageListeners) stage events during every stage.
+	 */
+	private void configureStages(final MATSimObjectiveFunction<X> objectiveFunction) {
+
+		// TODO NEW
+		this.matsimSimulationWrapper.addOverridingModule(objectiveFunction.newAbstractModule());
+		for (PopulationAggregator<?> aggregator : objectiveFunction.getPopulationAggregators()) {
+			this.stateFactory.addPopulationAggregator(aggregator);
+		}
+
+		this.matsimSimulationWrapper.addOverridingModule(new AbstractModule() {
+			@Override
+			public void install() {
+				this.binder().requestInjection(objectiveFunction); // TODO rather let the objective function modules
+																	// take care of this?
+				this.binder().requestInjection(convergenceCriterion);
+			}
+		});
+
+		if (this.convergenceCriterion instanceof StageListener) {
+			this.addStageListener((StageListener) this.convergenceCriterion);
+		}
+	}
+
 	// -------------------- RUN --------------------
 
 	public void run(final DecisionVariableRandomizer<U> randomizer, final U initialDecisionVariable,
 			final MATSimObjectiveFunction<X> objectiveFunction) {
+		this.run(randomizer, initialDecisionVariable, objectiveFunction, this.opdytsConfig.getMaxIteration());
+	}
+
+	/**
+	 * Continues from the last checkpoint in the output directory, if there is
+	 * one, and otherwise starts a new run. The completed stages are not run
+	 * again: the population is restored to its state at the end of the last
+	 * completed stage, the search continues from the decision variable of that
+	 * stage (if it was Serializable, otherwise from the given initial decision
+	 * variable) with the self-tuner weights of that stage, and stage numbering
+	 * continues.
+	 * <p>
+	 * The transitions of the completed stages are kept inside of Opdyts'
+	 * RandomSearch and are not restored; the continued search starts its own
+	 * trajectory memory from the checkpointed stage on. The checkpointed weights
+	 * are those with which the last completed stage was run, i.e. they do not yet
+	 * include the self-tuner update from that stage.
+	 */
+	public void resume(final DecisionVariableRandomizer<U> randomizer, final U initialDecisionVariable,
+			final MATSimObjectiveFunction<X> objectiveFunction) {
+		final OpdytsCheckpoint checkpoint = OpdytsCheckpoint.read(this.checkpointDirectory);
+		if (checkpoint == null) {
+			this.run(randomizer, initialDecisionVariable, objectiveFunction);
+			return;
+		}
+		this.run(randomizer, this.restore(checkpoint, initialDecisionVariable), objectiveFunction,
+				Math.max(0, this.opdytsConfig.getMaxIteration() - checkpoint.getCompletedStages()));
+	}
+
+	/**
+	 * Restores population, stage numbering and self-tuner weights from the
+	 * checkpoint and returns the decision variable from which to continue.
+	 */
+	@SuppressWarnings("unchecked")
+	U restore(final OpdytsCheckpoint checkpoint, final U initialDecisionVariable) {
+		checkpoint.implementPopulation(this.population);
+		this.matsimSimulationWrapper.resumeAfter(checkpoint.getCompletedStages());
+		if ((checkpoint.getEquilibriumGapWeight() != null) && (checkpoint.getUniformityGapWeight() != null)) {
+			if (this.customSelfTuner) {
+				log.warn("Self-tuner weights are not restored into a custom self-tuner.");
+			} else {
+				this.selfTuner = this.newSelfTuner(checkpoint.getEquilibriumGapWeight(),
+						checkpoint.getUniformityGapWeight());
+			}
+		}
+		return (checkpoint.getDecisionVariable() != null) ? (U) checkpoint.getDecisionVariable()
+				: initialDecisionVariable;
+	}
+
+	private void run(final DecisionVariableRandomizer<U> randomizer, final U initialDecisionVariable,
+			final MATSimObjectiveFunction<X> objectiveFunction, final int maxOptimizationStages) {
+
+		// An instrumentation created here is also closed here, at the end of the run.
+		final OpdytsProgressListener uninstrumentedListener = this.matsimSimulationWrapper.getOpdytsProgressListener();
+		InstrumentedOpdytsProgressListener instrumentation = null;
+		if (this.opdytsConfig.getInstrumentation()
+				&& !(uninstrumentedListener instanceof InstrumentedOpdytsProgressListener)) {
+			instrumentation = new InstrumentedOpdytsProgressListener(uninstrumentedListener);
+			this.matsimSimulationWrapper.setOpdytsProgressListener(instrumentation);
+		}
+
+		// Reports objective function evaluations, which happen inside of Opdyts, to the progress listener.
+		final OpdytsProgressListener progressListener = this.matsimSimulationWrapper.getOpdytsProgressListener();
+		final MATSimObjectiveFunction<X> reportingObjectiveFunction = new MATSimObjectiveFunction<X>() {
+			@Override
+			public double value(final X state) {
+				progressListener.beforeObjectiveFunctionEvaluation();
+				final double result = objectiveFunction.value(state);
+				progressListener.afterObjectiveFunctionEvaluation();
+				return result;
+			}
+		};
 
 		final RandomSearchBuilder<U, X> builder = new RandomSearchBuilder<>();
 		builder.setConvergenceCriterion(this.convergenceCriterion).setDecisionVariableRandomizer(randomizer)
 				.setInitialDecisionVariable(initialDecisionVariable)
-				.setMaxOptimizationStages(this.opdytsConfig.getMaxIteration())
+				.setMaxOptimizationStages(maxOptimizationStages)
 				.setMaxSimulationTransitions(this.opdytsConfig.getMaxTransition())
-				.setObjectiveFunction(objectiveFunction).setRandom(MatsimRandom.getRandom()).setSelfTuner(selfTuner)
+				.setObjectiveFunction(reportingObjectiveFunction).setRandom(MatsimRandom.getRandom()).setSelfTuner(selfTuner)
 				.setSimulator(this.matsimSimulationWrapper);
 		final RandomSearch<U, X> randomSearch = builder.build();
+		this.matsimSimulationWrapper.setSelfTuner(this.selfTuner);
 
-		// TODO NEW
-		this.matsimSimulationWrapper.addOverridingModule(objectiveFunction.newAbstractModule());
-
+		this.configureStages(objectiveFunction);
 		this.matsimSimulationWrapper.addOverridingModule(new AbstractModule() {
 			@Override
 			public void install() {
 				this.binder().requestInjection(randomizer);
-				this.binder().requestInjection(objectiveFunction); // TODO rather let the objective function modules
-																	// take care of this?
-				this.binder().requestInjection(convergenceCriterion);
 			}
 		});
+		if (this.convergenceCriterion instanceof EarlyAbortConvergenceCriterion) {
+			this.skipSelfTuningAfterAbortedStages((EarlyAbortConvergenceCriterion) this.convergenceCriterion);
+		}
 
 		randomSearch.setLogPath(this.outputDirectory);
 		randomSearch.setMaxTotalMemory(this.opdytsConfig.getMaxTotalMemory());
@@ -160,6 +354,28 @@ public class MATSimOpdytsRunner<U extends DecisionVariable, X extends MATSimStat
 		randomSearch.setWarmupIterations(this.opdytsConfig.getWarmUpIterations());
 		randomSearch.setUseAllWarmupIterations(this.opdytsConfig.getUseAllWarmUpIterations());
 
-		randomSearch.run();
+		try {
+			randomSearch.run();
+		} finally {
+			if (instrumentation != null) {
+				instrumentation.close();
+				this.matsimSimulationWrapper.setOpdytsProgressListener(uninstrumentedListener);
+			}
+		}
+	}
+
+	// -------------------- SIMULATION OF A SINGLE DECISION VARIABLE --------------------
+
+	/**
+	 * Simulates only the given decision variable, in one MATSim run that lasts
+	 * until the convergence criterion is met, and returns the final state. There
+	 * is no search. A MATSimDecisionVariableEvaluator does this for every task of
+	 * a DistributedCoordinator.
+	 */
+	@SuppressWarnings("unchecked")
+	public X simulate(final U decisionVariable, final MATSimObjectiveFunction<X> objectiveFunction) {
+		this.configureStages(objectiveFunction);
+		return (X) this.matsimSimulationWrapper.run(
+				new SingleTrajectorySampler<>(decisionVariable, objectiveFunction, this.convergenceCriterion));
 	}
 }
@@ -1,9 +1,14 @@
 package org.matsim.contrib.opdyts;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.contrib.opdyts.macrostate.SimulationMacroStateAnalyzer;
@@ -11,9 +16,16 @@ import org.matsim.contrib.opdyts.microstate.MATSimStateFactory;
 import org.matsim.core.controler.AbstractModule;
 import org.matsim.core.controler.Controler;
 import org.matsim.core.controler.TerminationCriterion;
+import org.matsim.core.controler.events.StartupEvent;
+import org.matsim.core.controler.listener.StartupListener;
+
+import com.google.inject.Binder;
+import com.google.inject.Injector;
+import com.google.inject.Scopes;
 
 import floetteroed.opdyts.DecisionVariable;
 import floetteroed.opdyts.SimulatorState;
+import floetteroed.opdyts.searchalgorithms.SelfTuner;
 import floetteroed.opdyts.searchalgorithms.Simulator;
 import floetteroed.opdyts.trajectorysampling.TrajectorySampler;
 
@@ -44,6 +56,19 @@ class MATSimSimulationWrapper<U extends DecisionVariable, X extends SimulatorSta
 
 	private int numberOfCompletedSimulationRuns = 0;
 
+	// Types whose injected instances are kept from the first to all later runs.
+	private final Set<Class<?>> warmStartTypes = new LinkedHashSet<>();
+
+	private final Map<Class<?>, Object> warmStartInstances = new LinkedHashMap<>();
+
+	private final List<StageListener> stageListeners = new ArrayList<>();
+
+	private File checkpointDirectory = null;
+
+	private int checkpointInterval = 0;
+
+	private SelfTuner selfTuner = null;
+
 	private OpdytsProgressListener opdytsProgressListener = new OpdytsProgressListener() {
 	};
 
@@ -89,10 +114,92 @@ class MATSimSimulationWrapper<U extends DecisionVariable, X extends SimulatorSta
 		this.opdytsProgressListener = opdytsProgressListener;
 	}
 
+	OpdytsProgressListener getOpdytsProgressListener() {
+		return this.opdytsProgressListener;
+	}
+
+	/**
+	 * The instance of the given type is taken from the injector of the first
+	 * MATSim run and bound in all later runs, such that it is not created again.
+	 * Only for types that do not depend on the decision variable and do not keep
+	 * references to objects of a particular run (e.g. its EventsManager). The
+	 * type must be bound as a singleton; otherwise, the first run fails at its
+	 * startup.
+	 */
+	void addWarmStartBinding(final Class<?> type) {
+		if (this.warmStartInstances.size() > 0) {
+			throw new RuntimeException("Warm-start bindings must be added before the first simulation run.");
+		}
+		this.warmStartTypes.add(type);
+	}
+
+	void addStageListener(final StageListener stageListener) {
+		if (!this.stageListeners.contains(stageListener)) {
+			this.stageListeners.add(stageListener);
+		}
+	}
+
+	/**
+	 * Writes an OpdytsCheckpoint into the given directory after every
+	 * checkpointInterval-th simulation run. No checkpoints if the interval is
+	 * zero.
+	 */
+	void setCheckpoints(final File checkpointDirectory, final int checkpointInterval) {
+		this.checkpointDirectory = checkpointDirectory;
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * The self-tuner whose weights are written into the checkpoints.
+	 */
+	void setSelfTuner(final SelfTuner selfTuner) {
+		this.selfTuner = selfTuner;
+	}
+
+	/**
+	 * Continues the numbering of simulation runs (and hence of output directories
+	 * and checkpoints) after the given number of already completed runs.
+	 */
+	void resumeAfter(final int numberOfCompletedSimulationRuns) {
+		this.numberOfCompletedSimulationRuns = numberOfCompletedSimulationRuns;
+	}
+
 	void setDirectlyAdjustedDecisionVariable(final DecisionVariable directlyAdjustedDecisionVariable) {
 		this.directlyAdjustedDecisionVariable = directlyAdjustedDecisionVariable;
 	}
 
+	// -------------------- INTERNALS --------------------
+
+	private static <T> void bindInstance(final Binder binder, final Class<T> type, final Object instance) {
+		binder.bind(type).toInstance(type.cast(instance));
+	}
+
+	/**
+	 * Binds the instances that have been taken from an earlier run.
+	 */
+	static void bindWarmStartInstances(final Binder binder, final Map<Class<?>, Object> warmStartInstances) {
+		for (Map.Entry<Class<?>, Object> entry : warmStartInstances.entrySet()) {
+			bindInstance(binder, entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Takes the instances of the given types from the injector of a completed
+	 * run. Only singletons can be taken over: any other binding would create a
+	 * new instance here, one that the run has never used.
+	 */
+	static Map<Class<?>, Object> takeWarmStartInstances(final Injector injector, final Set<Class<?>> types) {
+		final Map<Class<?>, Object> result = new LinkedHashMap<>();
+		for (Class<?> type : types) {
+			if (!Scopes.isSingleton(injector.getBinding(type))) {
+				throw new RuntimeException("Warm-start binding " + type.getName()
+						+ " is not bound as a singleton; its instances cannot be reused in later runs.");
+			}
+			result.put(type, injector.getInstance(type));
+		}
+		return result;
+	}
+
 	// --------------- IMPLEMENTATION OF Simulator INTERFACE ---------------
 
 	@Override
@@ -138,6 +245,22 @@ class MATSimSimulationWrapper<U extends DecisionVariable, X extends SimulatorSta
 				bind(OpdytsProgressListener.class).toInstance(opdytsProgressListener);
 			}
 		});
+		if ((this.warmStartInstances.size() == 0) && (this.warmStartTypes.size() > 0)) {
+			// taken at startup, such that a wrong binding fails before the first iteration
+			controler.addControlerListener(new StartupListener() {
+				@Override
+				public void notifyStartup(final StartupEvent event) {
+					warmStartInstances.putAll(takeWarmStartInstances(controler.getInjector(), warmStartTypes));
+				}
+			});
+		} else if (this.warmStartInstances.size() > 0) {
+			controler.addOverridingModule(new AbstractModule() {
+				@Override
+				public void install() {
+					bindWarmStartInstances(this.binder(), warmStartInstances);
+				}
+			});
+		}
 		controler.setTerminationCriterion(new TerminationCriterion() {
 			@Override
 			public boolean continueIterations(int iteration) {
@@ -145,9 +268,22 @@ class MATSimSimulationWrapper<U extends DecisionVariable, X extends SimulatorSta
 			}
 		});
 
+		for (StageListener stageListener : this.stageListeners) {
+			stageListener.startStage(this.numberOfCompletedSimulationRuns);
+		}
 		controler.run();
+		for (StageListener stageListener : this.stageListeners) {
+			stageListener.endStage(this.numberOfCompletedSimulationRuns);
+		}
 		this.numberOfCompletedSimulationRuns++;
 
+		if ((this.checkpointInterval > 0) && (this.numberOfCompletedSimulationRuns % this.checkpointInterval == 0)) {
+			OpdytsCheckpoint.write(this.checkpointDirectory, this.numberOfCompletedSimulationRuns,
+					this.scenario.getPopulation(), trajectorySampler.getCurrentDecisionVariable(),
+					(this.selfTuner != null) ? this.selfTuner.getEquilibriumGapWeight() : null,
+					(this.selfTuner != null) ? this.selfTuner.getUniformityGapWeight() : null);
+		}
+
 		return wireOpdytsIntoMATSimControlerListener.getFinalState();
 	}
 
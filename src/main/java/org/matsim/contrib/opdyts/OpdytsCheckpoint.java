@@ -0,0 +1,245 @@
+package org.matsim.contrib.opdyts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.contrib.opdyts.microstate.PopulationCheckpoint;
+
+import floetteroed.opdyts.DecisionVariable;
+
+/**
+ * The persistent state of a MATSim/Opdyts optimization after a completed
+ * stage: the number of completed stages, the population at the end of the
+ * last stage, the decision variable it has converged for and the weights of
+ * the self-tuner.
+ * <p>
+ * Every checkpoint is a subdirectory stage_[completed stages] of the
+ * checkpoint directory. It is written under a temporary name and then renamed
+ * atomically, such that a checkpoint directory that is visible under its final
+ * name is complete; older checkpoints are deleted afterwards. The decision
+ * variable is only persisted if it is Serializable.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+class OpdytsCheckpoint {
+
+	// -------------------- CONSTANTS --------------------
+
+	private static final Logger log = Logger.getLogger(OpdytsCheckpoint.class);
+
+	static final String STAGE_PREFIX = "stage_";
+
+	static final String TMP_SUFFIX = ".tmp";
+
+	static final String PROPERTIES_FILE = "checkpoint.properties";
+
+	static final String POPULATION_FILE = "population.bin";
+
+	static final String DECISIONVARIABLE_FILE = "decisionVariable.ser";
+
+	private static final String COMPLETED_STAGES = "completedStages";
+
+	private static final String DECISIONVARIABLE = "decisionVariable";
+
+	private static final String DECISIONVARIABLE_SERIALIZED = "decisionVariableSerialized";
+
+	private static final String EQUILIBRIUMGAPWEIGHT = "equilibriumGapWeight";
+
+	private static final String UNIFORMITYGAPWEIGHT = "uniformityGapWeight";
+
+	// -------------------- MEMBERS --------------------
+
+	private final File directory;
+
+	private final int completedStages;
+
+	private final DecisionVariable decisionVariable;
+
+	private final Double equilibriumGapWeight;
+
+	private final Double uniformityGapWeight;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	private OpdytsCheckpoint(final File directory, final int completedStages,
+			final DecisionVariable decisionVariable, final Double equilibriumGapWeight,
+			final Double uniformityGapWeight) {
+		this.directory = directory;
+		this.completedStages = completedStages;
+		this.decisionVariable = decisionVariable;
+		this.equilibriumGapWeight = equilibriumGapWeight;
+		this.uniformityGapWeight = uniformityGapWeight;
+	}
+
+	// -------------------- INTERNALS --------------------
+
+	// -1 if the file is not a complete checkpoint
+	private static int completedStages(final File stageDirectory) {
+		final String name = stageDirectory.getName();
+		if (!stageDirectory.isDirectory() || !name.startsWith(STAGE_PREFIX)) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(name.substring(STAGE_PREFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static void deleteRecursively(final File file) {
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		if (file.exists() && !file.delete()) {
+			log.warn("Could not delete " + file);
+		}
+	}
+
+	private static Double parseDouble(final String value) {
+		return (value == null) ? null : Double.parseDouble(value);
+	}
+
+	// -------------------- IMPLEMENTATION --------------------
+
+	/**
+	 * @param equilibriumGapWeight
+	 *            the current self-tuner weight, null if unknown
+	 * @param uniformityGapWeight
+	 *            the current self-tuner weight, null if unknown
+	 */
+	static void write(final File directory, final int completedStages, final Population population,
+			final DecisionVariable decisionVariable, final Double equilibriumGapWeight,
+			final Double uniformityGapWeight) {
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new RuntimeException("Could not create directory " + directory);
+		}
+		final File stageDirectory = new File(directory, STAGE_PREFIX + completedStages);
+		final File tmpDirectory = new File(directory, STAGE_PREFIX + completedStages + TMP_SUFFIX);
+		// left over from an interrupted attempt
+		deleteRecursively(tmpDirectory);
+		if (!tmpDirectory.mkdirs()) {
+			throw new RuntimeException("Could not create directory " + tmpDirectory);
+		}
+
+		PopulationCheckpoint.write(population, new File(tmpDirectory, POPULATION_FILE));
+		try {
+			final boolean serializable = (decisionVariable instanceof Serializable);
+			if (serializable) {
+				try (ObjectOutputStream out = new ObjectOutputStream(
+						new BufferedOutputStream(new FileOutputStream(new File(tmpDirectory, DECISIONVARIABLE_FILE))))) {
+					out.writeObject(decisionVariable);
+				}
+			} else {
+				log.warn("Decision variable " + decisionVariable + " is not Serializable and cannot be resumed.");
+			}
+
+			final Properties properties = new Properties();
+			properties.setProperty(COMPLETED_STAGES, Integer.toString(completedStages));
+			properties.setProperty(DECISIONVARIABLE, String.valueOf(decisionVariable));
+			properties.setProperty(DECISIONVARIABLE_SERIALIZED, Boolean.toString(serializable));
+			if ((equilibriumGapWeight != null) && (uniformityGapWeight != null)) {
+				properties.setProperty(EQUILIBRIUMGAPWEIGHT, Double.toString(equilibriumGapWeight));
+				properties.setProperty(UNIFORMITYGAPWEIGHT, Double.toString(uniformityGapWeight));
+			}
+			try (OutputStream out = new FileOutputStream(new File(tmpDirectory, PROPERTIES_FILE))) {
+				properties.store(out, "Opdyts checkpoint");
+			}
+
+			// only exists if the same stage is checkpointed again
+			deleteRecursively(stageDirectory);
+			Files.move(tmpDirectory.toPath(), stageDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		for (File file : directory.listFiles()) {
+			if (!file.equals(stageDirectory) && file.getName().startsWith(STAGE_PREFIX)) {
+				deleteRecursively(file);
+			}
+		}
+		log.info("Wrote checkpoint after " + completedStages + " stage(s) to " + stageDirectory);
+	}
+
+	/**
+	 * Returns the most recent complete checkpoint in the given directory, or null
+	 * if there is none.
+	 */
+	static OpdytsCheckpoint read(final File directory) {
+		final File[] files = directory.listFiles();
+		if (files == null) {
+			return null;
+		}
+		File stageDirectory = null;
+		for (File file : files) {
+			if ((completedStages(file) >= 0)
+					&& ((stageDirectory == null) || (completedStages(file) > completedStages(stageDirectory)))) {
+				stageDirectory = file;
+			}
+		}
+		if (stageDirectory == null) {
+			return null;
+		}
+		final File propertiesFile = new File(stageDirectory, PROPERTIES_FILE);
+		try {
+			final Properties properties = new Properties();
+			try (InputStream in = new FileInputStream(propertiesFile)) {
+				properties.load(in);
+			}
+			DecisionVariable decisionVariable = null;
+			if (Boolean.parseBoolean(properties.getProperty(DECISIONVARIABLE_SERIALIZED))) {
+				try (ObjectInputStream in = new ObjectInputStream(
+						new BufferedInputStream(new FileInputStream(new File(stageDirectory, DECISIONVARIABLE_FILE))))) {
+					decisionVariable = (DecisionVariable) in.readObject();
+				}
+			}
+			return new OpdytsCheckpoint(stageDirectory, Integer.parseInt(properties.getProperty(COMPLETED_STAGES)),
+					decisionVariable, parseDouble(properties.getProperty(EQUILIBRIUMGAPWEIGHT)),
+					parseDouble(properties.getProperty(UNIFORMITYGAPWEIGHT)));
+		} catch (IOException | ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	// -------------------- GETTERS --------------------
+
+	int getCompletedStages() {
+		return this.completedStages;
+	}
+
+	// null if the decision variable was not Serializable
+	DecisionVariable getDecisionVariable() {
+		return this.decisionVariable;
+	}
+
+	// null if the self-tuner weights are unknown
+	Double getEquilibriumGapWeight() {
+		return this.equilibriumGapWeight;
+	}
+
+	// null if the self-tuner weights are unknown
+	Double getUniformityGapWeight() {
+		return this.uniformityGapWeight;
+	}
+
+	void implementPopulation(final Population population) {
+		PopulationCheckpoint.read(new File(this.directory, POPULATION_FILE), population);
+	}
+}
@@ -19,6 +19,10 @@
 
 package org.matsim.contrib.opdyts;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.matsim.contrib.opdyts.macrostate.RandomProjectionMacroStateAnalyzer;
 import org.matsim.core.config.ReflectiveConfigGroup;
 
 import floetteroed.opdyts.searchalgorithms.RandomSearch;
@@ -82,6 +86,65 @@ public class OpdytsConfigGroup extends ReflectiveConfigGroup {
 		this.binCount = binCount;
 	}
 
+	// ==================== MACRO-STATE ANALYSIS ====================
+
+	// more than one shard allows for events from several threads at once; this does
+	// not speed up MATSim's events managers, which call a handler from one thread
+	public static final int DEFAULT_MACROSTATEANALYZERSHARDS = 1;
+
+	private int macroStateAnalyzerShards = DEFAULT_MACROSTATEANALYZERSHARDS;
+
+	@StringGetter("macroStateAnalyzerShards")
+	public int getMacroStateAnalyzerShards() {
+		return this.macroStateAnalyzerShards;
+	}
+
+	@StringSetter("macroStateAnalyzerShards")
+	public void setMacroStateAnalyzerShards(int macroStateAnalyzerShards) {
+		this.macroStateAnalyzerShards = macroStateAnalyzerShards;
+	}
+
+	// zero means that state vectors are not projected
+	public static final int DEFAULT_STATEPROJECTIONDIMENSION = 0;
+
+	private int stateProjectionDimension = DEFAULT_STATEPROJECTIONDIMENSION;
+
+	@StringGetter("stateProjectionDimension")
+	public int getStateProjectionDimension() {
+		return this.stateProjectionDimension;
+	}
+
+	@StringSetter("stateProjectionDimension")
+	public void setStateProjectionDimension(int stateProjectionDimension) {
+		this.stateProjectionDimension = stateProjectionDimension;
+	}
+
+	private int stateProjectionSparsity = RandomProjectionMacroStateAnalyzer.DEFAULT_SPARSITY;
+
+	@StringGetter("stateProjectionSparsity")
+	public int getStateProjectionSparsity() {
+		return this.stateProjectionSparsity;
+	}
+
+	@StringSetter("stateProjectionSparsity")
+	public void setStateProjectionSparsity(int stateProjectionSparsity) {
+		this.stateProjectionSparsity = stateProjectionSparsity;
+	}
+
+	public static final long DEFAULT_STATEPROJECTIONSEED = 4711;
+
+	private long stateProjectionSeed = DEFAULT_STATEPROJECTIONSEED;
+
+	@StringGetter("stateProjectionSeed")
+	public long getStateProjectionSeed() {
+		return this.stateProjectionSeed;
+	}
+
+	@StringSetter("stateProjectionSeed")
+	public void setStateProjectionSeed(long stateProjectionSeed) {
+		this.stateProjectionSeed = stateProjectionSeed;
+	}
+
 	// ==================== SELF-TUNING ====================
 
 	private boolean noisySystem = SelfTuner.DEFAULT_NOISYSYSTEM;
@@ -241,6 +304,203 @@ public class OpdytsConfigGroup extends ReflectiveConfigGroup {
 		this.enBlockSimulationIterations = enBlockSimulationIterations;
 	}
 
+	// ==================== MICRO-STATE SNAPSHOTS ====================
+
+	/*
+	 * The compact, delta and mapped modes reuse the encoding of a plan that is
+	 * still found (by reference) in the population, after only a coarse check of
+	 * its structure. They hence assume that replanning does not change times or
+	 * routes of existing plans in place, which holds for MATSim's standard
+	 * strategies (they modify copies). Plans with attributes are kept as deep
+	 * copies by compact and delta snapshots; mapped snapshots and checkpoints
+	 * refuse them. Use deepCopy if these assumptions do not hold.
+	 */
+	public static enum MicroStateSnapshotMode {
+		deepCopy, // deep copies of all plans
+		compact, // immutable plan encodings, shared across consecutive states
+		delta, // compact keyframes, in between only differences to the last keyframe
+		mapped // compact encodings in memory-mapped files
+	};
+
+	public static final MicroStateSnapshotMode DEFAULT_MICROSTATESNAPSHOTMODE = MicroStateSnapshotMode.deepCopy;
+
+	private MicroStateSnapshotMode microStateSnapshotMode = DEFAULT_MICROSTATESNAPSHOTMODE;
+
+	@StringGetter("microStateSnapshotMode")
+	public MicroStateSnapshotMode getMicroStateSnapshotMode() {
+		return this.microStateSnapshotMode;
+	}
+
+	@StringSetter("microStateSnapshotMode")
+	public void setMicroStateSnapshotMode(MicroStateSnapshotMode microStateSnapshotMode) {
+		this.microStateSnapshotMode = microStateSnapshotMode;
+	}
+
+	public static final int DEFAULT_MICROSTATEKEYFRAMEINTERVAL = 10;
+
+	private int microStateKeyframeInterval = DEFAULT_MICROSTATEKEYFRAMEINTERVAL;
+
+	@StringGetter("microStateKeyframeInterval")
+	public int getMicroStateKeyframeInterval() {
+		return this.microStateKeyframeInterval;
+	}
+
+	@StringSetter("microStateKeyframeInterval")
+	public void setMicroStateKeyframeInterval(int microStateKeyframeInterval) {
+		this.microStateKeyframeInterval = microStateKeyframeInterval;
+	}
+
+	public static final int DEFAULT_MICROSTATEMAXMAPPEDSNAPSHOTS = 10;
+
+	private int microStateMaxMappedSnapshots = DEFAULT_MICROSTATEMAXMAPPEDSNAPSHOTS;
+
+	@StringGetter("microStateMaxMappedSnapshots")
+	public int getMicroStateMaxMappedSnapshots() {
+		return this.microStateMaxMappedSnapshots;
+	}
+
+	@StringSetter("microStateMaxMappedSnapshots")
+	public void setMicroStateMaxMappedSnapshots(int microStateMaxMappedSnapshots) {
+		this.microStateMaxMappedSnapshots = microStateMaxMappedSnapshots;
+	}
+
+	// number of threads used to create and to re-implement micro-states
+	public static final int DEFAULT_MICROSTATETHREADS = 1;
+
+	private int microStateThreads = DEFAULT_MICROSTATETHREADS;
+
+	@StringGetter("microStateThreads")
+	public int getMicroStateThreads() {
+		return this.microStateThreads;
+	}
+
+	@StringSetter("microStateThreads")
+	public void setMicroStateThreads(int microStateThreads) {
+		this.microStateThreads = microStateThreads;
+	}
+
+	// copy plans only for states from which the search may restart, i.e. for the
+	// final state of every stage; all other states keep only their state vector
+	public static final boolean DEFAULT_MICROSTATELAZYCAPTURE = false;
+
+	private boolean microStateLazyCapture = DEFAULT_MICROSTATELAZYCAPTURE;
+
+	@StringGetter("microStateLazyCapture")
+	public boolean getMicroStateLazyCapture() {
+		return this.microStateLazyCapture;
+	}
+
+	@StringSetter("microStateLazyCapture")
+	public void setMicroStateLazyCapture(boolean microStateLazyCapture) {
+		this.microStateLazyCapture = microStateLazyCapture;
+	}
+
+	// ==================== CHECKPOINTS ====================
+
+	// write a checkpoint after every checkpointInterval-th stage; zero means never
+	public static final int DEFAULT_CHECKPOINTINTERVAL = 0;
+
+	private int checkpointInterval = DEFAULT_CHECKPOINTINTERVAL;
+
+	@StringGetter("checkpointInterval")
+	public int getCheckpointInterval() {
+		return this.checkpointInterval;
+	}
+
+	@StringSetter("checkpointInterval")
+	public void setCheckpointInterval(int checkpointInterval) {
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	// ==================== WARM START ====================
+
+	// comma-separated types, bound as singletons, whose instances are reused from the first stage on
+	private String warmStartBindings = "";
+
+	@StringGetter("warmStartBindings")
+	public String getWarmStartBindings() {
+		return this.warmStartBindings;
+	}
+
+	@StringSetter("warmStartBindings")
+	public void setWarmStartBindings(String warmStartBindings) {
+		this.warmStartBindings = warmStartBindings;
+	}
+
+	public List<String> getWarmStartBindingsAsList() {
+		final List<String> result = new ArrayList<>();
+		for (String typeName : this.warmStartBindings.split(",")) {
+			if (typeName.trim().length() > 0) {
+				result.add(typeName.trim());
+			}
+		}
+		return result;
+	}
+
+	// ==================== PARALLEL SEARCHES ====================
+
+	// number of independent searches run at the same time, each in its own JVM, by ParallelMATSimOpdytsRunner
+	public static final int DEFAULT_PARALLELSEARCHES = 1;
+
+	private int parallelSearches = DEFAULT_PARALLELSEARCHES;
+
+	@StringGetter("parallelSearches")
+	public int getParallelSearches() {
+		return this.parallelSearches;
+	}
+
+	@StringSetter("parallelSearches")
+	public void setParallelSearches(int parallelSearches) {
+		this.parallelSearches = parallelSearches;
+	}
+
+	// number of (global and mobsim) threads of each parallel search
+	public static final int DEFAULT_THREADSPERSEARCH = 1;
+
+	private int threadsPerSearch = DEFAULT_THREADSPERSEARCH;
+
+	@StringGetter("threadsPerSearch")
+	public int getThreadsPerSearch() {
+		return this.threadsPerSearch;
+	}
+
+	@StringSetter("threadsPerSearch")
+	public void setThreadsPerSearch(int threadsPerSearch) {
+		this.threadsPerSearch = threadsPerSearch;
+	}
+
+	// ==================== INSTRUMENTATION ====================
+
+	// use an InstrumentedOpdytsProgressListener (per-phase timing and memory)
+	public static final boolean DEFAULT_INSTRUMENTATION = false;
+
+	private boolean instrumentation = DEFAULT_INSTRUMENTATION;
+
+	@StringGetter("instrumentation")
+	public boolean getInstrumentation() {
+		return this.instrumentation;
+	}
+
+	@StringSetter("instrumentation")
+	public void setInstrumentation(boolean instrumentation) {
+		this.instrumentation = instrumentation;
+	}
+
+	// wrap every macro-state analyzer into a ProfilingMacroStateAnalyzer (logs event counts and handler times)
+	public static final boolean DEFAULT_MACROSTATEANALYZERPROFILING = false;
+
+	private boolean macroStateAnalyzerProfiling = DEFAULT_MACROSTATEANALYZERPROFILING;
+
+	@StringGetter("macroStateAnalyzerProfiling")
+	public boolean getMacroStateAnalyzerProfiling() {
+		return this.macroStateAnalyzerProfiling;
+	}
+
+	@StringSetter("macroStateAnalyzerProfiling")
+	public void setMacroStateAnalyzerProfiling(boolean macroStateAnalyzerProfiling) {
+		this.macroStateAnalyzerProfiling = macroStateAnalyzerProfiling;
+	}
+
 	// =============== FIXED-ITERATION-NUMBER CONVERGENCE CRITERION ===============
 
 	private Integer numberOfIterationsForAveraging = null;
@@ -21,6 +21,7 @@ package org.matsim.contrib.opdyts;
 
 import org.matsim.core.controler.events.AfterMobsimEvent;
 import org.matsim.core.controler.events.BeforeMobsimEvent;
+import org.matsim.core.controler.events.ShutdownEvent;
 import org.matsim.core.controler.events.StartupEvent;
 
 /**
@@ -39,6 +40,9 @@ public interface OpdytsProgressListener {
 	public default void callToNotifyAfterMobsim_opdyts(AfterMobsimEvent event) {
 	}
 
+	public default void callToNotifyShutdown_opdyts(ShutdownEvent event) {
+	}
+
 	public default void expectToBeBeforePhysicalMobsimRun(int iteration) {
 	}
 
@@ -48,6 +52,19 @@ public interface OpdytsProgressListener {
 	public default void beforeOtherThanVeryFirstPhysicalMobsimRun(int iteration) {
 	}
 
+	public default void extractedStateVector(int iteration) {
+	}
+
+	public default void createdState(int iteration) {
+	}
+
+	// called within trajectorySampler.afterIteration(..), possibly more than once
+	public default void beforeObjectiveFunctionEvaluation() {
+	}
+
+	public default void afterObjectiveFunctionEvaluation() {
+	}
+
 	public default void extractedStateAndCalledTrajectorySampler(int iteration) {
 	}
 
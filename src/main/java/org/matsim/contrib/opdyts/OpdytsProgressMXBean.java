@@ -0,0 +1,46 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts;
+
+/**
+ * JMX view of an InstrumentedOpdytsProgressListener. All arrays are indexed
+ * like getPhases().
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public interface OpdytsProgressMXBean {
+
+	public String[] getPhases();
+
+	// the last completed physical mobsim iteration
+	public int getIteration();
+
+	public double[] getWallTimes_ms();
+
+	// -1 if allocation measurement is not supported by the JVM
+	public long[] getAllocatedBytes();
+
+	// summed over all iterations of all stages
+	public double[] getTotalWallTimes_ms();
+
+	public long getUsedHeap_bytes();
+
+}
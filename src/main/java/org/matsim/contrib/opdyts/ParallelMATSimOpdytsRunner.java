@@ -0,0 +1,210 @@
+package org.matsim.contrib.opdyts;
+
+import static java.lang.Math.min;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.contrib.opdyts.distributed.LocalJavaProcess;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+
+/**
+ * Runs several independent MATSim/Opdyts searches at the same time, each in a
+ * JVM process of its own. Every search loads the scenario from the given
+ * config file, writes into its own output directory (the configured one with
+ * suffix "_<search index>"), uses its own random seed and is limited to the
+ * configured number of threads.
+ * <p>
+ * Opdyts' RandomSearch evaluates the candidate decision variables of one stage
+ * within a single MATSim run and starts the next stage only once this run has
+ * terminated, so a single search cannot be parallelized from the outside. What
+ * can be parallelized are independent searches, e.g. from different initial
+ * decision variables or with different randomizer seeds. Every search
+ * typically creates, configures and runs its own MATSimOpdytsRunner; its
+ * result (e.g. the best found decision variable) is returned to the caller.
+ * <p>
+ * Separate processes are needed because MATSim keeps global static state
+ * (MatsimRandom, the logging into the output directory). Each search is hence
+ * reproducible on its own. The log of search i and its serialized result are
+ * kept as search_[i].log and result_[i].ser in the working directory.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class ParallelMATSimOpdytsRunner {
+
+	// -------------------- TYPES --------------------
+
+	/**
+	 * One search. Implementations need a public no-argument constructor because
+	 * they are instantiated by class name in the search process.
+	 */
+	public static interface Search<R extends Serializable> {
+
+		/**
+		 * @param searchIndex
+		 *            the index of this search, starting at zero
+		 * @param scenario
+		 *            the search-specific scenario
+		 * @return the result of this search
+		 */
+		public R run(int searchIndex, Scenario scenario);
+
+	}
+
+	// -------------------- CONSTANTS --------------------
+
+	private static final Logger log = Logger.getLogger(ParallelMATSimOpdytsRunner.class);
+
+	private final String configFileName;
+
+	private final File workingDirectory;
+
+	private final int searchCnt;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	/**
+	 * @param configFileName
+	 *            the config file from which every search loads its scenario
+	 * @param workingDirectory
+	 *            receives the logs and the results of all searches; must not be
+	 *            within an output directory of a search
+	 */
+	public ParallelMATSimOpdytsRunner(final String configFileName, final String workingDirectory) {
+		final OpdytsConfigGroup opdytsConfig = ConfigUtils
+				.addOrGetModule(ConfigUtils.loadConfig(configFileName, new OpdytsConfigGroup()), OpdytsConfigGroup.class);
+		if (opdytsConfig.getParallelSearches() < 1) {
+			throw new RuntimeException(
+					"Number of parallel searches must be at least one but is " + opdytsConfig.getParallelSearches() + ".");
+		}
+		if (opdytsConfig.getThreadsPerSearch() < 1) {
+			throw new RuntimeException(
+					"Number of threads per search must be at least one but is " + opdytsConfig.getThreadsPerSearch() + ".");
+		}
+		this.configFileName = new File(configFileName).getAbsolutePath();
+		this.workingDirectory = new File(workingDirectory);
+		if (!this.workingDirectory.exists() && !this.workingDirectory.mkdirs()) {
+			throw new RuntimeException("Could not create directory " + workingDirectory);
+		}
+		this.searchCnt = opdytsConfig.getParallelSearches();
+	}
+
+	// -------------------- GETTERS --------------------
+
+	public int getSearchCnt() {
+		return this.searchCnt;
+	}
+
+	// -------------------- INTERNALS --------------------
+
+	private File logFile(final int searchIndex) {
+		return new File(this.workingDirectory, "search_" + searchIndex + ".log");
+	}
+
+	private File resultFile(final int searchIndex) {
+		return new File(this.workingDirectory, "result_" + searchIndex + ".ser");
+	}
+
+	/**
+	 * Makes the config specific to the search with the given index.
+	 */
+	static void configureSearch(final Config config, final int searchIndex) {
+		final OpdytsConfigGroup opdytsConfig = ConfigUtils.addOrGetModule(config, OpdytsConfigGroup.class);
+		final int threadCnt = opdytsConfig.getThreadsPerSearch();
+		// the path of a File has no trailing separator; "output/" becomes "output_0"
+		config.controler()
+				.setOutputDirectory(new File(config.controler().getOutputDirectory()).getPath() + "_" + searchIndex);
+		config.global().setRandomSeed(config.global().getRandomSeed() + searchIndex);
+		config.global().setNumberOfThreads(threadCnt);
+		config.qsim().setNumberOfThreads(threadCnt);
+		opdytsConfig.setMicroStateThreads(min(opdytsConfig.getMicroStateThreads(), threadCnt));
+	}
+
+	// -------------------- RUN --------------------
+
+	/**
+	 * Runs all searches at the same time, each in its own JVM process, and
+	 * returns their results, ordered by search index.
+	 *
+	 * @param searchClass
+	 *            is instantiated once per search, in the process of that search
+	 */
+	public <R extends Serializable> List<R> run(final Class<? extends Search<R>> searchClass) {
+		final List<Process> processes = new ArrayList<>(this.searchCnt);
+		try {
+			for (int i = 0; i < this.searchCnt; i++) {
+				this.resultFile(i).delete();
+				processes.add(LocalJavaProcess.start(ParallelMATSimOpdytsRunner.class, this.logFile(i),
+						this.configFileName, Integer.toString(i), searchClass.getName(),
+						this.resultFile(i).getAbsolutePath()));
+				log.info("Started search " + i + ", log file: " + this.logFile(i));
+			}
+			final List<R> results = new ArrayList<>(this.searchCnt);
+			for (int i = 0; i < this.searchCnt; i++) {
+				final int exitValue = processes.get(i).waitFor();
+				if (exitValue != 0) {
+					throw new RuntimeException(
+							"Search " + i + " failed with exit value " + exitValue + ", see " + this.logFile(i));
+				}
+				try (ObjectInputStream in = new ObjectInputStream(
+						new BufferedInputStream(new FileInputStream(this.resultFile(i))))) {
+					@SuppressWarnings("unchecked")
+					final R result = (R) in.readObject();
+					results.add(result);
+				}
+				log.info("Completed search " + i + ".");
+			}
+			return results;
+		} catch (IOException | ClassNotFoundException | InterruptedException e) {
+			throw new RuntimeException(e);
+		} finally {
+			for (Process process : processes) {
+				process.destroyForcibly();
+			}
+		}
+	}
+
+	// -------------------- MAIN-FUNCTION --------------------
+
+	/**
+	 * Runs one search. Usage: ParallelMATSimOpdytsRunner [config file] [search
+	 * index] [search class] [result file].
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 4) {
+			throw new RuntimeException(
+					"Usage: ParallelMATSimOpdytsRunner [config file] [search index] [search class] [result file]");
+		}
+		final int searchIndex = Integer.parseInt(args[1]);
+		final Config config = ConfigUtils.loadConfig(args[0], new OpdytsConfigGroup());
+		configureSearch(config, searchIndex);
+		final Scenario scenario = ScenarioUtils.loadScenario(config);
+		final Search<?> search = (Search<?>) Class.forName(args[2]).getConstructor().newInstance();
+		final Serializable result = search.run(searchIndex, scenario);
+
+		// written under a temporary name such that the result file is complete
+		final File resultFile = new File(args[3]);
+		final File tmpFile = new File(args[3] + ".tmp");
+		try (ObjectOutputStream out = new ObjectOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+			out.writeObject(result);
+		}
+		Files.move(tmpFile.toPath(), resultFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+	}
+}
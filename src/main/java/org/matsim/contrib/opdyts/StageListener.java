@@ -0,0 +1,19 @@
+package org.matsim.contrib.opdyts;
+
+/**
+ * Is notified by MATSimSimulationWrapper before and after every optimization
+ * stage (i.e. every MATSim run). A convergence criterion that implements this
+ * interface is registered automatically by MATSimOpdytsRunner.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public interface StageListener {
+
+	public default void startStage(int stage) {
+	}
+
+	public default void endStage(int stage) {
+	}
+
+}
@@ -5,6 +5,8 @@ import java.util.List;
 
 import org.matsim.api.core.v01.population.Population;
 import org.matsim.contrib.opdyts.macrostate.SimulationMacroStateAnalyzer;
+import org.matsim.contrib.opdyts.macrostate.SparseStateVector;
+import org.matsim.contrib.opdyts.microstate.MATSimState;
 import org.matsim.contrib.opdyts.microstate.MATSimStateFactory;
 import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.controler.events.AfterMobsimEvent;
@@ -60,7 +62,12 @@ class WireOpdytsIntoMATSimControlerListener<U extends DecisionVariable, X extend
 	@Inject
 	private OpdytsProgressListener opdytsProgressListener;
 
-	private LinkedList<Vector> stateList = null;
+	private LinkedList<SparseStateVector> stateList = null;
+
+	// Created upon the first state extraction, then reused.
+	private SparseStateVector.Builder stateBuilder = null;
+
+	private int[] stateOffsets = null;
 
 	private X finalState = null;
 
@@ -82,20 +89,22 @@ class WireOpdytsIntoMATSimControlerListener<U extends DecisionVariable, X extend
 	// -------------------- INTERNALS --------------------
 
 	private X newState() {
-		final Vector newSummaryStateVector;
 		if (this.averageMemory) {
 			// average state vectors
-			newSummaryStateVector = this.stateList.getFirst().copy();
+			final Vector newSummaryStateVector = this.stateList.getFirst().toDense();
 			for (int i = 1; i < this.memory; i++) {
-				newSummaryStateVector.add(this.stateList.get(i));
+				newSummaryStateVector.add(this.stateList.get(i).toDense());
 			}
 			newSummaryStateVector.mult(1.0 / this.memory);
+			return this.stateFactory.newState(this.population, newSummaryStateVector,
+					this.trajectorySampler.getCurrentDecisionVariable());
 		} else {
 			// concatenate state vectors
-			newSummaryStateVector = Vector.concat(this.stateList);
+			final SparseStateVector newSummaryStateVector = (this.stateList.size() == 1) ? this.stateList.getFirst()
+					: SparseStateVector.concat(this.stateList);
+			return this.stateFactory.newState(this.population, newSummaryStateVector,
+					this.trajectorySampler.getCurrentDecisionVariable());
 		}
-		return this.stateFactory.newState(this.population, newSummaryStateVector,
-				this.trajectorySampler.getCurrentDecisionVariable());
 	}
 
 	// -------------------- RESULT ACCESS --------------------
@@ -115,7 +124,7 @@ class WireOpdytsIntoMATSimControlerListener<U extends DecisionVariable, X extend
 
 		this.opdytsProgressListener.callToNotifyStartup_opdyts(event);
 
-		this.stateList = new LinkedList<Vector>();
+		this.stateList = new LinkedList<SparseStateVector>();
 
 		if (this.simulationStateAnalyzers.isEmpty()) {
 			throw new RuntimeException("No simulation state analyzers have been added.");
@@ -154,15 +163,24 @@ class WireOpdytsIntoMATSimControlerListener<U extends DecisionVariable, X extend
 				/*
 				 * (2) Extract the instantaneous state vector.
 				 */
-				Vector newInstantaneousStateVector = null;
-				for (SimulationMacroStateAnalyzer analyzer : this.simulationStateAnalyzers) {
-					if (newInstantaneousStateVector == null) {
-						newInstantaneousStateVector = analyzer.newStateVectorRepresentation();
-					} else {
-						newInstantaneousStateVector = Vector.concat(newInstantaneousStateVector,
-								analyzer.newStateVectorRepresentation());
+				if (this.stateBuilder == null) {
+					// Analyzer dimensions are fixed.
+					this.stateOffsets = new int[this.simulationStateAnalyzers.size()];
+					int dimension = 0;
+					for (int i = 0; i < this.simulationStateAnalyzers.size(); i++) {
+						this.stateOffsets[i] = dimension;
+						dimension += this.simulationStateAnalyzers.get(i).getStateDimension();
 					}
+					this.stateBuilder = new SparseStateVector.Builder(dimension);
+				}
+				this.stateBuilder.clear();
+				for (int i = 0; i < this.simulationStateAnalyzers.size(); i++) {
+					this.simulationStateAnalyzers.get(i).addStateVectorRepresentation(this.stateBuilder,
+							this.stateOffsets[i]);
 				}
+				// A copy, because the sampler keeps the states. The builder's buffers are reused.
+				final SparseStateVector newInstantaneousStateVector = this.stateBuilder.build();
+				this.opdytsProgressListener.extractedStateVector(event.getIteration());
 
 				/*
 				 * (3) Add instantaneous state vector to the list of past state vectors and
@@ -181,7 +199,9 @@ class WireOpdytsIntoMATSimControlerListener<U extends DecisionVariable, X extend
 				 * (4) Inform the TrajectorySampler that one iteration has been completed and
 				 * provide the resulting state.
 				 */
-				this.trajectorySampler.afterIteration(this.newState());
+				final X newState = this.newState();
+				this.opdytsProgressListener.createdState(event.getIteration());
+				this.trajectorySampler.afterIteration(newState);
 
 				// TODO NEW 2018-11-20
 				if (this.directlyAdjustedDecisionVariable != null) {
@@ -197,7 +217,7 @@ class WireOpdytsIntoMATSimControlerListener<U extends DecisionVariable, X extend
 			 */
 			for (SimulationMacroStateAnalyzer analyzer : this.simulationStateAnalyzers) {
 				analyzer.clear();
-				this.eventsManager.addHandler(analyzer);
+				this.eventsManager.addHandler(analyzer.getEventHandler());
 			}
 			this.opdytsProgressListener.clearedAndAddedMacroStateAnalyzers(event.getIteration());
 
@@ -209,13 +229,16 @@ class WireOpdytsIntoMATSimControlerListener<U extends DecisionVariable, X extend
 
 		this.opdytsProgressListener.callToNotifyAfterMobsim_opdyts(event);
 
+		// Scoring and replanning are about to change the plans.
+		this.stateFactory.beforePopulationChange();
+
 		if (event.getIteration() % this.numberOfEnBlockMatsimIterations == 0) {
 			/*
 			 * This is after a physical mobsim. Remove the macro state analyzers.
 			 */
 			this.opdytsProgressListener.expectToBeAfterAPhysicalMobsimRun(event.getIteration());
 			for (SimulationMacroStateAnalyzer analyzer : this.simulationStateAnalyzers) {
-				this.eventsManager.removeHandler(analyzer);
+				this.eventsManager.removeHandler(analyzer.getEventHandler());
 			}
 			this.opdytsProgressListener.removedButDidNotClearMacroStateAnalyzers(event.getIteration());
 		}
@@ -230,5 +253,10 @@ class WireOpdytsIntoMATSimControlerListener<U extends DecisionVariable, X extend
 	@Override
 	public void notifyShutdown(final ShutdownEvent event) {
 		this.finalState = this.newState();
+		// The final state is the initial state of the next stage.
+		if (this.finalState instanceof MATSimState) {
+			((MATSimState) this.finalState).materialize();
+		}
+		this.opdytsProgressListener.callToNotifyShutdown_opdyts(event);
 	}
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.buildingblocks.calibration.counting;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates the absolute count deviations of all specifications of an
+ * AggregatedLinkEntryCounter in one pass. The real data of all specifications
+ * is packed into one array that is aligned with the counter's (equally packed)
+ * simulated counts, such that the evaluation is a tight loop over two
+ * contiguous arrays. The per-specification results equal those of the
+ * corresponding AbsoluteLinkEntryCountDeviationObjectiveFunction instances.
+ * <p>
+ * Besides the absolute (L1) deviations, the same pass can compute the squared
+ * (L2), relative and GEH deviations, which LinkEntryCountDeviationObjectiveFunction
+ * builds on.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see AbsoluteLinkEntryCountDeviationObjectiveFunction
+ * @see LinkEntryCountDeviationObjectiveFunction
+ */
+public class AbsoluteLinkEntryCountDeviationBatch {
+
+	// -------------------- CONSTANTS --------------------
+
+	private final AggregatedLinkEntryCounter simulationCounter;
+
+	private final double simulatedPopulationShare;
+
+	// aligned with the counter's packed counts
+	private final double[] packedRealData;
+
+	// specification s has its bins at [slotOffsets[s], slotOffsets[s + 1])
+	private final int[] slotOffsets;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	public AbsoluteLinkEntryCountDeviationBatch(final AggregatedLinkEntryCounter simulationCounter,
+			final Map<CountMeasurementSpecification, double[]> spec2realData, final double simulatedPopulationShare) {
+		this.simulationCounter = simulationCounter;
+		this.simulatedPopulationShare = simulatedPopulationShare;
+
+		final int slotCnt = simulationCounter.getSpecifications().size();
+		this.slotOffsets = new int[slotCnt + 1];
+		for (int slot = 0; slot <= slotCnt; slot++) {
+			this.slotOffsets[slot] = simulationCounter.getSlotOffset(slot);
+		}
+
+		this.packedRealData = simulationCounter.newPackedData(spec2realData);
+	}
+
+	// -------------------- GETTERS --------------------
+
+	public int size() {
+		return this.slotOffsets.length - 1;
+	}
+
+	// the s-th specification is evaluated into result[s]
+	public List<CountMeasurementSpecification> getSpecifications() {
+		return this.simulationCounter.getSpecifications();
+	}
+
+	// -------------------- EVALUATION --------------------
+
+	private int[] getSimData() {
+		final int[] simData = this.simulationCounter.getPackedCountsOfLastCompletedIteration();
+		if (simData == null) {
+			throw new RuntimeException("No iteration has been completed yet.");
+		}
+		return simData;
+	}
+
+	/**
+	 * Writes the deviation of the s-th specification of the counter into
+	 * result[s]. Does not allocate.
+	 */
+	public void evaluate(final double[] result) {
+		final int[] simData = this.getSimData();
+		final double[] realData = this.packedRealData;
+		final double share = this.simulatedPopulationShare;
+		for (int slot = 0; slot < this.size(); slot++) {
+			double sum = 0;
+			for (int i = this.slotOffsets[slot]; i < this.slotOffsets[slot + 1]; i++) {
+				sum += Math.abs(realData[i] - simData[i] / share);
+			}
+			result[slot] = sum;
+		}
+	}
+
+	public double[] evaluate() {
+		final double[] result = new double[this.size()];
+		this.evaluate(result);
+		return result;
+	}
+
+	/**
+	 * Writes the absolute, squared, relative and GEH deviation of the s-th
+	 * specification of the counter into the s-th element of the respective
+	 * array, computed in one pass. The relative deviation of a time bin is |sim -
+	 * real| / max(real, 1), its GEH value is sqrt(2 (sim - real)^2 / (sim +
+	 * real)). Does not allocate.
+	 */
+	public void evaluate(final double[] absolute, final double[] squared, final double[] relative,
+			final double[] geh) {
+		final int[] simData = this.getSimData();
+		final double[] realData = this.packedRealData;
+		final double share = this.simulatedPopulationShare;
+		for (int slot = 0; slot < this.size(); slot++) {
+			double absoluteSum = 0;
+			double squaredSum = 0;
+			double relativeSum = 0;
+			double gehSum = 0;
+			for (int i = this.slotOffsets[slot]; i < this.slotOffsets[slot + 1]; i++) {
+				final double real = realData[i];
+				final double sim = simData[i] / share;
+				final double diff = sim - real;
+				final double absDiff = Math.abs(diff);
+				absoluteSum += absDiff;
+				squaredSum += diff * diff;
+				relativeSum += absDiff / Math.max(real, 1.0);
+				if (sim + real > 0) {
+					gehSum += Math.sqrt(2.0 * diff * diff / (sim + real));
+				}
+			}
+			absolute[slot] = absoluteSum;
+			squared[slot] = squaredSum;
+			relative[slot] = relativeSum;
+			geh[slot] = gehSum;
+		}
+	}
+}
@@ -40,12 +40,14 @@ public class AbsoluteLinkEntryCountDeviationObjectiveFunction
 
 	private final double[] realData;
 
-	private final LinkEntryCounter simulationCounter;
+	private final LinkEntryCountSource simulationCounter;
 
 	private final double simulatedPopulationShare;
 
+	private double[] simulatedDataBuffer = null;
+
 	public AbsoluteLinkEntryCountDeviationObjectiveFunction(final double[] realData,
-			final LinkEntryCounter simulationCounter, final double simulatedPopulationShare) {
+			final LinkEntryCountSource simulationCounter, final double simulatedPopulationShare) {
 		this.realData = realData;
 		this.simulationCounter = simulationCounter;
 		this.simulatedPopulationShare = simulatedPopulationShare;
@@ -57,27 +59,28 @@ public class AbsoluteLinkEntryCountDeviationObjectiveFunction
 
 	@Override
 	public double value(final MATSimState state) {
-		final int[] simData = this.simulationCounter.getDataOfLastCompletedIteration();
 		double result = 0;
 		for (int i = 0; i < this.realData.length; i++) {
-			result += Math.abs(this.realData[i] - simData[i] / this.simulatedPopulationShare);
+			result += Math.abs(this.realData[i]
+					- this.simulationCounter.getCountOfLastCompletedIteration(i) / this.simulatedPopulationShare);
 		}
 		return result;
 	}
 
 	@Override
 	public String toString() {
-		final StringBuffer result = new StringBuffer();
-		result.append("LINKS: " + this.getSpecification().getLinks() + "\n");
-		result.append("TIMES: " + this.getSpecification().getTimeDiscretization() + "\n");
+		final StringBuilder result = new StringBuilder();
+		result.append("LINKS: ").append(this.getSpecification().getLinks()).append("\n");
+		result.append("TIMES: ").append(this.getSpecification().getTimeDiscretization()).append("\n");
 		result.append("real: ");
 		for (double val : this.realData) {
-			result.append("\t" + val);
+			result.append("\t").append(val);
 		}
 		result.append("\n");
 		result.append("simu: ");
-		for (int val : this.simulationCounter.getDataOfLastCompletedIteration()) {
-			result.append("\t" + val / this.simulatedPopulationShare);
+		for (int i = 0; i < this.realData.length; i++) {
+			result.append("\t").append(this.simulationCounter.getCountOfLastCompletedIteration(i)
+					/ this.simulatedPopulationShare);
 		}
 		result.append("\n");
 		return result.toString();
@@ -96,18 +99,22 @@ public class AbsoluteLinkEntryCountDeviationObjectiveFunction
 		return this.simulationCounter.getSpecification().getTimeDiscretization();
 	}
 
+	/**
+	 * The returned array is re-used and overwritten in the next call.
+	 */
 	@Override
 	public double[] getSimulatedData() {
-		final int[] source = this.simulationCounter.getDataOfLastCompletedIteration();
-		if (source == null) {
+		if (this.simulationCounter.getLastCompletedIteration() == null) {
 			return null;
-		} else {
-			final double[] result = new double[source.length];
-			for (int i = 0; i < result.length; i++) {
-				result[i] = source[i] / this.simulatedPopulationShare;
-			}
-			return result;
 		}
+		if (this.simulatedDataBuffer == null) {
+			this.simulatedDataBuffer = new double[this.realData.length];
+		}
+		for (int i = 0; i < this.simulatedDataBuffer.length; i++) {
+			this.simulatedDataBuffer[i] = this.simulationCounter.getCountOfLastCompletedIteration(i)
+					/ this.simulatedPopulationShare;
+		}
+		return this.simulatedDataBuffer;
 	}
 
 	@Override
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.buildingblocks.calibration.counting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.controler.events.AfterMobsimEvent;
+import org.matsim.core.controler.listener.AfterMobsimListener;
+import org.matsim.vehicles.Vehicle;
+
+import floetteroed.utilities.TimeDiscretization;
+
+/**
+ * Counts link entries for many count measurement specifications in one event
+ * handler, replacing one LinkEntryCounter per specification.
+ * <p>
+ * Every specification is a slot with its own range of bins in one contiguous
+ * count array. Every relevant link has a dense index, through which an
+ * inverted index (in compressed row format) yields the slots that observe this
+ * link. Handling a link entry hence takes one hash lookup and touches only the
+ * slots of the entered link.
+ * <p>
+ * Counts are double-buffered: after every mobsim run, the buffer of the
+ * running iteration becomes the buffer of the last completed iteration and
+ * the other buffer is cleared for the next iteration. Nothing is allocated
+ * per iteration unless the (copying) getDataOfLastCompletedIteration() of a
+ * slot is used.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see LinkEntryCounter
+ */
+public class AggregatedLinkEntryCounter implements LinkEnterEventHandler, AfterMobsimListener {
+
+	// -------------------- CONSTANTS --------------------
+
+	private final List<CountMeasurementSpecification> specifications;
+
+	private final TimeDiscretization[] slotTimeDiscretizations;
+
+	private final List<Filter<Id<Vehicle>>> slotVehicleFilters;
+
+	// slot s has its bins at [slotOffsets[s], slotOffsets[s + 1])
+	private final int[] slotOffsets;
+
+	private final Map<Id<Link>, Integer> link2index = new HashMap<>();
+
+	// the slots of link index l are linkSlots[linkSlotStarts[l]], ..., linkSlots[linkSlotStarts[l + 1] - 1]
+	private final int[] linkSlotStarts;
+
+	private final int[] linkSlots;
+
+	private final Map<CountMeasurementSpecification, LinkEntryCountSource> specification2source = new LinkedHashMap<>();
+
+	// -------------------- MEMBERS --------------------
+
+	// the buffer of the running iteration
+	private int[] counts;
+
+	// the buffer of the last completed iteration
+	private int[] countsOfLastCompletedIteration = null;
+
+	private Integer lastCompletedIteration = null;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	public AggregatedLinkEntryCounter(final Collection<CountMeasurementSpecification> specifications) {
+		// without duplicates
+		this.specifications = Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(specifications)));
+
+		final int slotCnt = this.specifications.size();
+		this.slotTimeDiscretizations = new TimeDiscretization[slotCnt];
+		this.slotVehicleFilters = new ArrayList<>(slotCnt);
+		this.slotOffsets = new int[slotCnt + 1];
+		final Map<Id<Link>, List<Integer>> link2slots = new LinkedHashMap<>();
+		for (int slot = 0; slot < slotCnt; slot++) {
+			final CountMeasurementSpecification spec = this.specifications.get(slot);
+			this.slotTimeDiscretizations[slot] = spec.getTimeDiscretization();
+			this.slotVehicleFilters.add(spec.getVehicleFilter());
+			this.slotOffsets[slot + 1] = this.slotOffsets[slot] + spec.getTimeDiscretization().getBinCnt();
+			for (Id<Link> linkId : spec.getLinks()) {
+				link2slots.computeIfAbsent(linkId, l -> new ArrayList<>()).add(slot);
+			}
+		}
+
+		this.linkSlotStarts = new int[link2slots.size() + 1];
+		int linkSlotCnt = 0;
+		for (List<Integer> slots : link2slots.values()) {
+			linkSlotCnt += slots.size();
+		}
+		this.linkSlots = new int[linkSlotCnt];
+		int linkIndex = 0;
+		int k = 0;
+		for (Map.Entry<Id<Link>, List<Integer>> entry : link2slots.entrySet()) {
+			this.link2index.put(entry.getKey(), linkIndex);
+			for (Integer slot : entry.getValue()) {
+				this.linkSlots[k++] = slot;
+			}
+			this.linkSlotStarts[++linkIndex] = k;
+		}
+
+		this.counts = new int[this.slotOffsets[slotCnt]];
+
+		for (int slot = 0; slot < slotCnt; slot++) {
+			this.specification2source.put(this.specifications.get(slot), new SlotSource(slot));
+		}
+	}
+
+	// -------------------- INTERNALS --------------------
+
+	private class SlotSource implements LinkEntryCountSource {
+
+		private final int slot;
+
+		private Integer dataIteration = null;
+
+		private int[] data = null;
+
+		private SlotSource(final int slot) {
+			this.slot = slot;
+		}
+
+		@Override
+		public CountMeasurementSpecification getSpecification() {
+			return specifications.get(this.slot);
+		}
+
+		@Override
+		public Integer getLastCompletedIteration() {
+			return lastCompletedIteration;
+		}
+
+		@Override
+		public int getCountOfLastCompletedIteration(final int bin) {
+			return countsOfLastCompletedIteration[slotOffsets[this.slot] + bin];
+		}
+
+		// a copy of this slot's bins, created once per iteration
+		@Override
+		public int[] getDataOfLastCompletedIteration() {
+			if (countsOfLastCompletedIteration == null) {
+				return null;
+			}
+			if ((this.data == null) || !lastCompletedIteration.equals(this.dataIteration)) {
+				this.data = Arrays.copyOfRange(countsOfLastCompletedIteration, slotOffsets[this.slot],
+						slotOffsets[this.slot + 1]);
+				this.dataIteration = lastCompletedIteration;
+			}
+			return this.data;
+		}
+	}
+
+	// -------------------- CONTENT ACCESS --------------------
+
+	public List<CountMeasurementSpecification> getSpecifications() {
+		return this.specifications;
+	}
+
+	public LinkEntryCountSource getSource(final CountMeasurementSpecification specification) {
+		return this.specification2source.get(specification);
+	}
+
+	public Integer getLastCompletedIteration() {
+		return this.lastCompletedIteration;
+	}
+
+	int getSlotOffset(final int slot) {
+		return this.slotOffsets[slot];
+	}
+
+	// packs per-specification data (one entry per time bin) like the counts
+	double[] newPackedData(final Map<CountMeasurementSpecification, double[]> spec2data) {
+		final double[] result = new double[this.counts.length];
+		for (int slot = 0; slot < this.specifications.size(); slot++) {
+			final CountMeasurementSpecification spec = this.specifications.get(slot);
+			final double[] data = spec2data.get(spec);
+			if (data == null) {
+				throw new RuntimeException("No data for count measurement specification: " + spec);
+			}
+			if (data.length != this.slotOffsets[slot + 1] - this.slotOffsets[slot]) {
+				throw new RuntimeException("Data has " + data.length + " entries but the specification has "
+						+ (this.slotOffsets[slot + 1] - this.slotOffsets[slot]) + " time bins: " + spec);
+			}
+			System.arraycopy(data, 0, result, this.slotOffsets[slot], data.length);
+		}
+		return result;
+	}
+
+	// the counts of all slots, in place
+	int[] getPackedCountsOfLastCompletedIteration() {
+		return this.countsOfLastCompletedIteration;
+	}
+
+	// --------------- IMPLEMENTATION OF LinkEnterEventHandler ---------------
+
+	@Override
+	public void reset(final int iteration) {
+		Arrays.fill(this.counts, 0);
+	}
+
+	@Override
+	public void handleEvent(final LinkEnterEvent event) {
+		final Integer linkIndex = this.link2index.get(event.getLinkId());
+		if (linkIndex != null) {
+			for (int k = this.linkSlotStarts[linkIndex]; k < this.linkSlotStarts[linkIndex + 1]; k++) {
+				final int slot = this.linkSlots[k];
+				final int bin = this.slotTimeDiscretizations[slot].getBin(event.getTime());
+				if ((bin >= 0) && (bin < this.slotTimeDiscretizations[slot].getBinCnt())
+						&& this.slotVehicleFilters.get(slot).test(event.getVehicleId())) {
+					this.counts[this.slotOffsets[slot] + bin]++;
+				}
+			}
+		}
+	}
+
+	// --------------- IMPLEMENTATION OF AfterMobsimHandler ---------------
+
+	@Override
+	public void notifyAfterMobsim(final AfterMobsimEvent event) {
+		this.lastCompletedIteration = event.getIteration();
+		final int[] completedCounts = this.counts;
+		this.counts = (this.countsOfLastCompletedIteration != null) ? this.countsOfLastCompletedIteration
+				: new int[completedCounts.length];
+		this.countsOfLastCompletedIteration = completedCounts;
+		Arrays.fill(this.counts, 0);
+	}
+}
@@ -37,6 +37,8 @@ public class CountMeasurements {
 
 	private Map<CountMeasurementSpecification, double[]> measSpec2data = new LinkedHashMap<>();
 
+	private Map<CountMeasurementSpecification, Double> measSpec2weight = new LinkedHashMap<>();
+
 	private final double simulatedPopulationShare;
 
 	// -------------------- MEMBERS --------------------
@@ -45,6 +47,8 @@ public class CountMeasurements {
 
 	private List<AbsoluteLinkEntryCountDeviationObjectiveFunction> objectiveFunctions = null;
 
+	private AbsoluteLinkEntryCountDeviationBatch deviationBatch = null;
+
 	// -------------------- CONSTRUCTION --------------------
 
 	public CountMeasurements(final double simulatedPopulationShare) {
@@ -57,36 +61,33 @@ public class CountMeasurements {
 		this.measSpec2data.put(spec, data);
 	}
 
+	// the weight is only used by newDeviationObjectiveFunction(..)
+	public void addMeasurement(final CountMeasurementSpecification spec, double[] data, final double weight) {
+		this.addMeasurement(spec, data);
+		this.measSpec2weight.put(spec, weight);
+	}
+
 	// -------------------- BUILDING --------------------
 
 	public void build() {
 
-		this.modules = new ArrayList<>(this.measSpec2data.size());
-		this.objectiveFunctions = new ArrayList<>(this.measSpec2data.size());
-		final Map<CountMeasurementSpecification, LinkEntryCounter> measSpec2linkEntryCounter = new LinkedHashMap<>();
-
-		for (Map.Entry<CountMeasurementSpecification, double[]> entry : this.measSpec2data.entrySet()) {
-			final CountMeasurementSpecification spec = entry.getKey();
-
-			final LinkEntryCounter simCounter;
-			if (measSpec2linkEntryCounter.containsKey(spec)) {
-				simCounter = measSpec2linkEntryCounter.get(spec);
-			} else {
-				simCounter = new LinkEntryCounter(spec);
-				measSpec2linkEntryCounter.put(spec, simCounter);
-				this.modules.add(new AbstractModule() {
-					@Override
-					public void install() {
-						this.addEventHandlerBinding().toInstance(simCounter);
-						this.addControlerListenerBinding().toInstance(simCounter);
-					}
-				});
+		final AggregatedLinkEntryCounter simCounter = new AggregatedLinkEntryCounter(this.measSpec2data.keySet());
+		this.modules = new ArrayList<>(1);
+		this.modules.add(new AbstractModule() {
+			@Override
+			public void install() {
+				this.addEventHandlerBinding().toInstance(simCounter);
+				this.addControlerListenerBinding().toInstance(simCounter);
 			}
+		});
 
-			final double[] data = entry.getValue();
-			this.objectiveFunctions.add(new AbsoluteLinkEntryCountDeviationObjectiveFunction(data, simCounter,
-					this.simulatedPopulationShare));
+		this.objectiveFunctions = new ArrayList<>(this.measSpec2data.size());
+		for (Map.Entry<CountMeasurementSpecification, double[]> entry : this.measSpec2data.entrySet()) {
+			this.objectiveFunctions.add(new AbsoluteLinkEntryCountDeviationObjectiveFunction(entry.getValue(),
+					simCounter.getSource(entry.getKey()), this.simulatedPopulationShare));
 		}
+		this.deviationBatch = new AbsoluteLinkEntryCountDeviationBatch(simCounter, this.measSpec2data,
+				this.simulatedPopulationShare);
 	}
 
 	// -------------------- GETTERS --------------------
@@ -99,4 +100,28 @@ public class CountMeasurements {
 		return this.objectiveFunctions;
 	}
 
+	/**
+	 * A single objective function over all measurements, as an alternative to
+	 * summing up getObjectiveFunctions(). Requires build() to be called first;
+	 * getModules() are also needed by the returned instance, which evaluates
+	 * through getDeviationBatch().
+	 */
+	public LinkEntryCountDeviationObjectiveFunction newDeviationObjectiveFunction(
+			final LinkEntryCountDeviationObjectiveFunction.Measure measure) {
+		if (this.deviationBatch == null) {
+			throw new RuntimeException("build() has not been called.");
+		}
+		final LinkEntryCountDeviationObjectiveFunction result = new LinkEntryCountDeviationObjectiveFunction(
+				this.deviationBatch, measure);
+		for (Map.Entry<CountMeasurementSpecification, Double> entry : this.measSpec2weight.entrySet()) {
+			result.setWeight(entry.getKey(), entry.getValue());
+		}
+		return result;
+	}
+
+	// evaluates all objective functions at once, in the same order
+	public AbsoluteLinkEntryCountDeviationBatch getDeviationBatch() {
+		return this.deviationBatch;
+	}
+
 }
@@ -19,6 +19,8 @@
  */
 package org.matsim.contrib.opdyts.buildingblocks.calibration.counting;
 
+import java.util.Arrays;
+
 import floetteroed.utilities.TimeDiscretization;
 
 /**
@@ -42,7 +44,11 @@ public class Counter {
 	}
 
 	public void resetData() {
-		this.data = new int[timeDiscr.getBinCnt()];
+		if (this.data == null) {
+			this.data = new int[timeDiscr.getBinCnt()];
+		} else {
+			Arrays.fill(this.data, 0);
+		}
 		this.tooSmallCnt = 0;
 		this.tooLargeCnt = 0;
 	}
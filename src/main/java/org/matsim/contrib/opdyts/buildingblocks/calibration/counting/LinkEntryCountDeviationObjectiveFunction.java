@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.buildingblocks.calibration.counting;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.matsim.contrib.opdyts.microstate.MATSimState;
+import org.matsim.contrib.opdyts.objectivefunction.MATSimObjectiveFunction;
+
+/**
+ * A count calibration objective over all count stations of an
+ * AggregatedLinkEntryCounter. One evaluation computes per station, in a single
+ * pass of an AbsoluteLinkEntryCountDeviationBatch, the absolute (L1), squared
+ * (L2), relative and GEH deviation. The objective function value is the
+ * weighted sum over all stations of one of these measures; the other measures
+ * are available through the getters until the next evaluation.
+ * <p>
+ * The GEH value is computed on the (population share corrected) bin counts; it
+ * has its usual meaning only for hourly bins.
+ * <p>
+ * This replaces one AbsoluteLinkEntryCountDeviationObjectiveFunction per
+ * station, summed through MATSimObjectiveFunctionSum, by a single object.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see AbsoluteLinkEntryCountDeviationObjectiveFunction
+ * @see AbsoluteLinkEntryCountDeviationBatch
+ */
+public class LinkEntryCountDeviationObjectiveFunction implements MATSimObjectiveFunction<MATSimState> {
+
+	// -------------------- CONSTANTS --------------------
+
+	public static enum Measure {
+		ABSOLUTE, SQUARED, RELATIVE, GEH
+	};
+
+	private final AbsoluteLinkEntryCountDeviationBatch deviationBatch;
+
+	private final Measure measure;
+
+	// -------------------- MEMBERS --------------------
+
+	private final double[] slotWeights;
+
+	// statistics of the last evaluation, indexed by [measure ordinal][station]
+	private final double[][] slotStatistics;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	public LinkEntryCountDeviationObjectiveFunction(final AbsoluteLinkEntryCountDeviationBatch deviationBatch,
+			final Measure measure) {
+		this.deviationBatch = deviationBatch;
+		this.measure = measure;
+		this.slotWeights = new double[deviationBatch.size()];
+		Arrays.fill(this.slotWeights, 1.0);
+		this.slotStatistics = new double[Measure.values().length][deviationBatch.size()];
+	}
+
+	public LinkEntryCountDeviationObjectiveFunction(final AggregatedLinkEntryCounter simulationCounter,
+			final Map<CountMeasurementSpecification, double[]> spec2realData, final double simulatedPopulationShare,
+			final Measure measure) {
+		this(new AbsoluteLinkEntryCountDeviationBatch(simulationCounter, spec2realData, simulatedPopulationShare),
+				measure);
+	}
+
+	// -------------------- SETTERS AND GETTERS --------------------
+
+	public void setWeight(final CountMeasurementSpecification spec, final double weight) {
+		final int slot = this.deviationBatch.getSpecifications().indexOf(spec);
+		if (slot < 0) {
+			throw new RuntimeException("Unknown count measurement specification: " + spec);
+		}
+		this.slotWeights[slot] = weight;
+	}
+
+	public Measure getMeasure() {
+		return this.measure;
+	}
+
+	// number of stations (specifications)
+	public int size() {
+		return this.slotWeights.length;
+	}
+
+	// of the last evaluation, unweighted
+	public double getStatistic(final Measure measure, final int station) {
+		return this.slotStatistics[measure.ordinal()][station];
+	}
+
+	// of the last evaluation, weighted sum over all stations
+	public double getTotal(final Measure measure) {
+		final double[] statistics = this.slotStatistics[measure.ordinal()];
+		double result = 0;
+		for (int slot = 0; slot < statistics.length; slot++) {
+			result += this.slotWeights[slot] * statistics[slot];
+		}
+		return result;
+	}
+
+	// -------------------- EVALUATION --------------------
+
+	/**
+	 * Computes all statistics of the last completed iteration in one pass.
+	 * Does not allocate.
+	 */
+	public void evaluate() {
+		this.deviationBatch.evaluate(this.slotStatistics[Measure.ABSOLUTE.ordinal()],
+				this.slotStatistics[Measure.SQUARED.ordinal()], this.slotStatistics[Measure.RELATIVE.ordinal()],
+				this.slotStatistics[Measure.GEH.ordinal()]);
+	}
+
+	// --------------- IMPLEMENTATION OF MATSimObjectiveFunction ---------------
+
+	@Override
+	public double value(final MATSimState state) {
+		this.evaluate();
+		return this.getTotal(this.measure);
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder result = new StringBuilder();
+		result.append("station\tweight");
+		for (Measure measure : Measure.values()) {
+			result.append("\t").append(measure);
+		}
+		result.append("\n");
+		for (int slot = 0; slot < this.size(); slot++) {
+			result.append(this.deviationBatch.getSpecifications().get(slot).getLinks());
+			result.append("\t").append(this.slotWeights[slot]);
+			for (Measure measure : Measure.values()) {
+				result.append("\t").append(this.getStatistic(measure, slot));
+			}
+			result.append("\n");
+		}
+		return result.toString();
+	}
+}
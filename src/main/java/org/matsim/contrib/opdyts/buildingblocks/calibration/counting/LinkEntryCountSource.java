@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.buildingblocks.calibration.counting;
+
+/**
+ * Provides the simulated link entry counts of one count measurement
+ * specification, as of the last completed iteration.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public interface LinkEntryCountSource {
+
+	public CountMeasurementSpecification getSpecification();
+
+	public Integer getLastCompletedIteration();
+
+	/**
+	 * The counts of the last completed iteration, in an array that is not
+	 * changed by later iterations.
+	 */
+	public int[] getDataOfLastCompletedIteration();
+
+	/**
+	 * Reads one count of the last completed iteration in place, without copying
+	 * the counts.
+	 */
+	public int getCountOfLastCompletedIteration(int bin);
+
+}
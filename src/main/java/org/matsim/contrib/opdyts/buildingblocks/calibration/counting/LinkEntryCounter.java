@@ -29,7 +29,7 @@ import org.matsim.core.controler.listener.AfterMobsimListener;
  * @author Gunnar Flötteröd
  *
  */
-public class LinkEntryCounter implements LinkEnterEventHandler, AfterMobsimListener {
+public class LinkEntryCounter implements LinkEnterEventHandler, AfterMobsimListener, LinkEntryCountSource {
 
 	// -------------------- MEMBERS --------------------
 
@@ -68,6 +68,7 @@ public class LinkEntryCounter implements LinkEnterEventHandler, AfterMobsimListe
 	@Override
 	public void notifyAfterMobsim(final AfterMobsimEvent event) {
 		this.lastCompletedIteration = event.getIteration();
+		// a new array, such that earlier results remain valid
 		this.countsOfLastCompletedIteration = new int[this.counter.getData().length];
 		System.arraycopy(this.counter.getData(), 0, this.countsOfLastCompletedIteration, 0,
 				this.counter.getData().length);
@@ -75,15 +76,23 @@ public class LinkEntryCounter implements LinkEnterEventHandler, AfterMobsimListe
 
 	// -------------------- CONTENT ACCESS --------------------
 
+	@Override
 	public CountMeasurementSpecification getSpecification() {
 		return this.specification;
 	}
 
+	@Override
 	public Integer getLastCompletedIteration() {
 		return this.lastCompletedIteration;
 	}
 
+	@Override
 	public int[] getDataOfLastCompletedIteration() {
 		return this.countsOfLastCompletedIteration;
 	}
+
+	@Override
+	public int getCountOfLastCompletedIteration(final int bin) {
+		return this.countsOfLastCompletedIteration[bin];
+	}
 }
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.buildingblocks.convergencecriteria;
+
+import java.util.AbstractList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.matsim.contrib.opdyts.StageListener;
+
+import floetteroed.opdyts.DecisionVariable;
+import floetteroed.opdyts.convergencecriteria.ConvergenceCriterion;
+import floetteroed.opdyts.convergencecriteria.ConvergenceCriterionResult;
+import floetteroed.opdyts.trajectorysampling.Transition;
+
+/**
+ * An AR(1) convergence criterion (see IncrementalAR1ConvergenceCriterion) that
+ * additionally aborts trajectories that are clearly inferior to the best
+ * (lowest) converged objective function value seen so far, the incumbent.
+ * <p>
+ * As long as a trajectory has not converged, the mean of its most recent half
+ * is estimated together with the standard deviation of this mean, where the
+ * latter accounts for serial correlation through the estimated AR(1)
+ * coefficient r: stddev(mean) = stddev / sqrt(n) * sqrt((1 + r) / (1 - r)).
+ * Once the lower confidence bound mean - confidenceFactor * stddev(mean)
+ * exceeds the incumbent, the trajectory is aborted. This is not attempted
+ * before the trajectory is long enough for the AR(1) criterion to decide
+ * (2 * minSampleCntPerParameter + 1 iterations, unless configured otherwise).
+ * <p>
+ * Opdyts only stops simulating a trajectory that is reported as converged, so
+ * an aborted trajectory is reported as converged at its estimated mean. This
+ * estimate stems from a trajectory that may not be stationary yet, so it must
+ * not be used to fit the self-tuner weights; isStageAborted() tells whether
+ * the current stage has ended with an abort (MATSimOpdytsRunner then skips
+ * the self-tuner update of that stage). Aborted trajectories do not update
+ * the incumbent. The per-trajectory estimates are dropped at the start of
+ * every stage.
+ * <p>
+ * Opdyts may pass only a window of the most recent transitions of a
+ * trajectory (maxMemoryPerTrajectory). The criterion of a trajectory is then
+ * rebuilt from the window whenever the window has moved.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see IncrementalAR1ConvergenceCriterion
+ */
+public class EarlyAbortConvergenceCriterion implements ConvergenceCriterion, StageListener {
+
+	// -------------------- TYPES --------------------
+
+	public static enum Status {
+		RUNNING, CONVERGED, ABORTED
+	}
+
+	// -------------------- CONSTANTS --------------------
+
+	private static final Logger log = Logger.getLogger(EarlyAbortConvergenceCriterion.class);
+
+	private final double maxConvergedMeanStddev;
+
+	private final double confidenceFactor;
+
+	// -------------------- PARAMETER MEMBERS --------------------
+
+	private int minSampleCntPerParameter = 5;
+
+	// null means derived from minSampleCntPerParameter
+	private Integer minIterationsBeforeAbort = null;
+
+	// -------------------- MEMBERS --------------------
+
+	// one incrementally updated criterion per trajectory of the current stage
+	private final Map<DecisionVariable, IncrementalAR1ConvergenceCriterion> decisionVariable2criterion = new IdentityHashMap<>();
+
+	// the iteration of the first processed value, per trajectory of the current stage
+	private final Map<DecisionVariable, Integer> decisionVariable2windowStart = new IdentityHashMap<>();
+
+	private Double incumbent = null;
+
+	private int abortedTrajectoriesInStage = 0;
+
+	private int abortedTrajectoriesTotal = 0;
+
+	// {mean, stddev(mean)} of the most recently aborted trajectory
+	private double[] abortEstimate = null;
+
+	private boolean stageAborted = false;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	public EarlyAbortConvergenceCriterion(final double maxConvergedMeanStddev, final double confidenceFactor) {
+		this.maxConvergedMeanStddev = maxConvergedMeanStddev;
+		this.confidenceFactor = confidenceFactor;
+	}
+
+	// -------------------- SETTERS AND GETTERS --------------------
+
+	public void setMinSampleCntPerParameter(final int minSampleCntPerParameter) {
+		this.minSampleCntPerParameter = minSampleCntPerParameter;
+	}
+
+	/**
+	 * Overrides the default of 2 * minSampleCntPerParameter + 1.
+	 */
+	public void setMinIterationsBeforeAbort(final int minIterationsBeforeAbort) {
+		this.minIterationsBeforeAbort = minIterationsBeforeAbort;
+	}
+
+	public int getMinIterationsBeforeAbort() {
+		if (this.minIterationsBeforeAbort != null) {
+			return this.minIterationsBeforeAbort;
+		} else {
+			return 2 * this.minSampleCntPerParameter + 1;
+		}
+	}
+
+	public void setIncumbent(final Double incumbent) {
+		this.incumbent = incumbent;
+	}
+
+	public Double getIncumbent() {
+		return this.incumbent;
+	}
+
+	public int getAbortedTrajectoriesInStage() {
+		return this.abortedTrajectoriesInStage;
+	}
+
+	public int getAbortedTrajectoriesTotal() {
+		return this.abortedTrajectoriesTotal;
+	}
+
+	/**
+	 * True if the trajectory that was most recently reported as converged in
+	 * the current stage was in fact aborted.
+	 */
+	public boolean isStageAborted() {
+		return this.stageAborted;
+	}
+
+	// --------------- IMPLEMENTATION OF StageListener ---------------
+
+	@Override
+	public void startStage(final int stage) {
+		this.decisionVariable2criterion.clear();
+		this.decisionVariable2windowStart.clear();
+		this.abortedTrajectoriesInStage = 0;
+		this.stageAborted = false;
+	}
+
+	@Override
+	public void endStage(final int stage) {
+		log.info("Stage " + stage + ": aborted " + this.abortedTrajectoriesInStage + " trajectories early, "
+				+ this.abortedTrajectoriesTotal + " in total; incumbent is " + this.incumbent
+				+ (this.stageAborted ? "; the stage has ended with an aborted trajectory." : "."));
+	}
+
+	// -------------------- INTERNALS --------------------
+
+	/*
+	 * Returns {mean, stddev(mean)} of the values from firstIndex on, or null if
+	 * there are too few values or no variability.
+	 */
+	private double[] meanAndMeanStddev(final List<Double> values, final int firstIndex) {
+		final int n = values.size() - firstIndex;
+		if (n < 3) {
+			return null;
+		}
+		double sum = 0.0;
+		for (int i = firstIndex; i < values.size(); i++) {
+			sum += values.get(i);
+		}
+		final double mean = sum / n;
+		double sumSquares = 0.0;
+		double sumLagProducts = 0.0;
+		double previous = Double.NaN;
+		for (int i = firstIndex; i < values.size(); i++) {
+			final double value = values.get(i) - mean;
+			sumSquares += value * value;
+			if (i > firstIndex) {
+				sumLagProducts += value * previous;
+			}
+			previous = value;
+		}
+		if (sumSquares <= 0.0) {
+			return null;
+		}
+		final double ar1Coefficient = Math.max(0.0, Math.min(0.99, sumLagProducts / sumSquares));
+		final double stddev = Math.sqrt(sumSquares / (n - 1));
+		final double meanStddev = stddev / Math.sqrt(n) * Math.sqrt((1.0 + ar1Coefficient) / (1.0 - ar1Coefficient));
+		return new double[] { mean, meanStddev };
+	}
+
+	// -------------------- IMPLEMENTATION --------------------
+
+	/**
+	 * Processes the objective function values of the trajectory of the given
+	 * decision variable in the current stage. Consecutive calls for the same
+	 * decision variable may only append values.
+	 */
+	public Status process(final DecisionVariable decisionVariable, final List<Double> objectiveFunctionValues) {
+		return this.process(decisionVariable, objectiveFunctionValues, objectiveFunctionValues.size());
+	}
+
+	/**
+	 * Processes the most recent objective function values of the trajectory of
+	 * the given decision variable in the current stage, which so far has the
+	 * given total length. If the first value belongs to a different iteration
+	 * than in the previous call, the criterion of this trajectory is rebuilt.
+	 */
+	public Status process(final DecisionVariable decisionVariable, final List<Double> objectiveFunctionValues,
+			final int totalLength) {
+
+		IncrementalAR1ConvergenceCriterion criterion = this.decisionVariable2criterion.get(decisionVariable);
+		if (criterion == null) {
+			criterion = new IncrementalAR1ConvergenceCriterion(this.maxConvergedMeanStddev);
+			criterion.setMinSampleCntPerParameter(this.minSampleCntPerParameter);
+			this.decisionVariable2criterion.put(decisionVariable, criterion);
+		}
+		final int windowStart = totalLength - objectiveFunctionValues.size();
+		final Integer previousWindowStart = this.decisionVariable2windowStart.put(decisionVariable, windowStart);
+		if ((objectiveFunctionValues.size() < criterion.getDataCnt()) || (previousWindowStart == null)
+				|| (previousWindowStart != windowStart)) {
+			criterion.clear();
+		}
+		for (int i = criterion.getDataCnt(); i < objectiveFunctionValues.size(); i++) {
+			criterion.add(objectiveFunctionValues.get(i));
+		}
+		criterion.process();
+
+		if (criterion.getConverged()) {
+			if ((this.incumbent == null) || (criterion.getConvergedMean() < this.incumbent)) {
+				this.incumbent = criterion.getConvergedMean();
+			}
+			this.stageAborted = false;
+			return Status.CONVERGED;
+		}
+
+		if ((this.incumbent != null) && (objectiveFunctionValues.size() >= this.getMinIterationsBeforeAbort())) {
+			final double[] estimate = this.meanAndMeanStddev(objectiveFunctionValues,
+					objectiveFunctionValues.size() / 2);
+			if ((estimate != null) && (estimate[0] - this.confidenceFactor * estimate[1] > this.incumbent)) {
+				this.abortedTrajectoriesInStage++;
+				this.abortedTrajectoriesTotal++;
+				log.info("Aborting trajectory of " + decisionVariable + " after " + totalLength
+						+ " iterations: estimated objective " + estimate[0] + " +/- " + estimate[1]
+						+ " is clearly worse than the incumbent " + this.incumbent + ".");
+				this.abortEstimate = estimate;
+				this.stageAborted = true;
+				return Status.ABORTED;
+			}
+		}
+		return Status.RUNNING;
+	}
+
+	// --------------- IMPLEMENTATION OF Opdyts ConvergenceCriterion ---------------
+
+	@Override
+	public <U extends DecisionVariable> ConvergenceCriterionResult evaluate(
+			final List<Transition<U>> mostRecentTransitionSequence, final int totalTransitionSequenceLength) {
+
+		final List<Double> objectiveFunctionValues = new AbstractList<Double>() {
+			@Override
+			public Double get(final int index) {
+				return mostRecentTransitionSequence.get(index).getToStateObjectiveFunctionValue();
+			}
+
+			@Override
+			public int size() {
+				return mostRecentTransitionSequence.size();
+			}
+		};
+		final DecisionVariable decisionVariable = mostRecentTransitionSequence.get(0).getDecisionVariable();
+		final Status status = this.process(decisionVariable, objectiveFunctionValues, totalTransitionSequenceLength);
+
+		if (status == Status.CONVERGED) {
+			final IncrementalAR1ConvergenceCriterion criterion = this.decisionVariable2criterion.get(decisionVariable);
+			return IncrementalAR1ConvergenceCriterion.newConvergedResult(mostRecentTransitionSequence,
+					criterion.getConvergedSinceIteration(), criterion.getConvergedMean(),
+					criterion.getConvergedMeanStddev());
+		} else if (status == Status.ABORTED) {
+			// gap statistics over the same most recent half as the estimate
+			return IncrementalAR1ConvergenceCriterion.newConvergedResult(mostRecentTransitionSequence,
+					mostRecentTransitionSequence.size() / 2, this.abortEstimate[0], this.abortEstimate[1]);
+		} else {
+			return new ConvergenceCriterionResult(false, null, null, null, null, null, null);
+		}
+	}
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.buildingblocks.convergencecriteria;
+
+import java.util.Arrays;
+import java.util.List;
+
+import floetteroed.opdyts.DecisionVariable;
+import floetteroed.opdyts.convergencecriteria.ConvergenceCriterion;
+import floetteroed.opdyts.convergencecriteria.ConvergenceCriterionResult;
+import floetteroed.opdyts.trajectorysampling.Transition;
+import floetteroed.utilities.math.Vector;
+
+/**
+ * Takes the same decisions as AR1ConvergenceCriterion but avoids re-computing
+ * all bin averages and one OLS regression per (bin size, bin count) pair in
+ * every call.
+ * <p>
+ * The objective function values are kept as prefix sums, to which every new
+ * transition is appended in constant time; this also avoids copying the data.
+ * Since the bins are aligned with the most recent value, every bin average is
+ * then one difference of two prefix sums. For a given bin size, the sums
+ * needed by the regression are accumulated while the bin count increases,
+ * such that the AR(1) coefficients, their standard errors and the mean
+ * statistics follow in closed form from these sums. The (bin size, bin count)
+ * pairs are visited in the reverse order of AR1ConvergenceCriterion, which
+ * allows to stop at the first converged pair.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see AR1ConvergenceCriterion
+ */
+public class IncrementalAR1ConvergenceCriterion implements ConvergenceCriterion {
+
+	// -------------------- CONSTANTS --------------------
+
+	private final double maxConvergedMeanStddev;
+
+	// -------------------- PARAMETER MEMBERS --------------------
+
+	private int minSampleCntPerParameter = 5;
+
+	// -------------------- DATA MEMBERS --------------------
+
+	// prefixSums[k] = sum of the first k values, all shifted by -offset
+	private double[] prefixSums = new double[16];
+
+	private int dataCnt = 0;
+
+	// the first value, subtracted from all values to avoid cancellation
+	private double offset = 0.0;
+
+	// to recognize a continued transition sequence
+	private Transition<?> firstTransition = null;
+
+	private Transition<?> lastTransition = null;
+
+	// -------------------- SOLUTION MEMBERS --------------------
+
+	private boolean converged = false;
+
+	private Double convergedMean = null;
+
+	private Double convergedMeanStddev = null;
+
+	private Integer convergedBinSize = null;
+
+	private Integer convergedSinceIteration = null;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	public IncrementalAR1ConvergenceCriterion(final double maxConvergedMeanStddev) {
+		this.maxConvergedMeanStddev = maxConvergedMeanStddev;
+	}
+
+	// -------------------- SETTERS AND GETTERS --------------------
+
+	public void setMinSampleCntPerParameter(final int minSampleCntPerParameter) {
+		this.minSampleCntPerParameter = minSampleCntPerParameter;
+	}
+
+	public boolean getConverged() {
+		return this.converged;
+	}
+
+	public Double getConvergedMean() {
+		return this.convergedMean;
+	}
+
+	public Double getConvergedMeanStddev() {
+		return this.convergedMeanStddev;
+	}
+
+	public Integer getConvergedBinSize() {
+		return this.convergedBinSize;
+	}
+
+	public Integer getConvergedSinceIteration() {
+		return this.convergedSinceIteration;
+	}
+
+	public int getDataCnt() {
+		return this.dataCnt;
+	}
+
+	// -------------------- INTERNALS --------------------
+
+	// average of the bin-th most recent bin (counting from zero)
+	private double binAvg(final int bin, final int binSize) {
+		return (this.prefixSums[this.dataCnt - bin * binSize] - this.prefixSums[this.dataCnt - (bin + 1) * binSize])
+				/ binSize;
+	}
+
+	private boolean statisticallyZero(double val, double sttdev) {
+		return (val - 2.0 * sttdev) * (val + 2.0 * sttdev) <= 0;
+	}
+
+	/*
+	 * Replicates the regression of AR1ConvergenceCriterion: with mean mu of the
+	 * used bin averages A(0), ..., A(m-1), regress y = A(b) - mu on x = A(b+1) -
+	 * mu, with intercept, for b = 0, ..., m-2, plus one row y = 0, x = 1e-8.
+	 * Returns true if both coefficients are statistically zero.
+	 */
+	private boolean coefficientsStatisticallyZero(final int m, final double mu, final double sumX, final double sumY,
+			final double sumXX, final double sumXY, final double sumYY) {
+		final int n = m;
+		// centering of the m-1 regular rows, plus the additional row
+		final double sx = sumX - (m - 1) * mu + 1e-8;
+		final double sy = sumY - (m - 1) * mu;
+		final double sxx = sumXX - 2.0 * mu * sumX + (m - 1) * mu * mu + 1e-16;
+		final double sxy = sumXY - mu * (sumX + sumY) + (m - 1) * mu * mu;
+		final double syy = sumYY - 2.0 * mu * sumY + (m - 1) * mu * mu;
+
+		final double xMean = sx / n;
+		final double yMean = sy / n;
+		final double centeredXX = sxx - n * xMean * xMean;
+		final double centeredXY = sxy - n * xMean * yMean;
+		final double centeredYY = syy - n * yMean * yMean;
+
+		final double slope = centeredXY / centeredXX;
+		final double intercept = yMean - slope * xMean;
+		final double residualVariance = Math.max(0.0, centeredYY - slope * centeredXY) / (n - 2);
+		final double slopeStddev = Math.sqrt(residualVariance / centeredXX);
+		final double interceptStddev = Math.sqrt(residualVariance * (1.0 / n + xMean * xMean / centeredXX));
+
+		return this.statisticallyZero(intercept, interceptStddev) && this.statisticallyZero(slope, slopeStddev);
+	}
+
+	private void resetSolution() {
+		this.converged = false;
+		this.convergedMean = null;
+		this.convergedMeanStddev = null;
+		this.convergedBinSize = null;
+		this.convergedSinceIteration = null;
+	}
+
+	// -------------------- IMPLEMENTATION --------------------
+
+	public void clear() {
+		this.dataCnt = 0;
+		this.offset = 0.0;
+		this.firstTransition = null;
+		this.lastTransition = null;
+		this.resetSolution();
+	}
+
+	/**
+	 * Appends the next (most recent) value of the time series.
+	 */
+	public void add(final double value) {
+		if (this.dataCnt == 0) {
+			this.offset = value;
+			this.prefixSums[0] = 0.0;
+		}
+		if (this.dataCnt + 1 == this.prefixSums.length) {
+			this.prefixSums = Arrays.copyOf(this.prefixSums, 2 * this.prefixSums.length);
+		}
+		this.prefixSums[this.dataCnt + 1] = this.prefixSums[this.dataCnt] + (value - this.offset);
+		this.dataCnt++;
+	}
+
+	/**
+	 * Evaluates convergence for all values added so far.
+	 */
+	public void process() {
+
+		this.resetSolution();
+
+		final int minBinCnt = 2 * this.minSampleCntPerParameter + 1;
+		final int maxBinSize = this.dataCnt / minBinCnt;
+		final int minBinSize = Math.max(1, (int) Math.round(0.1 * maxBinSize));
+
+		// AR1ConvergenceCriterion keeps the last converged pair when increasing the
+		// bin size and decreasing the bin count; this is the first one in reverse.
+		for (int binSize = maxBinSize; binSize >= minBinSize; binSize--) {
+
+			final int maxBinCnt = this.dataCnt / binSize;
+
+			// sums over all used bins
+			double sumA = 0.0;
+			double sumAA = 0.0;
+			// sums over the regression rows with x = A(b+1), y = A(b)
+			double sumX = 0.0;
+			double sumY = 0.0;
+			double sumXX = 0.0;
+			double sumXY = 0.0;
+			double sumYY = 0.0;
+
+			double previousA = 0.0;
+			for (int m = 1; m <= maxBinCnt; m++) {
+				final double a = this.binAvg(m - 1, binSize);
+				sumA += a;
+				sumAA += a * a;
+				if (m > 1) {
+					sumX += a;
+					sumY += previousA;
+					sumXX += a * a;
+					sumXY += a * previousA;
+					sumYY += previousA * previousA;
+				}
+				previousA = a;
+
+				if (m >= minBinCnt) {
+					final double mu = sumA / m;
+					final double stddev = Math.sqrt(Math.max(0.0, (sumAA - m * mu * mu) / (m - 1)));
+					final double meanStddev = stddev / Math.sqrt(m - 1);
+					if ((meanStddev <= this.maxConvergedMeanStddev)
+							&& this.coefficientsStatisticallyZero(m, mu, sumX, sumY, sumXX, sumXY, sumYY)) {
+						this.converged = true;
+						this.convergedMean = mu + this.offset;
+						this.convergedMeanStddev = meanStddev;
+						this.convergedBinSize = binSize;
+						this.convergedSinceIteration = this.dataCnt - m * binSize;
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Processes a complete time series, sorted in increasing time order.
+	 */
+	public void process(final List<Double> dataList) {
+		this.clear();
+		for (Double value : dataList) {
+			this.add(value);
+		}
+		this.process();
+	}
+
+	// --------------- IMPLEMENTATION OF Opdyts ConvergenceCriterion ---------------
+
+	// appends only new transitions if the sequence continues the previous one
+	private <U extends DecisionVariable> void update(final List<Transition<U>> transitions) {
+		if ((transitions.size() < this.dataCnt) || (this.dataCnt == 0) || (transitions.get(0) != this.firstTransition)
+				|| (transitions.get(this.dataCnt - 1) != this.lastTransition)) {
+			this.clear();
+		}
+		for (int i = this.dataCnt; i < transitions.size(); i++) {
+			this.add(transitions.get(i).getToStateObjectiveFunctionValue());
+		}
+		if (transitions.size() > 0) {
+			this.firstTransition = transitions.get(0);
+			this.lastTransition = transitions.get(transitions.size() - 1);
+		}
+	}
+
+	// a converged result whose gap statistics average over the transitions from firstIndex on
+	static <U extends DecisionVariable> ConvergenceCriterionResult newConvergedResult(
+			final List<Transition<U>> transitions, final int firstIndex, final double mean, final double meanStddev) {
+		final Vector totalDelta = transitions.get(firstIndex).getDelta().copy();
+		for (int i = firstIndex + 1; i < transitions.size(); i++) {
+			totalDelta.add(transitions.get(i).getDelta());
+		}
+		final int averagingIterations = transitions.size() - firstIndex;
+		return new ConvergenceCriterionResult(true, mean, meanStddev, totalDelta.euclNorm() / averagingIterations,
+				1.0 / averagingIterations, transitions.get(0).getDecisionVariable(), transitions.size());
+	}
+
+	@Override
+	public <U extends DecisionVariable> ConvergenceCriterionResult evaluate(
+			List<Transition<U>> mostRecentTransitionSequence, int totalTransitionSequenceLength) {
+
+		this.update(mostRecentTransitionSequence);
+		this.process();
+
+		if (this.getConverged()) {
+			return newConvergedResult(mostRecentTransitionSequence, this.getConvergedSinceIteration(),
+					this.getConvergedMean(), this.getConvergedMeanStddev());
+		} else {
+			return new ConvergenceCriterionResult(false, null, null, null, null, null, null);
+		}
+	}
+}
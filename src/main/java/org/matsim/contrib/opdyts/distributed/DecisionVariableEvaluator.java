@@ -0,0 +1,19 @@
+package org.matsim.contrib.opdyts.distributed;
+
+import floetteroed.opdyts.DecisionVariable;
+
+/**
+ * Evaluates one decision variable in a DistributedWorker, typically by
+ * implementing it in a MATSim run and summarizing the (converged) end state.
+ * Implementations need a public no-argument constructor because they are
+ * instantiated by class name in the worker process.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see MATSimDecisionVariableEvaluator
+ */
+public interface DecisionVariableEvaluator<U extends DecisionVariable> {
+
+	public RemoteSimulatorState evaluate(U decisionVariable);
+
+}
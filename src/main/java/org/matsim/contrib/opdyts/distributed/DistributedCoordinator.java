@@ -0,0 +1,237 @@
+package org.matsim.contrib.opdyts.distributed;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import floetteroed.opdyts.DecisionVariable;
+
+/**
+ * Farms the evaluation of decision variables out to DistributedWorker
+ * processes, on this or on other machines, through a file-based protocol in a
+ * directory that all of them can access (see FileProtocol). Decision
+ * variables must be Serializable. Workers return RemoteSimulatorState
+ * summaries, i.e. state vectors and objective function values but no
+ * populations.
+ * <p>
+ * Workers on other machines are started separately, with the same directory
+ * and evaluator class; local workers can be started by the coordinator. A
+ * task whose worker has not renewed its lease for leaseTimeout_ms (because
+ * the worker has died or lost the directory) is handed to the next free
+ * worker. This requires the clocks of all machines to be roughly
+ * synchronized.
+ * <p>
+ * One directory is used by at most one coordinator at a time, which is
+ * ensured through a file lock.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see DistributedWorker
+ */
+public class DistributedCoordinator {
+
+	// -------------------- CONSTANTS --------------------
+
+	private static final Logger log = Logger.getLogger(DistributedCoordinator.class);
+
+	public static final long DEFAULT_LEASE_TIMEOUT_MS = 60 * 1000;
+
+	private final File directory;
+
+	private final long leaseTimeout_ms;
+
+	// -------------------- MEMBERS --------------------
+
+	private FileChannel lockChannel;
+
+	private final List<Process> localWorkers = new ArrayList<>();
+
+	private long nextTaskId = 0;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	public DistributedCoordinator(final String directory) {
+		this(directory, DEFAULT_LEASE_TIMEOUT_MS);
+	}
+
+	public DistributedCoordinator(final String directory, final long leaseTimeout_ms) {
+		if (leaseTimeout_ms < 4 * DistributedWorker.HEARTBEAT_INTERVAL_MS) {
+			throw new IllegalArgumentException("Lease timeout of " + leaseTimeout_ms
+					+ " ms is too short for a worker heartbeat interval of " + DistributedWorker.HEARTBEAT_INTERVAL_MS
+					+ " ms.");
+		}
+		this.directory = new File(directory);
+		this.leaseTimeout_ms = leaseTimeout_ms;
+		if (!this.directory.exists() && !this.directory.mkdirs()) {
+			throw new RuntimeException("Could not create directory " + directory);
+		}
+		try {
+			this.lockChannel = FileChannel.open(new File(this.directory, FileProtocol.LOCK_FILE).toPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			final FileLock lock;
+			try {
+				lock = this.lockChannel.tryLock();
+			} catch (OverlappingFileLockException e) {
+				this.lockChannel.close();
+				throw new RuntimeException("Directory " + directory + " is used by another coordinator.");
+			}
+			if (lock == null) {
+				this.lockChannel.close();
+				throw new RuntimeException("Directory " + directory + " is used by another coordinator.");
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		// files of an earlier coordinator would be taken for results of this one
+		for (File file : this.directory.listFiles()) {
+			if (FileProtocol.isProtocolFile(file)) {
+				file.delete();
+			}
+		}
+	}
+
+	// -------------------- INTERNALS --------------------
+
+	// publishes claimed tasks whose lease has expired again
+	private void reassignExpiredTasks(final Set<Long> pendingTaskIds) {
+		final File[] files = this.directory.listFiles();
+		if (files == null) {
+			throw new RuntimeException("Cannot list directory " + this.directory);
+		}
+		final long now_ms = System.currentTimeMillis();
+		for (File file : files) {
+			final Long taskId = FileProtocol.runningTaskId(file);
+			if ((taskId != null) && pendingTaskIds.contains(taskId)
+					&& (now_ms - file.lastModified() > this.leaseTimeout_ms)) {
+				if (FileProtocol.claim(file, FileProtocol.taskFile(this.directory, taskId))) {
+					log.warn("Lease of " + file.getName() + " has expired; task " + taskId + " is reassigned.");
+				}
+			}
+		}
+	}
+
+	private boolean allLocalWorkersTerminated() {
+		for (Process worker : this.localWorkers) {
+			if (worker.isAlive()) {
+				return false;
+			}
+		}
+		return (this.localWorkers.size() > 0);
+	}
+
+	// -------------------- IMPLEMENTATION --------------------
+
+	/**
+	 * Starts worker processes in this machine, with the classpath of this JVM.
+	 * Their output goes to worker_[i].log in the protocol directory.
+	 */
+	public void startLocalWorkers(final int workerCnt,
+			final Class<? extends DecisionVariableEvaluator<?>> evaluatorClass) {
+		for (int i = 0; i < workerCnt; i++) {
+			final String workerId = "local" + this.localWorkers.size();
+			this.localWorkers.add(LocalJavaProcess.start(DistributedWorker.class,
+					new File(this.directory, "worker_" + this.localWorkers.size() + ".log"),
+					this.directory.getAbsolutePath(), evaluatorClass.getName(), workerId));
+			log.info("Started local worker " + workerId + ".");
+		}
+	}
+
+	/**
+	 * Publishes one task per decision variable and waits until all of them have
+	 * been evaluated. Returns one result per decision variable, in the order of
+	 * the decision variables; the same decision variable may occur more than
+	 * once.
+	 */
+	public <U extends DecisionVariable> List<RemoteSimulatorState> evaluate(final List<U> decisionVariables,
+			final long timeout_ms) {
+
+		final Map<Long, U> taskId2decisionVariable = new LinkedHashMap<>();
+		try {
+			for (U decisionVariable : decisionVariables) {
+				if (!(decisionVariable instanceof Serializable)) {
+					throw new RuntimeException("Decision variable " + decisionVariable + " is not Serializable.");
+				}
+				final long taskId = this.nextTaskId++;
+				FileProtocol.writeObject(decisionVariable, FileProtocol.taskFile(this.directory, taskId));
+				taskId2decisionVariable.put(taskId, decisionVariable);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		final Map<Long, RemoteSimulatorState> taskId2result = new LinkedHashMap<>();
+		final long deadline_ms = System.currentTimeMillis() + timeout_ms;
+		try {
+			while (taskId2result.size() < taskId2decisionVariable.size()) {
+				for (Long taskId : taskId2decisionVariable.keySet()) {
+					if (!taskId2result.containsKey(taskId)) {
+						final File resultFile = FileProtocol.resultFile(this.directory, taskId);
+						final File errorFile = FileProtocol.errorFile(this.directory, taskId);
+						if (resultFile.exists()) {
+							taskId2result.put(taskId, (RemoteSimulatorState) FileProtocol.readObject(resultFile));
+							resultFile.delete();
+						} else if (errorFile.exists()) {
+							throw new RuntimeException("Evaluation of " + taskId2decisionVariable.get(taskId)
+									+ " failed:\n" + new String(Files.readAllBytes(errorFile.toPath()), "UTF-8"));
+						}
+					}
+				}
+				if (taskId2result.size() < taskId2decisionVariable.size()) {
+					if (System.currentTimeMillis() > deadline_ms) {
+						throw new RuntimeException("Timeout after " + timeout_ms + " ms, evaluated "
+								+ taskId2result.size() + " of " + taskId2decisionVariable.size() + " tasks.");
+					}
+					if (this.allLocalWorkersTerminated()) {
+						throw new RuntimeException("All local workers have terminated.");
+					}
+					final Set<Long> pendingTaskIds = new LinkedHashSet<>(taskId2decisionVariable.keySet());
+					pendingTaskIds.removeAll(taskId2result.keySet());
+					this.reassignExpiredTasks(pendingTaskIds);
+					Thread.sleep(DistributedWorker.POLL_INTERVAL_MS);
+				}
+			}
+		} catch (IOException | ClassNotFoundException | InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+
+		final List<RemoteSimulatorState> result = new ArrayList<>(taskId2decisionVariable.size());
+		for (Long taskId : taskId2decisionVariable.keySet()) {
+			result.add(taskId2result.get(taskId));
+		}
+		return result;
+	}
+
+	/**
+	 * Tells all workers to stop, waits for the local ones to terminate and
+	 * releases the directory.
+	 */
+	public void shutdown() {
+		try {
+			FileProtocol.writeText("", new File(this.directory, FileProtocol.STOP_FILE));
+			for (Process worker : this.localWorkers) {
+				if (!worker.waitFor(1, TimeUnit.MINUTES)) {
+					log.warn("Local worker does not terminate; destroying it.");
+					worker.destroyForcibly();
+				}
+			}
+			this.lockChannel.close();
+		} catch (IOException | InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		this.localWorkers.clear();
+	}
+}
@@ -0,0 +1,140 @@
+package org.matsim.contrib.opdyts.distributed;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import floetteroed.opdyts.DecisionVariable;
+
+/**
+ * A worker process that evaluates the decision variables a
+ * DistributedCoordinator publishes in a shared directory, until the
+ * coordinator tells it to stop. While it evaluates a task, the worker renews
+ * the lease on that task every HEARTBEAT_INTERVAL_MS; the coordinator hands
+ * the task to another worker once the lease has expired.
+ * <p>
+ * Usage: DistributedWorker [directory] [evaluator class] ([worker id]). The
+ * evaluator class implements DecisionVariableEvaluator and has a public
+ * no-argument constructor.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see DistributedCoordinator
+ */
+public class DistributedWorker<U extends DecisionVariable> {
+
+	// -------------------- CONSTANTS --------------------
+
+	private static final Logger log = Logger.getLogger(DistributedWorker.class);
+
+	static final long POLL_INTERVAL_MS = 100;
+
+	static final long HEARTBEAT_INTERVAL_MS = 1000;
+
+	private final File directory;
+
+	private final DecisionVariableEvaluator<U> evaluator;
+
+	private final String workerId;
+
+	private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		final Thread thread = new Thread(runnable, "heartbeat");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// -------------------- CONSTRUCTION --------------------
+
+	public DistributedWorker(final File directory, final DecisionVariableEvaluator<U> evaluator,
+			final String workerId) {
+		if (workerId.contains(".")) {
+			throw new RuntimeException("Worker id must not contain dots: " + workerId);
+		}
+		this.directory = directory;
+		this.evaluator = evaluator;
+		this.workerId = workerId;
+	}
+
+	// -------------------- INTERNALS --------------------
+
+	// claims and evaluates one task; returns false if there was none
+	@SuppressWarnings("unchecked")
+	private boolean evaluateNextTask() throws Exception {
+		final File[] files = this.directory.listFiles();
+		if (files == null) {
+			throw new RuntimeException("Cannot list directory " + this.directory);
+		}
+		Arrays.sort(files);
+		for (File file : files) {
+			final Long taskId = FileProtocol.taskId(file);
+			if (taskId != null) {
+				final File runningFile = FileProtocol.runningFile(this.directory, taskId, this.workerId);
+				if (FileProtocol.claim(file, runningFile)) {
+					// the lease starts now, not when the task was published
+					runningFile.setLastModified(System.currentTimeMillis());
+					log.info("Worker " + this.workerId + " evaluates task " + taskId + ".");
+					final ScheduledFuture<?> lease = this.heartbeat.scheduleAtFixedRate(
+							() -> runningFile.setLastModified(System.currentTimeMillis()), HEARTBEAT_INTERVAL_MS,
+							HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+					U decisionVariable = null;
+					try {
+						decisionVariable = (U) FileProtocol.readObject(runningFile);
+						final RemoteSimulatorState result = this.evaluator.evaluate(decisionVariable);
+						FileProtocol.writeObject(result, FileProtocol.resultFile(this.directory, taskId));
+					} catch (Exception e) {
+						if ((decisionVariable == null) && !runningFile.exists()) {
+							// the coordinator has reassigned the task in the meantime
+							log.warn("Worker " + this.workerId + " lost task " + taskId + " before reading it.");
+						} else {
+							log.warn("Worker " + this.workerId + " failed on task " + taskId + ".", e);
+							final StringWriter stackTrace = new StringWriter();
+							e.printStackTrace(new PrintWriter(stackTrace));
+							FileProtocol.writeText(stackTrace.toString(),
+									FileProtocol.errorFile(this.directory, taskId));
+						}
+					} finally {
+						lease.cancel(false);
+					}
+					runningFile.delete();
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// -------------------- IMPLEMENTATION --------------------
+
+	public void run() throws Exception {
+		log.info("Worker " + this.workerId + " started in directory " + this.directory);
+		while (!new File(this.directory, FileProtocol.STOP_FILE).exists()) {
+			if (!this.evaluateNextTask()) {
+				Thread.sleep(POLL_INTERVAL_MS);
+			}
+		}
+		log.info("Worker " + this.workerId + " stopped.");
+	}
+
+	// -------------------- MAIN-FUNCTION --------------------
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static void main(String[] args) throws Exception {
+		if ((args.length < 2) || (args.length > 3)) {
+			throw new RuntimeException("Usage: DistributedWorker [directory] [evaluator class] ([worker id])");
+		}
+		final DecisionVariableEvaluator evaluator = (DecisionVariableEvaluator) Class.forName(args[1])
+				.getConstructor().newInstance();
+		// the default worker id is the process id
+		final String workerId = (args.length == 3) ? args[2]
+				: ManagementFactory.getRuntimeMXBean().getName().replace('.', '-');
+		new DistributedWorker(new File(args[0]), evaluator, workerId).run();
+	}
+}
@@ -0,0 +1,144 @@
+package org.matsim.contrib.opdyts.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The file names and file operations of the coordinator/worker protocol. All
+ * files live in one directory that is shared by the coordinator and all
+ * workers:
+ * <ul>
+ * <li>task_[id].ser: a serialized decision variable, published by the
+ * coordinator
+ * <li>task_[id].[worker].running: the same file once a worker has claimed the
+ * task by renaming it; the worker keeps updating its modification time as
+ * long as it works on the task (its lease)
+ * <li>result_[id].ser: the serialized RemoteSimulatorState of a completed task
+ * <li>error_[id].txt: the stack trace of a failed task
+ * <li>stop: tells all workers to terminate after their current task
+ * <li>coordinator.lock: locked by the coordinator that uses the directory
+ * </ul>
+ * Every file is written under a temporary name (with suffix .tmp) and then
+ * renamed, such that a file that is visible under its final name is complete.
+ * Other files in the directory are left alone.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+class FileProtocol {
+
+	// -------------------- CONSTANTS --------------------
+
+	static final String TASK_PREFIX = "task_";
+
+	static final String TASK_SUFFIX = ".ser";
+
+	static final String STOP_FILE = "stop";
+
+	static final String LOCK_FILE = "coordinator.lock";
+
+	private static final Pattern TASK_PATTERN = Pattern.compile("task_(\\d+)\\.ser");
+
+	private static final Pattern RUNNING_PATTERN = Pattern.compile("task_(\\d+)\\.([^.]+)\\.running");
+
+	private static final Pattern PROTOCOL_PATTERN = Pattern.compile("(task_\\d+\\.ser|task_\\d+\\.[^.]+\\.running"
+			+ "|result_\\d+\\.ser|error_\\d+\\.txt|" + STOP_FILE + ")(\\.tmp)?");
+
+	// -------------------- CONSTRUCTION --------------------
+
+	private FileProtocol() {
+		// do not instantiate
+	}
+
+	// -------------------- FILE NAMES --------------------
+
+	static File taskFile(final File directory, final long taskId) {
+		return new File(directory, TASK_PREFIX + taskId + TASK_SUFFIX);
+	}
+
+	static File runningFile(final File directory, final long taskId, final String workerId) {
+		return new File(directory, TASK_PREFIX + taskId + "." + workerId + ".running");
+	}
+
+	static File resultFile(final File directory, final long taskId) {
+		return new File(directory, "result_" + taskId + ".ser");
+	}
+
+	static File errorFile(final File directory, final long taskId) {
+		return new File(directory, "error_" + taskId + ".txt");
+	}
+
+	private static Long taskId(final Pattern pattern, final File file) {
+		final Matcher matcher = pattern.matcher(file.getName());
+		if (!matcher.matches()) {
+			return null;
+		}
+		try {
+			return Long.parseLong(matcher.group(1));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	// null if the file is not a published task
+	static Long taskId(final File file) {
+		return taskId(TASK_PATTERN, file);
+	}
+
+	// null if the file is not a claimed task
+	static Long runningTaskId(final File file) {
+		return taskId(RUNNING_PATTERN, file);
+	}
+
+	// true for exactly the files listed above, except for the lock file
+	static boolean isProtocolFile(final File file) {
+		return PROTOCOL_PATTERN.matcher(file.getName()).matches();
+	}
+
+	// -------------------- FILE OPERATIONS --------------------
+
+	static void publish(final File tmpFile, final File file) throws IOException {
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	static void writeObject(final Object object, final File file) throws IOException {
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		try (ObjectOutputStream out = new ObjectOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+			out.writeObject(object);
+		}
+		publish(tmpFile, file);
+	}
+
+	static Object readObject(final File file) throws IOException, ClassNotFoundException {
+		try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			return in.readObject();
+		}
+	}
+
+	static void writeText(final String text, final File file) throws IOException {
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		Files.write(tmpFile.toPath(), text.getBytes("UTF-8"));
+		publish(tmpFile, file);
+	}
+
+	// true if this caller has claimed the task, false if another one was faster
+	static boolean claim(final File taskFile, final File runningFile) {
+		try {
+			Files.move(taskFile.toPath(), runningFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package org.matsim.contrib.opdyts.distributed;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Starts the main function of a class in a new JVM process on this machine,
+ * with the java executable and the classpath of this JVM. Used for the local
+ * workers of a DistributedCoordinator and for the searches of a
+ * ParallelMATSimOpdytsRunner, which need a JVM of their own because MATSim
+ * keeps global static state (random numbers, logging into the output
+ * directory).
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class LocalJavaProcess {
+
+	// -------------------- CONSTRUCTION --------------------
+
+	private LocalJavaProcess() {
+		// do not instantiate
+	}
+
+	// -------------------- IMPLEMENTATION --------------------
+
+	/**
+	 * @param mainClass
+	 *            the class whose main function is run
+	 * @param logFile
+	 *            receives standard output and standard error of the process
+	 * @param args
+	 *            the arguments of the main function
+	 */
+	public static Process start(final Class<?> mainClass, final File logFile, final String... args) {
+		final List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(mainClass.getName());
+		command.addAll(Arrays.asList(args));
+		final ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(logFile);
+		try {
+			return builder.start();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package org.matsim.contrib.opdyts.distributed;
+
+import org.matsim.contrib.opdyts.MATSimOpdytsRunner;
+import org.matsim.contrib.opdyts.microstate.MATSimState;
+import org.matsim.contrib.opdyts.objectivefunction.MATSimObjectiveFunction;
+
+import floetteroed.opdyts.DecisionVariable;
+
+/**
+ * Evaluates decision variables through MATSim: every task is simulated by a
+ * newly created MATSimOpdytsRunner until the runner's convergence criterion is
+ * met, and the state vector and objective function value of the final state
+ * are returned. The new runner per task makes every result independent of the
+ * tasks that the same worker has evaluated before.
+ * <p>
+ * Subclasses create the runner and the objective function as for
+ * MATSimOpdytsRunner.run(..) and have a public no-argument constructor, for
+ * instance:
+ *
+ * <pre>
+ * public class MyEvaluator extends MATSimDecisionVariableEvaluator&lt;MyDecisionVariable, MATSimState&gt; {
+ *
+ * 	protected MATSimOpdytsRunner&lt;MyDecisionVariable, MATSimState&gt; newRunner() {
+ * 		final Config config = ConfigUtils.loadConfig("config.xml", new OpdytsConfigGroup());
+ * 		return new MATSimOpdytsRunner&lt;&gt;(ScenarioUtils.loadScenario(config), new MATSimStateFactoryImpl&lt;&gt;());
+ * 	}
+ *
+ * 	protected MATSimObjectiveFunction&lt;MATSimState&gt; newObjectiveFunction() {
+ * 		return new MyObjectiveFunction();
+ * 	}
+ * }
+ *
+ * final DistributedCoordinator coordinator = new DistributedCoordinator("tasks");
+ * coordinator.startLocalWorkers(4, MyEvaluator.class);
+ * final List&lt;RemoteSimulatorState&gt; results = coordinator.evaluate(decisionVariables, timeout_ms);
+ * coordinator.shutdown();
+ * </pre>
+ *
+ * The decision variables reach the worker deserialized, so their
+ * implementInSimulation() must not depend on objects of the coordinator's
+ * scenario.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see DistributedCoordinator
+ */
+public abstract class MATSimDecisionVariableEvaluator<U extends DecisionVariable, X extends MATSimState>
+		implements DecisionVariableEvaluator<U> {
+
+	// -------------------- INTERFACE DEFINITION --------------------
+
+	/**
+	 * A runner for a newly loaded scenario, configured as for the search.
+	 */
+	protected abstract MATSimOpdytsRunner<U, X> newRunner();
+
+	protected abstract MATSimObjectiveFunction<X> newObjectiveFunction();
+
+	// --------------- IMPLEMENTATION OF DecisionVariableEvaluator ---------------
+
+	@Override
+	public RemoteSimulatorState evaluate(final U decisionVariable) {
+		final MATSimObjectiveFunction<X> objectiveFunction = this.newObjectiveFunction();
+		final X finalState = this.newRunner().simulate(decisionVariable, objectiveFunction);
+		return new RemoteSimulatorState(finalState.getReferenceToVectorRepresentation(),
+				objectiveFunction.value(finalState));
+	}
+}
@@ -0,0 +1,51 @@
+package org.matsim.contrib.opdyts.distributed;
+
+import java.io.Serializable;
+
+import floetteroed.utilities.math.Vector;
+
+/**
+ * The summary of a simulator state that is returned from a worker process:
+ * only its state vector and objective function value, not its population.
+ * Unlike a SimulatorState, it can hence not be implemented in a simulation.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class RemoteSimulatorState implements Serializable {
+
+	// -------------------- CONSTANTS --------------------
+
+	private static final long serialVersionUID = 1L;
+
+	// -------------------- MEMBERS --------------------
+
+	private final double[] stateVector;
+
+	private final double objectiveFunctionValue;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	public RemoteSimulatorState(final Vector stateVector, final double objectiveFunctionValue) {
+		this.stateVector = new double[stateVector.size()];
+		for (int i = 0; i < stateVector.size(); i++) {
+			this.stateVector[i] = stateVector.get(i);
+		}
+		this.objectiveFunctionValue = objectiveFunctionValue;
+	}
+
+	// -------------------- GETTERS --------------------
+
+	public double getObjectiveFunctionValue() {
+		return this.objectiveFunctionValue;
+	}
+
+	// a new copy on every call
+	public Vector getStateVector() {
+		final Vector result = new Vector(this.stateVector.length);
+		for (int i = 0; i < this.stateVector.length; i++) {
+			result.set(i, this.stateVector[i]);
+		}
+		return result;
+	}
+}
@@ -1,5 +1,7 @@
 package org.matsim.contrib.opdyts.macrostate;
 
+import static java.lang.Math.floorDiv;
+import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 import java.util.Collections;
@@ -13,6 +15,12 @@ import floetteroed.utilities.TimeDiscretization;
 /**
  * Keeps track of a (part of a) state vector that is composed of counts (for
  * instance, vehicles on a road or passengers waiting at a stop).
+ * <p>
+ * Bins are completed lazily per location: every location remembers the bin
+ * into which it currently integrates its count, and the bins of a location are
+ * only completed when that location is touched again or when finalizeAndLock()
+ * is called. The cost of registering a count change hence does not depend on
+ * the number of locations.
  * 
  * @author Gunnar Flötteröd
  *
@@ -33,9 +41,10 @@ public class CountingStateAnalyzer<L extends Object> {
 
 	private final DynamicData<L> counts;
 
-	private final Map<L, RecursiveCountAverage> location2avgCnt = new LinkedHashMap<>();
+	private final Map<L, LocationCount> location2cnt = new LinkedHashMap<>();
 
-	private int lastCompletedBin = -1;
+	// all bins before this one are (implicitly) completed
+	private int lastTouchedBin = 0;
 
 	// -------------------- CONSTRUCTION --------------------
 
@@ -51,40 +60,68 @@ public class CountingStateAnalyzer<L extends Object> {
 
 	// -------------------- INTERNALS --------------------
 
+	private static class LocationCount {
+
+		private final RecursiveCountAverage avg;
+
+		// the bin into which avg currently integrates
+		private int bin;
+
+		private LocationCount(final RecursiveCountAverage avg, final int bin) {
+			this.avg = avg;
+			this.bin = bin;
+		}
+	}
+
 	private void checkNotLocked() {
 		if (this.locked) {
 			throw new RuntimeException(this.getClass().getSimpleName() + " is locked and cannot accept more data.");
 		}
 	}
 
-	private int lastCompletedBinEndTime() {
-		return this.counts.getStartTime_s() + (this.lastCompletedBin + 1) * this.counts.getBinSize_s();
+	private int binStartTime(final int bin) {
+		return this.counts.getStartTime_s() + bin * this.counts.getBinSize_s();
 	}
 
-	private void completeBins(final int lastBinToComplete) {
-		while (this.lastCompletedBin < lastBinToComplete) {
-			this.lastCompletedBin++; // is now zero or larger
-			final int lastCompletedBinEndTime = this.lastCompletedBinEndTime();
-			for (Map.Entry<L, RecursiveCountAverage> link2avgEntry : this.location2avgCnt.entrySet()) {
-				link2avgEntry.getValue().advanceTo(lastCompletedBinEndTime);
-				this.counts.put(link2avgEntry.getKey(), this.lastCompletedBin, link2avgEntry.getValue().getAverage());
-				link2avgEntry.getValue().resetTime(lastCompletedBinEndTime);
-			}
+	private int touchedBin(final int time_s) {
+		final int bin = max(0, floorDiv(time_s - this.counts.getStartTime_s(), this.counts.getBinSize_s()));
+		if (bin < this.lastTouchedBin) {
+			throw new RuntimeException(
+					"Time " + time_s + " s falls into bin " + bin + ", which is already completed.");
 		}
+		this.lastTouchedBin = bin;
+		return bin;
 	}
 
-	private void completeBinsUntilTime(final int time_s) {
-		final int lastBinToComplete = this.counts.bin(time_s) - 1;
-		this.completeBins(min(lastBinToComplete, this.counts.getBinCnt() - 1));
+	// completes all bins of the location before the given bin
+	private void completeBins(final L location, final LocationCount cnt, final int bin) {
+		final int lastBinToComplete = min(bin, this.counts.getBinCnt()) - 1;
+		while (cnt.bin <= lastBinToComplete) {
+			final int binEndTime = this.binStartTime(cnt.bin + 1);
+			cnt.avg.advanceTo(binEndTime);
+			if (cnt.avg.getAverage() != 0.0) {
+				this.counts.put(location, cnt.bin, cnt.avg.getAverage());
+			}
+			cnt.avg.resetTime(binEndTime);
+			cnt.bin++;
+		}
 	}
 
-	private RecursiveCountAverage avg(final L link) {
-		RecursiveCountAverage avg = this.location2avgCnt.get(link);
-		if (avg == null) {
-			avg = new RecursiveCountAverage(this.lastCompletedBinEndTime());
-			this.location2avgCnt.put(link, avg);
+	private RecursiveCountAverage avg(final L location, final int time_s) {
+		final int bin = this.touchedBin(time_s);
+		LocationCount cnt = this.location2cnt.get(location);
+		if (cnt == null) {
+			final int firstBin = min(bin, this.counts.getBinCnt());
+			cnt = new LocationCount(new RecursiveCountAverage(this.binStartTime(firstBin)), firstBin);
+			this.location2cnt.put(location, cnt);
+			if (firstBin < this.counts.getBinCnt()) {
+				// makes the location known to the observed link set
+				this.counts.put(location, firstBin, 0.0);
+			}
+		} else {
+			this.completeBins(location, cnt, bin);
 		}
-		return avg;
+		return cnt.avg;
 	}
 
 	// -------------------- SETTERS --------------------
@@ -92,25 +129,27 @@ public class CountingStateAnalyzer<L extends Object> {
 	public void reset() {
 		this.locked = false;
 		this.counts.clear();
-		this.location2avgCnt.clear();
-		this.lastCompletedBin = -1;
+		this.location2cnt.clear();
+		this.lastTouchedBin = 0;
 	}
 
 	public void registerIncrease(final L location, final int time_s) {
 		this.checkNotLocked();
-		this.completeBinsUntilTime(time_s);
-		this.avg(location).inc(time_s);
+		this.avg(location, time_s).inc(time_s);
 	}
 
 	public void registerDecrease(final L location, final int time_s) {
 		this.checkNotLocked();
-		this.completeBinsUntilTime(time_s);
-		this.avg(location).dec(time_s);
+		this.avg(location, time_s).dec(time_s);
 	}
 
 	public void finalizeAndLock() {
-		this.locked = true;
-		this.completeBins(this.counts.getBinCnt() - 1);
+		if (!this.locked) {
+			this.locked = true;
+			for (Map.Entry<L, LocationCount> entry : this.location2cnt.entrySet()) {
+				this.completeBins(entry.getKey(), entry.getValue(), this.counts.getBinCnt());
+			}
+		}
 	}
 
 	// -------------------- GETTERS --------------------
@@ -85,6 +85,31 @@ public class DifferentiatedLinkOccupancyAnalyzer
 		return result;
 	}
 
+	@Override
+	public SparseStateVector newSparseStateVectorRepresentation() {
+		final SparseStateVector.Builder builder = new SparseStateVector.Builder(this.getStateDimension());
+		this.addStateVectorRepresentation(builder, 0);
+		return builder.build();
+	}
+
+	@Override
+	public int getStateDimension() {
+		return this.mode2stateAnalyzer.size() * this.relevantLinks.size() * this.timeDiscretization.getBinCnt();
+	}
+
+	@Override
+	public void addStateVectorRepresentation(final SparseStateVector.Builder builder, final int offset) {
+		int i = offset;
+		for (String mode : this.mode2stateAnalyzer.keySet()) {
+			final CountingStateAnalyzer<Id<Link>> analyzer = this.mode2stateAnalyzer.get(mode);
+			for (Id<Link> linkId : this.relevantLinks) {
+				for (int bin = 0; bin < this.timeDiscretization.getBinCnt(); bin++) {
+					builder.add(i++, analyzer.getCount(linkId, bin));
+				}
+			}
+		}
+	}
+
 	// ---------- IMPLEMENTATION OF *EventHandler INTERFACES ----------
 
 	@Override
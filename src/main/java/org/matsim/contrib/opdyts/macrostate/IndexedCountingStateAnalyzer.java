@@ -0,0 +1,156 @@
+package org.matsim.contrib.opdyts.macrostate;
+
+import static java.lang.Math.min;
+
+import java.util.Arrays;
+
+import floetteroed.utilities.TimeDiscretization;
+
+/**
+ * Primitive counterpart of CountingStateAnalyzer for locations that are
+ * identified by a dense integer index 0, ..., locationCnt - 1.
+ * <p>
+ * All data is kept in flat arrays, indexed by [location * binCnt + bin]. A
+ * count change at time t adds its contribution (bin end - t) to the time
+ * integral of t's bin and is recorded as a change of the count at the start of
+ * the next bin. The counts of the later bins are summed up only upon
+ * finalizeAndLock(). Registering a count change hence does not allocate, takes
+ * constant time, and does not depend on the order in which the changes of
+ * different vehicles arrive; only every single vehicle's changes must arrive in
+ * their order.
+ * <p>
+ * As in CountingStateAnalyzer, a count change before the start of the time
+ * discretization is an error, and time after its end does not contribute to
+ * the state.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see CountingStateAnalyzer
+ */
+public class IndexedCountingStateAnalyzer {
+
+	// -------------------- CONSTANTS --------------------
+
+	private final int startTime_s;
+
+	private final int binSize_s;
+
+	private final int binCnt;
+
+	private final int endTime_s;
+
+	private final int locationCnt;
+
+	// -------------------- MEMBERS --------------------
+
+	// see CountingStateAnalyzer
+	private boolean locked = false;
+
+	// current counts, only used to reject decreases below zero
+	private final int[] counts;
+
+	// count changes at the start of every bin, summed up upon finalizeAndLock()
+	private final int[] binStartCountChanges;
+
+	// time integrals of the counts, complete only after finalizeAndLock()
+	private final double[] integrals;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	public IndexedCountingStateAnalyzer(final int startTime_s, final int binSize_s, final int binCnt,
+			final int locationCnt) {
+		this.startTime_s = startTime_s;
+		this.binSize_s = binSize_s;
+		this.binCnt = binCnt;
+		this.endTime_s = startTime_s + binSize_s * binCnt;
+		this.locationCnt = locationCnt;
+		this.counts = new int[locationCnt];
+		this.binStartCountChanges = new int[locationCnt * binCnt];
+		this.integrals = new double[locationCnt * binCnt];
+		this.reset();
+	}
+
+	public IndexedCountingStateAnalyzer(final TimeDiscretization timeDiscr, final int locationCnt) {
+		this(timeDiscr.getStartTime_s(), timeDiscr.getBinSize_s(), timeDiscr.getBinCnt(), locationCnt);
+	}
+
+	// -------------------- INTERNALS --------------------
+
+	private void checkNotLocked() {
+		if (this.locked) {
+			throw new RuntimeException(this.getClass().getSimpleName() + " is locked and cannot accept more data.");
+		}
+	}
+
+	// the given time, limited to the end of the time discretization
+	private int checkedTime(final int time_s) {
+		if (time_s < this.startTime_s) {
+			throw new IllegalArgumentException(
+					"time " + time_s + " is before the start time " + this.startTime_s + " of the time discretization");
+		}
+		return min(this.endTime_s, time_s);
+	}
+
+	// registers a count change by delta at the given (checked) time
+	private void change(final int location, final int time_s, final int delta) {
+		final int bin = (time_s - this.startTime_s) / this.binSize_s;
+		if (bin < this.binCnt) {
+			final int binEnd_s = this.startTime_s + (bin + 1) * this.binSize_s;
+			this.integrals[location * this.binCnt + bin] += ((double) delta) * (binEnd_s - time_s);
+			if (bin + 1 < this.binCnt) {
+				this.binStartCountChanges[location * this.binCnt + bin + 1] += delta;
+			}
+		}
+		this.counts[location] += delta;
+	}
+
+	// -------------------- SETTERS --------------------
+
+	public void reset() {
+		this.locked = false;
+		Arrays.fill(this.counts, 0);
+		Arrays.fill(this.binStartCountChanges, 0);
+		Arrays.fill(this.integrals, 0.0);
+	}
+
+	public void registerIncrease(final int location, final int time_s) {
+		this.checkNotLocked();
+		this.change(location, this.checkedTime(time_s), +1);
+	}
+
+	public void registerDecrease(final int location, final int time_s) {
+		this.checkNotLocked();
+		if (this.counts[location] == 0) {
+			throw new RuntimeException("Cannot decrease a zero counting value further.");
+		}
+		this.change(location, this.checkedTime(time_s), -1);
+	}
+
+	public void finalizeAndLock() {
+		if (!this.locked) {
+			for (int location = 0; location < this.locationCnt; location++) {
+				int count = 0;
+				for (int i = location * this.binCnt; i < (location + 1) * this.binCnt; i++) {
+					count += this.binStartCountChanges[i];
+					this.integrals[i] += ((double) count) * this.binSize_s;
+				}
+			}
+			this.locked = true;
+		}
+	}
+
+	// -------------------- GETTERS --------------------
+
+	public int getLocationCnt() {
+		return this.locationCnt;
+	}
+
+	public int getBinCnt() {
+		return this.binCnt;
+	}
+
+	public double getCount(final int location, final int bin) {
+		this.finalizeAndLock();
+		return this.integrals[location * this.binCnt + bin] / this.binSize_s;
+	}
+}
@@ -0,0 +1,169 @@
+package org.matsim.contrib.opdyts.macrostate;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleAbortsEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleAbortsEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleLeavesTrafficEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.vehicles.Vehicle;
+
+import floetteroed.utilities.TimeDiscretization;
+import floetteroed.utilities.math.Vector;
+
+/**
+ * Keeps track of link occupancies per time bin and network mode. Computes the
+ * same state vector as DifferentiatedLinkOccupancyAnalyzer but maps every
+ * relevant link and mode once onto a dense index and keeps all occupancies in
+ * one IndexedCountingStateAnalyzer, at location [mode index * link count +
+ * link index]. Handling a link event takes one hash lookup for the vehicle and
+ * one for the link. Only entering and leaving traffic updates the map of
+ * currently traveling vehicles; counting itself does not allocate.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see DifferentiatedLinkOccupancyAnalyzer
+ */
+public class IndexedLinkOccupancyAnalyzer
+		implements SimulationMacroStateAnalyzer, LinkLeaveEventHandler, LinkEnterEventHandler,
+		VehicleEntersTrafficEventHandler, VehicleLeavesTrafficEventHandler, VehicleAbortsEventHandler {
+
+	// -------------------- CONSTANTS --------------------
+
+	private final Map<String, Integer> mode2index = new LinkedHashMap<>();
+
+	private final Map<Id<Link>, Integer> link2index = new HashMap<>();
+
+	// -------------------- MEMBERS --------------------
+
+	private final IndexedCountingStateAnalyzer occupancies;
+
+	// mode index of each currently traveling vehicle of a relevant mode
+	private final Map<Id<Vehicle>, Integer> vehicleId2modeIndex = new HashMap<>();
+
+	// -------------------- CONSTRUCTION --------------------
+
+	public IndexedLinkOccupancyAnalyzer(final TimeDiscretization timeDiscretization, final Set<String> relevantModes,
+			final Set<Id<Link>> relevantLinks) {
+		for (String mode : relevantModes) {
+			this.mode2index.put(mode, this.mode2index.size());
+		}
+		for (Id<Link> linkId : relevantLinks) {
+			this.link2index.put(linkId, this.link2index.size());
+		}
+		this.occupancies = new IndexedCountingStateAnalyzer(timeDiscretization,
+				this.mode2index.size() * this.link2index.size());
+	}
+
+	// -------------------- INTERNALS --------------------
+
+	private void registerIncrease(final int modeIndex, final Id<Link> linkId, final double time_s) {
+		final Integer linkIndex = this.link2index.get(linkId);
+		if (linkIndex != null) {
+			this.occupancies.registerIncrease(modeIndex * this.link2index.size() + linkIndex, (int) time_s);
+		}
+	}
+
+	private void registerDecrease(final int modeIndex, final Id<Link> linkId, final double time_s) {
+		final Integer linkIndex = this.link2index.get(linkId);
+		if (linkIndex != null) {
+			this.occupancies.registerDecrease(modeIndex * this.link2index.size() + linkIndex, (int) time_s);
+		}
+	}
+
+	// --------------- IMPLEMENTATION OF SimulationStateAnalyzer ---------------
+
+	@Override
+	public void clear() {
+		this.occupancies.reset();
+		this.vehicleId2modeIndex.clear();
+	}
+
+	@Override
+	public Vector newStateVectorRepresentation() {
+		final Vector result = new Vector(this.occupancies.getLocationCnt() * this.occupancies.getBinCnt());
+		int i = 0;
+		for (int location = 0; location < this.occupancies.getLocationCnt(); location++) {
+			for (int bin = 0; bin < this.occupancies.getBinCnt(); bin++) {
+				result.set(i++, this.occupancies.getCount(location, bin));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public SparseStateVector newSparseStateVectorRepresentation() {
+		final SparseStateVector.Builder builder = new SparseStateVector.Builder(this.getStateDimension());
+		this.addStateVectorRepresentation(builder, 0);
+		return builder.build();
+	}
+
+	@Override
+	public int getStateDimension() {
+		return this.occupancies.getLocationCnt() * this.occupancies.getBinCnt();
+	}
+
+	@Override
+	public void addStateVectorRepresentation(final SparseStateVector.Builder builder, final int offset) {
+		int i = offset;
+		for (int location = 0; location < this.occupancies.getLocationCnt(); location++) {
+			for (int bin = 0; bin < this.occupancies.getBinCnt(); bin++) {
+				builder.add(i++, this.occupancies.getCount(location, bin));
+			}
+		}
+	}
+
+	// ---------- IMPLEMENTATION OF *EventHandler INTERFACES ----------
+
+	@Override
+	public void handleEvent(final VehicleEntersTrafficEvent event) {
+		final Integer modeIndex = this.mode2index.get(event.getNetworkMode());
+		if (modeIndex != null) { // relevant mode
+			this.vehicleId2modeIndex.put(event.getVehicleId(), modeIndex);
+			this.registerIncrease(modeIndex, event.getLinkId(), event.getTime());
+		}
+	}
+
+	@Override
+	public void handleEvent(final VehicleLeavesTrafficEvent event) {
+		final Integer modeIndex = this.vehicleId2modeIndex.remove(event.getVehicleId());
+		if (modeIndex != null) { // relevant mode
+			this.registerDecrease(modeIndex, event.getLinkId(), event.getTime());
+		}
+	}
+
+	@Override
+	public void handleEvent(final LinkEnterEvent event) {
+		final Integer modeIndex = this.vehicleId2modeIndex.get(event.getVehicleId());
+		if (modeIndex != null) { // relevant mode
+			this.registerIncrease(modeIndex, event.getLinkId(), event.getTime());
+		}
+	}
+
+	@Override
+	public void handleEvent(final LinkLeaveEvent event) {
+		final Integer modeIndex = this.vehicleId2modeIndex.get(event.getVehicleId());
+		if (modeIndex != null) { // relevant mode
+			this.registerDecrease(modeIndex, event.getLinkId(), event.getTime());
+		}
+	}
+
+	@Override
+	public void handleEvent(final VehicleAbortsEvent event) {
+		final Integer modeIndex = this.vehicleId2modeIndex.remove(event.getVehicleId());
+		if (modeIndex != null) { // relevant mode
+			this.registerDecrease(modeIndex, event.getLinkId(), event.getTime());
+		}
+	}
+}
@@ -0,0 +1,298 @@
+package org.matsim.contrib.opdyts.macrostate;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleAbortsEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleAbortsEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleLeavesTrafficEventHandler;
+import org.matsim.core.events.handler.EventHandler;
+
+import floetteroed.utilities.math.Vector;
+
+/**
+ * Measures what another analyzer costs: the number of events per event type,
+ * the time spent handling them, and the dimension, number of non-zero entries
+ * and computation time of the state vector. Whenever a state vector is
+ * computed, the measurements since the last clear() are written to the log.
+ * <p>
+ * Events are passed on by direct calls to the handler interfaces of the
+ * decorated analyzer's event handler. Supported are the vehicle and link
+ * event handler interfaces of the link occupancy analyzers; other handled
+ * event types are rejected at construction, see canProfile(..).
+ * <p>
+ * Every timed event costs two System.nanoTime() calls, which should be kept in
+ * mind when interpreting the handler times of very cheap analyzers. With a
+ * timing interval of n, only every n-th event of a type is timed, and the
+ * handler time of that type is extrapolated from these events. The counters
+ * are not synchronized: like every event handler, this one is called by one
+ * thread at a time.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class ProfilingMacroStateAnalyzer implements SimulationMacroStateAnalyzer, LinkLeaveEventHandler,
+		LinkEnterEventHandler, VehicleEntersTrafficEventHandler, VehicleLeavesTrafficEventHandler,
+		VehicleAbortsEventHandler {
+
+	// -------------------- CONSTANTS --------------------
+
+	private static final Logger log = Logger.getLogger(ProfilingMacroStateAnalyzer.class);
+
+	// indices of the counter arrays
+	private static final int VEHICLE_ENTERS_TRAFFIC = 0;
+	private static final int VEHICLE_LEAVES_TRAFFIC = 1;
+	private static final int LINK_ENTER = 2;
+	private static final int LINK_LEAVE = 3;
+	private static final int VEHICLE_ABORTS = 4;
+
+	// aligned with the indices
+	private static final Class<?>[] EVENT_CLASSES = { VehicleEntersTrafficEvent.class,
+			VehicleLeavesTrafficEvent.class, LinkEnterEvent.class, LinkLeaveEvent.class, VehicleAbortsEvent.class };
+
+	private static final long NOT_TIMED = Long.MIN_VALUE;
+
+	private final SimulationMacroStateAnalyzer decoratedAnalyzer;
+
+	private final String label;
+
+	private final int timingInterval;
+
+	private final EventHandler decoratedHandler;
+
+	// the handler interfaces of the decorated handler, null if not implemented
+	private final VehicleEntersTrafficEventHandler vehicleEntersTrafficHandler;
+
+	private final VehicleLeavesTrafficEventHandler vehicleLeavesTrafficHandler;
+
+	private final LinkEnterEventHandler linkEnterHandler;
+
+	private final LinkLeaveEventHandler linkLeaveHandler;
+
+	private final VehicleAbortsEventHandler vehicleAbortsHandler;
+
+	// -------------------- MEMBERS --------------------
+
+	private final long[] eventCnt = new long[EVENT_CLASSES.length];
+
+	private final long[] timedEventCnt = new long[EVENT_CLASSES.length];
+
+	private final long[] handlerTime_ns = new long[EVENT_CLASSES.length];
+
+	// -------------------- CONSTRUCTION --------------------
+
+	/**
+	 * @param timingInterval
+	 *            only every timingInterval-th event of a type is timed
+	 */
+	public ProfilingMacroStateAnalyzer(final SimulationMacroStateAnalyzer decoratedAnalyzer, final String label,
+			final int timingInterval) {
+		if (timingInterval < 1) {
+			throw new RuntimeException("timingInterval must be at least one but is " + timingInterval);
+		}
+		this.decoratedAnalyzer = decoratedAnalyzer;
+		this.label = label;
+		this.timingInterval = timingInterval;
+
+		final EventHandler handler = decoratedAnalyzer.getEventHandler();
+		final Class<?> unsupportedEventClass = unsupportedEventClass(handler);
+		if (unsupportedEventClass != null) {
+			throw new RuntimeException("Cannot profile " + handler.getClass().getSimpleName() + " because it handles "
+					+ unsupportedEventClass.getSimpleName() + ".");
+		}
+		this.decoratedHandler = handler;
+		this.vehicleEntersTrafficHandler = (handler instanceof VehicleEntersTrafficEventHandler)
+				? (VehicleEntersTrafficEventHandler) handler
+				: null;
+		this.vehicleLeavesTrafficHandler = (handler instanceof VehicleLeavesTrafficEventHandler)
+				? (VehicleLeavesTrafficEventHandler) handler
+				: null;
+		this.linkEnterHandler = (handler instanceof LinkEnterEventHandler) ? (LinkEnterEventHandler) handler : null;
+		this.linkLeaveHandler = (handler instanceof LinkLeaveEventHandler) ? (LinkLeaveEventHandler) handler : null;
+		this.vehicleAbortsHandler = (handler instanceof VehicleAbortsEventHandler)
+				? (VehicleAbortsEventHandler) handler
+				: null;
+	}
+
+	public ProfilingMacroStateAnalyzer(final SimulationMacroStateAnalyzer decoratedAnalyzer) {
+		this(decoratedAnalyzer, decoratedAnalyzer.getClass().getSimpleName(), 1);
+	}
+
+	// -------------------- STATIC UTILITIES --------------------
+
+	// returns null if all event types handled by the handler are supported
+	private static Class<?> unsupportedEventClass(final EventHandler handler) {
+		for (Method method : handler.getClass().getMethods()) {
+			if ("handleEvent".equals(method.getName()) && (method.getParameterCount() == 1)
+					&& Event.class.isAssignableFrom(method.getParameterTypes()[0])
+					&& !Arrays.asList(EVENT_CLASSES).contains(method.getParameterTypes()[0])) {
+				return method.getParameterTypes()[0];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Tells if the given analyzer handles only event types that can be profiled.
+	 */
+	public static boolean canProfile(final SimulationMacroStateAnalyzer analyzer) {
+		return (unsupportedEventClass(analyzer.getEventHandler()) == null);
+	}
+
+	// -------------------- GETTERS --------------------
+
+	// since the last clear(), for testing
+	long getEventCnt(final Class<? extends Event> eventClass) {
+		return this.eventCnt[Arrays.asList(EVENT_CLASSES).indexOf(eventClass)];
+	}
+
+	// since the last clear(), for testing
+	long getTimedEventCnt(final Class<? extends Event> eventClass) {
+		return this.timedEventCnt[Arrays.asList(EVENT_CLASSES).indexOf(eventClass)];
+	}
+
+	// -------------------- INTERNALS --------------------
+
+	// returns NOT_TIMED if this event is not to be timed
+	private long start(final int type) {
+		return ((this.eventCnt[type]++ % this.timingInterval) == 0) ? System.nanoTime() : NOT_TIMED;
+	}
+
+	private void end(final int type, final long start_ns) {
+		if (start_ns != NOT_TIMED) {
+			this.handlerTime_ns[type] += System.nanoTime() - start_ns;
+			this.timedEventCnt[type]++;
+		}
+	}
+
+	private void report(final int dimension, final int nonZeroCnt, final long stateTime_ns) {
+		long totalCnt = 0;
+		long totalTime_ns = 0;
+		final StringBuilder perType = new StringBuilder();
+		for (int type = 0; type < EVENT_CLASSES.length; type++) {
+			if (this.eventCnt[type] > 0) {
+				final long time_ns = (this.timedEventCnt[type] > 0)
+						? this.handlerTime_ns[type] * this.eventCnt[type] / this.timedEventCnt[type]
+						: 0;
+				totalCnt += this.eventCnt[type];
+				totalTime_ns += time_ns;
+				perType.append("\n  " + EVENT_CLASSES[type].getSimpleName() + ": " + this.eventCnt[type] + " events, "
+						+ (time_ns / 1e6) + " ms");
+			}
+		}
+		log.info("Macro-state analyzer " + this.label + ": " + totalCnt + " events, " + (totalTime_ns / 1e6)
+				+ " ms handler time (" + (totalCnt > 0 ? totalTime_ns / totalCnt : 0) + " ns per event"
+				+ (this.timingInterval > 1 ? ", 1 in " + this.timingInterval + " events timed" : "") + "); state "
+				+ "dimension " + dimension + ", " + nonZeroCnt + " non-zero entries (density "
+				+ (dimension > 0 ? ((double) nonZeroCnt) / dimension : 0.0) + "), computed in "
+				+ (stateTime_ns / 1e6) + " ms." + perType);
+	}
+
+	// --------------- IMPLEMENTATION OF SimulationMacroStateAnalyzer ---------------
+
+	@Override
+	public void clear() {
+		this.decoratedAnalyzer.clear();
+		Arrays.fill(this.eventCnt, 0);
+		Arrays.fill(this.timedEventCnt, 0);
+		Arrays.fill(this.handlerTime_ns, 0);
+	}
+
+	@Override
+	public Vector newStateVectorRepresentation() {
+		final long start_ns = System.nanoTime();
+		final Vector result = this.decoratedAnalyzer.newStateVectorRepresentation();
+		final long time_ns = System.nanoTime() - start_ns;
+		int nonZeroCnt = 0;
+		for (int i = 0; i < result.size(); i++) {
+			if (result.get(i) != 0.0) {
+				nonZeroCnt++;
+			}
+		}
+		this.report(result.size(), nonZeroCnt, time_ns);
+		return result;
+	}
+
+	@Override
+	public SparseStateVector newSparseStateVectorRepresentation() {
+		final long start_ns = System.nanoTime();
+		final SparseStateVector result = this.decoratedAnalyzer.newSparseStateVectorRepresentation();
+		this.report(result.size(), result.getNonZeroCnt(), System.nanoTime() - start_ns);
+		return result;
+	}
+
+	@Override
+	public int getStateDimension() {
+		return this.decoratedAnalyzer.getStateDimension();
+	}
+
+	@Override
+	public void addStateVectorRepresentation(final SparseStateVector.Builder builder, final int offset) {
+		final int nonZeroCntBefore = builder.getNonZeroCnt();
+		final long start_ns = System.nanoTime();
+		this.decoratedAnalyzer.addStateVectorRepresentation(builder, offset);
+		this.report(this.decoratedAnalyzer.getStateDimension(), builder.getNonZeroCnt() - nonZeroCntBefore,
+				System.nanoTime() - start_ns);
+	}
+
+	// ---------- IMPLEMENTATION OF *EventHandler INTERFACES ----------
+
+	@Override
+	public void reset(final int iteration) {
+		this.decoratedHandler.reset(iteration);
+	}
+
+	@Override
+	public void handleEvent(final VehicleEntersTrafficEvent event) {
+		if (this.vehicleEntersTrafficHandler != null) {
+			final long start_ns = this.start(VEHICLE_ENTERS_TRAFFIC);
+			this.vehicleEntersTrafficHandler.handleEvent(event);
+			this.end(VEHICLE_ENTERS_TRAFFIC, start_ns);
+		}
+	}
+
+	@Override
+	public void handleEvent(final VehicleLeavesTrafficEvent event) {
+		if (this.vehicleLeavesTrafficHandler != null) {
+			final long start_ns = this.start(VEHICLE_LEAVES_TRAFFIC);
+			this.vehicleLeavesTrafficHandler.handleEvent(event);
+			this.end(VEHICLE_LEAVES_TRAFFIC, start_ns);
+		}
+	}
+
+	@Override
+	public void handleEvent(final LinkEnterEvent event) {
+		if (this.linkEnterHandler != null) {
+			final long start_ns = this.start(LINK_ENTER);
+			this.linkEnterHandler.handleEvent(event);
+			this.end(LINK_ENTER, start_ns);
+		}
+	}
+
+	@Override
+	public void handleEvent(final LinkLeaveEvent event) {
+		if (this.linkLeaveHandler != null) {
+			final long start_ns = this.start(LINK_LEAVE);
+			this.linkLeaveHandler.handleEvent(event);
+			this.end(LINK_LEAVE, start_ns);
+		}
+	}
+
+	@Override
+	public void handleEvent(final VehicleAbortsEvent event) {
+		if (this.vehicleAbortsHandler != null) {
+			final long start_ns = this.start(VEHICLE_ABORTS);
+			this.vehicleAbortsHandler.handleEvent(event);
+			this.end(VEHICLE_ABORTS, start_ns);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package org.matsim.contrib.opdyts.macrostate;
+
+import org.matsim.core.events.handler.EventHandler;
+
+import floetteroed.utilities.math.Vector;
+
+/**
+ * Reduces the state vector of another analyzer to a fixed dimension through a
+ * seeded sparse Johnson-Lindenstrauss projection, which approximately
+ * preserves the distances and inner products Opdyts computes from states.
+ * <p>
+ * Every entry of the original state is mapped onto sparsity many (not
+ * necessarily distinct) target entries, with random signs and a weight of
+ * 1/sqrt(sparsity). Target entries and signs are computed from the seed and
+ * the entry index, such that no projection matrix is stored and equal seeds
+ * yield equal projections across runs. Only the non-zero entries of the
+ * decorated analyzer's sparse state are projected; its full state vector is
+ * never created.
+ * <p>
+ * This analyzer does not handle events itself. Its event handler is the one of
+ * the decorated analyzer, which hence receives the events directly. The
+ * decorated analyzer should override newSparseStateVectorRepresentation(),
+ * otherwise its dense state is created and converted before projection.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class RandomProjectionMacroStateAnalyzer implements SimulationMacroStateAnalyzer {
+
+	// -------------------- CONSTANTS --------------------
+
+	public static final int DEFAULT_SPARSITY = 3;
+
+	private final SimulationMacroStateAnalyzer decoratedAnalyzer;
+
+	private final int targetDimension;
+
+	private final int sparsity;
+
+	private final long seed;
+
+	private final double weight;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	public RandomProjectionMacroStateAnalyzer(final SimulationMacroStateAnalyzer decoratedAnalyzer,
+			final int targetDimension, final int sparsity, final long seed) {
+		if (targetDimension < 1) {
+			throw new IllegalArgumentException("target dimension must be at least one but is " + targetDimension);
+		}
+		if (sparsity < 1) {
+			throw new IllegalArgumentException("sparsity must be at least one but is " + sparsity);
+		}
+		this.decoratedAnalyzer = decoratedAnalyzer;
+		this.targetDimension = targetDimension;
+		this.sparsity = sparsity;
+		this.seed = seed;
+		this.weight = 1.0 / Math.sqrt(sparsity);
+	}
+
+	public RandomProjectionMacroStateAnalyzer(final SimulationMacroStateAnalyzer decoratedAnalyzer,
+			final int targetDimension, final long seed) {
+		this(decoratedAnalyzer, targetDimension, DEFAULT_SPARSITY, seed);
+	}
+
+	// -------------------- INTERNALS --------------------
+
+	// SplitMix64 finalizer
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	// target entry (lower 32 bits) and sign (bit 32) of the given replicate
+	private long hash(final int index, final int replicate) {
+		return mix(this.seed + 0x9e3779b97f4a7c15L * (((long) index) * this.sparsity + replicate + 1));
+	}
+
+	void project(final SparseStateVector state, final Vector target) {
+		for (int k = 0; k < state.getNonZeroCnt(); k++) {
+			final int index = state.getIndex(k);
+			final double value = this.weight * state.getValue(k);
+			for (int r = 0; r < this.sparsity; r++) {
+				final long hash = this.hash(index, r);
+				final int targetIndex = (int) ((hash & 0xffffffffL) % this.targetDimension);
+				final double signedValue = ((hash & (1L << 32)) == 0) ? value : -value;
+				target.set(targetIndex, target.get(targetIndex) + signedValue);
+			}
+		}
+	}
+
+	// --------------- IMPLEMENTATION OF SimulationMacroStateAnalyzer ---------------
+
+	@Override
+	public void clear() {
+		this.decoratedAnalyzer.clear();
+	}
+
+	@Override
+	public EventHandler getEventHandler() {
+		return this.decoratedAnalyzer.getEventHandler();
+	}
+
+	@Override
+	public Vector newStateVectorRepresentation() {
+		final Vector result = new Vector(this.targetDimension);
+		this.project(this.decoratedAnalyzer.newSparseStateVectorRepresentation(), result);
+		return result;
+	}
+
+	@Override
+	public int getStateDimension() {
+		return this.targetDimension;
+	}
+
+	// ---------- IMPLEMENTATION OF EventHandler ----------
+
+	@Override
+	public void reset(final int iteration) {
+		this.decoratedAnalyzer.reset(iteration);
+	}
+}
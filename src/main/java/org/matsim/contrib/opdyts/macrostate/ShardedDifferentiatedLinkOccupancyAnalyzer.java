@@ -0,0 +1,111 @@
+package org.matsim.contrib.opdyts.macrostate;
+
+import java.util.Set;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleAbortsEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleAbortsEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleLeavesTrafficEventHandler;
+import org.matsim.api.core.v01.network.Link;
+
+import floetteroed.utilities.TimeDiscretization;
+import floetteroed.utilities.math.Vector;
+
+/**
+ * Thread-safe analyzer of the same state as DifferentiatedLinkOccupancyAnalyzer,
+ * with one IndexedLinkOccupancyAnalyzer per shard. The state is the sum of the
+ * shards' sparse states; no dense state vector is created unless requested.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see ShardedStateAnalyzer
+ */
+public class ShardedDifferentiatedLinkOccupancyAnalyzer extends ShardedStateAnalyzer<IndexedLinkOccupancyAnalyzer>
+		implements SimulationMacroStateAnalyzer, LinkLeaveEventHandler, LinkEnterEventHandler,
+		VehicleEntersTrafficEventHandler, VehicleLeavesTrafficEventHandler, VehicleAbortsEventHandler {
+
+	// -------------------- CONSTRUCTION --------------------
+
+	public ShardedDifferentiatedLinkOccupancyAnalyzer(final TimeDiscretization timeDiscretization,
+			final Set<String> relevantModes, final Set<Id<Link>> relevantLinks, final int shardCnt) {
+		super(shardCnt, () -> new IndexedLinkOccupancyAnalyzer(timeDiscretization, relevantModes, relevantLinks));
+	}
+
+	// --------------- IMPLEMENTATION OF SimulationStateAnalyzer ---------------
+
+	@Override
+	public void clear() {
+		for (IndexedLinkOccupancyAnalyzer shard : this.getShards()) {
+			synchronized (shard) {
+				shard.clear();
+			}
+		}
+	}
+
+	@Override
+	public Vector newStateVectorRepresentation() {
+		return this.newSparseStateVectorRepresentation().toDense();
+	}
+
+	@Override
+	public SparseStateVector newSparseStateVectorRepresentation() {
+		return this.newSummedSparseState(shard -> shard.newSparseStateVectorRepresentation());
+	}
+
+	@Override
+	public int getStateDimension() {
+		final IndexedLinkOccupancyAnalyzer shard = this.getShards().get(0);
+		synchronized (shard) {
+			return shard.getStateDimension();
+		}
+	}
+
+	// ---------- IMPLEMENTATION OF *EventHandler INTERFACES ----------
+
+	@Override
+	public void handleEvent(final VehicleEntersTrafficEvent event) {
+		final IndexedLinkOccupancyAnalyzer shard = this.shard(event.getVehicleId());
+		synchronized (shard) {
+			shard.handleEvent(event);
+		}
+	}
+
+	@Override
+	public void handleEvent(final VehicleLeavesTrafficEvent event) {
+		final IndexedLinkOccupancyAnalyzer shard = this.shard(event.getVehicleId());
+		synchronized (shard) {
+			shard.handleEvent(event);
+		}
+	}
+
+	@Override
+	public void handleEvent(final LinkEnterEvent event) {
+		final IndexedLinkOccupancyAnalyzer shard = this.shard(event.getVehicleId());
+		synchronized (shard) {
+			shard.handleEvent(event);
+		}
+	}
+
+	@Override
+	public void handleEvent(final LinkLeaveEvent event) {
+		final IndexedLinkOccupancyAnalyzer shard = this.shard(event.getVehicleId());
+		synchronized (shard) {
+			shard.handleEvent(event);
+		}
+	}
+
+	@Override
+	public void handleEvent(final VehicleAbortsEvent event) {
+		final IndexedLinkOccupancyAnalyzer shard = this.shard(event.getVehicleId());
+		synchronized (shard) {
+			shard.handleEvent(event);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package org.matsim.contrib.opdyts.macrostate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.vehicles.Vehicle;
+
+/**
+ * Base class of state analyzers that may receive events from several threads
+ * at once, as it happens with parallel events handling.
+ * <p>
+ * The events are partitioned by a hash of their vehicle id onto a fixed number
+ * of shards, each of which is a single-threaded analyzer that is only accessed
+ * while holding its monitor. All events of one vehicle hence reach the same
+ * shard in their original order, whereas events of different vehicles may
+ * reach a shard in any order. The shards must hence accumulate their state
+ * independently of that order, as IndexedLinkOccupancyAnalyzer does. This is
+ * sufficient for every state that is additive over vehicles (such as link
+ * occupancies): subclasses merge the partial results of all shards, in shard
+ * order, when the state is requested.
+ * <p>
+ * Sharding only helps if the event source calls one handler from several
+ * threads at once. MATSim's own (also the parallel) events managers deliver
+ * all events of a handler from a single thread; there, the shard monitors are
+ * uncontended and sharding does not speed up event handling. Every shard holds
+ * a complete state, such that memory grows with the number of shards.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @param <S>
+ *            the shard type
+ */
+public abstract class ShardedStateAnalyzer<S> {
+
+	// -------------------- MEMBERS --------------------
+
+	private final List<S> shards;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	protected ShardedStateAnalyzer(final int shardCnt, final Supplier<? extends S> shardFactory) {
+		if (shardCnt < 1) {
+			throw new IllegalArgumentException("shard count must be at least one but is " + shardCnt);
+		}
+		final List<S> shards = new ArrayList<>(shardCnt);
+		for (int i = 0; i < shardCnt; i++) {
+			shards.add(shardFactory.get());
+		}
+		this.shards = Collections.unmodifiableList(shards);
+	}
+
+	// -------------------- IMPLEMENTATION --------------------
+
+	/**
+	 * Returns the shard responsible for the given vehicle. Synchronize on the
+	 * result when accessing it.
+	 */
+	protected final S shard(final Id<Vehicle> vehicleId) {
+		return this.shards.get((vehicleId.hashCode() & Integer.MAX_VALUE) % this.shards.size());
+	}
+
+	/**
+	 * All shards, in the order in which their results are to be merged.
+	 * Synchronize on every shard when accessing it.
+	 */
+	protected final List<S> getShards() {
+		return this.shards;
+	}
+
+	/**
+	 * The sum of the sparse states of all shards, for states that are additive
+	 * over vehicles.
+	 */
+	protected final SparseStateVector newSummedSparseState(
+			final Function<? super S, SparseStateVector> shardState) {
+		final List<SparseStateVector> states = new ArrayList<>(this.shards.size());
+		for (S shard : this.shards) {
+			synchronized (shard) {
+				states.add(shardState.apply(shard));
+			}
+		}
+		return SparseStateVector.sum(states);
+	}
+
+	public int getShardCnt() {
+		return this.shards.size();
+	}
+}
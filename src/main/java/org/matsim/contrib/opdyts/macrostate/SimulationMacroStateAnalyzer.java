@@ -28,10 +28,51 @@ public interface SimulationMacroStateAnalyzer extends EventHandler {
 	 */
 	public void clear();
 
+	/**
+	 * The event handler that is registered with the events manager on behalf of
+	 * this analyzer. Decorators that do not need to see the events themselves
+	 * return the handler of the decorated analyzer, such that events reach it
+	 * without a second dispatch.
+	 */
+	public default EventHandler getEventHandler() {
+		return this;
+	}
+
 	/**
 	 * Returns a new instance of a fixed-dimension vector-valued macro-state
 	 * representation based on the most recently handled event stream.
 	 */
 	public Vector newStateVectorRepresentation();
 
+	/**
+	 * Returns the same macro-state representation as
+	 * newStateVectorRepresentation(), in sparse form. Analyzers with mostly zero
+	 * state entries should override this such that the dense vector is never
+	 * created.
+	 */
+	public default SparseStateVector newSparseStateVectorRepresentation() {
+		return SparseStateVector.fromDense(this.newStateVectorRepresentation());
+	}
+
+	/**
+	 * Returns the (fixed) dimension of the macro-state representation.
+	 * Analyzers should override this if it can be computed without creating the
+	 * state vector.
+	 */
+	public default int getStateDimension() {
+		return this.newSparseStateVectorRepresentation().size();
+	}
+
+	/**
+	 * Adds the macro-state representation to the given builder, at the indices
+	 * offset, ..., offset + getStateDimension() - 1. Analyzers should override
+	 * this if they can write their state without creating an own vector.
+	 */
+	public default void addStateVectorRepresentation(final SparseStateVector.Builder builder, final int offset) {
+		final SparseStateVector state = this.newSparseStateVectorRepresentation();
+		for (int k = 0; k < state.getNonZeroCnt(); k++) {
+			builder.add(offset + state.getIndex(k), state.getValue(k));
+		}
+	}
+
 }
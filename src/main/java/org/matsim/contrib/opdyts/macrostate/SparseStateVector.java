@@ -0,0 +1,183 @@
+package org.matsim.contrib.opdyts.macrostate;
+
+import java.util.Arrays;
+import java.util.List;
+
+import floetteroed.utilities.math.Vector;
+
+/**
+ * An immutable, sparse representation of a (part of a) macro-state vector.
+ * Only non-zero entries are stored, as pairs of strictly increasing indices and
+ * values.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public final class SparseStateVector {
+
+	// -------------------- MEMBERS --------------------
+
+	private final int dimension;
+
+	private final int[] indices;
+
+	private final double[] values;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	private SparseStateVector(final int dimension, final int[] indices, final double[] values) {
+		this.dimension = dimension;
+		this.indices = indices;
+		this.values = values;
+	}
+
+	public static SparseStateVector fromDense(final Vector vector) {
+		final Builder builder = new Builder(vector.size());
+		for (int i = 0; i < vector.size(); i++) {
+			builder.add(i, vector.get(i));
+		}
+		return builder.build();
+	}
+
+	public static SparseStateVector concat(final List<SparseStateVector> vectors) {
+		int dimension = 0;
+		int nonZeroCnt = 0;
+		for (SparseStateVector vector : vectors) {
+			dimension += vector.dimension;
+			nonZeroCnt += vector.indices.length;
+		}
+		final int[] indices = new int[nonZeroCnt];
+		final double[] values = new double[nonZeroCnt];
+		int offset = 0;
+		int k = 0;
+		for (SparseStateVector vector : vectors) {
+			for (int j = 0; j < vector.indices.length; j++) {
+				indices[k] = offset + vector.indices[j];
+				values[k++] = vector.values[j];
+			}
+			offset += vector.dimension;
+		}
+		return new SparseStateVector(dimension, indices, values);
+	}
+
+	/**
+	 * The entry-wise sum of vectors of equal dimension.
+	 */
+	public static SparseStateVector sum(final List<SparseStateVector> vectors) {
+		SparseStateVector result = vectors.get(0);
+		for (int i = 1; i < vectors.size(); i++) {
+			result = sum(result, vectors.get(i));
+		}
+		return result;
+	}
+
+	// merges the (sorted) non-zero entries of both vectors
+	private static SparseStateVector sum(final SparseStateVector first, final SparseStateVector second) {
+		if (first.dimension != second.dimension) {
+			throw new IllegalArgumentException(
+					"Cannot add vectors of dimensions " + first.dimension + " and " + second.dimension + ".");
+		}
+		final Builder builder = new Builder(first.dimension);
+		int j = 0;
+		int k = 0;
+		while (j < first.indices.length || k < second.indices.length) {
+			if (k == second.indices.length || (j < first.indices.length && first.indices[j] < second.indices[k])) {
+				builder.add(first.indices[j], first.values[j]);
+				j++;
+			} else if (j == first.indices.length || second.indices[k] < first.indices[j]) {
+				builder.add(second.indices[k], second.values[k]);
+				k++;
+			} else {
+				builder.add(first.indices[j], first.values[j] + second.values[k]);
+				j++;
+				k++;
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Collects the non-zero entries of a sparse vector, which need to be added
+	 * in strictly increasing index order. A builder can be cleared and reused;
+	 * its internal buffers then keep their size.
+	 */
+	public static class Builder {
+
+		private final int dimension;
+
+		private int[] indices = new int[16];
+
+		private double[] values = new double[16];
+
+		private int nonZeroCnt = 0;
+
+		public Builder(final int dimension) {
+			this.dimension = dimension;
+		}
+
+		public void add(final int index, final double value) {
+			if (value == 0.0) {
+				return;
+			}
+			if ((index >= this.dimension) || (this.nonZeroCnt > 0 && index <= this.indices[this.nonZeroCnt - 1])) {
+				throw new IllegalArgumentException("Index " + index + " is out of order or out of bounds.");
+			}
+			if (this.nonZeroCnt == this.indices.length) {
+				this.indices = Arrays.copyOf(this.indices, 2 * this.nonZeroCnt);
+				this.values = Arrays.copyOf(this.values, 2 * this.nonZeroCnt);
+			}
+			this.indices[this.nonZeroCnt] = index;
+			this.values[this.nonZeroCnt++] = value;
+		}
+
+		public int size() {
+			return this.dimension;
+		}
+
+		public int getNonZeroCnt() {
+			return this.nonZeroCnt;
+		}
+
+		public void clear() {
+			this.nonZeroCnt = 0;
+		}
+
+		public SparseStateVector build() {
+			return new SparseStateVector(this.dimension, Arrays.copyOf(this.indices, this.nonZeroCnt),
+					Arrays.copyOf(this.values, this.nonZeroCnt));
+		}
+	}
+
+	// -------------------- GETTERS --------------------
+
+	public int size() {
+		return this.dimension;
+	}
+
+	public int getNonZeroCnt() {
+		return this.indices.length;
+	}
+
+	// index of the k-th non-zero entry
+	public int getIndex(final int k) {
+		return this.indices[k];
+	}
+
+	// value of the k-th non-zero entry
+	public double getValue(final int k) {
+		return this.values[k];
+	}
+
+	public double get(final int index) {
+		final int k = Arrays.binarySearch(this.indices, index);
+		return (k >= 0) ? this.values[k] : 0.0;
+	}
+
+	public Vector toDense() {
+		final Vector result = new Vector(this.dimension);
+		for (int k = 0; k < this.indices.length; k++) {
+			result.set(this.indices[k], this.values[k]);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,145 @@
+package org.matsim.contrib.opdyts.microstate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+
+/**
+ * Common functionality of population snapshots that are composed of
+ * CompactPlan instances. Subclasses only define how plans, scores and selected
+ * plan indices are stored. Plan objects are re-created from their encoding
+ * only when they are accessed or when the snapshot is implemented in the
+ * simulation.
+ * <p>
+ * A null score is encoded as NaN (and hence a NaN score is decoded as null).
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+abstract class AbstractCompactPopulationSnapshot implements PopulationSnapshot {
+
+	// -------------------- MEMBERS --------------------
+
+	private final Population population;
+
+	private final CompactPlanEncoder encoder;
+
+	private final PersonIndex personIndex;
+
+	private final int threadCnt;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	AbstractCompactPopulationSnapshot(final Population population, final CompactPlanEncoder encoder,
+			final PersonIndex personIndex, final int threadCnt) {
+		this.population = population;
+		this.encoder = encoder;
+		this.personIndex = personIndex;
+		this.threadCnt = threadCnt;
+	}
+
+	// -------------------- STORAGE ACCESS --------------------
+
+	PersonIndex getPersonIndex() {
+		return this.personIndex;
+	}
+
+	int getThreadCnt() {
+		return this.threadCnt;
+	}
+
+	abstract int getPlanCnt(int personIndex);
+
+	abstract CompactPlan getPlan(int personIndex, int planIndex);
+
+	abstract double getScore(int personIndex, int planIndex);
+
+	// -1 if there is no selected plan
+	abstract int getSelectedPlanIndex(int personIndex);
+
+	// -------------------- INTERNALS --------------------
+
+	static double encodeScore(final Plan plan) {
+		return (plan.getScore() == null) ? Double.NaN : plan.getScore();
+	}
+
+	private Plan decode(final int personIndex, final int planIndex, final Person person) {
+		return this.decode(this.getPlan(personIndex, planIndex), personIndex, planIndex, person);
+	}
+
+	private Plan decode(final CompactPlan compactPlan, final int personIndex, final int planIndex,
+			final Person person) {
+		final Plan plan = compactPlan.decode(person);
+		final double score = this.getScore(personIndex, planIndex);
+		plan.setScore(Double.isNaN(score) ? null : score);
+		return plan;
+	}
+
+	// --------------- IMPLEMENTATION OF PopulationSnapshot ---------------
+
+	@Override
+	public Set<Id<Person>> getPersonIdView() {
+		return this.personIndex.getPersonIdView();
+	}
+
+	@Override
+	public List<? extends Plan> getPlansView(final Id<Person> personId) {
+		final Integer i = this.personIndex.getIndex(personId);
+		if (i == null) {
+			return null;
+		}
+		final Person person = this.population.getPersons().get(personId);
+		final List<Plan> result = new ArrayList<>(this.getPlanCnt(i));
+		for (int j = 0; j < this.getPlanCnt(i); j++) {
+			result.add(this.decode(i, j, person));
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	@Override
+	public Plan getSelectedPlan(final Id<Person> personId) {
+		final Integer i = this.personIndex.getIndex(personId);
+		if ((i == null) || (this.getSelectedPlanIndex(i) < 0)) {
+			return null;
+		}
+		return this.decode(i, this.getSelectedPlanIndex(i), this.population.getPersons().get(personId));
+	}
+
+	@Override
+	public void implementInPopulation(final Population population) {
+		final Person[] persons = new Person[this.personIndex.size()];
+		final int[] firstPlanIndex = new int[this.personIndex.size() + 1];
+		for (int i = 0; i < this.personIndex.size(); i++) {
+			persons[i] = population.getPersons().get(this.personIndex.getPersonId(i));
+			firstPlanIndex[i + 1] = firstPlanIndex[i] + this.getPlanCnt(i);
+		}
+
+		// Decoding in parallel, registering the decoded plans sequentially.
+		final CompactPlan[] compactPlans = new CompactPlan[firstPlanIndex[persons.length]];
+		ParallelPersonLoop.run(persons.length, this.threadCnt, i -> {
+			final Person person = persons[i];
+			person.getPlans().clear();
+			person.setSelectedPlan(null);
+			for (int j = 0; j < firstPlanIndex[i + 1] - firstPlanIndex[i]; j++) {
+				final CompactPlan compactPlan = this.getPlan(i, j);
+				compactPlans[firstPlanIndex[i] + j] = compactPlan;
+				final Plan plan = this.decode(compactPlan, i, j, person);
+				person.addPlan(plan);
+				if (j == this.getSelectedPlanIndex(i)) {
+					person.setSelectedPlan(plan);
+				}
+			}
+		});
+		for (int i = 0; i < persons.length; i++) {
+			for (int j = 0; j < persons[i].getPlans().size(); j++) {
+				this.encoder.registerDecoded(persons[i].getPlans().get(j), compactPlans[firstPlanIndex[i] + j]);
+			}
+		}
+	}
+}
@@ -0,0 +1,424 @@
+package org.matsim.contrib.opdyts.microstate;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.api.core.v01.population.Route;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteFactories;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.utils.objectattributes.attributable.Attributable;
+import org.matsim.utils.objectattributes.attributable.AttributesUtils;
+import org.matsim.vehicles.Vehicle;
+
+/**
+ * An immutable, array-based encoding of the structure (activities and legs) of
+ * a single plan. Does not contain the score, which changes from iteration to
+ * iteration while the plan structure does not.
+ * <p>
+ * Activity and leg types are interned through the CompactPlanEncoder that
+ * creates an instance. Routes are kept as private copies. Plans that carry
+ * attributes (on the plan or on any of its elements) are not encoded but kept
+ * as a deep copy, including all attributes, as in DeepCopyPopulationSnapshot.
+ * Such plans cannot be written in binary form.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see CompactPlanEncoder
+ */
+public final class CompactPlan {
+
+	// -------------------- CONSTANTS --------------------
+
+	private static final int ACT_TIME_CNT = 3; // start, end, max. duration
+
+	private static final int LEG_TIME_CNT = 2; // departure, travel time
+
+	// -------------------- MEMBERS --------------------
+
+	private final String planType;
+
+	// true for an activity, false for a leg; in plan element order
+	private final boolean[] isActivity;
+
+	private final String[] actTypes;
+
+	private final Id<Link>[] actLinkIds;
+
+	private final Id<ActivityFacility>[] actFacilityIds;
+
+	// (x, y) per activity; NaN if the activity has no coordinate
+	private final double[] actCoords;
+
+	// (start time, end time, maximum duration) per activity
+	private final double[] actTimes;
+
+	private final String[] legModes;
+
+	// (departure time, travel time) per leg
+	private final double[] legTimes;
+
+	private final Route[] legRoutes;
+
+	// deep copy of a plan with attributes, null otherwise
+	private final Plan attributedPlan;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	@SuppressWarnings("unchecked")
+	CompactPlan(final Plan plan, final CompactPlanEncoder encoder) {
+
+		this.planType = encoder.intern(plan.getType());
+		this.attributedPlan = hasAttributes(plan) ? newCopyWithAttributes(plan, plan.getPerson()) : null;
+
+		final List<PlanElement> planElements = plan.getPlanElements();
+		this.isActivity = new boolean[planElements.size()];
+		int actCnt = 0;
+		for (int i = 0; i < planElements.size(); i++) {
+			if (planElements.get(i) instanceof Activity) {
+				this.isActivity[i] = true;
+				actCnt++;
+			} else if (!(planElements.get(i) instanceof Leg)) {
+				throw new RuntimeException("Unknown plan element type: " + planElements.get(i).getClass().getName());
+			}
+		}
+		final int legCnt = planElements.size() - actCnt;
+
+		this.actTypes = new String[actCnt];
+		this.actLinkIds = new Id[actCnt];
+		this.actFacilityIds = new Id[actCnt];
+		this.actCoords = new double[2 * actCnt];
+		this.actTimes = new double[ACT_TIME_CNT * actCnt];
+		this.legModes = new String[legCnt];
+		this.legTimes = new double[LEG_TIME_CNT * legCnt];
+		this.legRoutes = new Route[legCnt];
+
+		int act = 0;
+		int leg = 0;
+		for (PlanElement planElement : planElements) {
+			if (planElement instanceof Activity) {
+				final Activity activity = (Activity) planElement;
+				this.actTypes[act] = encoder.intern(activity.getType());
+				this.actLinkIds[act] = activity.getLinkId();
+				this.actFacilityIds[act] = activity.getFacilityId();
+				if (activity.getCoord() != null) {
+					this.actCoords[2 * act] = activity.getCoord().getX();
+					this.actCoords[2 * act + 1] = activity.getCoord().getY();
+				} else {
+					this.actCoords[2 * act] = Double.NaN;
+					this.actCoords[2 * act + 1] = Double.NaN;
+				}
+				this.actTimes[ACT_TIME_CNT * act] = activity.getStartTime();
+				this.actTimes[ACT_TIME_CNT * act + 1] = activity.getEndTime();
+				this.actTimes[ACT_TIME_CNT * act + 2] = activity.getMaximumDuration();
+				act++;
+			} else {
+				final Leg legElement = (Leg) planElement;
+				this.legModes[leg] = encoder.intern(legElement.getMode());
+				this.legTimes[LEG_TIME_CNT * leg] = legElement.getDepartureTime();
+				this.legTimes[LEG_TIME_CNT * leg + 1] = legElement.getTravelTime();
+				this.legRoutes[leg] = (legElement.getRoute() == null) ? null : legElement.getRoute().clone();
+				leg++;
+			}
+		}
+	}
+
+	private CompactPlan(final String planType, final boolean[] isActivity, final String[] actTypes,
+			final Id<Link>[] actLinkIds, final Id<ActivityFacility>[] actFacilityIds, final double[] actCoords,
+			final double[] actTimes, final String[] legModes, final double[] legTimes, final Route[] legRoutes) {
+		this.planType = planType;
+		this.isActivity = isActivity;
+		this.actTypes = actTypes;
+		this.actLinkIds = actLinkIds;
+		this.actFacilityIds = actFacilityIds;
+		this.actCoords = actCoords;
+		this.actTimes = actTimes;
+		this.legModes = legModes;
+		this.legTimes = legTimes;
+		this.legRoutes = legRoutes;
+		this.attributedPlan = null;
+	}
+
+	// -------------------- HELPERS --------------------
+
+	private static boolean hasAttributes(final Attributable attributable) {
+		return (attributable.getAttributes().size() > 0);
+	}
+
+	static boolean hasAttributes(final Plan plan) {
+		if (hasAttributes((Attributable) plan)) {
+			return true;
+		}
+		for (PlanElement planElement : plan.getPlanElements()) {
+			if ((planElement instanceof Attributable) && hasAttributes((Attributable) planElement)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Plan newCopyWithAttributes(final Plan fromPlan, final Person person) {
+		final Plan toPlan = PopulationUtils.createPlan(person);
+		PopulationUtils.copyFromTo(fromPlan, toPlan);
+		AttributesUtils.copyAttributesFromTo(fromPlan, toPlan);
+		for (int i = 0; i < fromPlan.getPlanElements().size(); i++) {
+			final PlanElement fromElement = fromPlan.getPlanElements().get(i);
+			final PlanElement toElement = toPlan.getPlanElements().get(i);
+			if ((fromElement instanceof Attributable) && (toElement instanceof Attributable)) {
+				AttributesUtils.copyAttributesFromTo((Attributable) fromElement, (Attributable) toElement);
+			}
+		}
+		return toPlan;
+	}
+
+	// -------------------- IMPLEMENTATION --------------------
+
+	/**
+	 * Creates a new plan (without score) from this encoding.
+	 */
+	Plan decode(final Person person) {
+		if (this.attributedPlan != null) {
+			final Plan plan = newCopyWithAttributes(this.attributedPlan, person);
+			plan.setScore(null);
+			return plan;
+		}
+		final Plan plan = PopulationUtils.createPlan(person);
+		plan.setType(this.planType);
+		int act = 0;
+		int leg = 0;
+		for (boolean elementIsActivity : this.isActivity) {
+			if (elementIsActivity) {
+				final Activity activity = PopulationUtils.createActivityFromLinkId(this.actTypes[act],
+						this.actLinkIds[act]);
+				activity.setFacilityId(this.actFacilityIds[act]);
+				if (!Double.isNaN(this.actCoords[2 * act])) {
+					activity.setCoord(new Coord(this.actCoords[2 * act], this.actCoords[2 * act + 1]));
+				}
+				activity.setStartTime(this.actTimes[ACT_TIME_CNT * act]);
+				activity.setEndTime(this.actTimes[ACT_TIME_CNT * act + 1]);
+				activity.setMaximumDuration(this.actTimes[ACT_TIME_CNT * act + 2]);
+				plan.addActivity(activity);
+				act++;
+			} else {
+				final Leg legElement = PopulationUtils.createLeg(this.legModes[leg]);
+				legElement.setDepartureTime(this.legTimes[LEG_TIME_CNT * leg]);
+				legElement.setTravelTime(this.legTimes[LEG_TIME_CNT * leg + 1]);
+				if (this.legRoutes[leg] != null) {
+					legElement.setRoute(this.legRoutes[leg].clone());
+				}
+				plan.addLeg(legElement);
+				leg++;
+			}
+		}
+		return plan;
+	}
+
+	// -------------------- BINARY I/O --------------------
+
+	private static void writeString(final String string, final DataOutputStream out) throws IOException {
+		if (string == null) {
+			out.writeInt(-1);
+		} else {
+			final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(final ByteBuffer in) {
+		final int length = in.getInt();
+		if (length < 0) {
+			return null;
+		}
+		final byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static String readString(final ByteBuffer in, final CompactPlanEncoder encoder) {
+		return encoder.intern(readString(in));
+	}
+
+	private static void writeId(final Id<?> id, final DataOutputStream out) throws IOException {
+		writeString((id == null) ? null : id.toString(), out);
+	}
+
+	private static <T> Id<T> readId(final ByteBuffer in, final Class<T> idType) {
+		final String id = readString(in);
+		return (id == null) ? null : Id.create(id, idType);
+	}
+
+	private static void writeRoute(final Route route, final DataOutputStream out) throws IOException {
+		out.writeBoolean(route != null);
+		if (route != null) {
+			writeString(route.getRouteType(), out);
+			writeId(route.getStartLinkId(), out);
+			writeId(route.getEndLinkId(), out);
+			writeString(route.getRouteDescription(), out);
+			out.writeDouble(route.getDistance());
+			out.writeDouble(route.getTravelTime());
+			if (route instanceof NetworkRoute) {
+				writeId(((NetworkRoute) route).getVehicleId(), out);
+				out.writeDouble(((NetworkRoute) route).getTravelCost());
+			}
+		}
+	}
+
+	private static Route readRoute(final ByteBuffer in, final CompactPlanEncoder encoder,
+			final RouteFactories routeFactories) {
+		if (in.get() == 0) {
+			return null;
+		}
+		final String routeType = readString(in, encoder);
+		final Id<Link> startLinkId = readId(in, Link.class);
+		final Id<Link> endLinkId = readId(in, Link.class);
+		final Route route = routeFactories.createRoute(
+				(routeType == null) ? Route.class : routeFactories.getRouteClassForType(routeType), startLinkId,
+				endLinkId);
+		final String routeDescription = readString(in);
+		if (routeDescription != null) {
+			route.setRouteDescription(routeDescription);
+		}
+		route.setDistance(in.getDouble());
+		route.setTravelTime(in.getDouble());
+		if (route instanceof NetworkRoute) {
+			((NetworkRoute) route).setVehicleId(readId(in, Vehicle.class));
+			((NetworkRoute) route).setTravelCost(in.getDouble());
+		}
+		return route;
+	}
+
+	/**
+	 * Checks if the given plan still has the structure encoded here: the same
+	 * sequence of activities and legs, with equal activity types, activity
+	 * locations and leg modes. Times and routes are not compared. Plans with
+	 * attributes never match, because attributes may change in place.
+	 */
+	boolean matchesStructureOf(final Plan plan) {
+		if ((this.attributedPlan != null) || (plan.getPlanElements().size() != this.isActivity.length)
+				|| !Objects.equals(this.planType, plan.getType())) {
+			return false;
+		}
+		int act = 0;
+		int leg = 0;
+		for (int i = 0; i < this.isActivity.length; i++) {
+			final PlanElement planElement = plan.getPlanElements().get(i);
+			if (this.isActivity[i]) {
+				if (!(planElement instanceof Activity)) {
+					return false;
+				}
+				final Activity activity = (Activity) planElement;
+				if (!Objects.equals(this.actTypes[act], activity.getType())
+						|| !Objects.equals(this.actLinkIds[act], activity.getLinkId())
+						|| !Objects.equals(this.actFacilityIds[act], activity.getFacilityId())) {
+					return false;
+				}
+				act++;
+			} else {
+				if (!(planElement instanceof Leg)
+						|| !Objects.equals(this.legModes[leg], ((Leg) planElement).getMode())) {
+					return false;
+				}
+				leg++;
+			}
+		}
+		return true;
+	}
+
+	void write(final DataOutputStream out) throws IOException {
+		if (this.attributedPlan != null) {
+			throw new RuntimeException("Plans with attributes cannot be written in binary form. "
+					+ "Use the deepCopy micro-state snapshot mode for populations with plan attributes.");
+		}
+		writeString(this.planType, out);
+		out.writeInt(this.isActivity.length);
+		for (boolean elementIsActivity : this.isActivity) {
+			out.writeBoolean(elementIsActivity);
+		}
+		for (int act = 0; act < this.actTypes.length; act++) {
+			writeString(this.actTypes[act], out);
+			writeId(this.actLinkIds[act], out);
+			writeId(this.actFacilityIds[act], out);
+			out.writeDouble(this.actCoords[2 * act]);
+			out.writeDouble(this.actCoords[2 * act + 1]);
+			for (int k = 0; k < ACT_TIME_CNT; k++) {
+				out.writeDouble(this.actTimes[ACT_TIME_CNT * act + k]);
+			}
+		}
+		for (int leg = 0; leg < this.legModes.length; leg++) {
+			writeString(this.legModes[leg], out);
+			for (int k = 0; k < LEG_TIME_CNT; k++) {
+				out.writeDouble(this.legTimes[LEG_TIME_CNT * leg + k]);
+			}
+			writeRoute(this.legRoutes[leg], out);
+		}
+	}
+
+	/**
+	 * Reads a plan that was written with write(DataOutputStream), starting at the
+	 * current position of the given buffer.
+	 */
+	@SuppressWarnings("unchecked")
+	static CompactPlan read(final ByteBuffer in, final CompactPlanEncoder encoder,
+			final RouteFactories routeFactories) {
+		final String planType = readString(in, encoder);
+		final boolean[] isActivity = new boolean[in.getInt()];
+		int actCnt = 0;
+		for (int i = 0; i < isActivity.length; i++) {
+			isActivity[i] = (in.get() != 0);
+			if (isActivity[i]) {
+				actCnt++;
+			}
+		}
+		final int legCnt = isActivity.length - actCnt;
+
+		final String[] actTypes = new String[actCnt];
+		final Id<Link>[] actLinkIds = new Id[actCnt];
+		final Id<ActivityFacility>[] actFacilityIds = new Id[actCnt];
+		final double[] actCoords = new double[2 * actCnt];
+		final double[] actTimes = new double[ACT_TIME_CNT * actCnt];
+		for (int act = 0; act < actCnt; act++) {
+			actTypes[act] = readString(in, encoder);
+			actLinkIds[act] = readId(in, Link.class);
+			actFacilityIds[act] = readId(in, ActivityFacility.class);
+			actCoords[2 * act] = in.getDouble();
+			actCoords[2 * act + 1] = in.getDouble();
+			for (int k = 0; k < ACT_TIME_CNT; k++) {
+				actTimes[ACT_TIME_CNT * act + k] = in.getDouble();
+			}
+		}
+
+		final String[] legModes = new String[legCnt];
+		final double[] legTimes = new double[LEG_TIME_CNT * legCnt];
+		final Route[] legRoutes = new Route[legCnt];
+		for (int leg = 0; leg < legCnt; leg++) {
+			legModes[leg] = readString(in, encoder);
+			for (int k = 0; k < LEG_TIME_CNT; k++) {
+				legTimes[LEG_TIME_CNT * leg + k] = in.getDouble();
+			}
+			legRoutes[leg] = readRoute(in, encoder, routeFactories);
+		}
+
+		return new CompactPlan(planType, isActivity, actTypes, actLinkIds, actFacilityIds, actCoords, actTimes,
+				legModes, legTimes, legRoutes);
+	}
+
+	// -------------------- GETTERS --------------------
+
+	public int getPlanElementCnt() {
+		return this.isActivity.length;
+	}
+}
@@ -0,0 +1,101 @@
+package org.matsim.contrib.opdyts.microstate;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+
+/**
+ * Creates CompactPlan instances and shares them across consecutive snapshots.
+ * <p>
+ * MATSim's standard replanning does not modify an existing plan in place
+ * (apart from its score) but modifies a copy of it. A plan that is still (by
+ * reference) found in the population when the next snapshot is taken is
+ * therefore assumed to be unchanged, and its encoding from the previous
+ * snapshot is reused. This is only checked coarsely: the plan element
+ * sequence, activity types and locations, and leg modes must still match (see
+ * CompactPlan.matchesStructureOf(Plan)). Strategies that change times or
+ * routes of an existing plan in place require the deepCopy snapshot mode.
+ * <p>
+ * Plans that are re-created from a snapshot are registered as well, such that
+ * implementing a snapshot in the simulation does not break this sharing.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class CompactPlanEncoder {
+
+	// -------------------- MEMBERS --------------------
+
+	private final Map<String, String> internedStrings = new ConcurrentHashMap<>();
+
+	// plans encountered in the most recent snapshot (or snapshot implementation)
+	private Map<Plan, CompactPlan> plan2compactPlan = new IdentityHashMap<>();
+
+	// plans encountered in the snapshot that is currently being taken
+	private Map<Plan, CompactPlan> nextPlan2compactPlan = null;
+
+	private PersonIndex personIndex = null;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	public CompactPlanEncoder() {
+	}
+
+	// -------------------- INTERNALS --------------------
+
+	String intern(final String string) {
+		if (string == null) {
+			return null;
+		}
+		final String previous = this.internedStrings.putIfAbsent(string, string);
+		return (previous != null) ? previous : string;
+	}
+
+	// -------------------- IMPLEMENTATION --------------------
+
+	synchronized PersonIndex personIndex(final Collection<Id<Person>> personIds) {
+		this.personIndex = PersonIndex.reuseOrCreate(this.personIndex, personIds);
+		return this.personIndex;
+	}
+
+	synchronized void startSnapshot() {
+		this.nextPlan2compactPlan = new IdentityHashMap<>(this.plan2compactPlan.size());
+	}
+
+	synchronized CompactPlan encode(final Plan plan) {
+		final CompactPlan result = this.lookupOrCreate(plan);
+		this.record(plan, result);
+		return result;
+	}
+
+	/*
+	 * The following two methods split encode(Plan) for parallel snapshots:
+	 * lookupOrCreate(Plan) may be called concurrently while a snapshot is being
+	 * taken because the previous snapshot's map is then only read. The results
+	 * must afterwards be passed to record(Plan, CompactPlan), before
+	 * endSnapshot().
+	 */
+
+	CompactPlan lookupOrCreate(final Plan plan) {
+		final CompactPlan result = this.plan2compactPlan.get(plan);
+		return ((result != null) && result.matchesStructureOf(plan)) ? result : new CompactPlan(plan, this);
+	}
+
+	synchronized void record(final Plan plan, final CompactPlan compactPlan) {
+		this.nextPlan2compactPlan.put(plan, compactPlan);
+	}
+
+	synchronized void endSnapshot() {
+		this.plan2compactPlan = this.nextPlan2compactPlan;
+		this.nextPlan2compactPlan = null;
+	}
+
+	synchronized void registerDecoded(final Plan plan, final CompactPlan compactPlan) {
+		this.plan2compactPlan.put(plan, compactPlan);
+	}
+}
@@ -0,0 +1,114 @@
+package org.matsim.contrib.opdyts.microstate;
+
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+
+/**
+ * A population snapshot that stores all plans as CompactPlan instances in flat
+ * arrays. Plans that have not changed since the previous snapshot taken with
+ * the same CompactPlanEncoder are shared with that snapshot.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see CompactPlan
+ * @see CompactPlanEncoder
+ */
+public class CompactPopulationSnapshot extends AbstractCompactPopulationSnapshot {
+
+	// -------------------- MEMBERS --------------------
+
+	// plans of the i-th person are at [firstPlanIndex[i], firstPlanIndex[i+1])
+	private final int[] firstPlanIndex;
+
+	private final CompactPlan[] plans;
+
+	private final double[] scores;
+
+	// relative to firstPlanIndex; -1 if there is no selected plan
+	private final int[] selectedPlanIndex;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	/**
+	 * @param population
+	 *            the current MATSim population
+	 * @param encoder
+	 *            shared by all snapshots that are to share unchanged plans
+	 * @param threadCnt
+	 *            number of threads used to encode the plans and to implement
+	 *            this snapshot in the simulation
+	 */
+	public CompactPopulationSnapshot(final Population population, final CompactPlanEncoder encoder,
+			final int threadCnt) {
+		super(population, encoder, encoder.personIndex(population.getPersons().keySet()), threadCnt);
+		final PersonIndex personIndex = this.getPersonIndex();
+
+		final Person[] persons = new Person[personIndex.size()];
+		this.firstPlanIndex = new int[personIndex.size() + 1];
+		this.selectedPlanIndex = new int[personIndex.size()];
+		int planCnt = 0;
+		for (int i = 0; i < personIndex.size(); i++) {
+			persons[i] = population.getPersons().get(personIndex.getPersonId(i));
+			this.firstPlanIndex[i] = planCnt;
+			final Integer selected = DeepCopyPopulationSnapshot.selectedPlanIndex(persons[i]);
+			this.selectedPlanIndex[i] = (selected == null) ? -1 : selected;
+			planCnt += persons[i].getPlans().size();
+		}
+		this.firstPlanIndex[personIndex.size()] = planCnt;
+
+		this.plans = new CompactPlan[planCnt];
+		this.scores = new double[planCnt];
+		encoder.startSnapshot();
+		ParallelPersonLoop.run(persons.length, threadCnt, i -> {
+			int k = this.firstPlanIndex[i];
+			for (Plan plan : persons[i].getPlans()) {
+				this.plans[k] = encoder.lookupOrCreate(plan);
+				this.scores[k] = encodeScore(plan);
+				k++;
+			}
+		});
+		for (int i = 0; i < persons.length; i++) {
+			int k = this.firstPlanIndex[i];
+			for (Plan plan : persons[i].getPlans()) {
+				encoder.record(plan, this.plans[k++]);
+			}
+		}
+		encoder.endSnapshot();
+	}
+
+	public CompactPopulationSnapshot(final Population population, final CompactPlanEncoder encoder) {
+		this(population, encoder, 1);
+	}
+
+	// -------------------- STORAGE ACCESS --------------------
+
+	int getTotalPlanCnt() {
+		return this.plans.length;
+	}
+
+	// position of the given plan of the given person in the flat plan array
+	int getFlatPlanIndex(final int personIndex, final int planIndex) {
+		return this.firstPlanIndex[personIndex] + planIndex;
+	}
+
+	@Override
+	int getPlanCnt(final int personIndex) {
+		return this.firstPlanIndex[personIndex + 1] - this.firstPlanIndex[personIndex];
+	}
+
+	@Override
+	CompactPlan getPlan(final int personIndex, final int planIndex) {
+		return this.plans[this.firstPlanIndex[personIndex] + planIndex];
+	}
+
+	@Override
+	double getScore(final int personIndex, final int planIndex) {
+		return this.scores[this.firstPlanIndex[personIndex] + planIndex];
+	}
+
+	@Override
+	int getSelectedPlanIndex(final int personIndex) {
+		return this.selectedPlanIndex[personIndex];
+	}
+}
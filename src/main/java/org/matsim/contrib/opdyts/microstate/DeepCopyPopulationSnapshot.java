@@ -0,0 +1,140 @@
+package org.matsim.contrib.opdyts.microstate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.population.PopulationUtils;
+
+/**
+ * The original population snapshot: keeps deep copies of all plans of all
+ * persons.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class DeepCopyPopulationSnapshot implements PopulationSnapshot {
+
+	// -------------------- MEMBERS --------------------
+
+	/**
+	 * A map of persons on lists of (deep copies of) all plans of the respective
+	 * person. The plan order in the lists matters. Contains an empty but non-null
+	 * list for every person that does not have any plans.
+	 */
+	private final Map<Id<Person>, List<? extends Plan>> person2planList = new LinkedHashMap<>();
+
+	/**
+	 * A map of indices pointing to the currently selected plan of every person.
+	 * Contains a null value for every person that does not have a selected plan.
+	 * Uses an index instead of a reference because references do not survive deep
+	 * copies.
+	 */
+	private final Map<Id<Person>, Integer> person2selectedPlanIndex = new LinkedHashMap<>();
+
+	private final int threadCnt;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	/**
+	 * Takes over a <em>deep copy</em> of the population's plans.
+	 *
+	 * @param population
+	 *            the current MATSim population
+	 * @param threadCnt
+	 *            number of threads used to copy the plans, both here and when
+	 *            implementing this snapshot in the simulation
+	 */
+	@SuppressWarnings("unchecked")
+	public DeepCopyPopulationSnapshot(final Population population, final int threadCnt) {
+		this.threadCnt = threadCnt;
+		final Person[] persons = population.getPersons().values().toArray(new Person[0]);
+		final List<? extends Plan>[] planLists = new List[persons.length];
+		final Integer[] selectedPlanIndices = new Integer[persons.length];
+		ParallelPersonLoop.run(persons.length, threadCnt, i -> {
+			selectedPlanIndices[i] = selectedPlanIndex(persons[i]);
+			planLists[i] = newDeepCopy(persons[i].getPlans());
+		});
+		// sequentially, in order to preserve the person order of the population
+		for (int i = 0; i < persons.length; i++) {
+			this.person2selectedPlanIndex.put(persons[i].getId(), selectedPlanIndices[i]);
+			this.person2planList.put(persons[i].getId(), planLists[i]);
+		}
+	}
+
+	public DeepCopyPopulationSnapshot(final Population population) {
+		this(population, 1);
+	}
+
+	// -------------------- HELPERS AND INTERNALS --------------------
+
+	static Integer selectedPlanIndex(final Person person) {
+		if (person.getSelectedPlan() == null) {
+			return null;
+		} else {
+			final int selectedPlanIndex = person.getPlans().indexOf(person.getSelectedPlan());
+			if (selectedPlanIndex < 0) {
+				throw new RuntimeException(
+						"The selected plan of person " + person.getId() + " cannot be found in its plan list.");
+			}
+			return selectedPlanIndex;
+		}
+	}
+
+	private static List<? extends Plan> newDeepCopy(final List<? extends Plan> fromPlanList) {
+		final List<Plan> toPlanList = new ArrayList<>(fromPlanList.size());
+		for (Plan fromPlan : fromPlanList) {
+			final Plan toPlan = PopulationUtils.createPlan(fromPlan.getPerson());
+			PopulationUtils.copyFromTo(fromPlan, toPlan);
+			toPlanList.add(toPlan);
+		}
+		return toPlanList;
+	}
+
+	private static Plan getSelectedPlan(final List<? extends Plan> plans, final Integer index) {
+		if (index == null) {
+			return null;
+		} else {
+			return plans.get(index);
+		}
+	}
+
+	// --------------- IMPLEMENTATION OF PopulationSnapshot ---------------
+
+	@Override
+	public Set<Id<Person>> getPersonIdView() {
+		return Collections.unmodifiableSet(this.person2planList.keySet());
+	}
+
+	@Override
+	public List<? extends Plan> getPlansView(final Id<Person> personId) {
+		return Collections.unmodifiableList(this.person2planList.get(personId));
+	}
+
+	@Override
+	public Plan getSelectedPlan(final Id<Person> personId) {
+		return getSelectedPlan(this.person2planList.get(personId), this.person2selectedPlanIndex.get(personId));
+	}
+
+	@Override
+	public void implementInPopulation(final Population population) {
+		@SuppressWarnings("unchecked")
+		final Id<Person>[] personIds = this.person2planList.keySet().toArray(new Id[0]);
+		ParallelPersonLoop.run(personIds.length, this.threadCnt, i -> {
+			final Person person = population.getPersons().get(personIds[i]);
+			person.getPlans().clear();
+			final List<? extends Plan> copiedPlans = newDeepCopy(this.person2planList.get(personIds[i]));
+			for (Plan plan : copiedPlans) {
+				person.addPlan(plan);
+			}
+			person.setSelectedPlan(getSelectedPlan(copiedPlans, this.person2selectedPlanIndex.get(personIds[i])));
+		});
+	}
+}
@@ -0,0 +1,173 @@
+package org.matsim.contrib.opdyts.microstate;
+
+import java.util.Arrays;
+
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+
+/**
+ * A population snapshot that is stored as the difference to a full (keyframe)
+ * snapshot. Only persons whose plan lists differ (by CompactPlan reference)
+ * from the keyframe and persons whose selected plan index differs from the
+ * keyframe are stored explicitly.
+ * <p>
+ * Of the persons with unchanged plan lists, only the scores that differ from
+ * the keyframe are stored. MATSim's scoring only changes the score of the
+ * executed plan, so this is at most one score per person.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see DeltaPopulationSnapshotSequence
+ */
+public class DeltaPopulationSnapshot extends AbstractCompactPopulationSnapshot {
+
+	// -------------------- MEMBERS --------------------
+
+	private final CompactPopulationSnapshot keyframe;
+
+	// sorted indices of persons whose plan list differs from the keyframe
+	private final int[] changedPlansPersons;
+
+	private final CompactPlan[][] changedPlans;
+
+	private final double[][] changedScores;
+
+	// sorted indices of persons whose selected plan index differs from the keyframe
+	private final int[] changedSelectionPersons;
+
+	private final int[] changedSelection;
+
+	// sorted keyframe flat plan indices of the changed scores of persons with unchanged plan lists
+	private final int[] changedScorePlans;
+
+	private final double[] changedScoreValues;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	/**
+	 * The population must contain the same persons, in the same order, as the
+	 * population from which the keyframe was created.
+	 */
+	public DeltaPopulationSnapshot(final Population population, final CompactPopulationSnapshot keyframe,
+			final CompactPlanEncoder encoder) {
+		super(population, encoder, keyframe.getPersonIndex(), keyframe.getThreadCnt());
+		this.keyframe = keyframe;
+		final PersonIndex personIndex = keyframe.getPersonIndex();
+
+		final int[] changedPlansPersonsTmp = new int[personIndex.size()];
+		final CompactPlan[][] changedPlansTmp = new CompactPlan[personIndex.size()][];
+		final double[][] changedScoresTmp = new double[personIndex.size()][];
+		int changedPlansCnt = 0;
+		final int[] changedSelectionPersonsTmp = new int[personIndex.size()];
+		final int[] changedSelectionTmp = new int[personIndex.size()];
+		int changedSelectionCnt = 0;
+		int[] changedScorePlansTmp = new int[16];
+		double[] changedScoreValuesTmp = new double[16];
+		int changedScoreCnt = 0;
+
+		CompactPlan[] buffer = new CompactPlan[0];
+		encoder.startSnapshot();
+		for (int i = 0; i < personIndex.size(); i++) {
+			final Person person = population.getPersons().get(personIndex.getPersonId(i));
+
+			final int planCnt = person.getPlans().size();
+			if (buffer.length < planCnt) {
+				buffer = new CompactPlan[planCnt];
+			}
+			boolean plansChanged = (planCnt != keyframe.getPlanCnt(i));
+			for (int j = 0; j < planCnt; j++) {
+				buffer[j] = encoder.encode(person.getPlans().get(j));
+				if (!plansChanged && (buffer[j] != keyframe.getPlan(i, j))) {
+					plansChanged = true;
+				}
+			}
+
+			if (plansChanged) {
+				changedPlansPersonsTmp[changedPlansCnt] = i;
+				changedPlansTmp[changedPlansCnt] = Arrays.copyOf(buffer, planCnt);
+				final double[] personScores = new double[planCnt];
+				for (int j = 0; j < planCnt; j++) {
+					personScores[j] = encodeScore(person.getPlans().get(j));
+				}
+				changedScoresTmp[changedPlansCnt] = personScores;
+				changedPlansCnt++;
+			} else {
+				for (int j = 0; j < planCnt; j++) {
+					final double score = encodeScore(person.getPlans().get(j));
+					if (Double.compare(score, keyframe.getScore(i, j)) != 0) {
+						if (changedScoreCnt == changedScorePlansTmp.length) {
+							changedScorePlansTmp = Arrays.copyOf(changedScorePlansTmp, 2 * changedScoreCnt);
+							changedScoreValuesTmp = Arrays.copyOf(changedScoreValuesTmp, 2 * changedScoreCnt);
+						}
+						changedScorePlansTmp[changedScoreCnt] = keyframe.getFlatPlanIndex(i, j);
+						changedScoreValuesTmp[changedScoreCnt] = score;
+						changedScoreCnt++;
+					}
+				}
+			}
+
+			final Integer selected = DeepCopyPopulationSnapshot.selectedPlanIndex(person);
+			final int selectedPlanIndex = (selected == null) ? -1 : selected;
+			if (selectedPlanIndex != keyframe.getSelectedPlanIndex(i)) {
+				changedSelectionPersonsTmp[changedSelectionCnt] = i;
+				changedSelectionTmp[changedSelectionCnt] = selectedPlanIndex;
+				changedSelectionCnt++;
+			}
+		}
+		encoder.endSnapshot();
+
+		this.changedPlansPersons = Arrays.copyOf(changedPlansPersonsTmp, changedPlansCnt);
+		this.changedPlans = Arrays.copyOf(changedPlansTmp, changedPlansCnt);
+		this.changedScores = Arrays.copyOf(changedScoresTmp, changedPlansCnt);
+		this.changedSelectionPersons = Arrays.copyOf(changedSelectionPersonsTmp, changedSelectionCnt);
+		this.changedSelection = Arrays.copyOf(changedSelectionTmp, changedSelectionCnt);
+		this.changedScorePlans = Arrays.copyOf(changedScorePlansTmp, changedScoreCnt);
+		this.changedScoreValues = Arrays.copyOf(changedScoreValuesTmp, changedScoreCnt);
+	}
+
+	// -------------------- GETTERS --------------------
+
+	public int getChangedPlansPersonCnt() {
+		return this.changedPlansPersons.length;
+	}
+
+	public int getChangedSelectionPersonCnt() {
+		return this.changedSelectionPersons.length;
+	}
+
+	// of persons with unchanged plan lists
+	public int getChangedScoreCnt() {
+		return this.changedScorePlans.length;
+	}
+
+	// -------------------- STORAGE ACCESS --------------------
+
+	@Override
+	int getPlanCnt(final int personIndex) {
+		final int k = Arrays.binarySearch(this.changedPlansPersons, personIndex);
+		return (k >= 0) ? this.changedPlans[k].length : this.keyframe.getPlanCnt(personIndex);
+	}
+
+	@Override
+	CompactPlan getPlan(final int personIndex, final int planIndex) {
+		final int k = Arrays.binarySearch(this.changedPlansPersons, personIndex);
+		return (k >= 0) ? this.changedPlans[k][planIndex] : this.keyframe.getPlan(personIndex, planIndex);
+	}
+
+	@Override
+	double getScore(final int personIndex, final int planIndex) {
+		final int k = Arrays.binarySearch(this.changedPlansPersons, personIndex);
+		if (k >= 0) {
+			return this.changedScores[k][planIndex];
+		}
+		final int l = Arrays.binarySearch(this.changedScorePlans,
+				this.keyframe.getFlatPlanIndex(personIndex, planIndex));
+		return (l >= 0) ? this.changedScoreValues[l] : this.keyframe.getScore(personIndex, planIndex);
+	}
+
+	@Override
+	int getSelectedPlanIndex(final int personIndex) {
+		final int k = Arrays.binarySearch(this.changedSelectionPersons, personIndex);
+		return (k >= 0) ? this.changedSelection[k] : this.keyframe.getSelectedPlanIndex(personIndex);
+	}
+}
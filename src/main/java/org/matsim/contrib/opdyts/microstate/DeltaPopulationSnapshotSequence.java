@@ -0,0 +1,84 @@
+package org.matsim.contrib.opdyts.microstate;
+
+import org.matsim.api.core.v01.population.Population;
+
+/**
+ * Creates a sequence of population snapshots that consists of periodic full
+ * (keyframe) snapshots and, in between, of snapshots that only store their
+ * difference to the most recent keyframe.
+ * <p>
+ * A new keyframe is also created when the person set of the population has
+ * changed or when the share of persons with changed plan lists has become too
+ * large for a delta to pay off.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see CompactPopulationSnapshot
+ * @see DeltaPopulationSnapshot
+ */
+public class DeltaPopulationSnapshotSequence {
+
+	// -------------------- CONSTANTS --------------------
+
+	public static final double DEFAULT_MAXCHANGEDPERSONSHARE = 0.5;
+
+	private final CompactPlanEncoder encoder;
+
+	private final int keyframeInterval;
+
+	private final double maxChangedPersonShare;
+
+	private final int threadCnt;
+
+	// -------------------- MEMBERS --------------------
+
+	private CompactPopulationSnapshot keyframe = null;
+
+	private int snapshotsSinceKeyframe = 0;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	public DeltaPopulationSnapshotSequence(final CompactPlanEncoder encoder, final int keyframeInterval,
+			final double maxChangedPersonShare, final int threadCnt) {
+		if (keyframeInterval < 1) {
+			throw new IllegalArgumentException("keyframe interval must be at least one but is " + keyframeInterval);
+		}
+		this.encoder = encoder;
+		this.keyframeInterval = keyframeInterval;
+		this.maxChangedPersonShare = maxChangedPersonShare;
+		this.threadCnt = threadCnt;
+	}
+
+	public DeltaPopulationSnapshotSequence(final CompactPlanEncoder encoder, final int keyframeInterval,
+			final double maxChangedPersonShare) {
+		this(encoder, keyframeInterval, maxChangedPersonShare, 1);
+	}
+
+	public DeltaPopulationSnapshotSequence(final CompactPlanEncoder encoder, final int keyframeInterval) {
+		this(encoder, keyframeInterval, DEFAULT_MAXCHANGEDPERSONSHARE);
+	}
+
+	// -------------------- INTERNALS --------------------
+
+	private PopulationSnapshot newKeyframe(final Population population) {
+		this.keyframe = new CompactPopulationSnapshot(population, this.encoder, this.threadCnt);
+		this.snapshotsSinceKeyframe = 1;
+		return this.keyframe;
+	}
+
+	// -------------------- IMPLEMENTATION --------------------
+
+	public PopulationSnapshot newSnapshot(final Population population) {
+		if ((this.keyframe == null) || (this.snapshotsSinceKeyframe >= this.keyframeInterval)
+				|| !this.keyframe.getPersonIndex().represents(population.getPersons().keySet())) {
+			return this.newKeyframe(population);
+		}
+		final DeltaPopulationSnapshot delta = new DeltaPopulationSnapshot(population, this.keyframe, this.encoder);
+		if (delta.getChangedPlansPersonCnt() > this.maxChangedPersonShare
+				* this.keyframe.getPersonIndex().size()) {
+			return this.newKeyframe(population);
+		}
+		this.snapshotsSinceKeyframe++;
+		return delta;
+	}
+}
@@ -0,0 +1,136 @@
+package org.matsim.contrib.opdyts.microstate;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+
+/**
+ * A population snapshot that does not copy any plans unless it is explicitly
+ * materialized. Opdyts only ever restores the state with which a stage ends;
+ * all other states are needed only for their vector representation.
+ * <p>
+ * As long as the population has not changed since this snapshot was taken, all
+ * reads are answered from the live population. Materialization then takes a
+ * "real" snapshot from the given supplier. Once the population has changed
+ * (signaled through invalidate()), a snapshot that has not been materialized
+ * can neither be read nor be implemented anymore.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see MATSimStateFactoryImpl
+ */
+public class LazyPopulationSnapshot implements PopulationSnapshot {
+
+	// -------------------- MEMBERS --------------------
+
+	private final Population population;
+
+	private final Supplier<PopulationSnapshot> snapshotSupplier;
+
+	private PopulationSnapshot materializedSnapshot = null;
+
+	// false once the population has changed after this snapshot was taken
+	private boolean current = true;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	/**
+	 * @param population
+	 *            the current MATSim population
+	 * @param snapshotSupplier
+	 *            takes a real snapshot of the (then still unchanged) population
+	 *            upon materialization
+	 */
+	public LazyPopulationSnapshot(final Population population, final Supplier<PopulationSnapshot> snapshotSupplier) {
+		this.population = population;
+		this.snapshotSupplier = snapshotSupplier;
+	}
+
+	// -------------------- MATERIALIZATION --------------------
+
+	/**
+	 * Takes over the plans of the population, such that this snapshot can be
+	 * implemented after the population has changed. Does nothing if this snapshot
+	 * has already been materialized.
+	 */
+	public synchronized void materialize() {
+		if (this.materializedSnapshot == null) {
+			if (!this.current) {
+				throw new RuntimeException("Cannot materialize a population snapshot after the population has changed.");
+			}
+			this.materializedSnapshot = this.snapshotSupplier.get();
+		}
+	}
+
+	public synchronized boolean isMaterialized() {
+		return (this.materializedSnapshot != null);
+	}
+
+	/**
+	 * To be called before the population is changed. Afterwards, this snapshot
+	 * is only usable if it has been materialized before.
+	 */
+	public synchronized void invalidate() {
+		this.current = false;
+	}
+
+	// -------------------- INTERNALS --------------------
+
+	private void assertCurrent() {
+		if (!this.current) {
+			throw new RuntimeException(
+					"The population has changed after this snapshot was taken and the snapshot was not materialized.");
+		}
+	}
+
+	// --------------- IMPLEMENTATION OF PopulationSnapshot ---------------
+
+	@Override
+	public synchronized Set<Id<Person>> getPersonIdView() {
+		if (this.materializedSnapshot != null) {
+			return this.materializedSnapshot.getPersonIdView();
+		}
+		this.assertCurrent();
+		return Collections.unmodifiableSet(this.population.getPersons().keySet());
+	}
+
+	@Override
+	public synchronized List<? extends Plan> getPlansView(final Id<Person> personId) {
+		if (this.materializedSnapshot != null) {
+			return this.materializedSnapshot.getPlansView(personId);
+		}
+		this.assertCurrent();
+		final Person person = this.population.getPersons().get(personId);
+		return (person == null) ? null : Collections.unmodifiableList(person.getPlans());
+	}
+
+	@Override
+	public synchronized Plan getSelectedPlan(final Id<Person> personId) {
+		if (this.materializedSnapshot != null) {
+			return this.materializedSnapshot.getSelectedPlan(personId);
+		}
+		this.assertCurrent();
+		final Person person = this.population.getPersons().get(personId);
+		return (person == null) ? null : person.getSelectedPlan();
+	}
+
+	@Override
+	public synchronized void implementInPopulation(final Population population) {
+		if (this.materializedSnapshot != null) {
+			this.materializedSnapshot.implementInPopulation(population);
+		} else {
+			this.assertCurrent();
+			if (population != this.population) {
+				throw new RuntimeException("A snapshot that has not been materialized can only be implemented "
+						+ "in the population from which it was taken.");
+			}
+			// nothing to do, the population is still as it was
+		}
+	}
+}
@@ -1,7 +1,6 @@
 package org.matsim.contrib.opdyts.microstate;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.lang.ref.SoftReference;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -11,7 +10,7 @@ import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Plan;
 import org.matsim.api.core.v01.population.Population;
-import org.matsim.core.population.PopulationUtils;
+import org.matsim.contrib.opdyts.macrostate.SparseStateVector;
 
 import floetteroed.opdyts.SimulatorState;
 import floetteroed.utilities.math.Vector;
@@ -25,28 +24,25 @@ import floetteroed.utilities.math.Vector;
  * @author Gunnar Flötteröd
  * 
  * @see SimulatorState
+ * @see PopulationSnapshot
  */
 public class MATSimState implements SimulatorState {
 
 	// -------------------- MEMBERS --------------------
 
 	/**
-	 * A map of persons on lists of (deep copies of) all plans of the respective
-	 * person. The plan order in the lists matters. Contains an empty but non-null
-	 * list for every person that does not have any plans.
+	 * The plan choice sets of all agents at the time this state was created.
 	 */
-	private final Map<Id<Person>, List<? extends Plan>> person2planList = new LinkedHashMap<>();
-
-	/**
-	 * A map of indices pointing to the currently selected plan of every person.
-	 * Contains a null value for every person that does not have a selected plan.
-	 * Uses an index instead of a reference because references do not survive deep
-	 * copies.
-	 */
-	private final Map<Id<Person>, Integer> person2selectedPlanIndex = new LinkedHashMap<>();
+	private final PopulationSnapshot populationSnapshot;
 
+	// Either the dense or the sparse vector representation is null.
 	private final Vector vectorRepresentation;
 
+	private final SparseStateVector sparseVectorRepresentation;
+
+	// Dense version of the sparse vector representation, dropped under memory pressure.
+	private SoftReference<Vector> materializedVectorRepresentation = new SoftReference<>(null);
+
 	private final Population population;
 
 	// -------------------- CONSTRUCTION --------------------
@@ -61,96 +57,129 @@ public class MATSimState implements SimulatorState {
 	 *            a real-valued vector representation of the current MATSim state.
 	 */
 	public MATSimState(final Population population, final Vector vectorRepresentation) {
+		this(population, vectorRepresentation, new DeepCopyPopulationSnapshot(population));
+	}
+
+	/**
+	 * Takes over <em>references</em> to the population snapshot and to the vector
+	 * representation.
+	 * 
+	 * @param population
+	 *            the current MATSim population
+	 * @param vectorRepresentation
+	 *            a real-valued vector representation of the current MATSim state.
+	 * @param populationSnapshot
+	 *            a snapshot of the plans of the current MATSim population
+	 */
+	public MATSimState(final Population population, final Vector vectorRepresentation,
+			final PopulationSnapshot populationSnapshot) {
 		this.population = population;
-		for (Person person : population.getPersons().values()) {
-			if (person.getSelectedPlan() == null) {
-				this.person2selectedPlanIndex.put(person.getId(), null);
-			} else {
-				final int selectedPlanIndex = person.getPlans().indexOf(person.getSelectedPlan());
-				if (selectedPlanIndex < 0) {
-					throw new RuntimeException(
-							"The selected plan of person " + person.getId() + " cannot be found in its plan list.");
-				}
-				this.person2selectedPlanIndex.put(person.getId(), selectedPlanIndex);
-			}
-			this.person2planList.put(person.getId(), newDeepCopy(person.getPlans()));
-		}
 		this.vectorRepresentation = vectorRepresentation;
+		this.sparseVectorRepresentation = null;
+		this.populationSnapshot = populationSnapshot;
 	}
 
-	// -------------------- HELPERS AND INTERNALS --------------------
-
-	private static List<? extends Plan> newDeepCopy(final List<? extends Plan> fromPlanList) {
-		final List<Plan> toPlanList = new ArrayList<>(fromPlanList.size());
-		for (Plan fromPlan : fromPlanList) {
-			final Plan toPlan = PopulationUtils.createPlan(fromPlan.getPerson());
-			PopulationUtils.copyFromTo(fromPlan, toPlan);
-			toPlanList.add(toPlan);
-		}
-		return toPlanList;
+	/**
+	 * Takes over <em>references</em> to the population snapshot and to the sparse
+	 * vector representation. The dense vector representation is only created when
+	 * it is requested, and it is not kept when memory runs short.
+	 * 
+	 * @param population
+	 *            the current MATSim population
+	 * @param sparseVectorRepresentation
+	 *            a sparse real-valued vector representation of the current MATSim
+	 *            state.
+	 * @param populationSnapshot
+	 *            a snapshot of the plans of the current MATSim population
+	 */
+	public MATSimState(final Population population, final SparseStateVector sparseVectorRepresentation,
+			final PopulationSnapshot populationSnapshot) {
+		this.population = population;
+		this.vectorRepresentation = null;
+		this.sparseVectorRepresentation = sparseVectorRepresentation;
+		this.populationSnapshot = populationSnapshot;
 	}
 
-	private static Plan getSelectedPlan(final List<? extends Plan> plans, final Integer index) {
-		if (index == null) {
-			return null;
-		} else {
-			return plans.get(index);
-		}
-	}
+	// -------------------- GETTERS --------------------
 
 	public Set<Id<Person>> getPersonIdView() {
-		return Collections.unmodifiableSet(this.person2planList.keySet());
+		return this.populationSnapshot.getPersonIdView();
 	}
 
 	public List<? extends Plan> getPlansView(final Id<Person> personId) {
-		return Collections.unmodifiableList(this.person2planList.get(personId));
+		return this.populationSnapshot.getPlansView(personId);
 	}
 
 	public Plan getSelectedPlan(final Id<Person> personId) {
-		return getSelectedPlan(this.person2planList.get(personId), this.person2selectedPlanIndex.get(personId));
+		return this.populationSnapshot.getSelectedPlan(personId);
+	}
+
+	public SparseStateVector getSparseVectorRepresentation() {
+		if (this.sparseVectorRepresentation != null) {
+			return this.sparseVectorRepresentation;
+		} else {
+			return SparseStateVector.fromDense(this.vectorRepresentation);
+		}
+	}
+
+	// -------------------- MATERIALIZATION --------------------
+
+	/**
+	 * Ensures that this state can be implemented in the simulation even after
+	 * the population has changed. Only has an effect if the plans of this state
+	 * are captured lazily.
+	 *
+	 * @see LazyPopulationSnapshot
+	 */
+	public void materialize() {
+		if (this.populationSnapshot instanceof LazyPopulationSnapshot) {
+			((LazyPopulationSnapshot) this.populationSnapshot).materialize();
+		}
 	}
 
 	// --------------- IMPLEMENTATION OF SimulatorState ---------------
 
 	@Override
-	public Vector getReferenceToVectorRepresentation() {
-		return this.vectorRepresentation;
+	public synchronized Vector getReferenceToVectorRepresentation() {
+		if (this.vectorRepresentation != null) {
+			return this.vectorRepresentation;
+		}
+		Vector result = this.materializedVectorRepresentation.get();
+		if (result == null) {
+			result = this.sparseVectorRepresentation.toDense();
+			this.materializedVectorRepresentation = new SoftReference<>(result);
+		}
+		return result;
 	}
 
 	@Override
 	public void implementInSimulation() {
-		for (Id<Person> personId : this.person2planList.keySet()) {
-			final Person person = this.population.getPersons().get(personId);
-			person.getPlans().clear();
-			final List<? extends Plan> copiedPlans = newDeepCopy(this.person2planList.get(personId));
-			for (Plan plan : copiedPlans) {
-				person.addPlan(plan);
-			}
-			person.setSelectedPlan(getSelectedPlan(copiedPlans, this.person2selectedPlanIndex.get(personId)));
+		this.populationSnapshot.implementInPopulation(this.population);
+	}
+
+	// -------------------- TYPED COMPONENTS --------------------
+
+	/*
+	 * Gives objective functions access to supplementary state information of
+	 * arbitrary type, without them having to scan the plans of this state. The
+	 * components are added by the state factory when the state is created, see
+	 * PopulationAggregator.
+	 */
+
+	private final Map<Class<?>, Object> class2component = new LinkedHashMap<Class<?>, Object>();
+
+	public <C> void putComponent(final Class<C> clazz, final C component) {
+		if (component == null) {
+			throw new RuntimeException("refuse to add a null component");
 		}
+		this.class2component.put(clazz, component);
 	}
 
-//	// -------------------- BOOK-KEEPING OF DATA CONTAINERS --------------------
-//
-//	/*
-//	 * Not sure if this is the right way to do this; the purpose of this is to give
-//	 * instances of ObjectiveFunction access to supplementary simulation state
-//	 * information of arbitrary type. See also MATSimStateFactoryImpl. Gunnar,
-//	 * 2018-10-08.
-//	 * 
-//	 * TODO Use TypsafeMap.
-//	 */
-//
-//	private final Map<Class<?>, Object> class2component = new LinkedHashMap<Class<?>, Object>();
-//
-//	public <C> void putComponent(final Class<C> clazz, final C component) {
-//		if (component == null) {
-//			throw new RuntimeException("refuse to add a null component");
-//		}
-//		this.class2component.put(clazz, component);
-//	}
-//
-//	public <C> C getComponent(final Class<C> clazz) {
-//		return clazz.cast(this.class2component.get(clazz));
-//	}
+	/**
+	 * Returns the component of the given type, or null if this state does not
+	 * contain such a component.
+	 */
+	public <C> C getComponent(final Class<C> clazz) {
+		return clazz.cast(this.class2component.get(clazz));
+	}
 }
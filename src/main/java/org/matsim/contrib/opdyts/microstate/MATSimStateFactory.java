@@ -1,6 +1,7 @@
 package org.matsim.contrib.opdyts.microstate;
 
 import org.matsim.api.core.v01.population.Population;
+import org.matsim.contrib.opdyts.macrostate.SparseStateVector;
 
 import floetteroed.opdyts.DecisionVariable;
 import floetteroed.opdyts.SimulatorState;
@@ -36,4 +37,31 @@ public interface MATSimStateFactory<U extends DecisionVariable, X extends Simula
 	 */
 	public X newState(Population population, Vector stateVector, U decisionVariable);
 
+	/**
+	 * Same as newState(Population, Vector, U), for a sparse state vector. The
+	 * default implementation creates the dense vector; override this to keep the
+	 * sparse representation in the state.
+	 */
+	public default X newState(Population population, SparseStateVector stateVector, U decisionVariable) {
+		return this.newState(population, stateVector.toDense(), decisionVariable);
+	}
+
+	/**
+	 * Called before MATSim changes the plans of the population, i.e. after every
+	 * mobsim run. Factories that capture plans lazily need to materialize or to
+	 * invalidate their last state at this point.
+	 */
+	public default void beforePopulationChange() {
+	}
+
+	/**
+	 * Registers a population aggregator whose result is to be added as a component
+	 * to every new state. The default implementation does not support this.
+	 * 
+	 * @see PopulationAggregator
+	 */
+	public default void addPopulationAggregator(PopulationAggregator<?> aggregator) {
+		throw new RuntimeException(this.getClass().getSimpleName() + " does not support population aggregators.");
+	}
+
 }
@@ -1,6 +1,20 @@
 package org.matsim.contrib.opdyts.microstate;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Population;
+import org.matsim.contrib.opdyts.OpdytsConfigGroup;
+import org.matsim.contrib.opdyts.OpdytsConfigGroup.MicroStateSnapshotMode;
+import org.matsim.contrib.opdyts.macrostate.SparseStateVector;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+
+import com.google.inject.Inject;
 
 import floetteroed.opdyts.DecisionVariable;
 import floetteroed.opdyts.SimulatorState;
@@ -16,28 +30,193 @@ import floetteroed.utilities.math.Vector;
 public class MATSimStateFactoryImpl<U extends DecisionVariable, X extends SimulatorState>
 		implements MATSimStateFactory<U, MATSimState> {
 
+	// -------------------- MEMBERS --------------------
+
+	private MicroStateSnapshotMode microStateSnapshotMode = OpdytsConfigGroup.DEFAULT_MICROSTATESNAPSHOTMODE;
+
+	private int microStateKeyframeInterval = OpdytsConfigGroup.DEFAULT_MICROSTATEKEYFRAMEINTERVAL;
+
+	private int microStateMaxMappedSnapshots = OpdytsConfigGroup.DEFAULT_MICROSTATEMAXMAPPEDSNAPSHOTS;
+
+	private int microStateThreads = OpdytsConfigGroup.DEFAULT_MICROSTATETHREADS;
+
+	private boolean microStateLazyCapture = OpdytsConfigGroup.DEFAULT_MICROSTATELAZYCAPTURE;
+
+	private String outputDirectory = null;
+
+	// Lives as long as this factory such that consecutive states share plans.
+	private final CompactPlanEncoder compactPlanEncoder = new CompactPlanEncoder();
+
+	// Created upon first use.
+	private DeltaPopulationSnapshotSequence deltaSnapshotSequence = null;
+
+	// Created upon first use.
+	private MappedSnapshotStore mappedSnapshotStore = null;
+
+	// The last lazy snapshot that still reflects the population, if any.
+	private LazyPopulationSnapshot currentLazySnapshot = null;
+
+	// At most one aggregator per component type, in registration order.
+	private final Map<Class<?>, PopulationAggregator<?>> componentType2aggregator = new LinkedHashMap<>();
+
+	// -------------------- CONSTRUCTION --------------------
+
 	public MATSimStateFactoryImpl() {
 	}
 
+	@Inject
+	void setConfig(final Config config) {
+		final OpdytsConfigGroup opdytsConfig = ConfigUtils.addOrGetModule(config, OpdytsConfigGroup.class);
+		this.microStateSnapshotMode = opdytsConfig.getMicroStateSnapshotMode();
+		this.microStateKeyframeInterval = opdytsConfig.getMicroStateKeyframeInterval();
+		this.microStateMaxMappedSnapshots = opdytsConfig.getMicroStateMaxMappedSnapshots();
+		this.microStateThreads = opdytsConfig.getMicroStateThreads();
+		this.microStateLazyCapture = opdytsConfig.getMicroStateLazyCapture();
+		this.outputDirectory = config.controler().getOutputDirectory();
+	}
+
+	// -------------------- INTERNALS --------------------
+
+	private PopulationSnapshot newPopulationSnapshot(final Population population) {
+		if (this.microStateLazyCapture) {
+			if (this.currentLazySnapshot != null) {
+				this.currentLazySnapshot.invalidate();
+			}
+			this.currentLazySnapshot = new LazyPopulationSnapshot(population,
+					() -> this.newEagerPopulationSnapshot(population));
+			return this.currentLazySnapshot;
+		} else {
+			return this.newEagerPopulationSnapshot(population);
+		}
+	}
+
+	private PopulationSnapshot newEagerPopulationSnapshot(final Population population) {
+		if (MicroStateSnapshotMode.compact.equals(this.microStateSnapshotMode)) {
+			return new CompactPopulationSnapshot(population, this.compactPlanEncoder, this.microStateThreads);
+		} else if (MicroStateSnapshotMode.delta.equals(this.microStateSnapshotMode)) {
+			if (this.deltaSnapshotSequence == null) {
+				this.deltaSnapshotSequence = new DeltaPopulationSnapshotSequence(this.compactPlanEncoder,
+						this.microStateKeyframeInterval, DeltaPopulationSnapshotSequence.DEFAULT_MAXCHANGEDPERSONSHARE,
+						this.microStateThreads);
+			}
+			return this.deltaSnapshotSequence.newSnapshot(population);
+		} else if (MicroStateSnapshotMode.mapped.equals(this.microStateSnapshotMode)) {
+			if (this.mappedSnapshotStore == null) {
+				this.mappedSnapshotStore = new MappedSnapshotStore(
+						new File(this.outputDirectory, "opdyts_microstates").getPath(),
+						this.microStateMaxMappedSnapshots);
+			}
+			return new MappedPopulationSnapshot(population, this.compactPlanEncoder, this.mappedSnapshotStore,
+					this.microStateThreads);
+		} else if (MicroStateSnapshotMode.deepCopy.equals(this.microStateSnapshotMode)) {
+			return new DeepCopyPopulationSnapshot(population, this.microStateThreads);
+		} else {
+			throw new RuntimeException("Unknown micro-state snapshot mode: " + this.microStateSnapshotMode);
+		}
+	}
+
+	private static <C> void add(final PopulationAggregator<C> aggregator, final Object component,
+			final Person person) {
+		aggregator.add(aggregator.getComponentType().cast(component), person);
+	}
+
+	private static <C> void merge(final PopulationAggregator<C> aggregator, final Object target,
+			final Object source) {
+		aggregator.merge(aggregator.getComponentType().cast(target), aggregator.getComponentType().cast(source));
+	}
+
+	private static <C> void put(final MATSimState state, final PopulationAggregator<C> aggregator,
+			final Object component) {
+		state.putComponent(aggregator.getComponentType(), aggregator.getComponentType().cast(component));
+	}
+
+	/*
+	 * Computes all registered aggregators in one pass over the population. Every
+	 * thread processes one contiguous part of the population into its own
+	 * components, which are then merged in population order.
+	 */
+	private void addAggregatedComponents(final MATSimState state, final Population population) {
+		if (this.componentType2aggregator.isEmpty()) {
+			return;
+		}
+		final List<PopulationAggregator<?>> aggregators = new ArrayList<>(this.componentType2aggregator.values());
+		final Person[] persons = population.getPersons().values().toArray(new Person[0]);
+		final int partCnt = Math.max(1, Math.min(this.microStateThreads, persons.length));
+		final Object[][] partComponents = new Object[partCnt][];
+		ParallelPersonLoop.run(partCnt, partCnt, part -> {
+			final Object[] components = new Object[aggregators.size()];
+			for (int a = 0; a < aggregators.size(); a++) {
+				components[a] = aggregators.get(a).newComponent();
+			}
+			final int start = (int) (((long) persons.length) * part / partCnt);
+			final int end = (int) (((long) persons.length) * (part + 1) / partCnt);
+			for (int i = start; i < end; i++) {
+				for (int a = 0; a < aggregators.size(); a++) {
+					add(aggregators.get(a), components[a], persons[i]);
+				}
+			}
+			partComponents[part] = components;
+		});
+		for (int a = 0; a < aggregators.size(); a++) {
+			for (int part = 1; part < partCnt; part++) {
+				merge(aggregators.get(a), partComponents[0][a], partComponents[part][a]);
+			}
+			put(state, aggregators.get(a), partComponents[0][a]);
+		}
+	}
+
+	// --------------- IMPLEMENTATION OF MATSimStateFactory ---------------
+
 	@Override
 	public final MATSimState newState(final Population population, final Vector stateVector, final U decisionVariable) {
-		final MATSimState result = new MATSimState(population, stateVector);
-//		this.addComponents(result);
+		final MATSimState result = new MATSimState(population, stateVector, this.newPopulationSnapshot(population));
+		this.addAggregatedComponents(result, population);
+		this.addComponents(result);
 		return result;
 	}
 
-//	/**
-//	 * An inheritance-based attempt to support a modular objective function.
-//	 * Reasoning behind this:
-//	 * <p>
-//	 * The MATSimOpdytsRunner ensures dependency injections into MATSimStateFactory
-//	 * and hence into subclasses of this. Subclasses are hence able to access the
-//	 * entire MATSim simulation machinery and to extract and insert (in a type-safe
-//	 * manner) components (e.g. their injected members) into the MATSimState.
-//	 * <p>
-//	 * Composition may be better, but type-safety may be more complicated to ensure.
-//	 */
-//	protected void addComponents(final MATSimState state) {
-//	}
+	@Override
+	public final MATSimState newState(final Population population, final SparseStateVector stateVector,
+			final U decisionVariable) {
+		final MATSimState result = new MATSimState(population, stateVector, this.newPopulationSnapshot(population));
+		this.addAggregatedComponents(result, population);
+		this.addComponents(result);
+		return result;
+	}
+
+	/**
+	 * If several aggregators with the same component type are registered, only
+	 * the first one is computed and its result is shared.
+	 */
+	@Override
+	public void addPopulationAggregator(final PopulationAggregator<?> aggregator) {
+		this.componentType2aggregator.putIfAbsent(aggregator.getComponentType(), aggregator);
+	}
+
+	@Override
+	public void beforePopulationChange() {
+		if (this.currentLazySnapshot != null) {
+			this.currentLazySnapshot.invalidate();
+			this.currentLazySnapshot = null;
+		}
+	}
+
+	// -------------------- OVERRIDING HOOKS --------------------
+
+	/**
+	 * An inheritance-based attempt to support a modular objective function.
+	 * Reasoning behind this:
+	 * <p>
+	 * The MATSimOpdytsRunner ensures dependency injections into MATSimStateFactory
+	 * and hence into subclasses of this. Subclasses are hence able to access the
+	 * entire MATSim simulation machinery and to extract and insert (in a type-safe
+	 * manner) components (e.g. their injected members) into the MATSimState.
+	 * <p>
+	 * Called after the components of all registered population aggregators have
+	 * been added; anything that can be computed from the plans is better
+	 * expressed as a PopulationAggregator.
+	 */
+	protected void addComponents(final MATSimState state) {
+	}
 
 }
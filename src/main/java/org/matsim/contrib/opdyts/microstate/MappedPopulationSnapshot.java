@@ -0,0 +1,172 @@
+package org.matsim.contrib.opdyts.microstate;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.population.routes.RouteFactories;
+
+/**
+ * A population snapshot that keeps its plans in a binary file, which is
+ * memory-mapped through a MappedSnapshotStore. Only the file offset of every
+ * person's record is kept on the heap; plans are decoded from the mapped file
+ * upon access.
+ * <p>
+ * Record layout per person: number of plans (int), selected plan index (int,
+ * -1 if none), then per plan its score (double), the byte length of its
+ * encoding (int) and its CompactPlan encoding.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see MappedSnapshotStore
+ */
+public class MappedPopulationSnapshot extends AbstractCompactPopulationSnapshot {
+
+	// -------------------- MEMBERS --------------------
+
+	private final MappedSnapshotStore store;
+
+	private final CompactPlanEncoder encoder;
+
+	private final RouteFactories routeFactories;
+
+	private final File file;
+
+	private final long fileSize;
+
+	private final long[] personOffsets;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	/**
+	 * @param population
+	 *            the current MATSim population
+	 * @param encoder
+	 *            shared by all snapshots that are to share unchanged plans
+	 * @param store
+	 *            the store that manages the file of this snapshot
+	 * @param threadCnt
+	 *            number of threads used to implement this snapshot in the
+	 *            simulation; the file itself is written sequentially
+	 */
+	public MappedPopulationSnapshot(final Population population, final CompactPlanEncoder encoder,
+			final MappedSnapshotStore store, final int threadCnt) {
+		super(population, encoder, encoder.personIndex(population.getPersons().keySet()), threadCnt);
+		this.store = store;
+		this.encoder = encoder;
+		this.routeFactories = population.getFactory().getRouteFactories();
+		this.file = store.newFile();
+
+		final PersonIndex personIndex = this.getPersonIndex();
+		this.personOffsets = new long[personIndex.size()];
+		final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+		final DataOutputStream record = new DataOutputStream(recordBytes);
+		final ByteArrayOutputStream planBytes = new ByteArrayOutputStream();
+		final DataOutputStream planOut = new DataOutputStream(planBytes);
+
+		encoder.startSnapshot();
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(this.file), 1 << 16))) {
+			long offset = 0;
+			for (int i = 0; i < personIndex.size(); i++) {
+				final Person person = population.getPersons().get(personIndex.getPersonId(i));
+
+				recordBytes.reset();
+				record.writeInt(person.getPlans().size());
+				final Integer selected = DeepCopyPopulationSnapshot.selectedPlanIndex(person);
+				record.writeInt((selected == null) ? -1 : selected);
+				for (Plan plan : person.getPlans()) {
+					planBytes.reset();
+					encoder.encode(plan).write(planOut);
+					planOut.flush();
+					record.writeDouble(encodeScore(plan));
+					record.writeInt(planBytes.size());
+					planBytes.writeTo(record);
+				}
+				record.flush();
+
+				if (recordBytes.size() > MappedSnapshotStore.SEGMENT_SIZE) {
+					throw new RuntimeException("The plans of person " + person.getId() + " require "
+							+ recordBytes.size() + " bytes, which exceeds the maximum record size.");
+				}
+				// records must not span segment boundaries
+				if ((offset % MappedSnapshotStore.SEGMENT_SIZE) + recordBytes.size() > MappedSnapshotStore.SEGMENT_SIZE) {
+					final long padding = MappedSnapshotStore.SEGMENT_SIZE - (offset % MappedSnapshotStore.SEGMENT_SIZE);
+					for (long p = 0; p < padding; p++) {
+						out.write(0);
+					}
+					offset += padding;
+				}
+				this.personOffsets[i] = offset;
+				recordBytes.writeTo(out);
+				offset += recordBytes.size();
+			}
+			this.fileSize = offset;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		encoder.endSnapshot();
+
+		store.register(this, this.file);
+	}
+
+	public MappedPopulationSnapshot(final Population population, final CompactPlanEncoder encoder,
+			final MappedSnapshotStore store) {
+		this(population, encoder, store, 1);
+	}
+
+	// -------------------- INTERNALS --------------------
+
+	// positioned at the beginning of the given person's record
+	private ByteBuffer personRecord(final int personIndex) {
+		final long offset = this.personOffsets[personIndex];
+		final ByteBuffer result = this.store
+				.getSegment(this.file, this.fileSize, (int) (offset / MappedSnapshotStore.SEGMENT_SIZE)).duplicate();
+		result.position((int) (offset % MappedSnapshotStore.SEGMENT_SIZE));
+		return result;
+	}
+
+	// positioned at the score of the given plan
+	private ByteBuffer planRecord(final int personIndex, final int planIndex) {
+		final ByteBuffer result = this.personRecord(personIndex);
+		result.position(result.position() + 8);
+		for (int j = 0; j < planIndex; j++) {
+			result.position(result.position() + 8);
+			final int planByteLength = result.getInt();
+			result.position(result.position() + planByteLength);
+		}
+		return result;
+	}
+
+	// -------------------- STORAGE ACCESS --------------------
+
+	@Override
+	int getPlanCnt(final int personIndex) {
+		return this.personRecord(personIndex).getInt();
+	}
+
+	@Override
+	CompactPlan getPlan(final int personIndex, final int planIndex) {
+		final ByteBuffer buffer = this.planRecord(personIndex, planIndex);
+		buffer.position(buffer.position() + 8 + 4);
+		return CompactPlan.read(buffer, this.encoder, this.routeFactories);
+	}
+
+	@Override
+	double getScore(final int personIndex, final int planIndex) {
+		return this.planRecord(personIndex, planIndex).getDouble();
+	}
+
+	@Override
+	int getSelectedPlanIndex(final int personIndex) {
+		final ByteBuffer buffer = this.personRecord(personIndex);
+		return buffer.getInt(buffer.position() + 4);
+	}
+}
@@ -0,0 +1,143 @@
+package org.matsim.contrib.opdyts.microstate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Manages the files of MappedPopulationSnapshot instances in one directory.
+ * <p>
+ * At most a fixed number of snapshot files is memory-mapped at any time; the
+ * least recently used mapping is dropped when this number is exceeded and
+ * re-established on the next access. A snapshot file is deleted once its
+ * snapshot has been garbage collected.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see MappedPopulationSnapshot
+ */
+public class MappedSnapshotStore {
+
+	// -------------------- CONSTANTS --------------------
+
+	private static final Logger log = Logger.getLogger(MappedSnapshotStore.class);
+
+	// a single mapping cannot exceed 2GB
+	static final long SEGMENT_SIZE = 1L << 30;
+
+	private final File directory;
+
+	private final int maxMappedFileCnt;
+
+	// -------------------- MEMBERS --------------------
+
+	private final Map<File, MappedByteBuffer[]> file2segments;
+
+	private final ReferenceQueue<MappedPopulationSnapshot> collectedSnapshots = new ReferenceQueue<>();
+
+	// keeps the phantom references themselves reachable
+	private final Set<FileReference> fileReferences = Collections.synchronizedSet(new HashSet<>());
+
+	private long fileCnt = 0;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	public MappedSnapshotStore(final String directory, final int maxMappedFileCnt) {
+		this.directory = new File(directory);
+		if (!this.directory.exists() && !this.directory.mkdirs()) {
+			throw new RuntimeException("Could not create directory " + directory);
+		}
+		this.maxMappedFileCnt = maxMappedFileCnt;
+		this.file2segments = new LinkedHashMap<File, MappedByteBuffer[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<File, MappedByteBuffer[]> eldest) {
+				return (this.size() > MappedSnapshotStore.this.maxMappedFileCnt);
+			}
+		};
+	}
+
+	// -------------------- INTERNALS --------------------
+
+	private static class FileReference extends PhantomReference<MappedPopulationSnapshot> {
+
+		private final File file;
+
+		FileReference(final MappedPopulationSnapshot snapshot, final File file,
+				final ReferenceQueue<MappedPopulationSnapshot> queue) {
+			super(snapshot, queue);
+			this.file = file;
+		}
+	}
+
+	private void deleteFilesOfCollectedSnapshots() {
+		Reference<? extends MappedPopulationSnapshot> reference;
+		while ((reference = this.collectedSnapshots.poll()) != null) {
+			final FileReference fileReference = (FileReference) reference;
+			this.fileReferences.remove(fileReference);
+			synchronized (this) {
+				this.file2segments.remove(fileReference.file);
+			}
+			if (!fileReference.file.delete()) {
+				log.warn("Could not delete file " + fileReference.file);
+			}
+		}
+	}
+
+	// -------------------- IMPLEMENTATION --------------------
+
+	synchronized File newFile() {
+		this.deleteFilesOfCollectedSnapshots();
+		return new File(this.directory, "microstate_" + (this.fileCnt++) + ".bin");
+	}
+
+	void register(final MappedPopulationSnapshot snapshot, final File file) {
+		this.fileReferences.add(new FileReference(snapshot, file, this.collectedSnapshots));
+	}
+
+	synchronized MappedByteBuffer getSegment(final File file, final long fileSize, final int segment) {
+		MappedByteBuffer[] segments = this.file2segments.get(file);
+		if (segments == null) {
+			segments = new MappedByteBuffer[(int) ((fileSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+			try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+				final FileChannel channel = randomAccessFile.getChannel();
+				for (int s = 0; s < segments.length; s++) {
+					final long start = s * SEGMENT_SIZE;
+					segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+							Math.min(SEGMENT_SIZE, fileSize - start));
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			this.file2segments.put(file, segments);
+		}
+		return segments[segment];
+	}
+
+	/**
+	 * Deletes all files of this store. Snapshots that are still in use become
+	 * unusable.
+	 */
+	public synchronized void deleteAll() {
+		this.file2segments.clear();
+		synchronized (this.fileReferences) {
+			for (FileReference fileReference : this.fileReferences) {
+				fileReference.file.delete();
+			}
+			this.fileReferences.clear();
+		}
+	}
+}
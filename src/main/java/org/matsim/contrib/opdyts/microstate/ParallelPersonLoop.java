@@ -0,0 +1,67 @@
+package org.matsim.contrib.opdyts.microstate;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Applies a per-person operation to all person indices 0, ...,
+ * personCnt - 1, distributed over a given number of threads. Every thread
+ * processes one contiguous index range. The operation must only write to
+ * person-specific data (e.g. array slots at the person index), such that the
+ * result does not depend on the number of threads.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+final class ParallelPersonLoop {
+
+	private ParallelPersonLoop() {
+	}
+
+	static void run(final int personCnt, final int threadCnt, final IntConsumer operation) {
+
+		final int usedThreadCnt = Math.max(1, Math.min(threadCnt, personCnt));
+		if (usedThreadCnt == 1) {
+			for (int i = 0; i < personCnt; i++) {
+				operation.accept(i);
+			}
+			return;
+		}
+
+		final Thread[] threads = new Thread[usedThreadCnt];
+		final Throwable[] errors = new Throwable[usedThreadCnt];
+		for (int t = 0; t < usedThreadCnt; t++) {
+			final int thread = t;
+			final int start = (int) (((long) personCnt) * t / usedThreadCnt);
+			final int end = (int) (((long) personCnt) * (t + 1) / usedThreadCnt);
+			threads[t] = new Thread(() -> {
+				try {
+					for (int i = start; i < end; i++) {
+						operation.accept(i);
+					}
+				} catch (Throwable e) {
+					errors[thread] = e;
+				}
+			}, "opdyts-microstate-" + t);
+			threads[t].start();
+		}
+
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+
+		for (Throwable error : errors) {
+			if (error instanceof RuntimeException) {
+				throw (RuntimeException) error;
+			} else if (error instanceof Error) {
+				throw (Error) error;
+			} else if (error != null) {
+				throw new RuntimeException(error);
+			}
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package org.matsim.contrib.opdyts.microstate;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+
+/**
+ * An immutable, order-preserving mapping of person ids onto consecutive
+ * indices. Shared by all snapshots of a population whose person set does not
+ * change.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+class PersonIndex {
+
+	// -------------------- MEMBERS --------------------
+
+	private final Id<Person>[] personIds;
+
+	private final Map<Id<Person>, Integer> personId2index;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	@SuppressWarnings("unchecked")
+	PersonIndex(final Collection<Id<Person>> personIds) {
+		this.personIds = personIds.toArray(new Id[personIds.size()]);
+		this.personId2index = new LinkedHashMap<>(4 * this.personIds.length / 3 + 1);
+		for (int i = 0; i < this.personIds.length; i++) {
+			this.personId2index.put(this.personIds[i], i);
+		}
+	}
+
+	/**
+	 * Returns the given index if it represents the given person ids in the given
+	 * order, otherwise a new index.
+	 */
+	static PersonIndex reuseOrCreate(final PersonIndex index, final Collection<Id<Person>> personIds) {
+		if ((index != null) && index.represents(personIds)) {
+			return index;
+		} else {
+			return new PersonIndex(personIds);
+		}
+	}
+
+	// -------------------- IMPLEMENTATION --------------------
+
+	boolean represents(final Collection<Id<Person>> personIds) {
+		if (personIds.size() != this.personIds.length) {
+			return false;
+		}
+		int i = 0;
+		for (Id<Person> personId : personIds) {
+			if (!personId.equals(this.personIds[i++])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	int size() {
+		return this.personIds.length;
+	}
+
+	Id<Person> getPersonId(final int index) {
+		return this.personIds[index];
+	}
+
+	/**
+	 * Returns the index of the given person, or null if that person is not
+	 * contained in this index.
+	 */
+	Integer getIndex(final Id<Person> personId) {
+		return this.personId2index.get(personId);
+	}
+
+	Set<Id<Person>> getPersonIdView() {
+		return Collections.unmodifiableSet(this.personId2index.keySet());
+	}
+}
@@ -0,0 +1,49 @@
+package org.matsim.contrib.opdyts.microstate;
+
+import org.matsim.api.core.v01.population.Person;
+
+/**
+ * Computes a compact summary of the population (e.g. trip counts per mode)
+ * that an objective function needs from every state. All aggregators
+ * registered with a MATSimStateFactory are computed together in one pass over
+ * the population when a state is created. The result is stored in that state
+ * as a component of type C, see MATSimState.getComponent(Class).
+ * <p>
+ * The pass may be split over several threads. Every thread accumulates a
+ * contiguous part of the population into its own newComponent(), and these
+ * parts are then merged in population order. The add(..) function may hence
+ * be called concurrently for different components, and it must not modify the
+ * person.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @param <C>
+ *            the component type
+ *
+ * @see MATSimStateFactoryImpl
+ */
+public interface PopulationAggregator<C> {
+
+	/**
+	 * The key under which the result is stored in the state. Only one aggregator
+	 * per component type is computed.
+	 */
+	public Class<C> getComponentType();
+
+	/**
+	 * A new component that represents an empty population.
+	 */
+	public C newComponent();
+
+	/**
+	 * Adds the given person to the given component.
+	 */
+	public void add(C component, Person person);
+
+	/**
+	 * Adds the source component to the target component. The source component
+	 * represents persons that come after those of the target component.
+	 */
+	public void merge(C target, C source);
+
+}
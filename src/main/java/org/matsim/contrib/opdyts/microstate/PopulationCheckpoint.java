@@ -0,0 +1,126 @@
+package org.matsim.contrib.opdyts.microstate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.population.routes.RouteFactories;
+
+/**
+ * Writes all plans of a population into one self-contained binary file and
+ * re-implements them from there, e.g. to resume an interrupted optimization.
+ * <p>
+ * File layout: a format marker (int), the number of persons (int), then per
+ * person its id (UTF), number of plans (int), selected plan index (int, -1 if
+ * none), and per plan its score (double, NaN if null), the byte length of its
+ * encoding (int) and its CompactPlan encoding.
+ * <p>
+ * Plans with attributes cannot be written in this form, see CompactPlan.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public final class PopulationCheckpoint {
+
+	// -------------------- CONSTANTS --------------------
+
+	private static final int FORMAT = 0x4f504331; // "OPC1"
+
+	// -------------------- CONSTRUCTION --------------------
+
+	private PopulationCheckpoint() {
+		// do not instantiate
+	}
+
+	// -------------------- IMPLEMENTATION --------------------
+
+	/**
+	 * Writes into a temporary file that then replaces the given file, such that
+	 * an interrupted write leaves a previous checkpoint intact.
+	 */
+	public static void write(final Population population, final File file) {
+		final CompactPlanEncoder encoder = new CompactPlanEncoder();
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		final ByteArrayOutputStream planBytes = new ByteArrayOutputStream();
+		final DataOutputStream planOut = new DataOutputStream(planBytes);
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16))) {
+			out.writeInt(FORMAT);
+			out.writeInt(population.getPersons().size());
+			for (Person person : population.getPersons().values()) {
+				out.writeUTF(person.getId().toString());
+				out.writeInt(person.getPlans().size());
+				final Integer selected = DeepCopyPopulationSnapshot.selectedPlanIndex(person);
+				out.writeInt((selected == null) ? -1 : selected);
+				for (Plan plan : person.getPlans()) {
+					planBytes.reset();
+					new CompactPlan(plan, encoder).write(planOut);
+					planOut.flush();
+					out.writeDouble(AbstractCompactPopulationSnapshot.encodeScore(plan));
+					out.writeInt(planBytes.size());
+					planBytes.writeTo(out);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		try {
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Replaces the plans of all persons in the file by the plans from the file.
+	 * Every person in the file must exist in the population.
+	 */
+	public static void read(final File file, final Population population) {
+		final CompactPlanEncoder encoder = new CompactPlanEncoder();
+		final RouteFactories routeFactories = population.getFactory().getRouteFactories();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			if (in.readInt() != FORMAT) {
+				throw new RuntimeException("File " + file + " is not a population checkpoint.");
+			}
+			final int personCnt = in.readInt();
+			for (int i = 0; i < personCnt; i++) {
+				final Id<Person> personId = Id.createPersonId(in.readUTF());
+				final Person person = population.getPersons().get(personId);
+				if (person == null) {
+					throw new RuntimeException("Person " + personId + " is not in the population.");
+				}
+				person.getPlans().clear();
+				person.setSelectedPlan(null);
+				final int planCnt = in.readInt();
+				final int selected = in.readInt();
+				for (int j = 0; j < planCnt; j++) {
+					final double score = in.readDouble();
+					final byte[] bytes = new byte[in.readInt()];
+					in.readFully(bytes);
+					final Plan plan = CompactPlan.read(ByteBuffer.wrap(bytes), encoder, routeFactories).decode(person);
+					plan.setScore(Double.isNaN(score) ? null : score);
+					person.addPlan(plan);
+					if (j == selected) {
+						person.setSelectedPlan(plan);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package org.matsim.contrib.opdyts.microstate;
+
+import java.util.List;
+import java.util.Set;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+
+/**
+ * Stores the plan choice sets of all agents, including scores and information
+ * about the selected plan, as they were when the snapshot was taken. This is
+ * the "micro" part of a MATSimState.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see MATSimState
+ */
+public interface PopulationSnapshot {
+
+	/**
+	 * The ids of all persons contained in this snapshot, in the order in which
+	 * they were found in the population.
+	 */
+	public Set<Id<Person>> getPersonIdView();
+
+	/**
+	 * The plans of the given person. Contains an empty but non-null list for every
+	 * person that does not have any plans. The returned plans must not be
+	 * modified.
+	 */
+	public List<? extends Plan> getPlansView(Id<Person> personId);
+
+	/**
+	 * The selected plan of the given person, or null if that person does not have
+	 * a selected plan. The returned plan must not be modified.
+	 */
+	public Plan getSelectedPlan(Id<Person> personId);
+
+	/**
+	 * Replaces the plans of all persons in the given population that are contained
+	 * in this snapshot by (deep) copies of the snapshot's plans.
+	 */
+	public void implementInPopulation(Population population);
+
+}
@@ -19,7 +19,11 @@
  */
 package org.matsim.contrib.opdyts.objectivefunction;
 
+import java.util.Collections;
+import java.util.List;
+
 import org.matsim.contrib.opdyts.microstate.MATSimState;
+import org.matsim.contrib.opdyts.microstate.PopulationAggregator;
 import org.matsim.core.controler.AbstractModule;
 
 import floetteroed.opdyts.ObjectiveFunction;
@@ -45,6 +49,17 @@ public interface MATSimObjectiveFunction<X extends MATSimState> extends Objectiv
 		return AbstractModule.emptyModule();
 	}
 
+	/**
+	 * Population scans that this objective function needs from every state. They
+	 * are registered with the state factory, which computes all of them in one
+	 * pass over the population when creating a state. The value(X) function then
+	 * reads the results through MATSimState.getComponent(Class) instead of
+	 * iterating over the plans of the state.
+	 */
+	public default List<PopulationAggregator<?>> getPopulationAggregators() {
+		return Collections.emptyList();
+	}
+
 	@Override
 	public double value(X state);
 
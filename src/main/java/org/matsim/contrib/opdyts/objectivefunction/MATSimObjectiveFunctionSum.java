@@ -24,6 +24,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.matsim.contrib.opdyts.microstate.MATSimState;
+import org.matsim.contrib.opdyts.microstate.PopulationAggregator;
 import org.matsim.core.controler.AbstractModule;
 
 /**
@@ -41,6 +42,16 @@ public class MATSimObjectiveFunctionSum<X extends MATSimState> implements MATSim
 		this.weights.add(weight);
 	}
 
+	// in the order in which they were added
+	protected final List<MATSimObjectiveFunction<X>> getObjectiveFunctions() {
+		return this.objectiveFunctions;
+	}
+
+	// aligned with getObjectiveFunctions()
+	protected final List<Double> getWeights() {
+		return this.weights;
+	}
+
 	@Override
 	public AbstractModule newAbstractModule() {
 		AbstractModule result = AbstractModule.emptyModule();
@@ -48,7 +59,16 @@ public class MATSimObjectiveFunctionSum<X extends MATSimState> implements MATSim
 			result = AbstractModule.override(Arrays.asList(result), objectiveFunction.newAbstractModule());
 		}
 		return result;
-	};
+	}
+
+	@Override
+	public List<PopulationAggregator<?>> getPopulationAggregators() {
+		final List<PopulationAggregator<?>> result = new ArrayList<>();
+		for (MATSimObjectiveFunction<X> objectiveFunction : this.objectiveFunctions) {
+			result.addAll(objectiveFunction.getPopulationAggregators());
+		}
+		return result;
+	}
 
 	@Override
 	public double value(final X state) {
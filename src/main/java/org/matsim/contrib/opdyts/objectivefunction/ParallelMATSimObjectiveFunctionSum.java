@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.objectivefunction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.contrib.opdyts.microstate.MATSimState;
+
+/**
+ * Like MATSimObjectiveFunctionSum, but evaluates the summands concurrently on
+ * a fixed number of threads. The weighted values are summed up in the order
+ * in which the summands were added, such that the result is identical to
+ * that of MATSimObjectiveFunctionSum, independently of thread scheduling.
+ * <p>
+ * The summands must be independent of each other: they are called at the
+ * same time, with the same (read-only) state.
+ * <p>
+ * The evaluation threads are daemon threads that terminate after being idle
+ * for the keep-alive time, so an instance needs no shutdown. Since the
+ * objective function is evaluated only once per MATSim iteration, the threads
+ * are typically started anew for every evaluation.
+ *
+ * @author Gunnar Flötteröd
+ *
+ * @see MATSimObjectiveFunctionSum
+ */
+public class ParallelMATSimObjectiveFunctionSum<X extends MATSimState> extends MATSimObjectiveFunctionSum<X> {
+
+	// -------------------- CONSTANTS --------------------
+
+	public static final long DEFAULT_KEEP_ALIVE_MS = 10 * 1000;
+
+	// -------------------- MEMBERS --------------------
+
+	private final ThreadPoolExecutor executor;
+
+	// -------------------- CONSTRUCTION --------------------
+
+	public ParallelMATSimObjectiveFunctionSum(final int threadCnt) {
+		this(threadCnt, DEFAULT_KEEP_ALIVE_MS);
+	}
+
+	public ParallelMATSimObjectiveFunctionSum(final int threadCnt, final long keepAlive_ms) {
+		if (threadCnt < 1) {
+			throw new RuntimeException("threadCnt must be at least one but is " + threadCnt);
+		}
+		if (keepAlive_ms < 1) {
+			throw new RuntimeException("keepAlive_ms must be at least one but is " + keepAlive_ms);
+		}
+		this.executor = new ThreadPoolExecutor(threadCnt, threadCnt, keepAlive_ms, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(), runnable -> {
+					final Thread thread = new Thread(runnable,
+							ParallelMATSimObjectiveFunctionSum.class.getSimpleName());
+					thread.setDaemon(true);
+					return thread;
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	// -------------------- GETTERS --------------------
+
+	// for testing
+	int getThreadCnt() {
+		return this.executor.getPoolSize();
+	}
+
+	// no summand keeps running once the evaluation has failed
+	private static void cancel(final List<Future<Double>> futures) {
+		for (Future<Double> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	// --------------- IMPLEMENTATION OF MATSimObjectiveFunction ---------------
+
+	@Override
+	public double value(final X state) {
+		final List<MATSimObjectiveFunction<X>> objectiveFunctions = this.getObjectiveFunctions();
+		final List<Double> weights = this.getWeights();
+		if (objectiveFunctions.isEmpty()) {
+			return 0.0;
+		}
+
+		// all but the first summand in the executor, the first one in this thread
+		final List<Future<Double>> futures = new ArrayList<>(objectiveFunctions.size() - 1);
+		for (int i = 1; i < objectiveFunctions.size(); i++) {
+			final MATSimObjectiveFunction<X> objectiveFunction = objectiveFunctions.get(i);
+			futures.add(this.executor.submit(() -> objectiveFunction.value(state)));
+		}
+		final double firstValue;
+		try {
+			firstValue = objectiveFunctions.get(0).value(state);
+		} catch (RuntimeException e) {
+			cancel(futures);
+			throw e;
+		}
+
+		// summation in a fixed order
+		double result = 0.0;
+		result += firstValue * weights.get(0);
+		for (int i = 1; i < objectiveFunctions.size(); i++) {
+			try {
+				result += futures.get(i - 1).get() * weights.get(i);
+			} catch (ExecutionException e) {
+				cancel(futures);
+				throw new RuntimeException("Evaluation of objective function " + i + " failed.", e.getCause());
+			} catch (InterruptedException e) {
+				cancel(futures);
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.contrib.opdyts.InstrumentedOpdytsProgressListener.Phase;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class InstrumentedOpdytsProgressListenerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static void sleep(final long time_ms) {
+		try {
+			Thread.sleep(time_ms);
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	// the call sequence of WireOpdytsIntoMATSimControlerListener in a non-first physical iteration
+	private static void runIteration(final InstrumentedOpdytsProgressListener listener, final int iteration) {
+		listener.expectToBeBeforePhysicalMobsimRun(iteration);
+		listener.beforeOtherThanVeryFirstPhysicalMobsimRun(iteration);
+		listener.extractedStateVector(iteration);
+		listener.createdState(iteration);
+		sleep(10);
+		listener.beforeObjectiveFunctionEvaluation();
+		sleep(20);
+		listener.afterObjectiveFunctionEvaluation();
+		listener.extractedStateAndCalledTrajectorySampler(iteration);
+		listener.clearedAndAddedMacroStateAnalyzers(iteration);
+		sleep(10);
+		listener.expectToBeAfterAPhysicalMobsimRun(iteration);
+		listener.removedButDidNotClearMacroStateAnalyzers(iteration);
+	}
+
+	private static int registeredBeanCnt() throws JMException {
+		return ManagementFactory.getPlatformMBeanServer()
+				.queryNames(new ObjectName("org.matsim.contrib.opdyts:type=OpdytsProgress,*"), null).size();
+	}
+
+	@Test
+	public void testPhases() {
+		try (InstrumentedOpdytsProgressListener listener = new InstrumentedOpdytsProgressListener()) {
+			runIteration(listener, 3);
+
+			assertEquals(3, listener.getIteration());
+			final double[] wallTimes_ms = listener.getWallTimes_ms();
+			assertTrue(wallTimes_ms[Phase.OBJECTIVE_FUNCTION.ordinal()] >= 20.0);
+			assertTrue(wallTimes_ms[Phase.TRAJECTORY_SAMPLER.ordinal()] >= 30.0);
+			assertTrue(wallTimes_ms[Phase.MOBSIM.ordinal()] >= 10.0);
+			for (double wallTime_ms : wallTimes_ms) {
+				assertTrue(wallTime_ms >= 0.0);
+			}
+			assertTrue(listener.getUsedHeap_bytes() > 0);
+		}
+	}
+
+	@Test
+	public void testFile() throws IOException {
+		final File outputDirectory = this.folder.newFolder();
+		try (InstrumentedOpdytsProgressListener listener = new InstrumentedOpdytsProgressListener()) {
+			listener.openFile(outputDirectory);
+			runIteration(listener, 3);
+			runIteration(listener, 4);
+		}
+
+		final List<String> lines = Files
+				.readAllLines(new File(outputDirectory, InstrumentedOpdytsProgressListener.FILE_NAME).toPath());
+		assertEquals(3, lines.size());
+		// iteration, time and allocation per phase, used heap
+		final int columnCnt = 2 + 2 * Phase.values().length;
+		assertEquals(columnCnt, lines.get(0).split(";").length);
+		assertTrue(lines.get(0).startsWith("iteration;STATE_EXTRACTION_ms;"));
+		for (int i = 1; i < lines.size(); i++) {
+			final String[] values = lines.get(i).split(";");
+			assertEquals(columnCnt, values.length);
+			assertEquals(2 + i, Integer.parseInt(values[0]));
+			final double objectiveFunction_ms = Double.parseDouble(values[1 + 2 * Phase.OBJECTIVE_FUNCTION.ordinal()]);
+			assertTrue(objectiveFunction_ms >= 20.0);
+		}
+	}
+
+	@Test
+	public void testCloseUnregistersBean() throws JMException {
+		final int beanCnt = registeredBeanCnt();
+		final InstrumentedOpdytsProgressListener listener = new InstrumentedOpdytsProgressListener();
+		assertEquals(beanCnt + 1, registeredBeanCnt());
+		listener.close();
+		assertEquals(beanCnt, registeredBeanCnt());
+		listener.close();
+		assertEquals(beanCnt, registeredBeanCnt());
+	}
+}
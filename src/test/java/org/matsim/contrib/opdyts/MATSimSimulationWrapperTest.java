@@ -0,0 +1,107 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.util.Modules;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class MATSimSimulationWrapperTest {
+
+	static class ExpensiveRouter {
+	}
+
+	// the bindings of one stage, without warm start
+	private static Module newStageModule(final boolean singleton) {
+		return new AbstractModule() {
+			@Override
+			protected void configure() {
+				if (singleton) {
+					bind(ExpensiveRouter.class).in(Singleton.class);
+				} else {
+					bind(ExpensiveRouter.class);
+				}
+			}
+		};
+	}
+
+	private static Injector newStageInjector(final Map<Class<?>, Object> warmStartInstances) {
+		return Guice.createInjector(Modules.override(newStageModule(true)).with(new AbstractModule() {
+			@Override
+			protected void configure() {
+				MATSimSimulationWrapper.bindWarmStartInstances(binder(), warmStartInstances);
+			}
+		}));
+	}
+
+	@Test
+	public void testWarmStartInstanceSurvivesStages() {
+		final Set<Class<?>> types = Collections.singleton(ExpensiveRouter.class);
+
+		final Injector firstStage = newStageInjector(new LinkedHashMap<>());
+		final ExpensiveRouter firstRouter = firstStage.getInstance(ExpensiveRouter.class);
+		final Map<Class<?>, Object> warmStartInstances = MATSimSimulationWrapper.takeWarmStartInstances(firstStage,
+				types);
+		assertEquals(1, warmStartInstances.size());
+		assertSame(firstRouter, warmStartInstances.get(ExpensiveRouter.class));
+
+		final Injector secondStage = newStageInjector(warmStartInstances);
+		assertSame(firstRouter, secondStage.getInstance(ExpensiveRouter.class));
+
+		final Injector thirdStage = newStageInjector(
+				MATSimSimulationWrapper.takeWarmStartInstances(secondStage, types));
+		assertSame(firstRouter, thirdStage.getInstance(ExpensiveRouter.class));
+
+		// without warm start, every stage creates its own instance
+		assertNotSame(firstRouter, newStageInjector(new LinkedHashMap<>()).getInstance(ExpensiveRouter.class));
+	}
+
+	@Test
+	public void testNonSingletonIsRejected() {
+		final Injector injector = Guice.createInjector(newStageModule(false));
+		try {
+			MATSimSimulationWrapper.takeWarmStartInstances(injector, Collections.singleton(ExpensiveRouter.class));
+			fail("non-singleton warm-start binding not rejected");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().contains("is not bound as a singleton"));
+		}
+	}
+}
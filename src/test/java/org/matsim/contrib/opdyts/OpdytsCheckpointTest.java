@@ -0,0 +1,171 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.Serializable;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.contrib.opdyts.microstate.MATSimState;
+import org.matsim.contrib.opdyts.microstate.MATSimStateFactoryImpl;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+
+import floetteroed.opdyts.DecisionVariable;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class OpdytsCheckpointTest {
+
+	static final double eps = 1e-8;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	static class TestDecisionVariable implements DecisionVariable, Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final double x;
+
+		TestDecisionVariable(final double x) {
+			this.x = x;
+		}
+
+		@Override
+		public void implementInSimulation() {
+		}
+	}
+
+	private static void addPerson(final Population population, final String personId, final Double score) {
+		final Person person = population.getFactory().createPerson(Id.createPersonId(personId));
+		final Plan plan = population.getFactory().createPlan();
+		plan.addActivity(population.getFactory().createActivityFromLinkId("home", Id.createLinkId("1")));
+		plan.setScore(score);
+		person.addPlan(plan);
+		person.setSelectedPlan(plan);
+		population.addPerson(person);
+	}
+
+	private Scenario newScenario() {
+		final Config config = ConfigUtils.createConfig(new OpdytsConfigGroup());
+		config.controler().setOutputDirectory(new File(folder.getRoot(), "output").getAbsolutePath());
+		return ScenarioUtils.createScenario(config);
+	}
+
+	@Test
+	public void testRoundTrip() {
+		final File directory = new File(folder.getRoot(), "checkpoint");
+		assertNull(OpdytsCheckpoint.read(directory));
+
+		final Scenario scenario = this.newScenario();
+		addPerson(scenario.getPopulation(), "person1", 1.0);
+		OpdytsCheckpoint.write(directory, 2, scenario.getPopulation(), new TestDecisionVariable(2.0), 0.1, 0.2);
+		scenario.getPopulation().getPersons().get(Id.createPersonId("person1")).getSelectedPlan().setScore(3.0);
+		OpdytsCheckpoint.write(directory, 4, scenario.getPopulation(), new TestDecisionVariable(4.0), 0.3, 0.4);
+
+		// a checkpoint that was interrupted while being written
+		final File interrupted = new File(directory,
+				OpdytsCheckpoint.STAGE_PREFIX + 6 + OpdytsCheckpoint.TMP_SUFFIX);
+		assertTrue(interrupted.mkdirs());
+
+		final OpdytsCheckpoint checkpoint = OpdytsCheckpoint.read(directory);
+		assertEquals(4, checkpoint.getCompletedStages());
+		assertEquals(4.0, ((TestDecisionVariable) checkpoint.getDecisionVariable()).x, eps);
+		assertEquals(0.3, checkpoint.getEquilibriumGapWeight(), eps);
+		assertEquals(0.4, checkpoint.getUniformityGapWeight(), eps);
+		assertFalse(new File(directory, OpdytsCheckpoint.STAGE_PREFIX + 2).exists());
+
+		final Population restored = this.newScenario().getPopulation();
+		restored.addPerson(restored.getFactory().createPerson(Id.createPersonId("person1")));
+		checkpoint.implementPopulation(restored);
+		final Person person1 = restored.getPersons().get(Id.createPersonId("person1"));
+		assertEquals(1, person1.getPlans().size());
+		assertEquals(3.0, person1.getSelectedPlan().getScore(), eps);
+	}
+
+	@Test
+	public void testNonSerializableDecisionVariable() {
+		final File directory = new File(folder.getRoot(), "checkpoint");
+		final Scenario scenario = this.newScenario();
+		OpdytsCheckpoint.write(directory, 1, scenario.getPopulation(), new DecisionVariable() {
+			@Override
+			public void implementInSimulation() {
+			}
+		}, null, null);
+		final OpdytsCheckpoint checkpoint = OpdytsCheckpoint.read(directory);
+		assertEquals(1, checkpoint.getCompletedStages());
+		assertNull(checkpoint.getDecisionVariable());
+		assertNull(checkpoint.getEquilibriumGapWeight());
+		assertNull(checkpoint.getUniformityGapWeight());
+	}
+
+	@Test
+	public void testResume() {
+		final Scenario checkpointedScenario = this.newScenario();
+		addPerson(checkpointedScenario.getPopulation(), "person1", 5.0);
+		final File directory = new File(checkpointedScenario.getConfig().controler().getOutputDirectory(),
+				"checkpoint");
+		OpdytsCheckpoint.write(directory, 3, checkpointedScenario.getPopulation(), new TestDecisionVariable(3.0),
+				0.5, 0.6);
+
+		final Scenario scenario = this.newScenario();
+		scenario.getPopulation().addPerson(
+				scenario.getPopulation().getFactory().createPerson(Id.createPersonId("person1")));
+		final MATSimOpdytsRunner<TestDecisionVariable, MATSimState> runner = new MATSimOpdytsRunner<>(scenario,
+				new MATSimStateFactoryImpl<>());
+		final TestDecisionVariable initial = new TestDecisionVariable(0.0);
+
+		final TestDecisionVariable resumed = runner.restore(OpdytsCheckpoint.read(directory), initial);
+		assertEquals(3.0, resumed.x, eps);
+		assertEquals(0.5, runner.getSelfTuner().getEquilibriumGapWeight(), eps);
+		assertEquals(0.6, runner.getSelfTuner().getUniformityGapWeight(), eps);
+		assertEquals(5.0, scenario.getPopulation().getPersons().get(Id.createPersonId("person1")).getSelectedPlan()
+				.getScore(), eps);
+
+		// a custom self-tuner is kept
+		final Scenario customScenario = this.newScenario();
+		customScenario.getPopulation().addPerson(
+				customScenario.getPopulation().getFactory().createPerson(Id.createPersonId("person1")));
+		final MATSimOpdytsRunner<TestDecisionVariable, MATSimState> customRunner = new MATSimOpdytsRunner<>(
+				customScenario, new MATSimStateFactoryImpl<>());
+		customRunner.setSelfTuner(runner.getSelfTuner());
+		final TestDecisionVariable customResumed = customRunner.restore(OpdytsCheckpoint.read(directory), initial);
+		assertEquals(3.0, customResumed.x, eps);
+		assertSame(runner.getSelfTuner(), customRunner.getSelfTuner());
+	}
+}
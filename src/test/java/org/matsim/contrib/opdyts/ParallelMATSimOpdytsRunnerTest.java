@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.ConfigWriter;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class ParallelMATSimOpdytsRunnerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// reports what the search process has received
+	public static class ReportingSearch implements ParallelMATSimOpdytsRunner.Search<String> {
+
+		@Override
+		public String run(final int searchIndex, final Scenario scenario) {
+			final Config config = scenario.getConfig();
+			return ManagementFactory.getRuntimeMXBean().getName() + "|" + searchIndex + "|"
+					+ config.controler().getOutputDirectory() + "|" + config.global().getRandomSeed() + "|"
+					+ config.qsim().getNumberOfThreads();
+		}
+	}
+
+	public static class FailingSearch implements ParallelMATSimOpdytsRunner.Search<String> {
+
+		@Override
+		public String run(final int searchIndex, final Scenario scenario) {
+			throw new RuntimeException("search " + searchIndex + " fails");
+		}
+	}
+
+	private String writeConfig() {
+		final Config config = ConfigUtils.createConfig(new OpdytsConfigGroup());
+		config.controler().setOutputDirectory(new File(folder.getRoot(), "output").getAbsolutePath());
+		config.global().setRandomSeed(4711);
+		final OpdytsConfigGroup opdytsConfig = ConfigUtils.addOrGetModule(config, OpdytsConfigGroup.class);
+		opdytsConfig.setParallelSearches(2);
+		opdytsConfig.setThreadsPerSearch(3);
+		final String configFileName = new File(folder.getRoot(), "config.xml").getAbsolutePath();
+		new ConfigWriter(config).write(configFileName);
+		return configFileName;
+	}
+
+	@Test
+	public void testSearchesRunInOwnProcesses() {
+		final String outputDirectory = new File(folder.getRoot(), "output").getAbsolutePath();
+		final ParallelMATSimOpdytsRunner runner = new ParallelMATSimOpdytsRunner(this.writeConfig(),
+				new File(folder.getRoot(), "searches").getPath());
+		assertEquals(2, runner.getSearchCnt());
+
+		final List<String> results = runner.run(ReportingSearch.class);
+		assertEquals(2, results.size());
+		final String[] result0 = results.get(0).split("\\|");
+		final String[] result1 = results.get(1).split("\\|");
+
+		final String thisProcess = ManagementFactory.getRuntimeMXBean().getName();
+		assertNotEquals(thisProcess, result0[0]);
+		assertNotEquals(thisProcess, result1[0]);
+		assertNotEquals(result0[0], result1[0]);
+
+		assertEquals("0", result0[1]);
+		assertEquals("1", result1[1]);
+		assertEquals(outputDirectory + "_0", result0[2]);
+		assertEquals(outputDirectory + "_1", result1[2]);
+		assertEquals("4711", result0[3]);
+		assertEquals("4712", result1[3]);
+		assertEquals("3", result0[4]);
+		assertEquals("3", result1[4]);
+	}
+
+	@Test
+	public void testOutputDirectoryWithTrailingSeparator() {
+		final Config config = ConfigUtils.createConfig(new OpdytsConfigGroup());
+		config.controler().setOutputDirectory("output" + File.separator);
+		ParallelMATSimOpdytsRunner.configureSearch(config, 1);
+		assertEquals(new File("output_1").getPath(), config.controler().getOutputDirectory());
+	}
+
+	@Test
+	public void testFailingSearch() {
+		final ParallelMATSimOpdytsRunner runner = new ParallelMATSimOpdytsRunner(this.writeConfig(),
+				new File(folder.getRoot(), "searches").getPath());
+		try {
+			runner.run(FailingSearch.class);
+			fail("failing search not reported");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().startsWith("Search 0 failed with exit value 1"));
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.buildingblocks.calibration.counting;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class AbsoluteLinkEntryCountDeviationBatchTest {
+
+	@Test
+	public void testSameValuesAsObjectiveFunctions() {
+
+		final CountDeviationTestFixture fixture = new CountDeviationTestFixture();
+		final List<AbsoluteLinkEntryCountDeviationObjectiveFunction> objectiveFunctions = new ArrayList<>();
+		for (Map.Entry<CountMeasurementSpecification, double[]> entry : fixture.spec2realData.entrySet()) {
+			objectiveFunctions.add(new AbsoluteLinkEntryCountDeviationObjectiveFunction(entry.getValue(),
+					fixture.counter.getSource(entry.getKey()), fixture.share));
+		}
+		final AbsoluteLinkEntryCountDeviationBatch batch = new AbsoluteLinkEntryCountDeviationBatch(fixture.counter,
+				fixture.spec2realData, fixture.share);
+
+		// several iterations, such that both count buffers are used
+		final double[] batchValues = new double[batch.size()];
+		for (int iteration = 0; iteration < 3; iteration++) {
+			fixture.simulateIteration(iteration);
+			batch.evaluate(batchValues);
+			for (int s = 0; s < objectiveFunctions.size(); s++) {
+				assertEquals(objectiveFunctions.get(s).value(null), batchValues[s], 1e-8);
+			}
+		}
+	}
+
+	@Test
+	public void testAllMeasures() {
+
+		final CountDeviationTestFixture fixture = new CountDeviationTestFixture();
+		final AbsoluteLinkEntryCountDeviationBatch batch = new AbsoluteLinkEntryCountDeviationBatch(fixture.counter,
+				fixture.spec2realData, fixture.share);
+		final double[] absolute = new double[batch.size()];
+		final double[] squared = new double[batch.size()];
+		final double[] relative = new double[batch.size()];
+		final double[] geh = new double[batch.size()];
+
+		for (int iteration = 0; iteration < 2; iteration++) {
+			fixture.simulateIteration(iteration);
+			batch.evaluate(absolute, squared, relative, geh);
+			final double[] absoluteOnly = batch.evaluate();
+
+			int slot = 0;
+			for (Map.Entry<CountMeasurementSpecification, double[]> entry : fixture.spec2realData.entrySet()) {
+				final double[] real = entry.getValue();
+				final LinkEntryCountSource source = fixture.counter.getSource(entry.getKey());
+				double expectedSquared = 0;
+				double expectedRelative = 0;
+				double expectedGeh = 0;
+				for (int i = 0; i < real.length; i++) {
+					final double sim = source.getCountOfLastCompletedIteration(i) / fixture.share;
+					expectedSquared += (sim - real[i]) * (sim - real[i]);
+					expectedRelative += Math.abs(sim - real[i]) / Math.max(real[i], 1.0);
+					if (sim + real[i] > 0) {
+						expectedGeh += Math.sqrt(2.0 * (sim - real[i]) * (sim - real[i]) / (sim + real[i]));
+					}
+				}
+				assertEquals(absoluteOnly[slot], absolute[slot], 1e-8);
+				assertEquals(expectedSquared, squared[slot], 1e-8);
+				assertEquals(expectedRelative, relative[slot], 1e-8);
+				assertEquals(expectedGeh, geh[slot], 1e-8);
+				slot++;
+			}
+		}
+	}
+}
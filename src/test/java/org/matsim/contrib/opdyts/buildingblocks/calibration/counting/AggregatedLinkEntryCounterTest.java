@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.buildingblocks.calibration.counting;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.controler.events.AfterMobsimEvent;
+import org.matsim.vehicles.Vehicle;
+
+import floetteroed.utilities.TimeDiscretization;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class AggregatedLinkEntryCounterTest {
+
+	@Test
+	public void testSameCountsAsLinkEntryCounter() {
+
+		final List<Id<Link>> links = new ArrayList<>();
+		for (int l = 0; l < 6; l++) {
+			links.add(Id.createLinkId("link" + l));
+		}
+		final Id<Vehicle> specialVehicle = Id.createVehicleId("veh0");
+
+		// overlapping link sets, different time discretizations and filters
+		final List<CountMeasurementSpecification> specs = new ArrayList<>();
+		specs.add(new CountMeasurementSpecification(new TimeDiscretization(0, 10, 10),
+				Filter.newAcceptAllFilter(null), new LinkedHashSet<>(links.subList(0, 3))));
+		specs.add(new CountMeasurementSpecification(new TimeDiscretization(20, 30, 2),
+				Filter.newAcceptAllFilter(null), new LinkedHashSet<>(links.subList(2, 5))));
+		specs.add(new CountMeasurementSpecification(new TimeDiscretization(0, 100, 1),
+				Filter.newSingleObjectFilter(specialVehicle), new LinkedHashSet<>(Arrays.asList(links.get(2)))));
+
+		final AggregatedLinkEntryCounter aggregatedCounter = new AggregatedLinkEntryCounter(specs);
+		final List<LinkEntryCounter> counters = new ArrayList<>();
+		for (CountMeasurementSpecification spec : specs) {
+			counters.add(new LinkEntryCounter(spec));
+		}
+
+		// the data of the first iteration, and copies of it
+		final List<int[]> firstData = new ArrayList<>();
+		final List<int[]> firstDataCopies = new ArrayList<>();
+
+		final Random rnd = new Random(4711);
+		for (int iteration = 0; iteration < 2; iteration++) {
+			aggregatedCounter.reset(iteration);
+			for (LinkEntryCounter counter : counters) {
+				counter.reset(iteration);
+			}
+			for (int e = 0; e < 1000; e++) {
+				final LinkEnterEvent event = new LinkEnterEvent(rnd.nextInt(120),
+						Id.createVehicleId("veh" + rnd.nextInt(3)), links.get(rnd.nextInt(links.size())));
+				aggregatedCounter.handleEvent(event);
+				for (LinkEntryCounter counter : counters) {
+					counter.handleEvent(event);
+				}
+			}
+			final AfterMobsimEvent afterMobsim = new AfterMobsimEvent(null, iteration);
+			aggregatedCounter.notifyAfterMobsim(afterMobsim);
+			for (LinkEntryCounter counter : counters) {
+				counter.notifyAfterMobsim(afterMobsim);
+			}
+
+			for (int s = 0; s < specs.size(); s++) {
+				assertArrayEquals(counters.get(s).getDataOfLastCompletedIteration(),
+						aggregatedCounter.getSource(specs.get(s)).getDataOfLastCompletedIteration());
+				if (iteration == 0) {
+					for (LinkEntryCountSource source : Arrays.asList(counters.get(s),
+							aggregatedCounter.getSource(specs.get(s)))) {
+						firstData.add(source.getDataOfLastCompletedIteration());
+						firstDataCopies.add(source.getDataOfLastCompletedIteration().clone());
+					}
+				}
+			}
+		}
+
+		// later iterations do not overwrite returned data
+		for (int i = 0; i < firstData.size(); i++) {
+			assertArrayEquals(firstDataCopies.get(i), firstData.get(i));
+		}
+	}
+}
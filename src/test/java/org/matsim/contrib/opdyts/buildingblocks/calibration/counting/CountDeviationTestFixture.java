@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.buildingblocks.calibration.counting;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.controler.events.AfterMobsimEvent;
+
+import floetteroed.utilities.TimeDiscretization;
+
+/**
+ * Two overlapping count stations with different time discretizations, random
+ * real data and an AggregatedLinkEntryCounter that is fed with random link
+ * entries.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+class CountDeviationTestFixture {
+
+	final double share = 0.1;
+
+	final List<Id<Link>> links = new ArrayList<>();
+
+	final CountMeasurementSpecification spec1;
+
+	final CountMeasurementSpecification spec2;
+
+	final Map<CountMeasurementSpecification, double[]> spec2realData = new LinkedHashMap<>();
+
+	final AggregatedLinkEntryCounter counter;
+
+	private final Random rnd = new Random(4711);
+
+	CountDeviationTestFixture() {
+		for (int l = 0; l < 4; l++) {
+			this.links.add(Id.createLinkId("link" + l));
+		}
+		this.spec1 = new CountMeasurementSpecification(new TimeDiscretization(0, 10, 10),
+				Filter.newAcceptAllFilter(null), new LinkedHashSet<>(this.links.subList(0, 2)));
+		this.spec2 = new CountMeasurementSpecification(new TimeDiscretization(0, 50, 2),
+				Filter.newAcceptAllFilter(null), new LinkedHashSet<>(this.links.subList(1, 4)));
+		this.spec2realData.put(this.spec1, new double[10]);
+		this.spec2realData.put(this.spec2, new double[2]);
+		for (double[] realData : this.spec2realData.values()) {
+			for (int i = 0; i < realData.length; i++) {
+				realData[i] = 20.0 * this.rnd.nextDouble();
+			}
+		}
+		this.counter = new AggregatedLinkEntryCounter(this.spec2realData.keySet());
+	}
+
+	// completes one iteration with random link entries
+	void simulateIteration(final int iteration) {
+		this.counter.reset(iteration);
+		for (int e = 0; e < 200; e++) {
+			this.counter.handleEvent(new LinkEnterEvent(this.rnd.nextInt(110),
+					Id.createVehicleId("veh" + this.rnd.nextInt(3)), this.links.get(this.rnd.nextInt(this.links.size()))));
+		}
+		this.counter.notifyAfterMobsim(new AfterMobsimEvent(null, iteration));
+	}
+}
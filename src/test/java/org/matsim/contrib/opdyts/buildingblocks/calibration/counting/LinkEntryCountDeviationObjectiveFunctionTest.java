@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.buildingblocks.calibration.counting;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.LinkedHashSet;
+
+import org.junit.Test;
+import org.matsim.contrib.opdyts.buildingblocks.calibration.counting.LinkEntryCountDeviationObjectiveFunction.Measure;
+
+import floetteroed.utilities.TimeDiscretization;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class LinkEntryCountDeviationObjectiveFunctionTest {
+
+	@Test
+	public void testWeightedTotal() {
+
+		final CountDeviationTestFixture fixture = new CountDeviationTestFixture();
+		final AbsoluteLinkEntryCountDeviationBatch batch = new AbsoluteLinkEntryCountDeviationBatch(fixture.counter,
+				fixture.spec2realData, fixture.share);
+		final LinkEntryCountDeviationObjectiveFunction objectiveFunction = new LinkEntryCountDeviationObjectiveFunction(
+				batch, Measure.SQUARED);
+		objectiveFunction.setWeight(fixture.spec2, 3.0);
+
+		final double[] absolute = new double[batch.size()];
+		final double[] squared = new double[batch.size()];
+		final double[] relative = new double[batch.size()];
+		final double[] geh = new double[batch.size()];
+		for (int iteration = 0; iteration < 2; iteration++) {
+			fixture.simulateIteration(iteration);
+
+			final double value = objectiveFunction.value(null);
+			batch.evaluate(absolute, squared, relative, geh);
+
+			assertEquals(squared[0] + 3.0 * squared[1], value, 1e-8);
+			assertEquals(absolute[0] + 3.0 * absolute[1], objectiveFunction.getTotal(Measure.ABSOLUTE), 1e-8);
+			for (int slot = 0; slot < batch.size(); slot++) {
+				assertEquals(absolute[slot], objectiveFunction.getStatistic(Measure.ABSOLUTE, slot), 1e-8);
+				assertEquals(squared[slot], objectiveFunction.getStatistic(Measure.SQUARED, slot), 1e-8);
+				assertEquals(relative[slot], objectiveFunction.getStatistic(Measure.RELATIVE, slot), 1e-8);
+				assertEquals(geh[slot], objectiveFunction.getStatistic(Measure.GEH, slot), 1e-8);
+			}
+		}
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testUnknownSpecification() {
+		final CountDeviationTestFixture fixture = new CountDeviationTestFixture();
+		final LinkEntryCountDeviationObjectiveFunction objectiveFunction = new LinkEntryCountDeviationObjectiveFunction(
+				fixture.counter, fixture.spec2realData, fixture.share, Measure.ABSOLUTE);
+		objectiveFunction.setWeight(new CountMeasurementSpecification(new TimeDiscretization(0, 10, 10),
+				Filter.newAcceptAllFilter(null), new LinkedHashSet<>(fixture.links)), 1.0);
+	}
+}
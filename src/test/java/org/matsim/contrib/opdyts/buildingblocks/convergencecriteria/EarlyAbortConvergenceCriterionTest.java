@@ -0,0 +1,155 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.buildingblocks.convergencecriteria;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.matsim.contrib.opdyts.buildingblocks.convergencecriteria.EarlyAbortConvergenceCriterion.Status;
+
+import floetteroed.opdyts.DecisionVariable;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class EarlyAbortConvergenceCriterionTest {
+
+	static final double eps = 1e-8;
+
+	private static DecisionVariable newDecisionVariable() {
+		return new DecisionVariable() {
+			@Override
+			public void implementInSimulation() {
+			}
+		};
+	}
+
+	// an oscillating trajectory that does not converge
+	private static double oscillating(final double level, final int iteration) {
+		return level + ((iteration % 2 == 0) ? -10.0 : 10.0);
+	}
+
+	@Test
+	public void testAbortClearlyWorseTrajectory() {
+		final EarlyAbortConvergenceCriterion criterion = new EarlyAbortConvergenceCriterion(0.01, 2.0);
+		criterion.startStage(0);
+		criterion.setIncumbent(100.0);
+		final DecisionVariable decisionVariable = newDecisionVariable();
+		final List<Double> values = new ArrayList<>();
+		Status status = Status.RUNNING;
+		while (status == Status.RUNNING) {
+			values.add(oscillating(500.0, values.size()));
+			status = criterion.process(decisionVariable, values);
+		}
+		assertEquals(Status.ABORTED, status);
+		assertEquals(criterion.getMinIterationsBeforeAbort(), values.size());
+		assertTrue(criterion.isStageAborted());
+		assertEquals(1, criterion.getAbortedTrajectoriesInStage());
+		assertEquals(100.0, criterion.getIncumbent(), eps);
+
+		criterion.startStage(1);
+		assertFalse(criterion.isStageAborted());
+		assertEquals(0, criterion.getAbortedTrajectoriesInStage());
+		assertEquals(1, criterion.getAbortedTrajectoriesTotal());
+	}
+
+	@Test
+	public void testNoAbortBeforeMinimum() {
+		final EarlyAbortConvergenceCriterion criterion = new EarlyAbortConvergenceCriterion(0.01, 2.0);
+		criterion.setMinSampleCntPerParameter(3);
+		assertEquals(7, criterion.getMinIterationsBeforeAbort());
+		criterion.startStage(0);
+		criterion.setIncumbent(100.0);
+		final DecisionVariable decisionVariable = newDecisionVariable();
+		final List<Double> values = new ArrayList<>();
+		for (int k = 0; k < 6; k++) {
+			values.add(oscillating(500.0, k));
+			assertEquals(Status.RUNNING, criterion.process(decisionVariable, values));
+		}
+		assertFalse(criterion.isStageAborted());
+		values.add(oscillating(500.0, 6));
+		assertEquals(Status.ABORTED, criterion.process(decisionVariable, values));
+
+		// an explicit minimum overrides the derived one
+		criterion.setMinIterationsBeforeAbort(20);
+		final DecisionVariable otherDecisionVariable = newDecisionVariable();
+		values.clear();
+		for (int k = 0; k < 19; k++) {
+			values.add(500.0 + 10.0 * k);
+			assertEquals(Status.RUNNING, criterion.process(otherDecisionVariable, values));
+		}
+		values.add(500.0 + 10.0 * 19);
+		assertEquals(Status.ABORTED, criterion.process(otherDecisionVariable, values));
+	}
+
+	@Test
+	public void testConvergencePassesThrough() {
+		final Random rnd = new Random(4711);
+		final EarlyAbortConvergenceCriterion criterion = new EarlyAbortConvergenceCriterion(1.0, 2.0);
+		final IncrementalAR1ConvergenceCriterion reference = new IncrementalAR1ConvergenceCriterion(1.0);
+		criterion.startStage(0);
+		criterion.setIncumbent(100.0);
+		final DecisionVariable decisionVariable = newDecisionVariable();
+		final List<Double> values = new ArrayList<>();
+		Status status = Status.RUNNING;
+		while (status == Status.RUNNING) {
+			values.add(50.0 + rnd.nextGaussian());
+			status = criterion.process(decisionVariable, values);
+			reference.process(values);
+			assertEquals(reference.getConverged(), status == Status.CONVERGED);
+		}
+		assertEquals(Status.CONVERGED, status);
+		assertFalse(criterion.isStageAborted());
+		assertEquals(0, criterion.getAbortedTrajectoriesInStage());
+		assertEquals(reference.getConvergedMean(), criterion.getIncumbent(), eps);
+	}
+
+	@Test
+	public void testConstantSizeWindow() {
+		final Random rnd = new Random(4711);
+		final EarlyAbortConvergenceCriterion criterion = new EarlyAbortConvergenceCriterion(1.0, 2.0);
+		final IncrementalAR1ConvergenceCriterion reference = new IncrementalAR1ConvergenceCriterion(1.0);
+		criterion.startStage(0);
+		final DecisionVariable decisionVariable = newDecisionVariable();
+
+		// a decreasing transient, then stationary; only the last 30 values are passed
+		final int windowSize = 30;
+		final List<Double> values = new ArrayList<>();
+		Status status = Status.RUNNING;
+		while ((status == Status.RUNNING) && (values.size() < 1000)) {
+			values.add((values.size() < windowSize) ? 1000.0 - 10.0 * values.size() : 50.0 + rnd.nextGaussian());
+			final List<Double> window = values.subList(Math.max(0, values.size() - windowSize), values.size());
+			status = criterion.process(decisionVariable, window, values.size());
+			reference.process(window);
+			assertEquals(reference.getConverged(), status == Status.CONVERGED);
+		}
+		assertEquals(Status.CONVERGED, status);
+		assertTrue(values.size() > windowSize);
+		assertEquals(reference.getConvergedMean(), criterion.getIncumbent(), eps);
+	}
+}
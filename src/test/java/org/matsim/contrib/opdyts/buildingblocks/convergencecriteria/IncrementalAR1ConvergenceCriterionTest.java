@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.buildingblocks.convergencecriteria;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class IncrementalAR1ConvergenceCriterionTest {
+
+	@Test
+	public void testSameDecisions() {
+		final Random rnd = new Random(4711);
+		for (double maxConvergedMeanStddev : new double[] { 0.2, 0.5, 1.0 }) {
+			final AR1ConvergenceCriterion original = new AR1ConvergenceCriterion(maxConvergedMeanStddev);
+			final IncrementalAR1ConvergenceCriterion incremental = new IncrementalAR1ConvergenceCriterion(
+					maxConvergedMeanStddev);
+			final List<Double> data = new ArrayList<>();
+			double e = 0;
+			for (int k = 0; k < 300; k++) {
+				e = 0.5 * e + 0.5 * 5.0 * rnd.nextGaussian();
+				final double value = 100.0 + Math.min(k, 30) + e;
+				data.add(value);
+				original.process(data);
+				incremental.add(value);
+				incremental.process();
+
+				assertEquals(original.getConverged(), incremental.getConverged());
+				assertEquals(original.getConvergedBinSize(), incremental.getConvergedBinSize());
+				assertEquals(original.getConvergedSinceIteration(), incremental.getConvergedSinceIteration());
+				if (original.getConverged()) {
+					assertEquals(original.getConvergedMean(), incremental.getConvergedMean(), 1e-6);
+					assertEquals(original.getConvergedMeanStddev(), incremental.getConvergedMeanStddev(), 1e-6);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testProcessList() {
+		final List<Double> data = new ArrayList<>();
+		for (int k = 0; k < 100; k++) {
+			data.add((double) (k % 3));
+		}
+		final IncrementalAR1ConvergenceCriterion incremental = new IncrementalAR1ConvergenceCriterion(1.0);
+		incremental.process(data);
+		assertEquals(100, incremental.getDataCnt());
+		incremental.process(data.subList(0, 50));
+		assertEquals(50, incremental.getDataCnt());
+	}
+}
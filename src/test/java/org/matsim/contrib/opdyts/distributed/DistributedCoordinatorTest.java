@@ -0,0 +1,187 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.distributed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import floetteroed.opdyts.DecisionVariable;
+import floetteroed.utilities.math.Vector;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class DistributedCoordinatorTest {
+
+	static final double eps = 1e-8;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	public static class TestDecisionVariable implements DecisionVariable, Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final double x;
+
+		// the first worker that evaluates this decision variable dies if not null
+		final String crashMarkerFile;
+
+		TestDecisionVariable(final double x, final String crashMarkerFile) {
+			this.x = x;
+			this.crashMarkerFile = crashMarkerFile;
+		}
+
+		TestDecisionVariable(final double x) {
+			this(x, null);
+		}
+
+		@Override
+		public void implementInSimulation() {
+		}
+	}
+
+	public static class SquareEvaluator implements DecisionVariableEvaluator<TestDecisionVariable> {
+
+		@Override
+		public RemoteSimulatorState evaluate(final TestDecisionVariable decisionVariable) {
+			if (decisionVariable.x < 0) {
+				throw new RuntimeException("negative");
+			}
+			if (decisionVariable.crashMarkerFile != null) {
+				try {
+					if (new File(decisionVariable.crashMarkerFile).createNewFile()) {
+						Runtime.getRuntime().halt(1);
+					}
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return new RemoteSimulatorState(new Vector(decisionVariable.x, 1.0), decisionVariable.x * decisionVariable.x);
+		}
+	}
+
+	@Test
+	public void testLocalWorkers() {
+		final DistributedCoordinator coordinator = new DistributedCoordinator(folder.getRoot().getPath());
+		try {
+			coordinator.startLocalWorkers(2, SquareEvaluator.class);
+			final List<TestDecisionVariable> decisionVariables = new ArrayList<>();
+			for (int i = 0; i < 5; i++) {
+				decisionVariables.add(new TestDecisionVariable(i));
+			}
+			// the same decision variable twice
+			decisionVariables.add(decisionVariables.get(3));
+			final List<RemoteSimulatorState> results = coordinator.evaluate(decisionVariables, 60 * 1000);
+			assertEquals(6, results.size());
+			for (int i = 0; i < decisionVariables.size(); i++) {
+				final TestDecisionVariable decisionVariable = decisionVariables.get(i);
+				final RemoteSimulatorState state = results.get(i);
+				assertEquals(decisionVariable.x * decisionVariable.x, state.getObjectiveFunctionValue(), eps);
+				assertEquals(decisionVariable.x, state.getStateVector().get(0), eps);
+			}
+		} finally {
+			coordinator.shutdown();
+		}
+	}
+
+	@Test
+	public void testFailure() {
+		final DistributedCoordinator coordinator = new DistributedCoordinator(folder.getRoot().getPath());
+		try {
+			coordinator.startLocalWorkers(1, SquareEvaluator.class);
+			coordinator.evaluate(Arrays.asList(new TestDecisionVariable(-1.0)), 60 * 1000);
+			fail("failed evaluation not reported");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().startsWith("Evaluation of "));
+			assertTrue(e.getMessage().contains("java.lang.RuntimeException: negative"));
+		} finally {
+			coordinator.shutdown();
+		}
+	}
+
+	@Test
+	public void testTaskOfDeadWorkerIsReassigned() {
+		final DistributedCoordinator coordinator = new DistributedCoordinator(folder.getRoot().getPath(),
+				4 * DistributedWorker.HEARTBEAT_INTERVAL_MS);
+		try {
+			coordinator.startLocalWorkers(2, SquareEvaluator.class);
+			final File crashMarkerFile = new File(folder.getRoot(), "crashed.marker");
+			final List<RemoteSimulatorState> results = coordinator.evaluate(
+					Arrays.asList(new TestDecisionVariable(3.0, crashMarkerFile.getAbsolutePath())), 60 * 1000);
+			assertTrue(crashMarkerFile.exists());
+			assertEquals(1, results.size());
+			assertEquals(9.0, results.get(0).getObjectiveFunctionValue(), eps);
+		} finally {
+			coordinator.shutdown();
+		}
+	}
+
+	@Test
+	public void testProtocolFiles() throws IOException {
+		final File directory = folder.getRoot();
+		final File stop = new File(directory, FileProtocol.STOP_FILE);
+		final File result = FileProtocol.resultFile(directory, 7);
+		final File running = FileProtocol.runningFile(directory, 7, "local0");
+		final File tmp = new File(FileProtocol.errorFile(directory, 7).getPath() + ".tmp");
+		final File stopwatch = new File(directory, "stopwatch.csv");
+		final File userResult = new File(directory, "result_summary.txt");
+		final File userTask = new File(directory, "task_list.ser");
+		for (File file : Arrays.asList(stop, result, running, tmp, stopwatch, userResult, userTask)) {
+			assertTrue(file.createNewFile());
+		}
+
+		assertEquals(Long.valueOf(7), FileProtocol.runningTaskId(running));
+		assertEquals(null, FileProtocol.taskId(userTask));
+
+		final DistributedCoordinator coordinator = new DistributedCoordinator(directory.getPath());
+		try {
+			for (File file : Arrays.asList(stop, result, running, tmp)) {
+				assertFalse(file.getName(), file.exists());
+			}
+			for (File file : Arrays.asList(stopwatch, userResult, userTask)) {
+				assertTrue(file.getName(), file.exists());
+			}
+			try {
+				new DistributedCoordinator(directory.getPath());
+				fail("second coordinator in the same directory not rejected");
+			} catch (RuntimeException e) {
+				assertTrue(e.getMessage().contains("is used by another coordinator"));
+			}
+		} finally {
+			coordinator.shutdown();
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.distributed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.opdyts.MATSimOpdytsRunner;
+import org.matsim.contrib.opdyts.OpdytsConfigGroup;
+import org.matsim.contrib.opdyts.microstate.MATSimState;
+import org.matsim.contrib.opdyts.microstate.MATSimStateFactoryImpl;
+import org.matsim.contrib.opdyts.objectivefunction.MATSimObjectiveFunction;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.examples.ExamplesUtils;
+
+import floetteroed.opdyts.DecisionVariable;
+import floetteroed.utilities.math.Vector;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class MATSimDecisionVariableEvaluatorTest {
+
+	static final double eps = 1e-8;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	public static class NoDecisionVariable implements DecisionVariable, Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void implementInSimulation() {
+		}
+	}
+
+	// the average score of the selected plans
+	public static class AverageScore implements MATSimObjectiveFunction<MATSimState> {
+
+		@Override
+		public double value(final MATSimState state) {
+			double sum = 0.0;
+			for (Id<Person> personId : state.getPersonIdView()) {
+				sum += state.getSelectedPlan(personId).getScore();
+			}
+			return sum / state.getPersonIdView().size();
+		}
+	}
+
+	// runs in the worker processes: a short, reproducible simulation of the equil scenario
+	public static class EquilEvaluator extends MATSimDecisionVariableEvaluator<NoDecisionVariable, MATSimState> {
+
+		private static final URL EQUIL_DIR = ExamplesUtils.getTestScenarioURL("equil");
+
+		@Override
+		protected MATSimOpdytsRunner<NoDecisionVariable, MATSimState> newRunner() {
+			final Config config = ConfigUtils.loadConfig(IOUtils.newUrl(EQUIL_DIR, "config.xml"),
+					new OpdytsConfigGroup());
+			try {
+				config.controler().setOutputDirectory(Files.createTempDirectory("equil").toString());
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			config.controler().setOverwriteFileSetting(OverwriteFileSetting.deleteDirectoryIfExists);
+			config.global().setNumberOfThreads(1);
+			config.qsim().setNumberOfThreads(1);
+			final OpdytsConfigGroup opdytsConfig = ConfigUtils.addOrGetModule(config, OpdytsConfigGroup.class);
+			opdytsConfig.setNumberOfIterationsForConvergence(3);
+			opdytsConfig.setNumberOfIterationsForAveraging(2);
+			final MATSimOpdytsRunner<NoDecisionVariable, MATSimState> runner = new MATSimOpdytsRunner<>(
+					ScenarioUtils.loadScenario(config), new MATSimStateFactoryImpl<>());
+			runner.setFreezeRandomSeed(true);
+			return runner;
+		}
+
+		@Override
+		protected MATSimObjectiveFunction<MATSimState> newObjectiveFunction() {
+			return new AverageScore();
+		}
+	}
+
+	@Test
+	public void testLocalWorkers() {
+		final DistributedCoordinator coordinator = new DistributedCoordinator(folder.getRoot().getPath());
+		try {
+			coordinator.startLocalWorkers(2, EquilEvaluator.class);
+			final List<RemoteSimulatorState> results = coordinator.evaluate(
+					Arrays.asList(new NoDecisionVariable(), new NoDecisionVariable()), 10 * 60 * 1000);
+			assertEquals(2, results.size());
+
+			// every task starts from the same scenario with the same random seed
+			final Vector stateVector = results.get(0).getStateVector();
+			assertTrue(stateVector.size() > 0);
+			assertTrue(stateVector.euclNorm() > 0.0);
+			assertEquals(stateVector.size(), results.get(1).getStateVector().size());
+			for (int i = 0; i < stateVector.size(); i++) {
+				assertEquals(stateVector.get(i), results.get(1).getStateVector().get(i), eps);
+			}
+			assertTrue(Double.isFinite(results.get(0).getObjectiveFunctionValue()));
+			assertEquals(results.get(0).getObjectiveFunctionValue(), results.get(1).getObjectiveFunctionValue(), eps);
+		} finally {
+			coordinator.shutdown();
+		}
+	}
+}
@@ -19,11 +19,10 @@
 
 package org.matsim.contrib.opdyts.example.modechoice;
 
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import javax.inject.Inject;
 
@@ -36,9 +35,9 @@ import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.Activity;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Plan;
-import org.matsim.contrib.analysis.kai.DataMap;
 import org.matsim.contrib.analysis.kai.Databins;
 import org.matsim.contrib.opdyts.microstate.MATSimState;
+import org.matsim.contrib.opdyts.microstate.PopulationAggregator;
 import org.matsim.contrib.opdyts.objectivefunction.MATSimObjectiveFunction;
 import org.matsim.core.config.groups.PlanCalcScoreConfigGroup;
 import org.matsim.core.gbl.Gbl;
@@ -66,17 +65,67 @@ public class ModeChoiceObjectiveFunction implements MATSimObjectiveFunction<MATS
     // I read that as "the fields are injected (every time again) when the instance is injected".
     // This is the behavior that we want here.  kai, sep'16
 
-    private Databins<String> simStatsContainer = null;
-    private DataMap<String> sumsContainer  = null ;
+    // define the bin boundaries:
+    private static final double[] dataBoundaries = {0.} ;
+
     private Databins<String> refStatsContainer = null ;
 
-    ModeChoiceObjectiveFunction(MainModeIdentifier mainModeIdentifier, List<String> modes) {
-        // define the bin boundaries:
-        double[] dataBoundariesTmp = {0.} ;
-        simStatsContainer =  new Databins<>( "simStats", dataBoundariesTmp ) ;
+    /**
+     * The simulated statistics of one state, computed by the SimStatsAggregator when the state is created.
+     */
+    public static class SimStats {
+        private final Databins<String> simStatsContainer = new Databins<>( "simStats", dataBoundaries ) ;
+    }
+
+    /**
+     * Counts the beeline distances of all trips of all selected plans per main mode, in one pass over the
+     * population that is shared with all other aggregators.
+     */
+    private class SimStatsAggregator implements PopulationAggregator<SimStats> {
+
+        @Override
+        public Class<SimStats> getComponentType() {
+            return SimStats.class;
+        }
+
+        @Override
+        public SimStats newComponent() {
+            return new SimStats();
+        }
+
+        @Override
+        public void add(SimStats simStats, Person person) {
+            if ( person.getSelectedPlan()!=null ) {
+                this.addPlan(simStats, person.getSelectedPlan());
+            }
+        }
 
-        this.refStatsContainer = new Databins<>( "measuredStats", dataBoundariesTmp ) ;
+        void addPlan(SimStats simStats, Plan plan) {
+            List<TripStructureUtils.Trip> trips = TripStructureUtils.getTrips(plan, tripRouter.getStageActivityTypes());
+            for (TripStructureUtils.Trip trip : trips) {
+                String mode = mainModeIdentifier.identifyMainMode(trip.getLegsOnly());
+                double item = calcBeelineDistance(trip.getOriginActivity(), trip.getDestinationActivity());
+                // ...  add the "item" to the correct bin in the container:
+                int idx = simStats.simStatsContainer.getIndex(item) ;
+                simStats.simStatsContainer.inc( mode, idx ) ;
+            }
+        }
 
+        @Override
+        public void merge(SimStats target, SimStats source) {
+            for ( Map.Entry<String, double[]> theEntry : source.simStatsContainer.entrySet() ) {
+                double[] value = theEntry.getValue() ;
+                for ( int ii=0 ; ii<value.length ; ii++ ) {
+                    target.simStatsContainer.addValue( theEntry.getKey(), ii, value[ii] ) ;
+                }
+            }
+        }
+    }
+
+    private final SimStatsAggregator simStatsAggregator = new SimStatsAggregator() ;
+
+    ModeChoiceObjectiveFunction(MainModeIdentifier mainModeIdentifier, List<String> modes) {
+        this.refStatsContainer = new Databins<>( "measuredStats", dataBoundaries ) ;
         this.refStatsContainer.addValue(modes.get(0), 0, 1000.0);
         this.refStatsContainer.addValue(modes.get(1), 0, 3000.0);
 
@@ -88,28 +137,28 @@ public class ModeChoiceObjectiveFunction implements MATSimObjectiveFunction<MATS
     }
 
     @Override
-    public double value(MATSimState matSimState) {
-        resetContainers();
-
-        // MATSimState matSimState = (MATSimState) state;
-        Set<Id<Person>> persons = matSimState.getPersonIdView();
+    public List<PopulationAggregator<?>> getPopulationAggregators() {
+        return Collections.singletonList(this.simStatsAggregator);
+    }
 
-        for (Id<Person> personId : persons) {
-            Plan plan = matSimState.getSelectedPlan(personId);
-            List<TripStructureUtils.Trip> trips = TripStructureUtils.getTrips(plan, tripRouter.getStageActivityTypes());
-            for (TripStructureUtils.Trip trip : trips) {
-                List<String> tripTypes = new ArrayList<>();
-                String mode = mainModeIdentifier.identifyMainMode(trip.getLegsOnly());
-                tripTypes.add(mode);
-                double item = calcBeelineDistance(trip.getOriginActivity(), trip.getDestinationActivity());
-                addItemToAllRegisteredTypes(tripTypes, item);
+    @Override
+    public double value(MATSimState matSimState) {
+        SimStats simStats = matSimState.getComponent(SimStats.class);
+        if ( simStats==null ) {
+            // the state was created without the aggregator; scan its plans
+            simStats = this.simStatsAggregator.newComponent();
+            for (Id<Person> personId : matSimState.getPersonIdView()) {
+                Plan plan = matSimState.getSelectedPlan(personId);
+                if ( plan!=null ) {
+                    this.simStatsAggregator.addPlan(simStats, plan);
+                }
             }
         }
 
         double objectiveFnValue =0.;
         double realValueSum = 0;
 
-        for ( Map.Entry<String, double[]> theEntry : simStatsContainer.entrySet() ) {
+        for ( Map.Entry<String, double[]> theEntry : simStats.simStatsContainer.entrySet() ) {
             String mode = theEntry.getKey() ;
             LOGGER.warn("mode=" + mode);
             double[] value = theEntry.getValue() ;
@@ -124,26 +173,6 @@ public class ModeChoiceObjectiveFunction implements MATSimObjectiveFunction<MATS
         return objectiveFnValue ;
     }
 
-    private void resetContainers() {
-        this.simStatsContainer.clear();
-        if ( this.sumsContainer==null ) {
-            this.sumsContainer = new DataMap<>() ;
-        }
-        this.sumsContainer.clear() ;
-    }
-
-    private void addItemToAllRegisteredTypes(List<String> filters, double item) {
-        // ... go through all filter to which the item belongs ...
-        for ( String filter : filters ) {
-            // ...  add the "item" to the correct bin in the container:
-            int idx = this.simStatsContainer.getIndex(item) ;
-            this.simStatsContainer.inc( filter, idx ) ;
-
-            // also add it to the sums container:
-            this.sumsContainer.addValue( filter, item ) ;
-        }
-    }
-
     private static int noCoordCnt = 0 ;
     private double calcBeelineDistance(final Activity fromAct, final Activity toAct) {
         double item;
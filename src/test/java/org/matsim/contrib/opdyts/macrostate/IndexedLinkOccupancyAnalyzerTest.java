@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.macrostate;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.network.Link;
+
+import floetteroed.utilities.TimeDiscretization;
+import floetteroed.utilities.math.Vector;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class IndexedLinkOccupancyAnalyzerTest {
+
+	static final double eps = 1e-8;
+
+	private final TimeDiscretization timeDiscr = new TimeDiscretization(0, 10, 10);
+
+	private final List<Id<Link>> links = new ArrayList<>();
+
+	// the last link and the "walk" mode are not relevant
+	private final Set<Id<Link>> relevantLinks;
+
+	private final Set<String> relevantModes = new LinkedHashSet<>(Arrays.asList("car", "bike"));
+
+	private final List<List<Event>> vehicleEvents;
+
+	public IndexedLinkOccupancyAnalyzerTest() {
+		for (int l = 0; l < 5; l++) {
+			this.links.add(Id.createLinkId("link" + l));
+		}
+		this.relevantLinks = new LinkedHashSet<>(this.links.subList(0, 4));
+		this.vehicleEvents = OccupancyTestEvents.newVehicleEvents(this.links, Arrays.asList("car", "bike", "walk"), 50,
+				new Random(4711));
+	}
+
+	private static void assertSameState(final SimulationMacroStateAnalyzer expectedAnalyzer,
+			final SimulationMacroStateAnalyzer analyzer) {
+		final Vector expected = expectedAnalyzer.newStateVectorRepresentation();
+		final Vector actual = analyzer.newStateVectorRepresentation();
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i), actual.get(i), eps);
+		}
+	}
+
+	@Test
+	public void testSameStateAsDifferentiatedLinkOccupancyAnalyzer() {
+		final List<Event> events = OccupancyTestEvents.sortedByTime(this.vehicleEvents);
+		final DifferentiatedLinkOccupancyAnalyzer expectedAnalyzer = new DifferentiatedLinkOccupancyAnalyzer(
+				this.timeDiscr, this.relevantModes, this.relevantLinks);
+		final IndexedLinkOccupancyAnalyzer analyzer = new IndexedLinkOccupancyAnalyzer(this.timeDiscr,
+				this.relevantModes, this.relevantLinks);
+		for (int iteration = 0; iteration < 2; iteration++) {
+			expectedAnalyzer.clear();
+			analyzer.clear();
+			OccupancyTestEvents.process(events, expectedAnalyzer, analyzer);
+			assertSameState(expectedAnalyzer, analyzer);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTimeBeforeStart() {
+		final IndexedCountingStateAnalyzer analyzer = new IndexedCountingStateAnalyzer(
+				new TimeDiscretization(100, 10, 10), 1);
+		analyzer.registerIncrease(0, 99);
+	}
+
+	@Test
+	public void testTimeAfterEnd() {
+		final IndexedCountingStateAnalyzer analyzer = new IndexedCountingStateAnalyzer(
+				new TimeDiscretization(0, 10, 2), 1);
+		analyzer.registerIncrease(0, 15);
+		analyzer.registerDecrease(0, 50);
+		assertEquals(0.0, analyzer.getCount(0, 0), eps);
+		assertEquals(0.5, analyzer.getCount(0, 1), eps);
+	}
+
+	@Test
+	public void testOrderOfVehicles() {
+		// vehicle 1 from 5 to 25, vehicle 2 from 12 to 17
+		final IndexedCountingStateAnalyzer timeOrdered = new IndexedCountingStateAnalyzer(
+				new TimeDiscretization(0, 10, 3), 1);
+		timeOrdered.registerIncrease(0, 5);
+		timeOrdered.registerIncrease(0, 12);
+		timeOrdered.registerDecrease(0, 17);
+		timeOrdered.registerDecrease(0, 25);
+		final IndexedCountingStateAnalyzer vehicleOrdered = new IndexedCountingStateAnalyzer(
+				new TimeDiscretization(0, 10, 3), 1);
+		vehicleOrdered.registerIncrease(0, 12);
+		vehicleOrdered.registerDecrease(0, 17);
+		vehicleOrdered.registerIncrease(0, 5);
+		vehicleOrdered.registerDecrease(0, 25);
+		for (IndexedCountingStateAnalyzer analyzer : Arrays.asList(timeOrdered, vehicleOrdered)) {
+			assertEquals(0.5, analyzer.getCount(0, 0), eps);
+			assertEquals(1.5, analyzer.getCount(0, 1), eps);
+			assertEquals(0.5, analyzer.getCount(0, 2), eps);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.macrostate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.EventHandler;
+import org.matsim.vehicles.Vehicle;
+
+/**
+ * Random trips of vehicles along a sequence of links, for the tests of the
+ * link occupancy analyzers.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+class OccupancyTestEvents {
+
+	/**
+	 * The events of every vehicle, in their order. Vehicle v travels from a
+	 * random link to a random later link of the given sequence.
+	 */
+	static List<List<Event>> newVehicleEvents(final List<Id<Link>> links, final List<String> modes,
+			final int vehicleCnt, final Random rnd) {
+		final List<List<Event>> result = new ArrayList<>(vehicleCnt);
+		for (int v = 0; v < vehicleCnt; v++) {
+			final List<Event> events = new ArrayList<>();
+			final Id<Vehicle> vehicle = Id.createVehicleId("veh" + v);
+			final String mode = modes.get(rnd.nextInt(modes.size()));
+			int first = rnd.nextInt(links.size());
+			int last = first + rnd.nextInt(links.size() - first);
+			double time = rnd.nextInt(100);
+			events.add(new VehicleEntersTrafficEvent(time, null, links.get(first), vehicle, mode, 0.0));
+			for (int l = first; l < last; l++) {
+				time += rnd.nextInt(30);
+				events.add(new LinkLeaveEvent(time, vehicle, links.get(l)));
+				events.add(new LinkEnterEvent(time, vehicle, links.get(l + 1)));
+			}
+			time += rnd.nextInt(30);
+			events.add(new VehicleLeavesTrafficEvent(time, null, links.get(last), vehicle, mode, 0.0));
+			result.add(events);
+		}
+		return result;
+	}
+
+	// the events of all vehicles, sorted by time
+	static List<Event> sortedByTime(final List<List<Event>> vehicleEvents) {
+		final List<Event> result = new ArrayList<>();
+		for (List<Event> events : vehicleEvents) {
+			result.addAll(events);
+		}
+		// stable, hence keeps the event order of every single vehicle
+		Collections.sort(result, new Comparator<Event>() {
+			@Override
+			public int compare(Event o1, Event o2) {
+				return Double.compare(o1.getTime(), o2.getTime());
+			}
+		});
+		return result;
+	}
+
+	// passes the events in their order through a new events manager
+	static void process(final List<Event> events, final EventHandler... handlers) {
+		final EventsManager eventsManager = EventsUtils.createEventsManager();
+		for (EventHandler handler : handlers) {
+			eventsManager.addHandler(handler);
+		}
+		eventsManager.initProcessing();
+		for (Event event : events) {
+			eventsManager.processEvent(event);
+		}
+		eventsManager.finishProcessing();
+	}
+}
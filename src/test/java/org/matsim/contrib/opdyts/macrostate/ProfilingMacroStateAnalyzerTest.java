@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.macrostate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleAbortsEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.vehicles.Vehicle;
+
+import floetteroed.utilities.TimeDiscretization;
+import floetteroed.utilities.math.Vector;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class ProfilingMacroStateAnalyzerTest {
+
+	// handles only link entries
+	private static class LinkEnterCounter implements SimulationMacroStateAnalyzer, LinkEnterEventHandler {
+
+		private int cnt = 0;
+
+		@Override
+		public void handleEvent(final LinkEnterEvent event) {
+			this.cnt++;
+		}
+
+		@Override
+		public void reset(final int iteration) {
+		}
+
+		@Override
+		public void clear() {
+			this.cnt = 0;
+		}
+
+		@Override
+		public Vector newStateVectorRepresentation() {
+			return new Vector((double) this.cnt);
+		}
+	}
+
+	private static class BasicAnalyzer extends LinkEnterCounter implements BasicEventHandler {
+
+		@Override
+		public void handleEvent(final Event event) {
+		}
+	}
+
+	@Test
+	public void testSameStateAsDecoratedAnalyzer() {
+		final Id<Link> link1 = Id.createLinkId("link1");
+		final Id<Link> link2 = Id.createLinkId("link2");
+		final Id<Vehicle> veh1 = Id.createVehicleId("veh1");
+		final TimeDiscretization timeDiscr = new TimeDiscretization(0, 10, 5);
+
+		final IndexedLinkOccupancyAnalyzer original = new IndexedLinkOccupancyAnalyzer(timeDiscr,
+				Collections.singleton("car"), new LinkedHashSet<>(Arrays.asList(link1, link2)));
+		final IndexedLinkOccupancyAnalyzer decorated = new IndexedLinkOccupancyAnalyzer(timeDiscr,
+				Collections.singleton("car"), new LinkedHashSet<>(Arrays.asList(link1, link2)));
+		final ProfilingMacroStateAnalyzer profiling = new ProfilingMacroStateAnalyzer(decorated);
+
+		original.handleEvent(new VehicleEntersTrafficEvent(0.0, null, link1, veh1, "car", 0.0));
+		original.handleEvent(new LinkLeaveEvent(15.0, veh1, link1));
+		original.handleEvent(new LinkEnterEvent(15.0, veh1, link2));
+		original.handleEvent(new VehicleLeavesTrafficEvent(25.0, null, link2, veh1, "car", 0.0));
+
+		profiling.handleEvent(new VehicleEntersTrafficEvent(0.0, null, link1, veh1, "car", 0.0));
+		profiling.handleEvent(new LinkLeaveEvent(15.0, veh1, link1));
+		profiling.handleEvent(new LinkEnterEvent(15.0, veh1, link2));
+		profiling.handleEvent(new VehicleLeavesTrafficEvent(25.0, null, link2, veh1, "car", 0.0));
+
+		assertEquals(original.getStateDimension(), profiling.getStateDimension());
+		final SparseStateVector.Builder expected = new SparseStateVector.Builder(original.getStateDimension() + 3);
+		original.addStateVectorRepresentation(expected, 3);
+		final SparseStateVector.Builder actual = new SparseStateVector.Builder(original.getStateDimension() + 3);
+		profiling.addStateVectorRepresentation(actual, 3);
+		final SparseStateVector expectedState = expected.build();
+		final SparseStateVector actualState = actual.build();
+		assertEquals(expectedState.getNonZeroCnt(), actualState.getNonZeroCnt());
+		for (int k = 0; k < expectedState.getNonZeroCnt(); k++) {
+			assertEquals(expectedState.getIndex(k), actualState.getIndex(k));
+			assertEquals(expectedState.getValue(k), actualState.getValue(k), 1e-8);
+		}
+	}
+
+	@Test
+	public void testCounts() {
+		final Id<Link> link = Id.createLinkId("link");
+		final Id<Vehicle> veh = Id.createVehicleId("veh");
+		final LinkEnterCounter decorated = new LinkEnterCounter();
+		final ProfilingMacroStateAnalyzer profiling = new ProfilingMacroStateAnalyzer(decorated, "test", 3);
+
+		for (int i = 0; i < 7; i++) {
+			profiling.handleEvent(new LinkEnterEvent(i, veh, link));
+			profiling.handleEvent(new VehicleAbortsEvent(i, veh, link));
+		}
+		assertEquals(7, decorated.cnt);
+		assertEquals(7, profiling.getEventCnt(LinkEnterEvent.class));
+		// the first, fourth and seventh event
+		assertEquals(3, profiling.getTimedEventCnt(LinkEnterEvent.class));
+		// not handled by the decorated analyzer
+		assertEquals(0, profiling.getEventCnt(VehicleAbortsEvent.class));
+
+		assertEquals(7.0, profiling.newStateVectorRepresentation().get(0), 0.0);
+		profiling.clear();
+		assertEquals(0, decorated.cnt);
+		assertEquals(0, profiling.getEventCnt(LinkEnterEvent.class));
+		assertEquals(0, profiling.getTimedEventCnt(LinkEnterEvent.class));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testUnsupportedHandler() {
+		new ProfilingMacroStateAnalyzer(new BasicAnalyzer());
+	}
+
+	@Test
+	public void testCanProfile() {
+		assertTrue(ProfilingMacroStateAnalyzer.canProfile(new LinkEnterCounter()));
+		assertFalse(ProfilingMacroStateAnalyzer.canProfile(new BasicAnalyzer()));
+	}
+}
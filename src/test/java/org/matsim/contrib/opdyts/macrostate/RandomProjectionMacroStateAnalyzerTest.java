@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.macrostate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.vehicles.Vehicle;
+
+import floetteroed.utilities.TimeDiscretization;
+import floetteroed.utilities.math.Vector;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class RandomProjectionMacroStateAnalyzerTest {
+
+	static final double eps = 1e-8;
+
+	private static class FixedStateAnalyzer implements SimulationMacroStateAnalyzer {
+
+		private Vector state;
+
+		@Override
+		public void clear() {
+		}
+
+		@Override
+		public Vector newStateVectorRepresentation() {
+			return this.state;
+		}
+	}
+
+	@Test
+	public void test() {
+		final int dimension = 10000;
+		final int targetDimension = 500;
+		final FixedStateAnalyzer original = new FixedStateAnalyzer();
+		final RandomProjectionMacroStateAnalyzer projection1 = new RandomProjectionMacroStateAnalyzer(original,
+				targetDimension, 4711);
+		final RandomProjectionMacroStateAnalyzer projection2 = new RandomProjectionMacroStateAnalyzer(original,
+				targetDimension, 4711);
+
+		final Random rnd = new Random(4711);
+		for (int r = 0; r < 10; r++) {
+			original.state = new Vector(dimension);
+			for (int i = 0; i < dimension; i++) {
+				if (rnd.nextDouble() < 0.1) {
+					original.state.set(i, rnd.nextDouble());
+				}
+			}
+			final Vector projected = projection1.newStateVectorRepresentation();
+			assertEquals(targetDimension, projected.size());
+
+			// equal seeds yield equal projections
+			final Vector projectedAgain = projection2.newStateVectorRepresentation();
+			for (int i = 0; i < targetDimension; i++) {
+				assertEquals(projected.get(i), projectedAgain.get(i), eps);
+			}
+
+			// the norm is approximately preserved
+			final double ratio = projected.euclNorm() / original.state.euclNorm();
+			assertTrue("norm ratio is " + ratio, ratio > 0.8 && ratio < 1.2);
+		}
+	}
+
+	@Test
+	public void testEventsReachDecoratedAnalyzerDirectly() {
+		final FixedStateAnalyzer original = new FixedStateAnalyzer();
+		final RandomProjectionMacroStateAnalyzer projection = new RandomProjectionMacroStateAnalyzer(original, 10,
+				4711);
+		assertSame(original, projection.getEventHandler());
+		assertSame(original,
+				new RandomProjectionMacroStateAnalyzer(projection, 5, 4711).getEventHandler());
+	}
+
+	@Test
+	public void testShardedAnalyzerProvidesSparseState() {
+		final TimeDiscretization timeDiscr = new TimeDiscretization(0, 10, 5);
+		final Id<Link> link = Id.createLinkId("link");
+		final Id<Vehicle> vehicle = Id.createVehicleId("veh");
+		final ShardedDifferentiatedLinkOccupancyAnalyzer sharded = new ShardedDifferentiatedLinkOccupancyAnalyzer(
+				timeDiscr, Collections.singleton("car"), Collections.singleton(link), 2);
+		sharded.handleEvent(new VehicleEntersTrafficEvent(0.0, null, link, vehicle, "car", 0.0));
+		sharded.handleEvent(new VehicleLeavesTrafficEvent(25.0, null, link, vehicle, "car", 0.0));
+
+		final SparseStateVector state = sharded.newSparseStateVectorRepresentation();
+		assertEquals(3, state.getNonZeroCnt());
+		assertEquals(1.0, state.get(0), eps);
+		assertEquals(1.0, state.get(1), eps);
+		assertEquals(0.5, state.get(2), eps);
+	}
+}
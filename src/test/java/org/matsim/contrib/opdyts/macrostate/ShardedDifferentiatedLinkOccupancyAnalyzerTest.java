@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.macrostate;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.network.Link;
+
+import floetteroed.utilities.TimeDiscretization;
+import floetteroed.utilities.math.Vector;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class ShardedDifferentiatedLinkOccupancyAnalyzerTest {
+
+	static final double eps = 1e-8;
+
+	private final TimeDiscretization timeDiscr = new TimeDiscretization(0, 10, 10);
+
+	private final List<Id<Link>> links = new ArrayList<>();
+
+	// the last link and the "walk" mode are not relevant
+	private final Set<Id<Link>> relevantLinks;
+
+	private final Set<String> relevantModes = new LinkedHashSet<>(Arrays.asList("car", "bike"));
+
+	private final List<List<Event>> vehicleEvents;
+
+	public ShardedDifferentiatedLinkOccupancyAnalyzerTest() {
+		for (int l = 0; l < 5; l++) {
+			this.links.add(Id.createLinkId("link" + l));
+		}
+		this.relevantLinks = new LinkedHashSet<>(this.links.subList(0, 4));
+		this.vehicleEvents = OccupancyTestEvents.newVehicleEvents(this.links, Arrays.asList("car", "bike", "walk"), 50,
+				new Random(4711));
+	}
+
+	private static void assertSameState(final SimulationMacroStateAnalyzer expectedAnalyzer,
+			final SimulationMacroStateAnalyzer analyzer) {
+		final Vector expected = expectedAnalyzer.newStateVectorRepresentation();
+		final Vector actual = analyzer.newStateVectorRepresentation();
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i), actual.get(i), eps);
+		}
+	}
+
+	@Test
+	public void testSameStateAsUnshardedAnalyzer() {
+		final List<Event> events = OccupancyTestEvents.sortedByTime(this.vehicleEvents);
+		final DifferentiatedLinkOccupancyAnalyzer expectedAnalyzer = new DifferentiatedLinkOccupancyAnalyzer(
+				this.timeDiscr, this.relevantModes, this.relevantLinks);
+		final ShardedDifferentiatedLinkOccupancyAnalyzer analyzer = new ShardedDifferentiatedLinkOccupancyAnalyzer(
+				this.timeDiscr, this.relevantModes, this.relevantLinks, 3);
+		for (int iteration = 0; iteration < 2; iteration++) {
+			expectedAnalyzer.clear();
+			analyzer.clear();
+			OccupancyTestEvents.process(events, expectedAnalyzer, analyzer);
+			assertSameState(expectedAnalyzer, analyzer);
+		}
+	}
+
+	@Test
+	public void testConcurrentDelivery() throws InterruptedException, ExecutionException {
+		final DifferentiatedLinkOccupancyAnalyzer expectedAnalyzer = new DifferentiatedLinkOccupancyAnalyzer(
+				this.timeDiscr, this.relevantModes, this.relevantLinks);
+		OccupancyTestEvents.process(OccupancyTestEvents.sortedByTime(this.vehicleEvents), expectedAnalyzer);
+
+		// every thread delivers the events of its vehicles, vehicle by vehicle
+		final int threadCnt = 4;
+		final ShardedDifferentiatedLinkOccupancyAnalyzer analyzer = new ShardedDifferentiatedLinkOccupancyAnalyzer(
+				this.timeDiscr, this.relevantModes, this.relevantLinks, 3);
+		final ExecutorService executor = Executors.newFixedThreadPool(threadCnt);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int thread = 0; thread < threadCnt; thread++) {
+				final List<Event> events = new ArrayList<>();
+				for (int v = thread; v < this.vehicleEvents.size(); v += threadCnt) {
+					events.addAll(this.vehicleEvents.get(v));
+				}
+				futures.add(executor.submit(() -> OccupancyTestEvents.process(events, analyzer)));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertSameState(expectedAnalyzer, analyzer);
+	}
+}
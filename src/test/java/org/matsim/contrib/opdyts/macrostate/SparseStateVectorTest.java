@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.macrostate;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import floetteroed.utilities.math.Vector;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class SparseStateVectorTest {
+
+	static final double eps = 1e-8;
+
+	@Test
+	public void test() {
+		final SparseStateVector x = SparseStateVector.fromDense(new Vector(0.0, 1.0, 0.0, 2.0));
+		assertEquals(4, x.size());
+		assertEquals(2, x.getNonZeroCnt());
+		assertEquals(2.0, x.get(3), eps);
+		assertEquals(0.0, x.get(2), eps);
+
+		final SparseStateVector.Builder builder = new SparseStateVector.Builder(3);
+		builder.add(0, 3.0);
+		builder.add(1, 0.0);
+		final SparseStateVector y = builder.build();
+
+		final Vector xy = SparseStateVector.concat(Arrays.asList(x, y)).toDense();
+		final Vector expected = new Vector(0.0, 1.0, 0.0, 2.0, 3.0, 0.0, 0.0);
+		assertEquals(expected.size(), xy.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i), xy.get(i), eps);
+		}
+	}
+
+	@Test
+	public void testReusedBuilder() {
+		final SparseStateVector.Builder builder = new SparseStateVector.Builder(40);
+		for (int i = 0; i < 40; i += 2) {
+			builder.add(i, i);
+		}
+		final SparseStateVector x = builder.build();
+		builder.clear();
+		builder.add(1, 5.0);
+		final SparseStateVector y = builder.build();
+
+		assertEquals(19, x.getNonZeroCnt());
+		assertEquals(38.0, x.get(38), 1e-8);
+		assertEquals(1, y.getNonZeroCnt());
+		assertEquals(5.0, y.get(1), 1e-8);
+		assertEquals(0.0, y.get(2), 1e-8);
+	}
+
+	@Test
+	public void testSum() {
+		final SparseStateVector x = SparseStateVector.fromDense(new Vector(0.0, 1.0, 0.0, 2.0, -1.0));
+		final SparseStateVector y = SparseStateVector.fromDense(new Vector(3.0, 0.0, 0.0, 1.0, 1.0));
+		final SparseStateVector z = SparseStateVector.fromDense(new Vector(0.0, 0.0, 4.0, 0.0, 0.0));
+		final SparseStateVector sum = SparseStateVector.sum(Arrays.asList(x, y, z));
+		final Vector expected = new Vector(3.0, 1.0, 4.0, 3.0, 0.0);
+		assertEquals(expected.size(), sum.size());
+		// cancelling entries are not stored
+		assertEquals(4, sum.getNonZeroCnt());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i), sum.get(i), eps);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOutOfOrder() {
+		final SparseStateVector.Builder builder = new SparseStateVector.Builder(3);
+		builder.add(1, 1.0);
+		builder.add(0, 1.0);
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.microstate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+
+import floetteroed.utilities.math.Vector;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class CompactPopulationSnapshotTest {
+
+	static final double eps = 1e-8;
+
+	@Test
+	public void test() {
+
+		final Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+
+		// person1 has two plans, of which the second one is selected
+		final Person person1 = population.getFactory().createPerson(Id.createPersonId("person1"));
+		person1.addPlan(PlanTestFixture.newPlan(population, person1, "home", "car", 1.0));
+		final Plan plan2ofPerson1 = PlanTestFixture.newPlan(population, person1, "home", "pt", 2.0);
+		person1.addPlan(plan2ofPerson1);
+		person1.setSelectedPlan(plan2ofPerson1);
+		population.addPerson(person1);
+
+		// person2 has no plans
+		final Person person2 = population.getFactory().createPerson(Id.createPersonId("person2"));
+		population.addPerson(person2);
+
+		final CompactPlanEncoder encoder = new CompactPlanEncoder();
+		final MATSimState state = new MATSimState(population, new Vector(1.0),
+				new CompactPopulationSnapshot(population, encoder));
+
+		// modify the population
+		person1.getPlans().clear();
+		person1.addPlan(PlanTestFixture.newPlan(population, person1, "other", "bike", 3.0));
+		person1.setSelectedPlan(person1.getPlans().get(0));
+		person2.addPlan(PlanTestFixture.newPlan(population, person2, "other", "walk", 4.0));
+		person2.setSelectedPlan(person2.getPlans().get(0));
+
+		// the snapshot is not affected by this
+		assertEquals(2, state.getPlansView(Id.createPersonId("person1")).size());
+		assertEquals("pt", ((Leg) state.getSelectedPlan(Id.createPersonId("person1")).getPlanElements().get(1))
+				.getMode());
+		assertEquals(0, state.getPlansView(Id.createPersonId("person2")).size());
+		assertNull(state.getSelectedPlan(Id.createPersonId("person2")));
+
+		// reset to the previous state, twice to check that restored plans are encoded
+		state.implementInSimulation();
+		new CompactPopulationSnapshot(population, encoder).implementInPopulation(population);
+
+		assertEquals(2, person1.getPlans().size());
+		assertEquals(1.0, person1.getPlans().get(0).getScore(), eps);
+		assertEquals(2.0, person1.getPlans().get(1).getScore(), eps);
+		assertEquals(person1.getPlans().get(1), person1.getSelectedPlan());
+
+		final Plan selected = person1.getSelectedPlan();
+		assertEquals(3, selected.getPlanElements().size());
+		assertEquals("home", ((Activity) selected.getPlanElements().get(0)).getType());
+		assertEquals(Id.createLinkId("1"), ((Activity) selected.getPlanElements().get(0)).getLinkId());
+		assertEquals(7 * 3600, ((Activity) selected.getPlanElements().get(0)).getEndTime(), eps);
+		assertEquals("pt", ((Leg) selected.getPlanElements().get(1)).getMode());
+		assertEquals(7 * 3600, ((Leg) selected.getPlanElements().get(1)).getDepartureTime(), eps);
+		assertEquals(600, ((Leg) selected.getPlanElements().get(1)).getTravelTime(), eps);
+		assertEquals("work", ((Activity) selected.getPlanElements().get(2)).getType());
+		assertEquals(7 * 3600 + 600, ((Activity) selected.getPlanElements().get(2)).getStartTime(), eps);
+
+		assertEquals(0, person2.getPlans().size());
+		assertNull(person2.getSelectedPlan());
+	}
+
+	@Test
+	public void testParallel() {
+
+		final Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		for (int i = 0; i < 100; i++) {
+			final Person person = population.getFactory().createPerson(Id.createPersonId("person" + i));
+			for (int j = 0; j < i % 3; j++) {
+				person.addPlan(PlanTestFixture.newPlan(population, person, "home", "mode" + j, (double) (i + j)));
+			}
+			population.addPerson(person);
+		}
+
+		final CompactPlanEncoder encoder = new CompactPlanEncoder();
+		final CompactPopulationSnapshot snapshot = new CompactPopulationSnapshot(population, encoder, 4);
+		final CompactPopulationSnapshot sequentialSnapshot = new CompactPopulationSnapshot(population,
+				new CompactPlanEncoder(), 1);
+		assertEquals(new ArrayList<>(population.getPersons().keySet()),
+				new ArrayList<>(snapshot.getPersonIdView()));
+		assertEquals(sequentialSnapshot.getTotalPlanCnt(), snapshot.getTotalPlanCnt());
+
+		for (Person person : population.getPersons().values()) {
+			person.getPlans().clear();
+			person.setSelectedPlan(null);
+		}
+		snapshot.implementInPopulation(population);
+
+		for (int i = 0; i < 100; i++) {
+			final Person person = population.getPersons().get(Id.createPersonId("person" + i));
+			assertEquals(i % 3, person.getPlans().size());
+			for (int j = 0; j < i % 3; j++) {
+				assertEquals(i + j, person.getPlans().get(j).getScore(), eps);
+				assertEquals("mode" + j, ((Leg) person.getPlans().get(j).getPlanElements().get(1)).getMode());
+			}
+		}
+
+		// the restored plans are registered and hence shared with the next snapshot
+		final CompactPopulationSnapshot nextSnapshot = new CompactPopulationSnapshot(population, encoder, 4);
+		for (int i = 0; i < 100; i++) {
+			for (int j = 0; j < i % 3; j++) {
+				assertSame(snapshot.getPlan(i, j), nextSnapshot.getPlan(i, j));
+			}
+		}
+	}
+
+	@Test
+	public void testAttributes() {
+
+		final Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		final Person person = population.getFactory().createPerson(Id.createPersonId("person"));
+		final Plan plan = PlanTestFixture.newPlan(population, person, "home", "car", 1.0);
+		plan.getAttributes().putAttribute("planAttribute", "planValue");
+		((Leg) plan.getPlanElements().get(1)).getAttributes().putAttribute("legAttribute", 42.0);
+		person.addPlan(plan);
+		person.setSelectedPlan(plan);
+		population.addPerson(person);
+
+		final CompactPopulationSnapshot snapshot = new CompactPopulationSnapshot(population,
+				new CompactPlanEncoder());
+		person.getPlans().clear();
+		person.setSelectedPlan(null);
+		snapshot.implementInPopulation(population);
+
+		final Plan restored = person.getSelectedPlan();
+		assertEquals(1.0, restored.getScore(), eps);
+		assertEquals("planValue", restored.getAttributes().getAttribute("planAttribute"));
+		assertEquals(42.0, ((Leg) restored.getPlanElements().get(1)).getAttributes().getAttribute("legAttribute"));
+	}
+
+	@Test
+	public void testInPlaceStructureChange() {
+
+		final Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		final Person person = population.getFactory().createPerson(Id.createPersonId("person"));
+		final Plan plan = PlanTestFixture.newPlan(population, person, "home", "car", 1.0);
+		person.addPlan(plan);
+		person.setSelectedPlan(plan);
+		population.addPerson(person);
+
+		final CompactPlanEncoder encoder = new CompactPlanEncoder();
+		final CompactPopulationSnapshot snapshot = new CompactPopulationSnapshot(population, encoder);
+
+		// an unchanged plan is shared, a plan with a modified mode is re-encoded
+		assertSame(snapshot.getPlan(0, 0), new CompactPopulationSnapshot(population, encoder).getPlan(0, 0));
+		((Leg) plan.getPlanElements().get(1)).setMode("bike");
+		final CompactPopulationSnapshot nextSnapshot = new CompactPopulationSnapshot(population, encoder);
+		assertNotSame(snapshot.getPlan(0, 0), nextSnapshot.getPlan(0, 0));
+		assertEquals("bike", ((Leg) nextSnapshot.getSelectedPlan(Id.createPersonId("person")).getPlanElements()
+				.get(1)).getMode());
+	}
+}
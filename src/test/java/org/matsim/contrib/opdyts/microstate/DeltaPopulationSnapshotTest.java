@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.microstate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class DeltaPopulationSnapshotTest {
+
+	static final double eps = 1e-8;
+
+	@Test
+	public void test() {
+
+		final Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		for (int i = 0; i < 10; i++) {
+			final Person person = population.getFactory().createPerson(Id.createPersonId(i));
+			final Plan plan = PlanTestFixture.newPlan(population, person, "car", (double) i);
+			plan.setType("initial");
+			person.addPlan(plan);
+			person.setSelectedPlan(person.getPlans().get(0));
+			population.addPerson(person);
+		}
+
+		final DeltaPopulationSnapshotSequence sequence = new DeltaPopulationSnapshotSequence(
+				new CompactPlanEncoder(), 3);
+		final PopulationSnapshot keyframe = sequence.newSnapshot(population);
+		assertTrue(keyframe instanceof CompactPopulationSnapshot);
+
+		// person 0 gets a new selected plan, person 1 a new score
+		final Person person0 = population.getPersons().get(Id.createPersonId(0));
+		final Plan newPlan = PlanTestFixture.newPlan(population, person0, "car", 100.0);
+		newPlan.setType("new");
+		person0.addPlan(newPlan);
+		person0.setSelectedPlan(person0.getPlans().get(1));
+		population.getPersons().get(Id.createPersonId(1)).getSelectedPlan().setScore(101.0);
+
+		final PopulationSnapshot delta = sequence.newSnapshot(population);
+		assertTrue(delta instanceof DeltaPopulationSnapshot);
+		assertEquals(1, ((DeltaPopulationSnapshot) delta).getChangedPlansPersonCnt());
+		assertEquals(1, ((DeltaPopulationSnapshot) delta).getChangedSelectionPersonCnt());
+		// only the score of person 1; person 0 has a changed plan list
+		assertEquals(1, ((DeltaPopulationSnapshot) delta).getChangedScoreCnt());
+		assertEquals(2, delta.getPlansView(Id.createPersonId(0)).size());
+		assertEquals("new", delta.getSelectedPlan(Id.createPersonId(0)).getType());
+		assertEquals(101.0, delta.getSelectedPlan(Id.createPersonId(1)).getScore(), eps);
+		assertEquals(2.0, delta.getSelectedPlan(Id.createPersonId(2)).getScore(), eps);
+
+		// the keyframe is not affected by the delta
+		assertEquals(1, keyframe.getPlansView(Id.createPersonId(0)).size());
+		assertEquals(1.0, keyframe.getSelectedPlan(Id.createPersonId(1)).getScore(), eps);
+
+		// restoring the keyframe and then the delta
+		keyframe.implementInPopulation(population);
+		assertEquals(1, person0.getPlans().size());
+		assertEquals("initial", person0.getSelectedPlan().getType());
+		delta.implementInPopulation(population);
+		assertEquals(2, person0.getPlans().size());
+		assertEquals("new", person0.getSelectedPlan().getType());
+		assertEquals(100.0, person0.getSelectedPlan().getScore(), eps);
+
+		// the third snapshot is again a delta, the fourth one a keyframe
+		assertTrue(sequence.newSnapshot(population) instanceof DeltaPopulationSnapshot);
+		assertTrue(sequence.newSnapshot(population) instanceof CompactPopulationSnapshot);
+	}
+}
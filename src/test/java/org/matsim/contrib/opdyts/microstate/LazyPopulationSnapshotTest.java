@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.microstate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+
+import floetteroed.utilities.math.Vector;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class LazyPopulationSnapshotTest {
+
+	static final double eps = 1e-8;
+
+	private static Population newPopulation() {
+		final Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		final Person person = population.getFactory().createPerson(Id.createPersonId("person"));
+		person.addPlan(PlanTestFixture.newPlan(population, person, "car", 1.0));
+		person.addPlan(PlanTestFixture.newPlan(population, person, "pt", 2.0));
+		person.setSelectedPlan(person.getPlans().get(1));
+		population.addPerson(person);
+		return population;
+	}
+
+	private static void replan(final Population population) {
+		final Person person = population.getPersons().get(Id.createPersonId("person"));
+		person.getPlans().clear();
+		person.addPlan(PlanTestFixture.newPlan(population, person, "bike", 3.0));
+		person.setSelectedPlan(person.getPlans().get(0));
+	}
+
+	@Test
+	public void testReadsFromUnchangedPopulation() {
+		final Population population = newPopulation();
+		final LazyPopulationSnapshot snapshot = new LazyPopulationSnapshot(population,
+				() -> new DeepCopyPopulationSnapshot(population));
+		final MATSimState state = new MATSimState(population, new Vector(1.0), snapshot);
+
+		assertFalse(snapshot.isMaterialized());
+		assertEquals(1, state.getPersonIdView().size());
+		assertEquals(2, state.getPlansView(Id.createPersonId("person")).size());
+		assertEquals("pt", ((Leg) state.getSelectedPlan(Id.createPersonId("person")).getPlanElements().get(1))
+				.getMode());
+
+		// nothing to restore
+		state.implementInSimulation();
+		assertEquals(2, population.getPersons().get(Id.createPersonId("person")).getPlans().size());
+		assertFalse(snapshot.isMaterialized());
+	}
+
+	@Test
+	public void testMaterializedSnapshotSurvivesReplanning() {
+		final Population population = newPopulation();
+		final LazyPopulationSnapshot snapshot = new LazyPopulationSnapshot(population,
+				() -> new DeepCopyPopulationSnapshot(population));
+		final MATSimState state = new MATSimState(population, new Vector(1.0), snapshot);
+
+		state.materialize();
+		assertTrue(snapshot.isMaterialized());
+		snapshot.invalidate();
+		replan(population);
+
+		assertEquals(2, state.getPlansView(Id.createPersonId("person")).size());
+		state.implementInSimulation();
+		final Person person = population.getPersons().get(Id.createPersonId("person"));
+		assertEquals(2, person.getPlans().size());
+		assertEquals(2.0, person.getSelectedPlan().getScore(), eps);
+		assertEquals("pt", ((Leg) person.getSelectedPlan().getPlanElements().get(1)).getMode());
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testInvalidatedSnapshotCannotBeImplemented() {
+		final Population population = newPopulation();
+		final LazyPopulationSnapshot snapshot = new LazyPopulationSnapshot(population,
+				() -> new DeepCopyPopulationSnapshot(population));
+		snapshot.invalidate();
+		replan(population);
+		snapshot.implementInPopulation(population);
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testInvalidatedSnapshotCannotBeMaterialized() {
+		final Population population = newPopulation();
+		final LazyPopulationSnapshot snapshot = new LazyPopulationSnapshot(population,
+				() -> new DeepCopyPopulationSnapshot(population));
+		snapshot.invalidate();
+		snapshot.materialize();
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.microstate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class MappedPopulationSnapshotTest {
+
+	static final double eps = 1e-8;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void test() throws Exception {
+
+		final Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		final Person person1 = population.getFactory().createPerson(Id.createPersonId("person1"));
+		person1.addPlan(PlanTestFixture.newPlan(population, person1, "car", 1.0));
+		person1.addPlan(PlanTestFixture.newPlan(population, person1, "bike", null));
+		person1.setSelectedPlan(person1.getPlans().get(1));
+		population.addPerson(person1);
+		final Person person2 = population.getFactory().createPerson(Id.createPersonId("person2"));
+		population.addPerson(person2);
+
+		// at most one mapped file, such that the second snapshot evicts the first one
+		final MappedSnapshotStore store = new MappedSnapshotStore(folder.getRoot().getPath(), 1);
+		final CompactPlanEncoder encoder = new CompactPlanEncoder();
+		final MappedPopulationSnapshot snapshot1 = new MappedPopulationSnapshot(population, encoder, store);
+
+		person1.getPlans().clear();
+		person1.setSelectedPlan(null);
+		final MappedPopulationSnapshot snapshot2 = new MappedPopulationSnapshot(population, encoder, store);
+		assertEquals(0, snapshot2.getPlansView(Id.createPersonId("person1")).size());
+
+		snapshot1.implementInPopulation(population);
+		assertEquals(2, person1.getPlans().size());
+		assertEquals(1.0, person1.getPlans().get(0).getScore(), eps);
+		assertNull(person1.getPlans().get(1).getScore());
+		assertEquals(person1.getPlans().get(1), person1.getSelectedPlan());
+
+		final Leg leg = (Leg) person1.getSelectedPlan().getPlanElements().get(1);
+		assertEquals("bike", leg.getMode());
+		assertEquals(Arrays.asList(Id.createLinkId("2")), ((NetworkRoute) leg.getRoute()).getLinkIds());
+		assertEquals(Id.createLinkId("3"), leg.getRoute().getEndLinkId());
+		assertEquals(7 * 3600, ((Activity) person1.getSelectedPlan().getPlanElements().get(0)).getEndTime(), eps);
+
+		assertEquals(0, person2.getPlans().size());
+		assertNull(snapshot1.getSelectedPlan(Id.createPersonId("person2")));
+	}
+}
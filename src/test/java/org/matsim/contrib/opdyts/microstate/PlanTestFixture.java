@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.microstate;
+
+import java.util.Arrays;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.population.routes.NetworkRoute;
+
+/**
+ * Home-work plans for the population snapshot tests.
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+class PlanTestFixture {
+
+	/**
+	 * A plan from a home activity on link 1 to a work activity on link 3,
+	 * departing at 7am with the given mode along a network route via link 2.
+	 */
+	static Plan newPlan(final Population population, final Person person, final String homeType,
+			final String mode, final Double score) {
+		final Plan plan = population.getFactory().createPlan();
+		plan.setPerson(person);
+		final Activity home = population.getFactory().createActivityFromLinkId(homeType, Id.createLinkId("1"));
+		home.setEndTime(7 * 3600);
+		plan.addActivity(home);
+		final Leg leg = population.getFactory().createLeg(mode);
+		leg.setDepartureTime(7 * 3600);
+		leg.setTravelTime(600);
+		final NetworkRoute route = population.getFactory().getRouteFactories().createRoute(NetworkRoute.class,
+				Id.createLinkId("1"), Id.createLinkId("3"));
+		route.setLinkIds(Id.createLinkId("1"), Arrays.asList(Id.createLinkId("2")), Id.createLinkId("3"));
+		leg.setRoute(route);
+		plan.addLeg(leg);
+		final Activity work = population.getFactory().createActivityFromLinkId("work", Id.createLinkId("3"));
+		work.setStartTime(7 * 3600 + 600);
+		plan.addActivity(work);
+		plan.setScore(score);
+		return plan;
+	}
+
+	static Plan newPlan(final Population population, final Person person, final String mode, final Double score) {
+		return newPlan(population, person, "home", mode, score);
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.microstate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.contrib.opdyts.OpdytsConfigGroup;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+
+import floetteroed.opdyts.DecisionVariable;
+import floetteroed.utilities.math.Vector;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class PopulationAggregatorTest {
+
+	static final double eps = 1e-8;
+
+	static class PersonIds {
+		final List<String> ids = new ArrayList<>();
+	}
+
+	static class ScoreSum {
+		double sum = 0.0;
+	}
+
+	static class PersonIdAggregator implements PopulationAggregator<PersonIds> {
+
+		@Override
+		public Class<PersonIds> getComponentType() {
+			return PersonIds.class;
+		}
+
+		@Override
+		public PersonIds newComponent() {
+			return new PersonIds();
+		}
+
+		@Override
+		public void add(final PersonIds component, final Person person) {
+			component.ids.add(person.getId().toString());
+		}
+
+		@Override
+		public void merge(final PersonIds target, final PersonIds source) {
+			target.ids.addAll(source.ids);
+		}
+	}
+
+	static class ScoreSumAggregator implements PopulationAggregator<ScoreSum> {
+
+		@Override
+		public Class<ScoreSum> getComponentType() {
+			return ScoreSum.class;
+		}
+
+		@Override
+		public ScoreSum newComponent() {
+			return new ScoreSum();
+		}
+
+		@Override
+		public void add(final ScoreSum component, final Person person) {
+			if (person.getSelectedPlan() != null) {
+				component.sum += person.getSelectedPlan().getScore();
+			}
+		}
+
+		@Override
+		public void merge(final ScoreSum target, final ScoreSum source) {
+			target.sum += source.sum;
+		}
+	}
+
+	private static Population newPopulation(final int personCnt) {
+		final Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		for (int i = 0; i < personCnt; i++) {
+			final Person person = population.getFactory().createPerson(Id.createPersonId("person" + i));
+			if (i % 3 != 0) { // every third person has no plans
+				final Plan plan = population.getFactory().createPlan();
+				plan.setScore((double) i);
+				person.addPlan(plan);
+				person.setSelectedPlan(plan);
+			}
+			population.addPerson(person);
+		}
+		return population;
+	}
+
+	private static MATSimStateFactoryImpl<DecisionVariable, MATSimState> newFactory(final int threadCnt) {
+		final Config config = ConfigUtils.createConfig();
+		ConfigUtils.addOrGetModule(config, OpdytsConfigGroup.class).setMicroStateThreads(threadCnt);
+		final MATSimStateFactoryImpl<DecisionVariable, MATSimState> factory = new MATSimStateFactoryImpl<>();
+		factory.setConfig(config);
+		return factory;
+	}
+
+	@Test
+	public void testComponentsDoNotDependOnThreadCount() {
+		final Population population = newPopulation(10);
+		double expectedScoreSum = 0.0;
+		final List<String> expectedIds = new ArrayList<>();
+		for (Person person : population.getPersons().values()) {
+			expectedIds.add(person.getId().toString());
+			if (person.getSelectedPlan() != null) {
+				expectedScoreSum += person.getSelectedPlan().getScore();
+			}
+		}
+
+		for (int threadCnt : new int[] { 1, 3, 20 }) {
+			final MATSimStateFactoryImpl<DecisionVariable, MATSimState> factory = newFactory(threadCnt);
+			factory.addPopulationAggregator(new PersonIdAggregator());
+			factory.addPopulationAggregator(new ScoreSumAggregator());
+			final MATSimState state = factory.newState(population, new Vector(1.0), null);
+			assertEquals(expectedIds, state.getComponent(PersonIds.class).ids);
+			assertEquals(expectedScoreSum, state.getComponent(ScoreSum.class).sum, eps);
+		}
+	}
+
+	@Test
+	public void testOneAggregatorPerComponentType() {
+		final Population population = newPopulation(4);
+		final MATSimStateFactoryImpl<DecisionVariable, MATSimState> factory = newFactory(2);
+		factory.addPopulationAggregator(new PersonIdAggregator());
+		factory.addPopulationAggregator(new PersonIdAggregator());
+		final MATSimState state = factory.newState(population, new Vector(1.0), null);
+		assertEquals(4, state.getComponent(PersonIds.class).ids.size());
+		assertNull(state.getComponent(ScoreSum.class));
+	}
+}
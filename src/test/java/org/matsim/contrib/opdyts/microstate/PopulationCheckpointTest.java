@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.microstate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class PopulationCheckpointTest {
+
+	static final double eps = 1e-8;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Population newPopulation() {
+		final Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		population.addPerson(population.getFactory().createPerson(Id.createPersonId("person1")));
+		population.addPerson(population.getFactory().createPerson(Id.createPersonId("person2")));
+		return population;
+	}
+
+	@Test
+	public void test() throws Exception {
+
+		final Population population = newPopulation();
+		final Person person1 = population.getPersons().get(Id.createPersonId("person1"));
+		person1.addPlan(PlanTestFixture.newPlan(population, person1, "car", 1.0));
+		person1.addPlan(PlanTestFixture.newPlan(population, person1, "bike", null));
+		person1.setSelectedPlan(person1.getPlans().get(1));
+
+		final File file = new File(folder.getRoot(), "population.bin");
+		PopulationCheckpoint.write(population, file);
+
+		final Population restored = newPopulation();
+		PopulationCheckpoint.read(file, restored);
+
+		final Person restored1 = restored.getPersons().get(Id.createPersonId("person1"));
+		assertEquals(2, restored1.getPlans().size());
+		assertEquals(1.0, restored1.getPlans().get(0).getScore(), eps);
+		assertNull(restored1.getPlans().get(1).getScore());
+		assertEquals(restored1.getPlans().get(1), restored1.getSelectedPlan());
+		final Leg leg = (Leg) restored1.getSelectedPlan().getPlanElements().get(1);
+		assertEquals("bike", leg.getMode());
+		assertEquals(Arrays.asList(Id.createLinkId("2")), ((NetworkRoute) leg.getRoute()).getLinkIds());
+
+		assertEquals(0, restored.getPersons().get(Id.createPersonId("person2")).getPlans().size());
+		assertNull(restored.getPersons().get(Id.createPersonId("person2")).getSelectedPlan());
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018 Gunnar Flötteröd
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * contact: gunnar.flotterod@gmail.com
+ *
+ */
+package org.matsim.contrib.opdyts.objectivefunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.matsim.contrib.opdyts.microstate.MATSimState;
+
+/**
+ *
+ * @author Gunnar Flötteröd
+ *
+ */
+public class ParallelMATSimObjectiveFunctionSumTest {
+
+	@Test
+	public void testSameResultAsSequentialSum() {
+		final MATSimObjectiveFunctionSum<MATSimState> sequentialSum = new MATSimObjectiveFunctionSum<>();
+		final ParallelMATSimObjectiveFunctionSum<MATSimState> parallelSum = new ParallelMATSimObjectiveFunctionSum<>(3);
+
+		final Random rnd = new Random(4711);
+		for (int i = 0; i < 20; i++) {
+			// values of very different magnitude, such that the summation order matters
+			final double value = Math.pow(10.0, rnd.nextInt(30) - 15) * rnd.nextDouble();
+			final double weight = rnd.nextDouble();
+			final long sleep_ms = rnd.nextInt(5);
+			final MATSimObjectiveFunction<MATSimState> objectiveFunction = state -> {
+				try {
+					Thread.sleep(sleep_ms);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				return value;
+			};
+			sequentialSum.add(objectiveFunction, weight);
+			parallelSum.add(objectiveFunction, weight);
+		}
+
+		for (int repetition = 0; repetition < 5; repetition++) {
+			assertEquals(sequentialSum.value(null), parallelSum.value(null), 0.0);
+		}
+	}
+
+	@Test
+	public void testIdleThreadsTerminate() throws InterruptedException {
+		final ParallelMATSimObjectiveFunctionSum<MATSimState> parallelSum = new ParallelMATSimObjectiveFunctionSum<>(2,
+				500);
+		for (int i = 0; i < 3; i++) {
+			parallelSum.add(state -> 1.0, 1.0);
+		}
+		assertEquals(3.0, parallelSum.value(null), 0.0);
+		assertEquals(2, parallelSum.getThreadCnt());
+
+		final long end_ms = System.currentTimeMillis() + 10 * 1000;
+		while (parallelSum.getThreadCnt() > 0 && System.currentTimeMillis() < end_ms) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, parallelSum.getThreadCnt());
+
+		// new threads are started for the next evaluation
+		assertEquals(3.0, parallelSum.value(null), 0.0);
+	}
+
+	@Test
+	public void testFailureCancelsOtherSummands() throws InterruptedException {
+		final ParallelMATSimObjectiveFunctionSum<MATSimState> parallelSum = new ParallelMATSimObjectiveFunctionSum<>(2);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		parallelSum.add(state -> 1.0, 1.0);
+		// fails only once the last summand is running
+		parallelSum.add(state -> {
+			try {
+				started.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			throw new RuntimeException("summand 1 fails");
+		}, 1.0);
+		parallelSum.add(state -> {
+			started.countDown();
+			try {
+				Thread.sleep(60 * 1000);
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+			return 1.0;
+		}, 1.0);
+		try {
+			parallelSum.value(null);
+			fail("failing summand not reported");
+		} catch (RuntimeException e) {
+			assertEquals("summand 1 fails", e.getCause().getMessage());
+		}
+		assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testInterruptionIsRestored() {
+		final ParallelMATSimObjectiveFunctionSum<MATSimState> parallelSum = new ParallelMATSimObjectiveFunctionSum<>(1);
+		parallelSum.add(state -> 1.0, 1.0);
+		parallelSum.add(state -> {
+			try {
+				Thread.sleep(60 * 1000);
+			} catch (InterruptedException e) {
+			}
+			return 1.0;
+		}, 1.0);
+		Thread.currentThread().interrupt();
+		try {
+			parallelSum.value(null);
+			fail("interruption not reported");
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof InterruptedException);
+		}
+		// clears the flag, such that it does not leak into other tests
+		assertTrue(Thread.interrupted());
+	}
+}